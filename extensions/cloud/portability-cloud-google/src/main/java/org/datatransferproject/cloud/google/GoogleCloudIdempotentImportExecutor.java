@@ -11,20 +11,49 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
+import org.datatransferproject.spi.transfer.idempotentexecutor.SingleFlight;
 import org.datatransferproject.types.transfer.errors.ErrorDetail;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.String.format;
 
+/**
+ * A {@link IdempotentImportExecutor} that persists known values and errors in Datastore.
+ *
+ * <p>Writes are buffered and committed in batches instead of one transaction per item: a batch is
+ * committed once {@link #MAX_PENDING_WRITES} writes are pending, at the latest {@link
+ * #FLUSH_INTERVAL_MILLIS} after a write, and whenever {@link #flush()} is called. Since the copier
+ * flushes before a page is reported as imported, a crashed worker only loses the results of the
+ * page it was importing, and that page is imported again when the job is resumed.
+ *
+ * <p>Batches are plain puts and deletes rather than transactions, as each item is an entity group
+ * of its own. A batch isn't atomic, which is fine since its writes are idempotent and retried until
+ * they succeed. The only inconsistency a crash can leave behind, the error of an item next to its
+ * result, is resolved when the job is loaded.
+ *
+ * <p>The executor can be used from several threads, concurrent calls for the same idempotent id
+ * execute the callable only once.
+ */
 public class GoogleCloudIdempotentImportExecutor implements IdempotentImportExecutor {
 
   private static final String IDEMPOTENT_RESULTS_KIND = "IdempotentResults";
@@ -35,15 +64,37 @@ public class GoogleCloudIdempotentImportExecutor implements IdempotentImportExec
   private static final String IDEMPOTENT_ID_FIELD = "idempotent_id";
   private static final String ERROR_FIELD = "error_details";
 
+  // The most mutations Datastore accepts in a single commit
+  private static final int MAX_PENDING_WRITES = 500;
+  private static final long FLUSH_INTERVAL_MILLIS = 2000;
+
   private final Datastore datastore;
   private final Monitor monitor;
+  // Runs the periodic flushes of all executors, a flush only takes a single request
+  private static final ScheduledExecutorService FLUSH_EXECUTOR =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("idempotent-executor-flush-%d")
+              .setDaemon(true)
+              .build());
+
   private final ObjectMapper objectMapper;
+  private final ScheduledFuture<?> scheduledFlush;
+
+  // Entities to write and keys to delete on the next flush, guarded by pendingLock
+  private final Object pendingLock = new Object();
+  private final Map<Key, Entity> pendingPuts = new LinkedHashMap<>();
+  private final Set<Key> pendingDeletes = new LinkedHashSet<>();
+  // Held while committing, so batches are committed in the order they were written
+  private final Object flushLock = new Object();
+
+  private final SingleFlight inFlightCalls = new SingleFlight();
 
   // These are all variables corresponding to the job state. Only initialized when setJobId() is called
-  private Map<String, Serializable> knownValues;
-  private Map<String, ErrorDetail> errors;
-  private UUID jobId;
-  private String jobIdPrefix;
+  private volatile Map<String, Serializable> knownValues;
+  private volatile Map<String, ErrorDetail> errors;
+  private volatile UUID jobId;
+  private volatile String jobIdPrefix;
 
   public GoogleCloudIdempotentImportExecutor(Datastore datastore, Monitor monitor) {
     this.datastore = datastore;
@@ -51,6 +102,9 @@ public class GoogleCloudIdempotentImportExecutor implements IdempotentImportExec
     this.objectMapper = new ObjectMapper();
     this.objectMapper.registerModule(new JavaTimeModule());
     this.objectMapper.registerSubtypes(ErrorDetail.class);
+    this.scheduledFlush =
+        FLUSH_EXECUTOR.scheduleWithFixedDelay(
+            this::flushQuietly, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
   }
 
   @Override
@@ -76,7 +130,15 @@ public class GoogleCloudIdempotentImportExecutor implements IdempotentImportExec
                   + format("Using cached key %s from cache for %s", idempotentId, itemName));
       return (T) knownValues.get(idempotentId);
     }
+    return inFlightCalls.execute(idempotentId, () -> executeOnce(idempotentId, itemName, callable));
+  }
 
+  private <T extends Serializable> T executeOnce(
+      String idempotentId, String itemName, Callable<T> callable) throws Exception {
+    // Another caller may have stored the result since it was last checked
+    if (knownValues.containsKey(idempotentId)) {
+      return (T) knownValues.get(idempotentId);
+    }
     try {
       T result = callable.call();
       monitor.debug(
@@ -99,30 +161,106 @@ public class GoogleCloudIdempotentImportExecutor implements IdempotentImportExec
   private <T extends Serializable> void addResult(String idempotentId, T result)
       throws IOException {
     knownValues.put(idempotentId, result);
-
-    try {
-      Transaction transaction = datastore.newTransaction();
-
-      transaction.put(createResultEntity(idempotentId, result));
+    Entity entity = createResultEntity(idempotentId, result);
+    boolean batchFull;
+    synchronized (pendingLock) {
+      pendingPuts.put(entity.getKey(), entity);
       if (errors.containsKey(idempotentId)) {
-        // if the errors contain this key, that means the ID
-        transaction.delete(getErrorKey(idempotentId, jobId));
+        // The item failed before, its error is either still pending or has to be deleted
+        Key errorKey = getErrorKey(idempotentId, jobId);
+        pendingPuts.remove(errorKey);
+        pendingDeletes.add(errorKey);
         errors.remove(idempotentId);
       }
-      transaction.commit();
-    } catch (DatastoreException e) {
-      monitor.severe(() -> jobIdPrefix + "Error writing result to datastore: " + e);
+      batchFull = pendingPuts.size() + pendingDeletes.size() >= MAX_PENDING_WRITES;
+    }
+    if (batchFull) {
+      flushQuietly();
     }
   }
 
   private void addError(String idempotentId, ErrorDetail errorDetail) throws IOException {
     errors.put(idempotentId, errorDetail);
+    Entity entity = createErrorEntity(idempotentId, errorDetail);
+    boolean batchFull;
+    synchronized (pendingLock) {
+      pendingDeletes.remove(entity.getKey());
+      pendingPuts.put(entity.getKey(), entity);
+      batchFull = pendingPuts.size() + pendingDeletes.size() >= MAX_PENDING_WRITES;
+    }
+    if (batchFull) {
+      flushQuietly();
+    }
+  }
+
+  /**
+   * Commits all pending writes. Writes that couldn't be committed stay pending and are retried on
+   * the next flush.
+   */
+  @Override
+  public void flush() throws IOException {
+    synchronized (flushLock) {
+      List<Entity> puts;
+      List<Key> deletes;
+      synchronized (pendingLock) {
+        puts = new ArrayList<>(pendingPuts.values());
+        deletes = new ArrayList<>(pendingDeletes);
+        pendingPuts.clear();
+        pendingDeletes.clear();
+      }
+      // Results are written before the errors they replace are deleted, so an item that succeeded
+      // is never left without either
+      int putIndex = 0;
+      int deleteIndex = 0;
+      try {
+        while (putIndex < puts.size()) {
+          List<Entity> putBatch =
+              puts.subList(putIndex, Math.min(puts.size(), putIndex + MAX_PENDING_WRITES));
+          datastore.put(putBatch.toArray(new Entity[0]));
+          putIndex += putBatch.size();
+        }
+        while (deleteIndex < deletes.size()) {
+          List<Key> deleteBatch =
+              deletes.subList(
+                  deleteIndex, Math.min(deletes.size(), deleteIndex + MAX_PENDING_WRITES));
+          datastore.delete(deleteBatch.toArray(new Key[0]));
+          deleteIndex += deleteBatch.size();
+        }
+      } catch (DatastoreException e) {
+        requeue(puts.subList(putIndex, puts.size()), deletes.subList(deleteIndex, deletes.size()));
+        throw new IOException(jobIdPrefix + "Error writing results to datastore", e);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    scheduledFlush.cancel(false);
+    flush();
+  }
+
+  /** Makes uncommitted writes pending again, unless they were superseded in the meantime. */
+  private void requeue(List<Entity> puts, List<Key> deletes) {
+    synchronized (pendingLock) {
+      for (Entity entity : puts) {
+        if (!pendingPuts.containsKey(entity.getKey())
+            && !pendingDeletes.contains(entity.getKey())) {
+          pendingPuts.put(entity.getKey(), entity);
+        }
+      }
+      for (Key key : deletes) {
+        if (!pendingPuts.containsKey(key)) {
+          pendingDeletes.add(key);
+        }
+      }
+    }
+  }
+
+  private void flushQuietly() {
     try {
-      Transaction transaction = datastore.newTransaction();
-      transaction.put(createErrorEntity(idempotentId, errorDetail));
-      transaction.commit();
-    } catch (DatastoreException e) {
-      monitor.severe(() -> jobIdPrefix + "Error writing ErrorDetails to datastore: " + e);
+      flush();
+    } catch (IOException e) {
+      monitor.severe(() -> jobIdPrefix + "Error flushing idempotent executor: " + e);
     }
   }
 
@@ -145,18 +283,31 @@ public class GoogleCloudIdempotentImportExecutor implements IdempotentImportExec
 
   @Override
   public Collection<ErrorDetail> getErrors() {
-    return ImmutableList.copyOf(errors.values());
+    Map<String, ErrorDetail> errors = this.errors;
+    if (errors == null) {
+      // No job was set yet
+      return ImmutableList.of();
+    }
+    synchronized (errors) {
+      return ImmutableList.copyOf(errors.values());
+    }
   }
 
   // In non-tests setJobId is only ever called once per executor, so the initialization of
   // knownValues and errors only happens once
   @Override
-  public void setJobId(UUID jobId) {
+  public synchronized void setJobId(UUID jobId) {
     Preconditions.checkNotNull(jobId);
+    // Pending writes have to be committed before they can be read back
+    flushQuietly();
+    Map<String, Serializable> knownValues = getKnownValuesForJob(jobId);
+    Map<String, ErrorDetail> errors = getErrorDetailsForJob(jobId);
+    // Results and error deletions may have been committed in separate batches before a crash
+    errors.keySet().removeAll(knownValues.keySet());
+    this.knownValues = Collections.synchronizedMap(knownValues);
+    this.errors = Collections.synchronizedMap(errors);
+    this.jobIdPrefix = "Job " + jobId + ": ";
     this.jobId = jobId;
-    this.knownValues = getKnownValuesForJob(jobId);
-    this.errors = getErrorDetailsForJob(jobId);
-    jobIdPrefix = "Job " + jobId + ": ";
   }
 
   private Map<String, Serializable> getKnownValuesForJob(UUID jobId) {
@@ -18,37 +18,54 @@ package org.datatransferproject.cloud.google;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.cloud.Timestamp;
 import com.google.cloud.datastore.Blob;
+import com.google.cloud.datastore.BlobValue;
 import com.google.cloud.datastore.BooleanValue;
 import com.google.cloud.datastore.Datastore;
 import com.google.cloud.datastore.DatastoreException;
 import com.google.cloud.datastore.DoubleValue;
 import com.google.cloud.datastore.Entity;
 import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.KeyQuery;
 import com.google.cloud.datastore.LongValue;
 import com.google.cloud.datastore.PathElement;
+import com.google.cloud.datastore.ProjectionEntity;
 import com.google.cloud.datastore.Query;
 import com.google.cloud.datastore.QueryResults;
 import com.google.cloud.datastore.StringValue;
+import com.google.cloud.datastore.StructuredQuery.OrderBy;
 import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
 import com.google.cloud.datastore.TimestampValue;
 import com.google.cloud.datastore.Transaction;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
 import org.datatransferproject.spi.cloud.storage.JobStore;
 import org.datatransferproject.spi.cloud.storage.JobStoreWithValidator;
 import org.datatransferproject.spi.cloud.types.JobAuthorization;
 import org.datatransferproject.spi.cloud.types.PortabilityJob;
+import org.datatransferproject.spi.cloud.types.PortabilityJobCodec;
+import org.datatransferproject.spi.transfer.types.FailureReasons;
+import org.datatransferproject.types.common.PortableType;
 import org.datatransferproject.types.common.models.DataModel;
 import org.datatransferproject.types.transfer.errors.ErrorDetail;
 
@@ -59,16 +76,51 @@ public final class GoogleJobStore extends JobStoreWithValidator {
   private static final String JOB_KIND = "persistentKey";
   private static final String ERROR_KIND = "error";
   private static final String COUNTS_KIND = "counts";
+  private static final String BYTES_KIND = "bytes";
+  private static final String LEASE_KIND = "lease";
   private static final String CREATED_FIELD = "created";
+  private static final String KEY_PROPERTY_NAME = "__key__";
   private static final String LAST_UPDATE_FIELD = "lastUpdated";
   // Field name for entities to store generic json data.
   private static final String JSON_DATA_FIELD = "jsonData";
   private static final String COUNTS_FIELD = "count";
+  private static final String COUNTS_DATA_TYPE_FIELD = "dataType";
+  // Counters are split in shards, so concurrent updates of a job's counts rarely conflict
+  private static final int COUNTER_SHARDS = 8;
+  private static final String LEASE_INSTANCE_ID_FIELD = "instanceId";
+  private static final String LEASE_EXPIRES_FIELD = "expires";
+  // The job encoded by PortabilityJobCodec, and its version, incremented on every write
+  private static final String JOB_DATA_FIELD = "jobData";
+  private static final String JOB_VERSION_FIELD = "version";
+  // Decoded jobs kept to skip decoding jobs that didn't change since they were last read
+  private static final int MAX_DECODED_JOBS = 1000;
+  // The only property of jobs stored with Java serialization is their ExportInformation, made of
+  // portable types as deserialized from an API request and the JDK classes they hold
+  private static final ImmutableSet<String> LEGACY_JDK_CLASSES =
+      ImmutableSet.of(
+          "java.lang.Boolean",
+          "java.lang.Double",
+          "java.lang.Enum",
+          "java.lang.Integer",
+          "java.lang.Long",
+          "java.lang.Number",
+          "java.lang.String",
+          "java.time.Ser",
+          "java.util.ArrayList",
+          "java.util.Date",
+          "java.util.HashMap",
+          "java.util.HashSet",
+          "java.util.LinkedHashMap");
+  // Expired leases reclaimed per call of requeueExpiredJobLeases
+  private static final int MAX_REQUEUED_JOBS = 50;
 
   private final Datastore datastore;
   // TODO: refactor googleTempFileStore into separate interface
   private final GoogleTempFileStore googleTempFileStore;
   private final ObjectMapper objectMapper;
+  private final PortabilityJobCodec jobCodec;
+  private final Cache<UUID, DecodedJob> decodedJobs =
+      CacheBuilder.newBuilder().maximumSize(MAX_DECODED_JOBS).build();
 
   @Inject
   public GoogleJobStore(
@@ -76,6 +128,7 @@ public final class GoogleJobStore extends JobStoreWithValidator {
     this.datastore = datastore;
     this.googleTempFileStore = googleTempFileStore;
     this.objectMapper = objectMapper;
+    this.jobCodec = new PortabilityJobCodec(objectMapper);
   }
 
   @VisibleForTesting
@@ -105,7 +158,7 @@ public final class GoogleJobStore extends JobStoreWithValidator {
       } else {
         Blob blob = entity.getBlob(property);
         Object obj = null;
-        try (ObjectInputStream in = new ObjectInputStream(blob.asInputStream())) {
+        try (ObjectInputStream in = new LegacyObjectInputStream(blob.asInputStream())) {
           obj = in.readObject();
         }
         builder.put(property, obj); // BlobValue
@@ -133,7 +186,7 @@ public final class GoogleJobStore extends JobStoreWithValidator {
       throw new IOException(
           "Record already exists for jobID: " + jobId + ". Record: " + shouldNotExist);
     }
-    Entity entity = createNewEntity(jobId, job.toMap());
+    Entity entity = createJobEntity(getJobKey(jobId), job, Timestamp.now(), 1);
     try {
       transaction.put(entity);
     } catch (DatastoreException e) {
@@ -164,6 +217,16 @@ public final class GoogleJobStore extends JobStoreWithValidator {
   @Override
   protected void updateJob(UUID jobId, PortabilityJob job, JobUpdateValidator validator)
       throws IOException {
+    updateJob(jobId, job, validator, null);
+  }
+
+  /**
+   * Updates the job like {@link #updateJob(UUID, PortabilityJob, JobUpdateValidator)}, and puts
+   * {@code otherEntity} in the same transaction if it is non-null.
+   */
+  private void updateJob(
+      UUID jobId, PortabilityJob job, JobUpdateValidator validator, Entity otherEntity)
+      throws IOException {
     Preconditions.checkNotNull(jobId);
     Transaction transaction = datastore.newTransaction();
     Key key = getJobKey(jobId);
@@ -175,12 +238,15 @@ public final class GoogleJobStore extends JobStoreWithValidator {
       }
 
       if (validator != null) {
-        PortabilityJob previousJob = PortabilityJob.fromMap(getProperties(previousEntity));
+        PortabilityJob previousJob = toJob(jobId, previousEntity);
         validator.validate(previousJob, job);
       }
 
-      Entity newEntity = createUpdatedEntity(key, job.toMap());
+      Entity newEntity = createUpdatedEntity(previousEntity, job);
       transaction.put(newEntity);
+      if (otherEntity != null) {
+        transaction.put(otherEntity);
+      }
       transaction.commit();
     } catch (Throwable t) {
       transaction.rollback();
@@ -188,6 +254,114 @@ public final class GoogleJobStore extends JobStoreWithValidator {
     }
   }
 
+  /** Claims the job and stores the lease of its worker in the same transaction. */
+  @Override
+  public void claimJob(UUID jobId, PortabilityJob job, Duration leaseDuration)
+      throws IOException {
+    updateJob(
+        jobId,
+        job,
+        (previous, updated) ->
+            Preconditions.checkState(
+                previous.jobAuthorization().state() == JobAuthorization.State.CREDS_AVAILABLE),
+        createLeaseEntity(jobId, job.jobAuthorization().instanceId(), leaseDuration));
+  }
+
+  @Override
+  public void renewJobLease(UUID jobId, String instanceId, Duration leaseDuration)
+      throws IOException {
+    Transaction transaction = datastore.newTransaction();
+    try {
+      Entity lease = transaction.get(getLeaseKey(jobId));
+      if (lease == null || !instanceId.equals(lease.getString(LEASE_INSTANCE_ID_FIELD))) {
+        throw new IllegalStateException(
+            String.format("Worker %s doesn't hold the lease of job %s", instanceId, jobId));
+      }
+      transaction.put(createLeaseEntity(jobId, instanceId, leaseDuration));
+      transaction.commit();
+    } catch (DatastoreException e) {
+      throw new IOException("Could not renew the lease of jobId: " + jobId, e);
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  @Override
+  public void releaseJobLease(UUID jobId, String instanceId) throws IOException {
+    Transaction transaction = datastore.newTransaction();
+    try {
+      Entity lease = transaction.get(getLeaseKey(jobId));
+      if (lease != null && instanceId.equals(lease.getString(LEASE_INSTANCE_ID_FIELD))) {
+        transaction.delete(lease.getKey());
+        transaction.commit();
+      }
+    } catch (DatastoreException e) {
+      throw new IOException("Could not release the lease of jobId: " + jobId, e);
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /**
+   * Reclaims up to {@link #MAX_REQUEUED_JOBS} jobs with an expired lease, each in a transaction of
+   * its own. A job another worker reclaims concurrently is skipped.
+   */
+  @Override
+  public Collection<UUID> requeueExpiredJobLeases() throws IOException {
+    Query<Key> query =
+        Query.newKeyQueryBuilder()
+            .setKind(LEASE_KIND)
+            .setFilter(PropertyFilter.lt(LEASE_EXPIRES_FIELD, Timestamp.now()))
+            .setLimit(MAX_REQUEUED_JOBS)
+            .build();
+    List<UUID> requeued = new ArrayList<>();
+    QueryResults<Key> results = datastore.run(query);
+    while (results.hasNext()) {
+      UUID jobId = UUID.fromString(results.next().getName());
+      try {
+        if (requeueExpiredJobLease(jobId)) {
+          requeued.add(jobId);
+        }
+      } catch (DatastoreException e) {
+        // Most likely reclaimed concurrently by another worker, otherwise retried on the next call
+      }
+    }
+    return requeued;
+  }
+
+  private boolean requeueExpiredJobLease(UUID jobId) throws IOException {
+    Transaction transaction = datastore.newTransaction();
+    try {
+      Entity lease = transaction.get(getLeaseKey(jobId));
+      if (lease == null
+          || lease.getTimestamp(LEASE_EXPIRES_FIELD).compareTo(Timestamp.now()) > 0) {
+        return false;
+      }
+      transaction.delete(lease.getKey());
+      Entity jobEntity = transaction.get(getJobKey(jobId));
+      boolean requeued = false;
+      if (jobEntity != null) {
+        PortabilityJob job = toJob(jobId, jobEntity);
+        PortabilityJob updatedJob =
+            getJobAfterLeaseExpired(job, FailureReasons.WORKER_LEASE_EXPIRED.toString());
+        if (updatedJob != job) {
+          transaction.put(createUpdatedEntity(jobEntity, updatedJob));
+          requeued = true;
+        }
+      }
+      transaction.commit();
+      return requeued;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
   @Override
   public void addErrorsToJob(UUID jobId, Collection<ErrorDetail> errors) throws IOException {
     if (errors == null || errors.isEmpty()) {
@@ -216,7 +390,8 @@ public final class GoogleJobStore extends JobStoreWithValidator {
   @Override
   public void remove(UUID jobId) throws IOException {
     try {
-      datastore.delete(getJobKey(jobId));
+      datastore.delete(getJobKey(jobId), getLeaseKey(jobId));
+      decodedJobs.invalidate(jobId);
     } catch (DatastoreException e) {
       throw new IOException("Could not remove jobId: " + jobId, e);
     }
@@ -230,30 +405,47 @@ public final class GoogleJobStore extends JobStoreWithValidator {
       return null;
     }
     try {
-      return PortabilityJob.fromMap(getProperties(entity));
-    } catch (IOException | ClassNotFoundException e) {
+      return toJob(jobId, entity);
+    } catch (IOException e) {
       // TODO: Rethrow as IOException and propagate to callers
       throw new RuntimeException(e);
     }
   }
 
+  /** Reads the job's state alone, with a projection query. */
+  @Override
+  public PortabilityJob.State getJobState(UUID jobId) {
+    Query<ProjectionEntity> query =
+        Query.newProjectionEntityQueryBuilder()
+            .setKind(JOB_KIND)
+            .setFilter(PropertyFilter.eq(KEY_PROPERTY_NAME, getJobKey(jobId)))
+            .setProjection(PortabilityJob.JOB_STATE)
+            .build();
+    QueryResults<ProjectionEntity> results = datastore.run(query);
+    if (!results.hasNext()) {
+      // Either there is no such job, or it was stored without a state
+      PortabilityJob job = findJob(jobId);
+      return job == null ? null : job.state();
+    }
+    return PortabilityJob.State.valueOf(results.next().getString(PortabilityJob.JOB_STATE));
+  }
+
   /**
-   * Finds the ID of the first {@link PortabilityJob} in state {@code jobState} in Datastore, or
+   * Finds the ID of the oldest {@link PortabilityJob} in state {@code jobState} in Datastore, or
    * null if none found.
    *
-   * <p>TODO(rtannenbaum): Order by creation time so we can process jobs in a FIFO manner. Trying to
-   * OrderBy.asc("created") currently fails because we don't yet have an index set up.
+   * <p>Ordering by creation time needs the composite index on the job's authorization state and
+   * creation time of the deployment's index.yaml. Without it, the first job found is returned.
    */
   @Override
   public UUID findFirst(JobAuthorization.State jobState) {
-    Query<Key> query =
-        Query.newKeyQueryBuilder()
-            .setKind(JOB_KIND)
-            .setFilter(PropertyFilter.eq(PortabilityJob.AUTHORIZATION_STATE, jobState.name()))
-            // .setOrderBy(OrderBy.asc("created"))
-            .setLimit(1)
-            .build();
-    QueryResults<Key> results = datastore.run(query);
+    QueryResults<Key> results;
+    try {
+      results = datastore.run(createFindFirstQuery(jobState, true));
+    } catch (DatastoreException e) {
+      // The index is missing, or still being built
+      results = datastore.run(createFindFirstQuery(jobState, false));
+    }
     if (!results.hasNext()) {
       return null;
     }
@@ -261,6 +453,18 @@ public final class GoogleJobStore extends JobStoreWithValidator {
     return UUID.fromString(key.getName());
   }
 
+  private static Query<Key> createFindFirstQuery(JobAuthorization.State jobState, boolean ordered) {
+    KeyQuery.Builder query = Query.newKeyQueryBuilder();
+    if (ordered) {
+      query.setOrderBy(OrderBy.asc(CREATED_FIELD));
+    }
+    return query
+        .setKind(JOB_KIND)
+        .setFilter(PropertyFilter.eq(PortabilityJob.AUTHORIZATION_STATE, jobState.name()))
+        .setLimit(1)
+        .build();
+  }
+
   @Override
   public <T extends DataModel> void create(UUID jobId, String key, T model) throws IOException {
     Preconditions.checkNotNull(jobId);
@@ -277,7 +481,7 @@ public final class GoogleJobStore extends JobStoreWithValidator {
     Entity entity =
         Entity.newBuilder(fullKey)
             .set(CREATED_FIELD, Timestamp.now())
-            .set(model.getClass().getName(), serialized)
+            .set(model.getClass().getName(), toUnindexedValue(serialized))
             .build();
 
     try {
@@ -304,7 +508,7 @@ public final class GoogleJobStore extends JobStoreWithValidator {
       Entity entity =
           Entity.newBuilder(entityKey)
               .set(CREATED_FIELD, Timestamp.now())
-              .set(model.getClass().getName(), serialized)
+              .set(model.getClass().getName(), toUnindexedValue(serialized))
               .build();
 
       transaction.put(entity);
@@ -315,6 +519,11 @@ public final class GoogleJobStore extends JobStoreWithValidator {
     }
   }
 
+  /** Data is never queried, and indexed strings are limited to 1500 bytes. */
+  private static StringValue toUnindexedValue(String serialized) {
+    return StringValue.newBuilder(serialized).setExcludeFromIndexes(true).build();
+  }
+
   @Override
   public <T extends DataModel> T findData(UUID jobId, String key, Class<T> type) {
     Key entityKey = getDataKey(jobId, key);
@@ -335,46 +544,106 @@ public final class GoogleJobStore extends JobStoreWithValidator {
     googleTempFileStore.create(jobId, key, stream);
   }
 
+  /**
+   * Adds {@code newCounts} to a randomly picked shard of the job's counters. The counters are read
+   * and written in a single transaction, so concurrent updates aren't lost; an update conflicting
+   * with a concurrent one fails instead.
+   */
   @Override
   public void addCounts(UUID jobId, Map<String, Integer> newCounts) throws IOException {
-    if (newCounts == null) {
+    if (newCounts == null || newCounts.isEmpty()) {
       return;
     }
-
-    Transaction transaction = datastore.newTransaction();
-
-    for (String dataType : newCounts.keySet()) {
-      Key key = getCountsKey(jobId, dataType);
-      Entity current = datastore.get(key);
-      Integer oldCount = 0;
-
-      if (current != null && current.getNames().contains(COUNTS_FIELD)) {
-        // Datastore only allows Long properties, but we only ever write Integers through this
-        // interface so the conversion is OK
-        oldCount = Math.toIntExact(current.getLong(COUNTS_FIELD));
-      }
-      transaction.put(
-          GoogleCloudUtils.createEntityBuilder(
-                  key, ImmutableMap.of(COUNTS_FIELD, oldCount + newCounts.get(dataType)))
-              .build());
+    int shard = ThreadLocalRandom.current().nextInt(COUNTER_SHARDS);
+    Map<Key, Long> increments = new HashMap<>();
+    Map<Key, String> dataTypes = new HashMap<>();
+    for (Map.Entry<String, Integer> newCount : newCounts.entrySet()) {
+      Key key = getCountsKey(jobId, newCount.getKey(), shard);
+      increments.put(key, (long) newCount.getValue());
+      dataTypes.put(key, newCount.getKey());
     }
-    transaction.commit();
+    addToCounters(
+        jobId,
+        increments,
+        key -> Entity.newBuilder(key).set(COUNTS_DATA_TYPE_FIELD, dataTypes.get(key)));
   }
 
+  /** Sums up the shards of the job's counters. */
   @Override
   public Map<String, Integer> getCounts(UUID jobId) {
-    Query<Entity> query = getCountsQuery(jobId);
-    QueryResults<Entity> results = datastore.run(query);
-    ImmutableMap.Builder<String, Integer> countsMapBuilder = ImmutableMap.builder();
-
+    QueryResults<Entity> results = datastore.run(getCountersQuery(jobId, COUNTS_KIND));
+    Map<String, Integer> counts = new HashMap<>();
     while (results.hasNext()) {
       Entity result = results.next();
-      String dataType = result.getKey().getName();
-      long count = result.getLong(COUNTS_FIELD);
-      countsMapBuilder.put(dataType, (int) count);
+      // Counters written before they were sharded are named after their data type
+      String dataType =
+          result.contains(COUNTS_DATA_TYPE_FIELD)
+              ? result.getString(COUNTS_DATA_TYPE_FIELD)
+              : result.getKey().getName();
+      // Datastore only allows Long properties, but we only ever write Integers through this
+      // interface so the conversion is OK
+      counts.merge(dataType, (int) result.getLong(COUNTS_FIELD), Integer::sum);
     }
+    return ImmutableMap.copyOf(counts);
+  }
 
-    return countsMapBuilder.build();
+  /** Adds {@code bytes} to a randomly picked shard of the job's bytes counter. */
+  @Override
+  public void addBytes(UUID jobId, Long bytes) throws IOException {
+    if (bytes == null || bytes == 0) {
+      return;
+    }
+    int shard = ThreadLocalRandom.current().nextInt(COUNTER_SHARDS);
+    addToCounters(jobId, ImmutableMap.of(getBytesKey(jobId, shard), bytes), Entity::newBuilder);
+  }
+
+  /** Sums up the shards of the job's bytes counter. */
+  @Override
+  public Long getBytes(UUID jobId) {
+    QueryResults<Entity> results = datastore.run(getCountersQuery(jobId, BYTES_KIND));
+    long bytes = 0;
+    while (results.hasNext()) {
+      bytes += results.next().getLong(COUNTS_FIELD);
+    }
+    return bytes;
+  }
+
+  /**
+   * Adds {@code increments} to the counters of their keys in a transaction.
+   *
+   * @param newCounter creates the entity of a counter that doesn't exist yet
+   */
+  private void addToCounters(
+      UUID jobId, Map<Key, Long> increments, Function<Key, Entity.Builder> newCounter)
+      throws IOException {
+    Transaction transaction = datastore.newTransaction();
+    try {
+      Map<Key, Entity> counters = new HashMap<>();
+      transaction
+          .get(increments.keySet().toArray(new Key[0]))
+          .forEachRemaining(counter -> counters.put(counter.getKey(), counter));
+      List<Entity> updatedCounters = new ArrayList<>();
+      for (Map.Entry<Key, Long> increment : increments.entrySet()) {
+        Entity counter = counters.get(increment.getKey());
+        Entity.Builder builder;
+        long count = 0;
+        if (counter == null) {
+          builder = newCounter.apply(increment.getKey());
+        } else {
+          builder = Entity.newBuilder(counter);
+          count = counter.getLong(COUNTS_FIELD);
+        }
+        updatedCounters.add(builder.set(COUNTS_FIELD, count + increment.getValue()).build());
+      }
+      transaction.put(updatedCounters.toArray(new Entity[0]));
+      transaction.commit();
+    } catch (DatastoreException e) {
+      throw new IOException("Could not update the counters of jobId: " + jobId, e);
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
   }
 
   @Override
@@ -382,18 +651,67 @@ public final class GoogleJobStore extends JobStoreWithValidator {
     return googleTempFileStore.getStream(jobId, key);
   }
 
-  private Entity createNewEntity(UUID jobId, Map<String, Object> data) throws IOException {
-    Timestamp createdTime = Timestamp.now();
+  /**
+   * Returns the job stored in {@code entity}. Jobs that didn't change since they were last read
+   * are returned without decoding them again.
+   */
+  private PortabilityJob toJob(UUID jobId, Entity entity) throws IOException {
+    if (!entity.contains(JOB_DATA_FIELD)) {
+      // Stored before jobs were encoded, converted when it is next updated
+      try {
+        return PortabilityJob.fromMap(getProperties(entity));
+      } catch (ClassNotFoundException e) {
+        throw new IOException("Could not read jobId: " + jobId, e);
+      }
+    }
+    long version = entity.getLong(JOB_VERSION_FIELD);
+    DecodedJob decodedJob = decodedJobs.getIfPresent(jobId);
+    if (decodedJob == null || decodedJob.version != version) {
+      decodedJob =
+          new DecodedJob(
+              version, jobCodec.decode(entity.getBlob(JOB_DATA_FIELD).toByteArray()));
+      decodedJobs.put(jobId, decodedJob);
+    }
+    return decodedJob.job;
+  }
 
-    return GoogleCloudUtils.createEntityBuilder(getJobKey(jobId), data)
+  /**
+   * Creates the entity of {@code job}. The job is stored encoded, along with the properties jobs
+   * are queried by.
+   */
+  private Entity createJobEntity(
+      Key key, PortabilityJob job, Timestamp createdTime, long version) throws IOException {
+    Blob jobData = Blob.copyFrom(jobCodec.encode(job));
+    return Entity.newBuilder(key)
+        .set(PortabilityJob.AUTHORIZATION_STATE, job.jobAuthorization().state().name())
+        .set(PortabilityJob.JOB_STATE, job.state().name())
+        .set(JOB_DATA_FIELD, BlobValue.newBuilder(jobData).setExcludeFromIndexes(true).build())
+        .set(JOB_VERSION_FIELD, version)
         .set(CREATED_FIELD, createdTime)
-        .set(LAST_UPDATE_FIELD, createdTime)
+        .set(LAST_UPDATE_FIELD, Timestamp.now())
         .build();
   }
 
-  private Entity createUpdatedEntity(Key key, Map<String, Object> data) throws IOException {
-    return GoogleCloudUtils.createEntityBuilder(key, data)
-        .set(LAST_UPDATE_FIELD, Timestamp.now())
+  private Entity createUpdatedEntity(Entity previousEntity, PortabilityJob job)
+      throws IOException {
+    // Kept so jobs can be found in the order they were created
+    Timestamp createdTime =
+        previousEntity.contains(CREATED_FIELD)
+            ? previousEntity.getTimestamp(CREATED_FIELD)
+            : Timestamp.now();
+    long previousVersion =
+        previousEntity.contains(JOB_VERSION_FIELD) ? previousEntity.getLong(JOB_VERSION_FIELD) : 0;
+    return createJobEntity(previousEntity.getKey(), job, createdTime, previousVersion + 1);
+  }
+
+  private Entity createLeaseEntity(UUID jobId, String instanceId, Duration leaseDuration) {
+    Preconditions.checkNotNull(instanceId, "instanceId can't be null");
+    Instant expires = Instant.now().plus(leaseDuration);
+    return Entity.newBuilder(getLeaseKey(jobId))
+        .set(LEASE_INSTANCE_ID_FIELD, instanceId)
+        .set(
+            LEASE_EXPIRES_FIELD,
+            Timestamp.ofTimeSecondsAndNanos(expires.getEpochSecond(), expires.getNano()))
         .build();
   }
 
@@ -401,6 +719,11 @@ public final class GoogleJobStore extends JobStoreWithValidator {
     return datastore.newKeyFactory().setKind(JOB_KIND).newKey(jobId.toString());
   }
 
+  private Key getLeaseKey(UUID jobId) {
+    // Not a descendant of the job, so expired leases can be queried across jobs
+    return datastore.newKeyFactory().setKind(LEASE_KIND).newKey(jobId.toString());
+  }
+
   private Key getErrorKey(UUID jobId, String errorId) {
     // Use the main job as the ancestor to all the errors, see:
     // https://cloud.google.com/datastore/docs/concepts/entities#ancestor_paths
@@ -415,23 +738,76 @@ public final class GoogleJobStore extends JobStoreWithValidator {
     return datastore.newKeyFactory().setKind(JOB_KIND).newKey(getDataKeyName(jobId, key));
   }
 
-  private Key getCountsKey(UUID jobId, String dataType) {
+  private Key getCountsKey(UUID jobId, String dataType, int shard) {
     // Use the main job as the ancestor to all the counts, see:
     // https://cloud.google.com/datastore/docs/concepts/entities#ancestor_paths
     return datastore
         .newKeyFactory()
         .setKind(COUNTS_KIND)
         .addAncestor(PathElement.of(JOB_KIND, jobId.toString()))
-        .newKey(dataType);
+        .newKey(dataType + "-" + shard);
+  }
+
+  private Key getBytesKey(UUID jobId, int shard) {
+    return datastore
+        .newKeyFactory()
+        .setKind(BYTES_KIND)
+        .addAncestor(PathElement.of(JOB_KIND, jobId.toString()))
+        .newKey(Integer.toString(shard));
   }
 
-  private Query<Entity> getCountsQuery(UUID jobId) {
+  /** A decoded job, and the version of the job it was decoded from. */
+  private static final class DecodedJob {
+    private final long version;
+    private final PortabilityJob job;
+
+    DecodedJob(long version, PortabilityJob job) {
+      this.version = version;
+      this.job = job;
+    }
+  }
+
+  /**
+   * Reads the properties of jobs stored with Java serialization, restricted to the classes such
+   * jobs are made of: portable types and enums of DTP, and a fixed set of JDK classes.
+   */
+  private static final class LegacyObjectInputStream extends ObjectInputStream {
+
+    LegacyObjectInputStream(InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc)
+        throws IOException, ClassNotFoundException {
+      // Loaded without being initialized, so no code of a class runs before it is checked
+      Class<?> resolved = super.resolveClass(desc);
+      // Arrays are allowed if their elements are
+      Class<?> elementType = resolved;
+      while (elementType.isArray()) {
+        elementType = elementType.getComponentType();
+      }
+      if (!elementType.isPrimitive() && !isLegacyClass(elementType)) {
+        throw new InvalidClassException(desc.getName(), "Not allowed in a stored job");
+      }
+      return resolved;
+    }
+
+    private static boolean isLegacyClass(Class<?> type) {
+      if (type.getName().startsWith("org.datatransferproject.")) {
+        return PortableType.class.isAssignableFrom(type) || type.isEnum();
+      }
+      return LEGACY_JDK_CLASSES.contains(type.getName());
+    }
+  }
+
+  private Query<Entity> getCountersQuery(UUID jobId, String kind) {
     // Use the main job as the ancestor to all the errors, see:
     // http://cloud/datastore/docs/concepts/queries#ancestor_queries
     Key ancestorKey = datastore.newKeyFactory().setKind(JOB_KIND).newKey(jobId.toString());
 
     return Query.newEntityQueryBuilder()
-        .setKind(COUNTS_KIND)
+        .setKind(kind)
         .setFilter(PropertyFilter.hasAncestor(ancestorKey))
         .build();
   }
@@ -76,6 +76,39 @@ public class GoogleCloudIdempotentImportExecutorTest {
     assertEquals(googleExecutor.getErrors().size(), 0);
   }
 
+  @Test
+  public void flushPersistsPendingResults() throws Exception {
+    googleExecutor.setJobId(JOB_ID);
+    googleExecutor.executeAndSwallowIOExceptions("id5", ITEM_NAME, () -> "idempotentId5");
+    googleExecutor.flush();
+
+    GoogleCloudIdempotentImportExecutor otherExecutor =
+        new GoogleCloudIdempotentImportExecutor(datastore, monitor);
+    otherExecutor.setJobId(JOB_ID);
+    assertEquals(otherExecutor.getCachedValue("id5"), "idempotentId5");
+  }
+
+  @Test
+  public void flushPersistsMoreResultsThanFitInABatch() throws Exception {
+    googleExecutor.setJobId(JOB_ID);
+    // Each result is an entity group of its own
+    for (int i = 0; i < 600; i++) {
+      String value = "idempotentId" + i;
+      googleExecutor.executeAndSwallowIOExceptions("id" + i, ITEM_NAME, () -> value);
+    }
+    googleExecutor.flush();
+
+    GoogleCloudIdempotentImportExecutor otherExecutor =
+        new GoogleCloudIdempotentImportExecutor(datastore, monitor);
+    otherExecutor.setJobId(JOB_ID);
+    assertEquals(otherExecutor.getCachedValue("id599"), "idempotentId599");
+  }
+
+  @Test
+  public void noErrorsBeforeJobIsSet() {
+    assertTrue(googleExecutor.getErrors().isEmpty());
+  }
+
   private void initializeDS() throws IOException {
     Transaction t = datastore.newTransaction();
     t.put(googleExecutor.createResultEntity("id1", JOB_ID, "idempotentId1"));
@@ -18,15 +18,25 @@ package org.datatransferproject.cloud.google;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.datastore.Blob;
 import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.Entity;
 import com.google.cloud.datastore.testing.LocalDatastoreHelper;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.truth.Truth;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.UUID;
+import org.datatransferproject.types.common.ExportInformation;
+import org.datatransferproject.types.common.models.IdOnlyContainerResource;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -55,6 +65,25 @@ public class GoogleJobStoreTest {
 
   }
 
+  @Test
+  public void readsLegacyJobWithExportInformation() throws Exception {
+    UUID jobId = UUID.randomUUID();
+    ExportInformation exportInformation =
+        new ExportInformation(null, new IdOnlyContainerResource("album"));
+    datastore.put(createLegacyJobEntity(jobId, exportInformation));
+
+    assertEquals(exportInformation, googleJobStore.findJob(jobId).exportInformation());
+  }
+
+  @Test
+  public void rejectsLegacyJobWithOtherClasses() throws Exception {
+    UUID jobId = UUID.randomUUID();
+    datastore.put(createLegacyJobEntity(jobId, new PriorityQueue<String>()));
+
+    RuntimeException e = assertThrows(RuntimeException.class, () -> googleJobStore.findJob(jobId));
+    Truth.assertThat(e).hasCauseThat().isInstanceOf(InvalidClassException.class);
+  }
+
   @Test
   public void getDataKeyName() throws Exception {
     assertEquals(
@@ -89,6 +118,33 @@ public class GoogleJobStoreTest {
     Truth.assertThat(counts.get(ITEM_NAME)).isEqualTo(2);
   }
 
+  @Test
+  public void canAddBytesTest() throws IOException {
+    googleJobStore.addBytes(JOB_ID, 5L);
+    googleJobStore.addBytes(JOB_ID, 7L);
+
+    Truth.assertThat(googleJobStore.getBytes(JOB_ID)).isEqualTo(12L);
+  }
+
+  /** Returns a job stored the way jobs were before they were encoded. */
+  private static Entity createLegacyJobEntity(UUID jobId, Serializable exportInformation)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeObject(exportInformation);
+    }
+    return Entity.newBuilder(
+            datastore.newKeyFactory().setKind("persistentKey").newKey(jobId.toString()))
+        .set("DATA_TYPE", "PHOTOS")
+        .set("EXPORT_SERVICE", "exportService")
+        .set("IMPORT_SERVICE", "importService")
+        .set("JOB_STATE", "NEW")
+        .set("AUTHORIZATION_STATE", "INITIAL")
+        .set("ENCRYPTION_SCHEME", "jwe")
+        .set("EXPORT_INFORMATION", Blob.copyFrom(bytes.toByteArray()))
+        .build();
+  }
+
   private void addItemToJobStoreCounts(final String itemName) throws IOException {
     googleJobStore.addCounts(
         JOB_ID, new ImmutableMap.Builder<String, Integer>().put(itemName, 1).build());
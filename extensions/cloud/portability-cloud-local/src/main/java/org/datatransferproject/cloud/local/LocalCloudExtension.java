@@ -15,6 +15,7 @@
  */
 package org.datatransferproject.cloud.local;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.datatransferproject.api.launcher.ExtensionContext;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.spi.cloud.extension.CloudExtension;
@@ -25,10 +26,11 @@ import org.datatransferproject.spi.cloud.storage.JobStore;
 public class LocalCloudExtension implements CloudExtension {
 
   private Monitor monitor;
+  private ObjectMapper objectMapper;
 
   @Override
   public JobStore getJobStore() {
-    return new LocalJobStore(monitor);
+    return new LocalJobStore(monitor, objectMapper);
   }
 
   @Override
@@ -40,5 +42,6 @@ public class LocalCloudExtension implements CloudExtension {
   @Override
   public void initialize(ExtensionContext context) {
     monitor = context.getMonitor();
+    objectMapper = context.getTypeManager().getMapper();
   }
 }
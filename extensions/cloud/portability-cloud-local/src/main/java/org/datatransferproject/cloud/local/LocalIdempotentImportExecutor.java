@@ -0,0 +1,514 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.cloud.local;
+
+import static java.lang.String.format;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CountingInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
+import org.datatransferproject.spi.transfer.idempotentexecutor.SingleFlight;
+import org.datatransferproject.types.transfer.errors.ErrorDetail;
+
+/**
+ * A {@link IdempotentImportExecutor} that keeps known values and errors in memory and persists them
+ * in an append-only log per job on the local disk.
+ *
+ * <p>Every result or error is appended to the log before the call returns. Writes of concurrent
+ * callers are committed to disk together, so they share a single sync. Setting the job id replays
+ * the log of the job to rebuild the in-memory state, and rewrites it without the superseded
+ * records. Concurrent calls for the same idempotent id execute the callable only once.
+ *
+ * <p>Jobs are not resumed from the log yet: a job whose worker is lost fails once its lease
+ * expires, and the log is deleted once the executor is closed, whether the job succeeded or not.
+ * Only the known values of the classes a job's results are made of are read back from a log, as
+ * the log directory may be writable by other local users.
+ */
+public class LocalIdempotentImportExecutor implements IdempotentImportExecutor {
+
+  private static final byte LOG_VERSION = 1;
+  private static final byte RESULT_RECORD = 1;
+  private static final byte ERROR_RECORD = 2;
+  private static final String LOG_SUFFIX = ".log";
+  // The JDK classes known values may be made of, besides arrays and primitives
+  private static final ImmutableSet<String> ALLOWED_JDK_CLASSES =
+      ImmutableSet.of(
+          "java.lang.Boolean",
+          "java.lang.Double",
+          "java.lang.Enum",
+          "java.lang.Integer",
+          "java.lang.Long",
+          "java.lang.Number",
+          "java.lang.String",
+          "java.time.Ser",
+          "java.util.ArrayList",
+          "java.util.Date",
+          "java.util.HashMap",
+          "java.util.HashSet",
+          "java.util.LinkedHashMap");
+
+  private final Path logDirectory;
+  private final Monitor monitor;
+
+  private final Map<String, Serializable> knownValues =
+      Collections.synchronizedMap(new HashMap<>());
+  private final Map<String, ErrorDetail> errors = Collections.synchronizedMap(new HashMap<>());
+  private final SingleFlight inFlightCalls = new SingleFlight();
+  private final Object writeLock = new Object();
+  private final Object commitLock = new Object();
+
+  // Guarded by writeLock
+  private Path logFile;
+  private FileChannel logChannel;
+  private DataOutputStream logOutput;
+  // Number of records appended since creation, guarded by writeLock
+  private long appendedRecords;
+  // Number of records known to be on disk, guarded by commitLock
+  private long committedRecords;
+
+  private volatile UUID jobId;
+  private volatile String jobIdPrefix;
+
+  public LocalIdempotentImportExecutor(Path logDirectory, Monitor monitor) {
+    this.logDirectory = logDirectory;
+    this.monitor = monitor;
+  }
+
+  @Override
+  public <T extends Serializable> T executeAndSwallowIOExceptions(
+      String idempotentId, String itemName, Callable<T> callable) throws Exception {
+    try {
+      return executeOrThrowException(idempotentId, itemName, callable);
+    } catch (IOException e) {
+      // Note all errors are logged in executeOrThrowException so no need to re-log them here.
+      return null;
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T extends Serializable> T executeOrThrowException(
+      String idempotentId, String itemName, Callable<T> callable) throws Exception {
+    Preconditions.checkNotNull(jobId, "executing a callable before initialization of a job");
+
+    if (knownValues.containsKey(idempotentId)) {
+      monitor.debug(
+          () ->
+              jobIdPrefix
+                  + format("Using cached key %s from cache for %s", idempotentId, itemName));
+      return (T) knownValues.get(idempotentId);
+    }
+    return inFlightCalls.execute(idempotentId, () -> executeOnce(idempotentId, itemName, callable));
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends Serializable> T executeOnce(
+      String idempotentId, String itemName, Callable<T> callable) throws Exception {
+    // Another caller may have stored the result since it was last checked
+    if (knownValues.containsKey(idempotentId)) {
+      return (T) knownValues.get(idempotentId);
+    }
+    try {
+      T result = callable.call();
+      monitor.debug(
+          () -> jobIdPrefix + format("Storing key %s in cache for %s", idempotentId, itemName));
+      knownValues.put(idempotentId, result);
+      errors.remove(idempotentId);
+      appendResult(idempotentId, result);
+      return result;
+    } catch (Exception e) {
+      ErrorDetail errorDetail =
+          ErrorDetail.builder()
+              .setId(idempotentId)
+              .setTitle(itemName)
+              .setException(Throwables.getStackTraceAsString(e))
+              .build();
+      errors.put(idempotentId, errorDetail);
+      appendError(errorDetail);
+      monitor.severe(() -> jobIdPrefix + "Problem with importing item: " + errorDetail);
+      throw e;
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T extends Serializable> T getCachedValue(String idempotentId) {
+    if (!knownValues.containsKey(idempotentId)) {
+      throw new IllegalArgumentException(
+          idempotentId
+              + " is not a known key, known keys: "
+              + Joiner.on(", ").join(knownValues.keySet()));
+    }
+    return (T) knownValues.get(idempotentId);
+  }
+
+  @Override
+  public boolean isKeyCached(String idempotentId) {
+    return knownValues.containsKey(idempotentId);
+  }
+
+  @Override
+  public Collection<ErrorDetail> getErrors() {
+    synchronized (errors) {
+      return ImmutableList.copyOf(errors.values());
+    }
+  }
+
+  /** Loads the state of {@code jobId} from its log and appends further writes to it. */
+  @Override
+  public void setJobId(UUID jobId) {
+    Preconditions.checkNotNull(jobId);
+    synchronized (writeLock) {
+      if (jobId.equals(this.jobId)) {
+        return;
+      }
+      closeLog();
+      knownValues.clear();
+      errors.clear();
+      this.jobId = jobId;
+      this.jobIdPrefix = "Job " + jobId + ": ";
+      try {
+        Files.createDirectories(logDirectory);
+        logFile = logDirectory.resolve(jobId + LOG_SUFFIX);
+        long validLength = replayLog(logFile);
+        logChannel =
+            FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drops a record only partially written before a crash
+        logChannel.truncate(validLength);
+        logChannel.position(validLength);
+        logOutput =
+            new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(logChannel)));
+        if (validLength == 0) {
+          logOutput.writeByte(LOG_VERSION);
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to open idempotent executor log for " + jobId, e);
+      }
+      monitor.info(
+          () ->
+              jobIdPrefix
+                  + format(
+                      "Loaded %d known values and %d errors", knownValues.size(), errors.size()));
+    }
+  }
+
+  /** Closes the log and deletes it, nothing resumes a job from its log yet. */
+  @Override
+  public void close() {
+    synchronized (writeLock) {
+      closeLog();
+      if (logFile != null) {
+        try {
+          Files.deleteIfExists(logFile);
+        } catch (IOException e) {
+          monitor.severe(() -> jobIdPrefix + "Error deleting idempotent executor log: " + e);
+        }
+        logFile = null;
+      }
+    }
+  }
+
+  /**
+   * Deletes the logs in {@code logDirectory} that weren't written to for {@code age}, they belong
+   * to jobs no worker is going to resume.
+   */
+  static void deleteLogsOlderThan(Path logDirectory, Duration age, Monitor monitor) {
+    if (!Files.isDirectory(logDirectory)) {
+      return;
+    }
+    Instant cutoff = Instant.now().minus(age);
+    try (DirectoryStream<Path> logFiles =
+        Files.newDirectoryStream(logDirectory, "*" + LOG_SUFFIX)) {
+      for (Path logFile : logFiles) {
+        if (Files.getLastModifiedTime(logFile).toInstant().isBefore(cutoff)) {
+          Files.deleteIfExists(logFile);
+          monitor.info(() -> "Deleted abandoned idempotent executor log " + logFile);
+        }
+      }
+    } catch (IOException e) {
+      monitor.severe(() -> "Error deleting abandoned idempotent executor logs: " + e);
+    }
+  }
+
+  /**
+   * Applies the records of {@code logFile} and returns the length of its valid records. The log is
+   * compacted if some of its records were superseded by later ones.
+   */
+  private long replayLog(Path logFile) throws IOException {
+    if (!Files.exists(logFile)) {
+      return 0;
+    }
+    long logLength = Files.size(logFile);
+    long validLength = 0;
+    long records = 0;
+    CountingInputStream counter =
+        new CountingInputStream(new BufferedInputStream(Files.newInputStream(logFile)));
+    try (DataInputStream input = new DataInputStream(counter)) {
+      byte version = input.readByte();
+      Preconditions.checkState(
+          version == LOG_VERSION, "Unsupported idempotent executor log version %s", version);
+      validLength = counter.getCount();
+      while (true) {
+        byte type = input.readByte();
+        String idempotentId = readString(input, logLength - counter.getCount());
+        if (type == RESULT_RECORD) {
+          byte[] result = readBytes(input, logLength - counter.getCount());
+          knownValues.put(idempotentId, deserialize(result));
+          errors.remove(idempotentId);
+        } else if (type == ERROR_RECORD) {
+          String title = readString(input, logLength - counter.getCount());
+          String exception = readString(input, logLength - counter.getCount());
+          errors.put(
+              idempotentId,
+              ErrorDetail.builder()
+                  .setId(idempotentId)
+                  .setTitle(title)
+                  .setException(exception)
+                  .build());
+        } else {
+          throw new IOException("Unknown record type " + type);
+        }
+        validLength = counter.getCount();
+        records++;
+      }
+    } catch (EOFException e) {
+      // The end of the log, possibly in the middle of a record written during a crash
+    } catch (IOException e) {
+      // A record corrupted during a crash, it and anything after it are dropped
+      long corruptRecordStart = validLength;
+      monitor.info(
+          () -> jobIdPrefix + "Ignoring corrupt log tail at " + corruptRecordStart + ": " + e);
+    }
+    if (records > knownValues.size() + errors.size()) {
+      return compactLog(logFile);
+    }
+    return validLength;
+  }
+
+  /**
+   * Replaces {@code logFile} with a log of the current known values and errors only, and returns
+   * its length.
+   */
+  private long compactLog(Path logFile) throws IOException {
+    Path compactedLogFile = logFile.resolveSibling(logFile.getFileName() + ".compacted");
+    try (FileChannel channel =
+            FileChannel.open(
+                compactedLogFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        DataOutputStream output =
+            new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+      output.writeByte(LOG_VERSION);
+      for (Map.Entry<String, Serializable> knownValue : knownValues.entrySet()) {
+        output.writeByte(RESULT_RECORD);
+        writeString(output, knownValue.getKey());
+        byte[] serializedResult = serialize(knownValue.getValue());
+        output.writeInt(serializedResult.length);
+        output.write(serializedResult);
+      }
+      for (ErrorDetail errorDetail : errors.values()) {
+        output.writeByte(ERROR_RECORD);
+        writeString(output, errorDetail.id());
+        writeString(output, errorDetail.title());
+        writeString(output, errorDetail.exception());
+      }
+      output.flush();
+      channel.force(false);
+    }
+    Files.move(
+        compactedLogFile,
+        logFile,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    return Files.size(logFile);
+  }
+
+  private void appendResult(String idempotentId, Serializable result) {
+    long record;
+    try {
+      byte[] serializedResult = serialize(result);
+      synchronized (writeLock) {
+        logOutput.writeByte(RESULT_RECORD);
+        writeString(logOutput, idempotentId);
+        logOutput.writeInt(serializedResult.length);
+        logOutput.write(serializedResult);
+        record = ++appendedRecords;
+      }
+      commit(record);
+    } catch (IOException e) {
+      // The result is still known for this run, it is only lost if the worker restarts
+      monitor.severe(() -> jobIdPrefix + "Error writing result to log: " + e);
+    }
+  }
+
+  private void appendError(ErrorDetail errorDetail) {
+    long record;
+    try {
+      synchronized (writeLock) {
+        logOutput.writeByte(ERROR_RECORD);
+        writeString(logOutput, errorDetail.id());
+        writeString(logOutput, errorDetail.title());
+        writeString(logOutput, errorDetail.exception());
+        record = ++appendedRecords;
+      }
+      commit(record);
+    } catch (IOException e) {
+      // The error is still reported for this run, it is only lost if the worker restarts
+      monitor.severe(() -> jobIdPrefix + "Error writing ErrorDetails to log: " + e);
+    }
+  }
+
+  /**
+   * Makes sure {@code record} is on disk. The first caller to get here syncs all the records
+   * appended so far, callers queued behind it usually find their record already committed.
+   */
+  private void commit(long record) throws IOException {
+    synchronized (commitLock) {
+      if (committedRecords >= record) {
+        return;
+      }
+      long appended;
+      FileChannel channel;
+      synchronized (writeLock) {
+        logOutput.flush();
+        appended = appendedRecords;
+        channel = logChannel;
+      }
+      channel.force(false);
+      committedRecords = appended;
+    }
+  }
+
+  private void closeLog() {
+    if (logOutput == null) {
+      return;
+    }
+    try {
+      logOutput.close();
+    } catch (IOException e) {
+      monitor.severe(() -> jobIdPrefix + "Error closing idempotent executor log: " + e);
+    }
+    logOutput = null;
+    logChannel = null;
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(DataInputStream input, long remaining) throws IOException {
+    return new String(readBytes(input, remaining), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads a length prefixed array of bytes. A corrupt length is detected as it can't be negative
+   * or longer than the {@code remaining} bytes of the log.
+   */
+  private static byte[] readBytes(DataInputStream input, long remaining) throws IOException {
+    int length = input.readInt();
+    if (length < 0 || length > remaining) {
+      throw new IOException("Corrupt length " + length);
+    }
+    byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return bytes;
+  }
+
+  private static byte[] serialize(Serializable value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeObject(value);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static Serializable deserialize(byte[] value) throws IOException {
+    try (ObjectInputStream input = new KnownValueInputStream(new ByteArrayInputStream(value))) {
+      return (Serializable) input.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Unable to read known value", e);
+    }
+  }
+
+  /** Only deserializes Data Transfer Project classes and the JDK classes they are made of. */
+  private static final class KnownValueInputStream extends ObjectInputStream {
+
+    KnownValueInputStream(InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc)
+        throws IOException, ClassNotFoundException {
+      // Loaded without being initialized, so no code of a class runs before it is checked
+      Class<?> resolved = super.resolveClass(desc);
+      // Arrays are allowed if their elements are
+      Class<?> elementType = resolved;
+      while (elementType.isArray()) {
+        elementType = elementType.getComponentType();
+      }
+      if (!elementType.isPrimitive()
+          && !elementType.getName().startsWith("org.datatransferproject.")
+          && !ALLOWED_JDK_CLASSES.contains(elementType.getName())) {
+        throw new InvalidClassException(desc.getName(), "Not allowed in a known value");
+      }
+      return resolved;
+    }
+
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+      throw new InvalidClassException("Proxies are not allowed in a known value");
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.cloud.local;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
+import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutorExtension;
+
+/** Provides a {@link LocalIdempotentImportExecutor} logging to the local temp directory. */
+public class LocalIdempotentImportExecutorExtension implements IdempotentImportExecutorExtension {
+
+  private static final Path LOG_DIRECTORY =
+      Paths.get(System.getProperty("java.io.tmpdir"), "idempotent-executor");
+  // Logs not written for this long belong to jobs that no worker is going to resume
+  private static final Duration ABANDONED_LOG_AGE = Duration.ofDays(7);
+
+  private boolean abandonedLogsDeleted;
+
+  @Override
+  public synchronized IdempotentImportExecutor getIdempotentImportExecutor(Monitor monitor) {
+    if (!abandonedLogsDeleted) {
+      // Once per worker, before the first job opens its log
+      LocalIdempotentImportExecutor.deleteLogsOlderThan(LOG_DIRECTORY, ABANDONED_LOG_AGE, monitor);
+      abandonedLogsDeleted = true;
+    }
+    return new LocalIdempotentImportExecutor(LOG_DIRECTORY, monitor);
+  }
+
+  @Override
+  public void initialize() {}
+}
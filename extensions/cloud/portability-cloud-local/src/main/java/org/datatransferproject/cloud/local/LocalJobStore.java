@@ -22,30 +22,55 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.LongAdder;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.spi.cloud.storage.JobStore;
 import org.datatransferproject.spi.cloud.storage.JobStoreWithValidator;
+import org.datatransferproject.spi.cloud.storage.JobUpdateListener;
 import org.datatransferproject.spi.cloud.types.JobAuthorization;
 import org.datatransferproject.spi.cloud.types.JobAuthorization.State;
 import org.datatransferproject.spi.cloud.types.PortabilityJob;
+import org.datatransferproject.spi.cloud.types.PortabilityJobCodec;
+import org.datatransferproject.spi.transfer.types.FailureReasons;
 import org.datatransferproject.types.common.models.DataModel;
 import org.datatransferproject.types.transfer.errors.ErrorDetail;
 
 /** An in-memory {@link JobStore} implementation that uses a concurrent map as its store. */
 public final class LocalJobStore extends JobStoreWithValidator {
-  private static ConcurrentHashMap<UUID, Map<String, Object>> JOB_MAP = new ConcurrentHashMap<>();
+  // Guards the updates of the static state below, which the stores of a VM share
+  private static final Object LOCK = new Object();
+  // Jobs are immutable, so they are decoded once when stored rather than on every read
+  private static ConcurrentHashMap<UUID, PortabilityJob> JOB_MAP = new ConcurrentHashMap<>();
   private static ConcurrentHashMap<String, Map<Class<? extends DataModel>, DataModel>> DATA_MAP =
       new ConcurrentHashMap<>();
   private static LocalTempFileStore localTempFileStore = new LocalTempFileStore();
   private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  // Static like the jobs, so the API and the workers of a VM see each other's updates
+  private static final Set<JobUpdateListener> LISTENERS = new CopyOnWriteArraySet<>();
+  // The jobs in each authorization state, in the order they entered it. A job is only ever in the
+  // index of its current state, guarded by LOCK.
+  private static final ConcurrentHashMap<State, ConcurrentSkipListSet<IndexEntry>> STATE_INDEX =
+      new ConcurrentHashMap<>();
+  private static final Map<UUID, IndexEntry> INDEX_ENTRIES = new HashMap<>();
+  // Positions of jobs entering a state, requeued jobs go ahead of all others
+  private static long nextPosition;
+  private static long nextRequeuedPosition = -1;
+  // The leases of claimed jobs, guarded by LOCK like the jobs they belong to
+  private static final ConcurrentHashMap<UUID, JobLease> LEASES = new ConcurrentHashMap<>();
 
   private final Monitor monitor;
+  private final PortabilityJobCodec jobCodec;
   private final ConcurrentHashMap<UUID, ConcurrentHashMap<String, Integer>> counts;
   private final ConcurrentHashMap<UUID, LongAdder> bytesMap = new ConcurrentHashMap<>();
 
@@ -55,7 +80,13 @@ public final class LocalJobStore extends JobStoreWithValidator {
   }
 
   public LocalJobStore(Monitor monitor) {
+    this(monitor, new ObjectMapper());
+  }
+
+  /** @param objectMapper the mapper of the type manager, used to encode the jobs */
+  public LocalJobStore(Monitor monitor, ObjectMapper objectMapper) {
     this.monitor = monitor;
+    this.jobCodec = new PortabilityJobCodec(objectMapper);
     counts = new ConcurrentHashMap<>();
   }
 
@@ -71,10 +102,14 @@ public final class LocalJobStore extends JobStoreWithValidator {
   public void createJob(UUID jobId, PortabilityJob job) throws IOException {
     Preconditions.checkNotNull(jobId);
     monitor.debug(() -> format("Creating job %s in local storage", jobId));
-    if (JOB_MAP.get(jobId) != null) {
-      throw new IOException("An entry already exists for jobId: " + jobId);
+    PortabilityJob storedJob = toStoredJob(job);
+    synchronized (LOCK) {
+      if (JOB_MAP.putIfAbsent(jobId, storedJob) != null) {
+        throw new IOException("An entry already exists for jobId: " + jobId);
+      }
+      index(jobId, job.jobAuthorization().state(), false);
     }
-    JOB_MAP.put(jobId, job.toMap());
+    notifyListeners(jobId, job);
   }
 
   /**
@@ -99,20 +134,117 @@ public final class LocalJobStore extends JobStoreWithValidator {
    * @throws IllegalStateException if validator.validate() failed
    */
   @Override
-  protected synchronized void updateJob(
-      UUID jobId, PortabilityJob job, JobUpdateValidator validator) throws IOException {
+  protected void updateJob(UUID jobId, PortabilityJob job, JobUpdateValidator validator)
+      throws IOException {
+    storeJob(jobId, job, validator, false);
+  }
+
+  /**
+   * Updates the job like {@link #updateJob(UUID, PortabilityJob, JobUpdateValidator)}.
+   *
+   * @param requeued whether the job is put back in its state after its worker was lost, in which
+   *     case it goes ahead of the jobs that entered the state after it first did
+   */
+  private void storeJob(
+      UUID jobId, PortabilityJob job, JobUpdateValidator validator, boolean requeued)
+      throws IOException {
     Preconditions.checkNotNull(jobId);
-    try {
-      Map<String, Object> previousEntry = JOB_MAP.replace(jobId, job.toMap());
-      if (previousEntry == null) {
-        throw new IOException("jobId: " + jobId + " didn't exist in the map");
+    synchronized (LOCK) {
+      try {
+        PortabilityJob previousJob = JOB_MAP.get(jobId);
+        if (previousJob == null) {
+          throw new IOException("jobId: " + jobId + " didn't exist in the map");
+        }
+        // Validated before the update, so a job claimed concurrently isn't overwritten
+        if (validator != null) {
+          validator.validate(previousJob, job);
+        }
+        JOB_MAP.put(jobId, toStoredJob(job));
+      } catch (NullPointerException | IllegalStateException e) {
+        throw new IOException("Couldn't update jobId: " + jobId, e);
+      }
+      index(jobId, job.jobAuthorization().state(), requeued);
+      notifyListeners(jobId, job);
+    }
+  }
+
+  @Override
+  public void claimJob(UUID jobId, PortabilityJob job, Duration leaseDuration)
+      throws IOException {
+    synchronized (LOCK) {
+      claimJob(jobId, job);
+      LEASES.put(jobId, new JobLease(job.jobAuthorization().instanceId(), leaseDuration));
+    }
+  }
+
+  @Override
+  public void renewJobLease(UUID jobId, String instanceId, Duration leaseDuration) {
+    synchronized (LOCK) {
+      JobLease lease = LEASES.get(jobId);
+      if (lease == null || !lease.instanceId.equals(instanceId)) {
+        throw new IllegalStateException(
+            format("Worker %s doesn't hold the lease of job %s", instanceId, jobId));
       }
-      if (validator != null) {
-        PortabilityJob previousJob = PortabilityJob.fromMap(previousEntry);
-        validator.validate(previousJob, job);
+      LEASES.put(jobId, new JobLease(instanceId, leaseDuration));
+    }
+  }
+
+  @Override
+  public void releaseJobLease(UUID jobId, String instanceId) {
+    synchronized (LOCK) {
+      LEASES.computeIfPresent(
+          jobId, (id, lease) -> lease.instanceId.equals(instanceId) ? null : lease);
+    }
+  }
+
+  @Override
+  public Collection<UUID> requeueExpiredJobLeases() throws IOException {
+    List<UUID> requeued = new ArrayList<>();
+    synchronized (LOCK) {
+      long now = System.currentTimeMillis();
+      for (Map.Entry<UUID, JobLease> entry : LEASES.entrySet()) {
+        if (entry.getValue().expiresAtMillis > now) {
+          continue;
+        }
+        UUID jobId = entry.getKey();
+        // Only the expired lease, the job is live if it was renewed since
+        if (!LEASES.remove(jobId, entry.getValue())) {
+          continue;
+        }
+        PortabilityJob job = findJob(jobId);
+        if (job == null) {
+          continue;
+        }
+        PortabilityJob updatedJob =
+            getJobAfterLeaseExpired(job, FailureReasons.WORKER_LEASE_EXPIRED.toString());
+        if (updatedJob != job) {
+          monitor.info(() -> format("Lease of job %s expired, reclaiming it", jobId));
+          storeJob(jobId, updatedJob, null, true);
+          requeued.add(jobId);
+        }
+      }
+    }
+    return requeued;
+  }
+
+  @Override
+  public boolean addJobUpdateListener(JobUpdateListener listener) {
+    LISTENERS.add(listener);
+    return true;
+  }
+
+  @Override
+  public void removeJobUpdateListener(JobUpdateListener listener) {
+    LISTENERS.remove(listener);
+  }
+
+  private void notifyListeners(UUID jobId, PortabilityJob job) {
+    for (JobUpdateListener listener : LISTENERS) {
+      try {
+        listener.jobUpdated(jobId, job);
+      } catch (RuntimeException e) {
+        monitor.severe(() -> format("Job update listener failed for job %s", jobId), e);
       }
-    } catch (NullPointerException | IllegalStateException e) {
-      throw new IOException("Couldn't update jobId: " + jobId, e);
     }
   }
 
@@ -135,7 +267,12 @@ public final class LocalJobStore extends JobStoreWithValidator {
   @Override
   public void remove(UUID jobId) throws IOException {
     monitor.debug(() -> format("Remove job %s from local storage", jobId));
-    Map<String, Object> previous = JOB_MAP.remove(jobId);
+    PortabilityJob previous;
+    synchronized (LOCK) {
+      previous = JOB_MAP.remove(jobId);
+      LEASES.remove(jobId);
+      unindex(jobId);
+    }
     if (previous == null) {
       throw new IOException("jobId: " + jobId + " didn't exist in the map");
     }
@@ -148,35 +285,64 @@ public final class LocalJobStore extends JobStoreWithValidator {
    */
   @Override
   public PortabilityJob findJob(UUID jobId) {
-    if (!JOB_MAP.containsKey(jobId)) {
-      return null;
-    }
-    return PortabilityJob.fromMap(JOB_MAP.get(jobId));
+    return JOB_MAP.get(jobId);
+  }
+
+  @Override
+  public PortabilityJob.State getJobState(UUID jobId) {
+    PortabilityJob job = JOB_MAP.get(jobId);
+    return job == null ? null : job.state();
   }
 
   /**
-   * Finds the ID of the first {@link PortabilityJob} in state {@code jobState} in the map, or null
-   * if none found.
+   * Finds the ID of the {@link PortabilityJob} that has been in state {@code jobState} the longest,
+   * or null if none found.
    */
   @Override
-  public synchronized UUID findFirst(JobAuthorization.State jobState) {
-    // Mimic an index lookup
-    for (Entry<UUID, Map<String, Object>> job : JOB_MAP.entrySet()) {
-      Map<String, Object> properties = job.getValue();
-      State state = State.valueOf(properties.get(PortabilityJob.AUTHORIZATION_STATE).toString());
-      UUID jobKey = job.getKey();
-      monitor.debug(
-          () ->
-              format(
-                  "Looking up first job in state %s: found job %s (state %s)",
-                  jobState, jobKey, state));
-      if (state == jobState) {
-        return jobKey;
-      }
+  public UUID findFirst(JobAuthorization.State jobState) {
+    for (IndexEntry entry : stateIndex(jobState)) {
+      return entry.jobId;
     }
     return null;
   }
 
+  /**
+   * Returns {@code job} as read back from a persistent store, so jobs that can't be encoded fail
+   * here as well.
+   */
+  private PortabilityJob toStoredJob(PortabilityJob job) throws IOException {
+    return jobCodec.decode(jobCodec.encode(job));
+  }
+
+  private static ConcurrentSkipListSet<IndexEntry> stateIndex(State state) {
+    return STATE_INDEX.computeIfAbsent(state, s -> new ConcurrentSkipListSet<>());
+  }
+
+  /**
+   * Moves the job to the index of {@code state}, at the end unless it is {@code requeued}. A job
+   * staying in its state keeps its position. Called holding LOCK.
+   */
+  private static void index(UUID jobId, State state, boolean requeued) {
+    IndexEntry previous = INDEX_ENTRIES.get(jobId);
+    if (previous != null) {
+      if (previous.state == state && !requeued) {
+        return;
+      }
+      stateIndex(previous.state).remove(previous);
+    }
+    IndexEntry entry =
+        new IndexEntry(jobId, state, requeued ? nextRequeuedPosition-- : nextPosition++);
+    INDEX_ENTRIES.put(jobId, entry);
+    stateIndex(state).add(entry);
+  }
+
+  private static void unindex(UUID jobId) {
+    IndexEntry entry = INDEX_ENTRIES.remove(jobId);
+    if (entry != null) {
+      stateIndex(entry.state).remove(entry);
+    }
+  }
+
   @Override
   public void addCounts(UUID jobId, Map<String, Integer> newCounts) {
     if (newCounts == null) {
@@ -255,4 +421,33 @@ public final class LocalJobStore extends JobStoreWithValidator {
     String replace = inputName.replace("/", "_");
     return createFullKey(jobId, replace);
   }
+
+  /** The position of a job in the index of its state. */
+  private static final class IndexEntry implements Comparable<IndexEntry> {
+    private final UUID jobId;
+    private final State state;
+    private final long position;
+
+    IndexEntry(UUID jobId, State state, long position) {
+      this.jobId = jobId;
+      this.state = state;
+      this.position = position;
+    }
+
+    @Override
+    public int compareTo(IndexEntry other) {
+      return Long.compare(position, other.position);
+    }
+  }
+
+  /** The lease of a worker on a job it claimed. */
+  private static final class JobLease {
+    private final String instanceId;
+    private final long expiresAtMillis;
+
+    JobLease(String instanceId, Duration leaseDuration) {
+      this.instanceId = Preconditions.checkNotNull(instanceId, "instanceId can't be null");
+      this.expiresAtMillis = System.currentTimeMillis() + leaseDuration.toMillis();
+    }
+  }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.cloud.local;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import org.datatransferproject.api.launcher.Monitor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalIdempotentImportExecutorTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Monitor monitor = new Monitor() {};
+  private final UUID jobId = UUID.randomUUID();
+  private Path logDirectory;
+
+  @Before
+  public void setUp() {
+    logDirectory = folder.getRoot().toPath();
+  }
+
+  @Test
+  public void reloadsKnownValuesAndErrors() throws Exception {
+    LocalIdempotentImportExecutor executor = newExecutor();
+    executor.executeAndSwallowIOExceptions("id1", "item1", () -> "value1");
+    executor.executeAndSwallowIOExceptions(
+        "id2",
+        "item2",
+        () -> {
+          throw new IOException("failed");
+        });
+    executor.executeAndSwallowIOExceptions(
+        "id3",
+        "item3",
+        () -> {
+          throw new IOException("failed");
+        });
+    executor.executeAndSwallowIOExceptions("id3", "item3", () -> "value3");
+
+    LocalIdempotentImportExecutor restarted = newExecutor();
+
+    assertThat(restarted.<String>getCachedValue("id1")).isEqualTo("value1");
+    assertThat(restarted.<String>getCachedValue("id3")).isEqualTo("value3");
+    assertThat(restarted.isKeyCached("id2")).isFalse();
+    assertThat(restarted.getErrors()).hasSize(1);
+    assertThat(restarted.getErrors().iterator().next().id()).isEqualTo("id2");
+  }
+
+  @Test
+  public void ignoresPartiallyWrittenRecord() throws Exception {
+    LocalIdempotentImportExecutor executor = newExecutor();
+    executor.executeAndSwallowIOExceptions("id1", "item1", () -> "value1");
+    executor.executeAndSwallowIOExceptions("id2", "item2", () -> "value2");
+    try (FileChannel channel = FileChannel.open(logFile(), StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 1);
+    }
+
+    LocalIdempotentImportExecutor restarted = newExecutor();
+    restarted.executeAndSwallowIOExceptions("id2", "item2", () -> "value2");
+
+    assertThat(restarted.<String>getCachedValue("id1")).isEqualTo("value1");
+    assertThat(newExecutor().<String>getCachedValue("id2")).isEqualTo("value2");
+  }
+
+  @Test
+  public void ignoresCorruptTail() throws Exception {
+    LocalIdempotentImportExecutor executor = newExecutor();
+    executor.executeAndSwallowIOExceptions("id1", "item1", () -> "value1");
+    long validLength = Files.size(logFile());
+    executor.executeAndSwallowIOExceptions("id2", "item2", () -> "value2");
+    executor.executeAndSwallowIOExceptions("id3", "item3", () -> "value3");
+    // Corrupts the length prefix of the id of the second record
+    try (FileChannel channel = FileChannel.open(logFile(), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xff}), validLength + 1);
+    }
+
+    LocalIdempotentImportExecutor restarted = newExecutor();
+
+    assertThat(restarted.<String>getCachedValue("id1")).isEqualTo("value1");
+    assertThat(restarted.isKeyCached("id2")).isFalse();
+    assertThat(restarted.isKeyCached("id3")).isFalse();
+    assertThat(Files.size(logFile())).isEqualTo(validLength);
+  }
+
+  @Test
+  public void compactsSupersededRecords() throws Exception {
+    LocalIdempotentImportExecutor executor = newExecutor();
+    for (int i = 0; i < 10; i++) {
+      executor.executeAndSwallowIOExceptions(
+          "id1",
+          "item1",
+          () -> {
+            throw new IOException("failed");
+          });
+    }
+    executor.executeAndSwallowIOExceptions("id1", "item1", () -> "value1");
+    long length = Files.size(logFile());
+
+    LocalIdempotentImportExecutor restarted = newExecutor();
+
+    assertThat(restarted.<String>getCachedValue("id1")).isEqualTo("value1");
+    assertThat(restarted.getErrors()).isEmpty();
+    assertThat(Files.size(logFile())).isLessThan(length);
+  }
+
+  @Test
+  public void ignoresKnownValuesOfOtherClasses() throws Exception {
+    LocalIdempotentImportExecutor executor = newExecutor();
+    executor.executeAndSwallowIOExceptions("id1", "item1", () -> "value1");
+    executor.executeAndSwallowIOExceptions("id2", "item2", () -> new PriorityQueue<String>());
+
+    LocalIdempotentImportExecutor restarted = newExecutor();
+
+    assertThat(restarted.<String>getCachedValue("id1")).isEqualTo("value1");
+    assertThat(restarted.isKeyCached("id2")).isFalse();
+  }
+
+  @Test
+  public void deletesLogOnClose() throws Exception {
+    LocalIdempotentImportExecutor executor = newExecutor();
+    executor.executeAndSwallowIOExceptions("id1", "item1", () -> "value1");
+
+    executor.close();
+
+    assertThat(Files.exists(logFile())).isFalse();
+  }
+
+  private Path logFile() {
+    return logDirectory.resolve(jobId + ".log");
+  }
+
+  private LocalIdempotentImportExecutor newExecutor() {
+    LocalIdempotentImportExecutor executor =
+        new LocalIdempotentImportExecutor(logDirectory, monitor);
+    executor.setJobId(jobId);
+    return executor;
+  }
+}
@@ -20,8 +20,12 @@ import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.truth.Truth;
+import java.time.Duration;
 import java.util.Map;
 import java.util.UUID;
+import org.datatransferproject.spi.cloud.types.JobAuthorization;
+import org.datatransferproject.spi.cloud.types.JobAuthorization.State;
+import org.datatransferproject.spi.cloud.types.PortabilityJob;
 import org.junit.Test;
 
 public class LocalJobStoreTest {
@@ -54,6 +58,104 @@ public class LocalJobStoreTest {
     Truth.assertThat(counts.get(ITEM_NAME)).isEqualTo(2);
   }
 
+  @Test
+  public void findFirstReturnsJobsInTheOrderTheyBecameAvailable() throws Exception {
+    UUID first = UUID.randomUUID();
+    UUID second = UUID.randomUUID();
+    localJobStore.createJob(second, createJob());
+    localJobStore.createJob(first, createJob());
+    localJobStore.updateJobAuthStateToCredsAvailable(first);
+    localJobStore.updateJobAuthStateToCredsAvailable(second);
+
+    Truth.assertThat(localJobStore.findFirst(State.CREDS_AVAILABLE)).isEqualTo(first);
+    localJobStore.remove(first);
+    Truth.assertThat(localJobStore.findFirst(State.CREDS_AVAILABLE)).isEqualTo(second);
+    localJobStore.remove(second);
+    Truth.assertThat(localJobStore.findFirst(State.CREDS_AVAILABLE)).isNull();
+  }
+
+  @Test
+  public void findFirstReturnsJobsThatReenteredAStateLast() throws Exception {
+    UUID first = UUID.randomUUID();
+    UUID second = UUID.randomUUID();
+    localJobStore.createJob(first, createJob());
+    localJobStore.createJob(second, createJob());
+    localJobStore.updateJobAuthStateToCredsAvailable(first);
+    localJobStore.updateJobAuthStateToCredsAvailable(second);
+
+    // The first job leaves the state and enters it again
+    PortabilityJob job = localJobStore.findJob(first);
+    localJobStore.updateJob(first, withState(job, State.INITIAL));
+    localJobStore.updateJob(first, withState(job, State.CREDS_AVAILABLE));
+
+    Truth.assertThat(localJobStore.findFirst(State.CREDS_AVAILABLE)).isEqualTo(second);
+    localJobStore.remove(second);
+    Truth.assertThat(localJobStore.findFirst(State.CREDS_AVAILABLE)).isEqualTo(first);
+    localJobStore.remove(first);
+    Truth.assertThat(localJobStore.findFirst(State.CREDS_AVAILABLE)).isNull();
+  }
+
+  @Test
+  public void requeuesJobsWithExpiredLeases() throws Exception {
+    UUID jobId = UUID.randomUUID();
+    localJobStore.createJob(jobId, createJob());
+    localJobStore.updateJobAuthStateToCredsAvailable(jobId);
+    PortabilityJob job = localJobStore.findJob(jobId);
+    PortabilityJob claimedJob =
+        job.toBuilder()
+            .setAndValidateJobAuthorization(
+                job.jobAuthorization()
+                    .toBuilder()
+                    .setInstanceId("worker")
+                    .setAuthPublicKey("key")
+                    .setState(State.CREDS_ENCRYPTION_KEY_GENERATED)
+                    .build())
+            .build();
+    localJobStore.claimJob(jobId, claimedJob, Duration.ofMinutes(1));
+
+    Truth.assertThat(localJobStore.requeueExpiredJobLeases()).isEmpty();
+    localJobStore.renewJobLease(jobId, "worker", Duration.ZERO);
+    Truth.assertThat(localJobStore.requeueExpiredJobLeases()).containsExactly(jobId);
+
+    JobAuthorization jobAuthorization = localJobStore.findJob(jobId).jobAuthorization();
+    Truth.assertThat(jobAuthorization.state()).isEqualTo(State.CREDS_AVAILABLE);
+    Truth.assertThat(jobAuthorization.authPublicKey()).isNull();
+    Truth.assertThat(localJobStore.findFirst(State.CREDS_AVAILABLE)).isEqualTo(jobId);
+    localJobStore.remove(jobId);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void renewingALeaseOfAnotherWorkerFails() throws Exception {
+    UUID jobId = UUID.randomUUID();
+    localJobStore.createJob(jobId, createJob());
+    try {
+      localJobStore.renewJobLease(jobId, "worker", Duration.ofMinutes(1));
+    } finally {
+      localJobStore.remove(jobId);
+    }
+  }
+
+  private static PortabilityJob withState(PortabilityJob job, State state) {
+    return job.toBuilder()
+        .setAndValidateJobAuthorization(
+            job.jobAuthorization().toBuilder().setState(state).build())
+        .build();
+  }
+
+  private static PortabilityJob createJob() {
+    return PortabilityJob.builder()
+        .setTransferDataType("photo")
+        .setExportService("DummyExportService")
+        .setImportService("DummyImportService")
+        .setAndValidateJobAuthorization(
+            JobAuthorization.builder()
+                .setEncryptionScheme("cleartext")
+                .setState(State.INITIAL)
+                .setSessionSecretKey("fooBar")
+                .build())
+        .build();
+  }
+
   private void addItemToJobStoreCounts(final String itemName) {
     localJobStore.addCounts(
         jobId, new ImmutableMap.Builder<String, Integer>().put(itemName, 1).build());
@@ -5,6 +5,7 @@ import com.google.api.client.json.JsonFactory;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import org.datatransferproject.api.launcher.ExtensionContext;
 import org.datatransferproject.api.launcher.Monitor;
@@ -30,6 +31,7 @@ import org.datatransferproject.spi.transfer.extension.TransferExtension;
 import org.datatransferproject.spi.transfer.provider.Exporter;
 import org.datatransferproject.spi.transfer.provider.Importer;
 import org.datatransferproject.types.transfer.auth.AppCredentials;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
 
 /*
  * GoogleTransferExtension allows for importers and exporters of data types
@@ -41,6 +43,11 @@ public class GoogleTransferExtension implements TransferExtension {
   private static final ImmutableList<String> SUPPORTED_SERVICES =
       ImmutableList.of(
           "BLOBS", "CALENDAR", "CONTACTS", "MAIL", "PHOTOS", "SOCIAL-POSTS", "TASKS", "VIDEOS");
+  // Their exporters and importers only share thread-safe clients and the job's stores between
+  // pages. The photos exporter stores the contents of albums when exporting the first page, before
+  // any other page is exported.
+  private static final ImmutableSet<String> THREAD_SAFE_SERVICES =
+      ImmutableSet.of("CALENDAR", "PHOTOS");
   private ImmutableMap<String, Importer> importerMap;
   private ImmutableMap<String, Exporter> exporterMap;
   private boolean initialized = false;
@@ -64,6 +71,11 @@ public class GoogleTransferExtension implements TransferExtension {
     return importerMap.get(transferDataType);
   }
 
+  @Override
+  public boolean isThreadSafe(String transferDataType) {
+    return THREAD_SAFE_SERVICES.contains(transferDataType);
+  }
+
   @Override
   public void initialize(ExtensionContext context) {
     // Note: initialize could be called twice in an account migration scenario where we import and
@@ -74,6 +86,7 @@ public class GoogleTransferExtension implements TransferExtension {
     TemporaryPerJobDataStore jobStore = context.getService(TemporaryPerJobDataStore.class);
     HttpTransport httpTransport = context.getService(HttpTransport.class);
     JsonFactory jsonFactory = context.getService(JsonFactory.class);
+    TransferExecutor transferExecutor = context.getService(TransferExecutor.class);
 
     AppCredentials appCredentials;
     try {
@@ -98,8 +111,9 @@ public class GoogleTransferExtension implements TransferExtension {
     ImmutableMap.Builder<String, Importer> importerBuilder = ImmutableMap.builder();
     importerBuilder.put("BLOBS", new DriveImporter(credentialFactory, jobStore, monitor));
     importerBuilder.put("CONTACTS", new GoogleContactsImporter(credentialFactory));
-    importerBuilder.put("CALENDAR", new GoogleCalendarImporter(credentialFactory));
-    importerBuilder.put("MAIL", new GoogleMailImporter(credentialFactory, monitor));
+    importerBuilder.put("CALENDAR", new GoogleCalendarImporter(credentialFactory, monitor));
+    importerBuilder.put(
+        "MAIL", new GoogleMailImporter(credentialFactory, transferExecutor, monitor));
     importerBuilder.put("TASKS", new GoogleTasksImporter(credentialFactory));
     importerBuilder.put(
         "PHOTOS",
@@ -108,7 +122,8 @@ public class GoogleTransferExtension implements TransferExtension {
             jobStore,
             jsonFactory,
             monitor,
-            context.getSetting("googleWritesPerSecond", 1.0)));
+            context.getSetting("googleWritesPerSecond", 1.0),
+            transferExecutor));
     importerBuilder.put("VIDEOS", new GoogleVideosImporter(appCredentials, jobStore, monitor));
     importerMap = importerBuilder.build();
 
@@ -116,7 +131,8 @@ public class GoogleTransferExtension implements TransferExtension {
     exporterBuilder.put("BLOBS", new DriveExporter(credentialFactory, jobStore, monitor));
     exporterBuilder.put("CONTACTS", new GoogleContactsExporter(credentialFactory));
     exporterBuilder.put("CALENDAR", new GoogleCalendarExporter(credentialFactory));
-    exporterBuilder.put("MAIL", new GoogleMailExporter(credentialFactory));
+    exporterBuilder.put(
+        "MAIL", new GoogleMailExporter(credentialFactory, transferExecutor));
     exporterBuilder.put("SOCIAL-POSTS", new GooglePlusExporter(credentialFactory));
     exporterBuilder.put("TASKS", new GoogleTasksExporter(credentialFactory, monitor));
     exporterBuilder.put(
@@ -1,12 +1,21 @@
 package org.datatransferproject.datatransfer.google.calendar;
 
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.util.DateTime;
 import com.google.api.services.calendar.Calendar;
 import com.google.api.services.calendar.model.Event;
 import com.google.api.services.calendar.model.EventAttendee;
 import com.google.api.services.calendar.model.EventDateTime;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.datatransfer.google.common.GoogleCredentialFactory;
 import org.datatransferproject.datatransfer.google.common.GoogleStaticObjects;
 import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
@@ -19,24 +28,45 @@ import org.datatransferproject.types.common.models.calendar.CalendarModel;
 import org.datatransferproject.types.transfer.auth.TokensAndUrlAuthData;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
+/**
+ * Imports calendars and their events into Google Calendar. The events of a page are inserted in
+ * batch requests per calendar, and the events whose insert got no response or a server error are
+ * inserted again on their own. Events get an id derived from the job, so inserting an event that
+ * was already inserted fails with a conflict instead of creating a duplicate.
+ */
 public class GoogleCalendarImporter implements
     Importer<TokensAndUrlAuthData, CalendarContainerResource> {
+  // Google Calendar recommends batches of at most 50 requests
+  @VisibleForTesting
+  static final int MAX_EVENTS_PER_BATCH = 50;
+  private static final int CONFLICT = 409;
 
   private final GoogleCredentialFactory credentialFactory;
+  private final Monitor monitor;
   private volatile Calendar calendarInterface;
 
-  public GoogleCalendarImporter(GoogleCredentialFactory credentialFactory) {
+  public GoogleCalendarImporter(GoogleCredentialFactory credentialFactory, Monitor monitor) {
     // calendarInterface lazily initialized for each request
-    this(credentialFactory, null);
+    this(credentialFactory, monitor, null);
   }
 
   @VisibleForTesting
   GoogleCalendarImporter(GoogleCredentialFactory credentialFactory,
+      Monitor monitor,
       Calendar calendarInterface) {
     this.credentialFactory = credentialFactory;
+    this.monitor = monitor;
     this.calendarInterface = calendarInterface;
   }
 
@@ -102,15 +132,165 @@ public class GoogleCalendarImporter implements
           calendarModel.getName(),
           () -> importSingleCalendar(authData, calendarModel));
     }
-    for (CalendarEventModel eventModel : data.getEvents()) {
-      idempotentExecutor.executeAndSwallowIOExceptions(
-          Integer.toString(eventModel.hashCode()),
-          eventModel.getNotes(),
-          () -> importSingleEvent(idempotentExecutor, authData, eventModel));
-    }
+    importEvents(jobId, idempotentExecutor, authData, data.getEvents());
     return ImportResult.OK;
   }
 
+  /**
+   * Returns the id of the event with {@code idempotentId} in the job {@code jobId}. Event ids are
+   * lowercase base32hex.
+   */
+  @VisibleForTesting
+  static String getEventId(UUID jobId, String idempotentId) {
+    return BaseEncoding.base32Hex()
+        .lowerCase()
+        .omitPadding()
+        .encode(
+            Hashing.sha256()
+                .hashString(jobId + "-" + idempotentId, StandardCharsets.UTF_8)
+                .asBytes());
+  }
+
+  /**
+   * Inserts the {@code eventModels} not imported yet, in batch requests per calendar, and records
+   * the outcome of each event in the {@code idempotentExecutor}. Events whose insert got no
+   * response or a server error in a batch are inserted again on their own, events rejected by a
+   * client error fail and are only inserted again when the item is retried.
+   */
+  private void importEvents(
+      UUID jobId,
+      IdempotentImportExecutor idempotentExecutor,
+      TokensAndUrlAuthData authData,
+      Iterable<CalendarEventModel> eventModels)
+      throws Exception {
+    // Events to insert grouped by the id of their imported calendar, then by idempotent id
+    Map<String, Map<String, CalendarEventModel>> eventsByCalendar = new LinkedHashMap<>();
+    for (CalendarEventModel eventModel : eventModels) {
+      String idempotentId = Integer.toString(eventModel.hashCode());
+      if (idempotentExecutor.isKeyCached(idempotentId)) {
+        continue;
+      }
+      if (!idempotentExecutor.isKeyCached(eventModel.getCalendarId())) {
+        // Importing the calendar failed, which also fails its events
+        idempotentExecutor.executeAndSwallowIOExceptions(
+            idempotentId,
+            eventModel.getNotes(),
+            () -> {
+              throw new IOException(
+                  "Calendar " + eventModel.getCalendarId() + " was not imported");
+            });
+        continue;
+      }
+      String newCalendarId = idempotentExecutor.getCachedValue(eventModel.getCalendarId());
+      eventsByCalendar
+          .computeIfAbsent(newCalendarId, k -> new LinkedHashMap<>())
+          .put(idempotentId, eventModel);
+    }
+    if (eventsByCalendar.isEmpty()) {
+      return;
+    }
+
+    Calendar calendar = getOrCreateCalendarInterface(authData);
+    for (Map.Entry<String, Map<String, CalendarEventModel>> calendarEvents :
+        eventsByCalendar.entrySet()) {
+      String newCalendarId = calendarEvents.getKey();
+      Map<String, CalendarEventModel> events = calendarEvents.getValue();
+      for (List<String> batchIds :
+          Lists.partition(new ArrayList<>(events.keySet()), MAX_EVENTS_PER_BATCH)) {
+        Map<String, String> newEventIds = new HashMap<>();
+        Map<String, IOException> failures = new HashMap<>();
+        insertEventBatch(
+            calendar, jobId, newCalendarId, batchIds, events, newEventIds, failures);
+        for (String idempotentId : batchIds) {
+          CalendarEventModel eventModel = events.get(idempotentId);
+          String newEventId = newEventIds.get(idempotentId);
+          Callable<String> insert =
+              () -> importSingleEvent(jobId, idempotentExecutor, authData, eventModel);
+          Callable<String> outcome;
+          if (newEventId != null) {
+            outcome = () -> newEventId;
+          } else if (failures.containsKey(idempotentId)) {
+            outcome = failThenRetry(failures.get(idempotentId), insert);
+          } else {
+            outcome = insert;
+          }
+          idempotentExecutor.executeAndSwallowIOExceptions(
+              idempotentId, eventModel.getNotes(), outcome);
+        }
+      }
+    }
+  }
+
+  /**
+   * Inserts the events with the given {@code idempotentIds} into the calendar {@code calendarId}
+   * with a single batch request. The new ids of the events inserted, or found to be inserted
+   * already, are put in {@code newEventIds}, and the events rejected by a client error in {@code
+   * failures}, keyed by idempotent id.
+   */
+  private void insertEventBatch(
+      Calendar calendar,
+      UUID jobId,
+      String calendarId,
+      List<String> idempotentIds,
+      Map<String, CalendarEventModel> eventModels,
+      Map<String, String> newEventIds,
+      Map<String, IOException> failures)
+      throws IOException {
+    BatchRequest batch = calendar.batch();
+    for (String idempotentId : idempotentIds) {
+      String eventId = getEventId(jobId, idempotentId);
+      Event event = convertToGoogleCalendarEvent(eventModels.get(idempotentId)).setId(eventId);
+      calendar
+          .events()
+          .insert(calendarId, event)
+          .queue(
+              batch,
+              new JsonBatchCallback<Event>() {
+                @Override
+                public void onSuccess(Event newEvent, HttpHeaders responseHeaders) {
+                  newEventIds.put(idempotentId, newEvent.getId());
+                }
+
+                @Override
+                public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                  if (error.getCode() == CONFLICT) {
+                    // Inserted by an earlier attempt
+                    newEventIds.put(idempotentId, eventId);
+                  } else if (error.getCode() >= 400 && error.getCode() < 500) {
+                    failures.put(
+                        idempotentId,
+                        new IOException(
+                            "Inserting event failed with "
+                                + error.getCode()
+                                + ": "
+                                + error.getMessage()));
+                  }
+                  // Otherwise inserted again on its own
+                }
+              });
+    }
+    try {
+      batch.execute();
+    } catch (IOException e) {
+      // The events whose response wasn't received are inserted again on their own
+      monitor.info(() -> "Batch insert of events into calendar " + calendarId + " failed", e);
+    }
+  }
+
+  /**
+   * Returns a callable that throws {@code failure}, the outcome of the event in its batch, when
+   * first called, and calls {@code retry} when the item is retried.
+   */
+  private static Callable<String> failThenRetry(IOException failure, Callable<String> retry) {
+    AtomicBoolean failed = new AtomicBoolean();
+    return () -> {
+      if (failed.compareAndSet(false, true)) {
+        throw failure;
+      }
+      return retry.call();
+    };
+  }
+
   @VisibleForTesting
   String importSingleCalendar(TokensAndUrlAuthData authData, CalendarModel calendarModel)
       throws IOException {
@@ -122,17 +302,27 @@ public class GoogleCalendarImporter implements
   }
 
   @VisibleForTesting
-  String importSingleEvent(IdempotentImportExecutor idempotentImportExecutor,
+  String importSingleEvent(UUID jobId,
+      IdempotentImportExecutor idempotentImportExecutor,
       TokensAndUrlAuthData authData,
       CalendarEventModel eventModel)
       throws IOException {
-    Event event = convertToGoogleCalendarEvent(eventModel);
+    String eventId = getEventId(jobId, Integer.toString(eventModel.hashCode()));
+    Event event = convertToGoogleCalendarEvent(eventModel).setId(eventId);
     String newCalendarId = idempotentImportExecutor.getCachedValue(eventModel.getCalendarId());
-    return getOrCreateCalendarInterface(authData)
-        .events()
-        .insert(newCalendarId, event)
-        .execute()
-        .getId();
+    try {
+      return getOrCreateCalendarInterface(authData)
+          .events()
+          .insert(newCalendarId, event)
+          .execute()
+          .getId();
+    } catch (GoogleJsonResponseException e) {
+      if (e.getStatusCode() != CONFLICT) {
+        throw e;
+      }
+      // Inserted by an earlier attempt
+      return eventId;
+    }
   }
 
   private Calendar getOrCreateCalendarInterface(TokensAndUrlAuthData authData) {
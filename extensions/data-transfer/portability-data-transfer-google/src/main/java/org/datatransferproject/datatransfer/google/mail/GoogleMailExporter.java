@@ -16,17 +16,32 @@
 
 package org.datatransferproject.datatransfer.google.mail;
 
+import static java.lang.String.format;
+
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.Gmail.Users.Messages;
 import com.google.api.services.gmail.model.ListMessagesResponse;
 import com.google.api.services.gmail.model.Message;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import org.datatransferproject.datatransfer.google.common.GoogleCredentialFactory;
 import org.datatransferproject.datatransfer.google.common.GoogleStaticObjects;
 import org.datatransferproject.spi.transfer.provider.ExportResult;
@@ -39,25 +54,49 @@ import org.datatransferproject.types.common.StringPaginationToken;
 import org.datatransferproject.types.transfer.auth.TokensAndUrlAuthData;
 import org.datatransferproject.types.common.models.mail.MailContainerResource;
 import org.datatransferproject.types.common.models.mail.MailMessageModel;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
 
+/**
+ * Exports the messages of a Gmail mailbox a page at a time.
+ *
+ * <p>The raw messages of a page are fetched in batch requests of up to {@link #BATCH_SIZE}
+ * messages, run concurrently on the service's {@link TransferExecutor}. Messages whose fetch failed
+ * with a transient error are fetched again in a later batch. While the messages of a page are
+ * fetched, the next page is listed, and kept for the next export of the job.
+ */
 public class GoogleMailExporter implements Exporter<TokensAndUrlAuthData, MailContainerResource> {
   @VisibleForTesting
   static final long PAGE_SIZE = 50; // TODO configure this in production
   @VisibleForTesting
   // The special value me can be used to indicate the authenticated user to the gmail api
   static final String USER = "me";
+  // Larger batches are more likely to be rate limited by Gmail
+  @VisibleForTesting
+  static final int BATCH_SIZE = 25;
+  @VisibleForTesting
+  static final int MAX_FETCH_ATTEMPTS = 3;
+  private static final long RETRY_BACKOFF_MILLIS = 1000;
+  private static final ImmutableSet<String> RATE_LIMIT_REASONS =
+      ImmutableSet.of("rateLimitExceeded", "userRateLimitExceeded");
 
   private final GoogleCredentialFactory credentialFactory;
+  private final TransferExecutor executor;
+  // Next page listed for a job, keyed by job id
+  private final Cache<UUID, PrefetchedPage> prefetchedPages =
+      CacheBuilder.newBuilder().expireAfterWrite(10, TimeUnit.MINUTES).build();
   private volatile Gmail gmail;
 
-  public GoogleMailExporter(GoogleCredentialFactory credentialFactory) {
+  public GoogleMailExporter(GoogleCredentialFactory credentialFactory, TransferExecutor executor) {
     this.credentialFactory = credentialFactory;
+    this.executor = executor;
     this.gmail = null;
   }
 
   @VisibleForTesting
-  GoogleMailExporter(GoogleCredentialFactory credentialFactory, Gmail gmail) {
+  GoogleMailExporter(
+      GoogleCredentialFactory credentialFactory, Gmail gmail, TransferExecutor executor) {
     this.credentialFactory = credentialFactory;
+    this.executor = executor;
     this.gmail = gmail;
   }
 
@@ -67,40 +106,35 @@ public class GoogleMailExporter implements Exporter<TokensAndUrlAuthData, MailCo
     // Create a new gmail service for the authorized user
     Gmail gmail = getOrCreateGmail(authData);
 
-    Messages.List request = null;
+    String pageToken = null;
+    if (exportInformation.isPresent() && exportInformation.get().getPaginationData() != null) {
+      pageToken = ((StringPaginationToken) exportInformation.get().getPaginationData()).getToken();
+    }
+
+    ListMessagesResponse response = null;
     try {
-      request = gmail.users().messages().list(USER).setMaxResults(PAGE_SIZE);
+      response = listMessages(id, gmail, pageToken);
     } catch (IOException e) {
       return new ExportResult<>(e);
     }
 
-    if (exportInformation.isPresent() && exportInformation.get().getPaginationData() != null) {
-      request.setPageToken(
-          ((StringPaginationToken) exportInformation.get().getPaginationData()).getToken());
+    if (response.getNextPageToken() != null) {
+      String nextPageToken = response.getNextPageToken();
+      CompletableFuture<ListMessagesResponse> nextPage =
+          executor.submit(() -> createListRequest(gmail, nextPageToken).execute());
+      prefetchedPages.put(id, new PrefetchedPage(nextPageToken, nextPage));
     }
 
-    ListMessagesResponse response = null;
+    List<MailMessageModel> results;
     try {
-      response = request.execute();
+      // TODO: this is a good indication we need to swap the interface
+      // as we can't store all the mail messages in memory at once.
+      results = getMessages(gmail, response.getMessages());
     } catch (IOException e) {
+      prefetchedPages.invalidate(id);
       return new ExportResult<>(e);
     }
 
-    List<MailMessageModel> results = new ArrayList<>(response.getMessages().size());
-    // TODO: this is a good indication we need to swap the interface
-    // as we can't store all the mail messages in memory at once.
-    for (Message listMessage : response.getMessages()) {
-      Message getResponse = null;
-      try {
-        getResponse =
-            gmail.users().messages().get(USER, listMessage.getId()).setFormat("raw").execute();
-      } catch (IOException e) {
-        return new ExportResult<>(e);
-      }
-      // TODO: note this doesn't transfer things like labels
-      results.add(new MailMessageModel(getResponse.getRaw(), getResponse.getLabelIds()));
-    }
-
     PaginationData newPage = null;
     ResultType resultType = ResultType.END;
     if (response.getNextPageToken() != null) {
@@ -112,6 +146,92 @@ public class GoogleMailExporter implements Exporter<TokensAndUrlAuthData, MailCo
     return new ExportResult<>(resultType, mailContainerResource, new ContinuationData(newPage));
   }
 
+  /** Lists the page of messages at {@code pageToken}, using the page prefetched if any. */
+  private ListMessagesResponse listMessages(UUID id, Gmail gmail, String pageToken)
+      throws IOException {
+    PrefetchedPage prefetchedPage = prefetchedPages.getIfPresent(id);
+    if (prefetchedPage != null) {
+      prefetchedPages.invalidate(id);
+      if (prefetchedPage.pageToken.equals(pageToken)) {
+        try {
+          return prefetchedPage.response.join();
+        } catch (CompletionException e) {
+          // Listed again below, e.g. the prefetch failed with a transient error
+        }
+      }
+    }
+    return createListRequest(gmail, pageToken).execute();
+  }
+
+  private Messages.List createListRequest(Gmail gmail, String pageToken) throws IOException {
+    Messages.List request = gmail.users().messages().list(USER).setMaxResults(PAGE_SIZE);
+    if (pageToken != null) {
+      request.setPageToken(pageToken);
+    }
+    return request;
+  }
+
+  /** Fetches the raw {@code listMessages}, keeping their order. */
+  private List<MailMessageModel> getMessages(Gmail gmail, List<Message> listMessages)
+      throws IOException {
+    if (listMessages == null || listMessages.isEmpty()) {
+      return new ArrayList<>();
+    }
+    List<CompletableFuture<Map<String, Message>>> batches = new ArrayList<>();
+    for (List<Message> batch : Lists.partition(listMessages, BATCH_SIZE)) {
+      batches.add(executor.submit(() -> getMessageBatch(gmail, batch)));
+    }
+    Map<String, Message> messages = new HashMap<>();
+    try {
+      for (CompletableFuture<Map<String, Message>> batch : batches) {
+        messages.putAll(batch.join());
+      }
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Unable to get messages", e.getCause());
+    }
+    List<MailMessageModel> results = new ArrayList<>(listMessages.size());
+    for (Message listMessage : listMessages) {
+      Message message = messages.get(listMessage.getId());
+      // TODO: note this doesn't transfer things like labels
+      results.add(new MailMessageModel(message.getRaw(), message.getLabelIds()));
+    }
+    return results;
+  }
+
+  /**
+   * Fetches the raw {@code listMessages} in a batch request, fetching the messages that failed
+   * with a transient error again, in further batch requests.
+   *
+   * @return mapping from message ids to messages
+   * @throws IOException if a message can't be fetched
+   */
+  private Map<String, Message> getMessageBatch(Gmail gmail, List<Message> listMessages)
+      throws IOException, InterruptedException {
+    Map<String, Message> messages = new HashMap<>();
+    List<String> pending = Lists.transform(listMessages, Message::getId);
+    for (int attempt = 1; !pending.isEmpty(); attempt++) {
+      if (attempt > 1) {
+        Thread.sleep(RETRY_BACKOFF_MILLIS << (attempt - 2));
+      }
+      List<String> failed = new ArrayList<>();
+      BatchRequest batch = gmail.batch();
+      for (String messageId : pending) {
+        gmail
+            .users()
+            .messages()
+            .get(USER, messageId)
+            .setFormat("raw")
+            .queue(batch, new MessageCallback(messageId, messages, failed, attempt));
+      }
+      batch.execute();
+      pending = failed;
+    }
+    return messages;
+  }
+
   private Gmail getOrCreateGmail(TokensAndUrlAuthData authData) {
     return gmail == null ? makeGmailService(authData) : gmail;
   }
@@ -123,4 +243,57 @@ public class GoogleMailExporter implements Exporter<TokensAndUrlAuthData, MailCo
         .setApplicationName(GoogleStaticObjects.APP_NAME)
         .build();
   }
+
+  private static boolean isTransient(GoogleJsonError error) {
+    if (error.getCode() == 429 || error.getCode() >= 500) {
+      return true;
+    }
+    return error.getCode() == 403
+        && error.getErrors() != null
+        && error.getErrors().stream()
+            .anyMatch(info -> RATE_LIMIT_REASONS.contains(info.getReason()));
+  }
+
+  /** Adds a fetched message to the results of its batch, or its id to the failed ones. */
+  private static final class MessageCallback extends JsonBatchCallback<Message> {
+    private final String messageId;
+    private final Map<String, Message> messages;
+    private final List<String> failed;
+    private final int attempt;
+
+    MessageCallback(
+        String messageId, Map<String, Message> messages, List<String> failed, int attempt) {
+      this.messageId = messageId;
+      this.messages = messages;
+      this.failed = failed;
+      this.attempt = attempt;
+    }
+
+    @Override
+    public void onSuccess(Message message, HttpHeaders responseHeaders) {
+      messages.put(messageId, message);
+    }
+
+    @Override
+    public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) throws IOException {
+      if (!isTransient(error) || attempt >= MAX_FETCH_ATTEMPTS) {
+        throw new IOException(
+            format(
+                "Unable to get message %s: %d %s",
+                messageId, error.getCode(), error.getMessage()));
+      }
+      failed.add(messageId);
+    }
+  }
+
+  /** The response of listing the page at {@code pageToken}. */
+  private static final class PrefetchedPage {
+    private final String pageToken;
+    private final CompletableFuture<ListMessagesResponse> response;
+
+    PrefetchedPage(String pageToken, CompletableFuture<ListMessagesResponse> response) {
+      this.pageToken = pageToken;
+      this.response = response;
+    }
+  }
 }
@@ -16,6 +16,8 @@
 
 package org.datatransferproject.datatransfer.google.mail;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.model.Label;
@@ -24,8 +26,10 @@ import com.google.api.services.gmail.model.Message;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.datatransfer.google.common.GoogleCredentialFactory;
 import org.datatransferproject.datatransfer.google.common.GoogleStaticObjects;
@@ -36,14 +40,25 @@ import org.datatransferproject.types.common.models.mail.MailContainerModel;
 import org.datatransferproject.types.common.models.mail.MailContainerResource;
 import org.datatransferproject.types.common.models.mail.MailMessageModel;
 import org.datatransferproject.types.transfer.auth.TokensAndUrlAuthData;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
-import java.util.function.Supplier;
-
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Imports mail into Gmail. The messages of a page are inserted several at a time on the service's
+ * {@link TransferExecutor}, and the labels of the destination account are listed once per job.
+ */
 public class GoogleMailImporter implements Importer<TokensAndUrlAuthData, MailContainerResource> {
   @VisibleForTesting
   // The special value me can be used to indicate the authenticated user to the gmail api
@@ -53,17 +68,26 @@ public class GoogleMailImporter implements Importer<TokensAndUrlAuthData, MailCo
 
   private GoogleCredentialFactory credentialFactory;
   private final Gmail gmail;
+  private final TransferExecutor executor;
   private final Monitor monitor;
+  // Mapping of label name -> label id in the destination account, keyed by job id
+  private final Cache<UUID, Map<String, String>> labelIndexes =
+      CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS).build();
 
-  public GoogleMailImporter(GoogleCredentialFactory credentialFactory, Monitor monitor) {
-    this(credentialFactory, null, monitor);
+  public GoogleMailImporter(
+      GoogleCredentialFactory credentialFactory, TransferExecutor executor, Monitor monitor) {
+    this(credentialFactory, null, executor, monitor);
   }
 
   @VisibleForTesting
   GoogleMailImporter(
-      GoogleCredentialFactory credentialFactory, Gmail gmail, Monitor monitor) {
+      GoogleCredentialFactory credentialFactory,
+      Gmail gmail,
+      TransferExecutor executor,
+      Monitor monitor) {
     this.credentialFactory = credentialFactory;
     this.gmail = gmail;
+    this.executor = executor;
     this.monitor = monitor;
   }
 
@@ -74,20 +98,15 @@ public class GoogleMailImporter implements Importer<TokensAndUrlAuthData, MailCo
       TokensAndUrlAuthData authData,
       MailContainerResource data) throws Exception {
 
-    // Lazy init the request for all labels in the destination account, since it may not be needed
-    // Mapping of labelName -> destination label id
-    Supplier<Map<String, String>> allDestinationLabels = allDestinationLabelsSupplier(authData);
-
     // Import folders/labels
-    importLabels(authData, idempotentExecutor, allDestinationLabels, data.getFolders());
+    importLabels(id, authData, idempotentExecutor, data.getFolders());
 
 
     // Import the special DTP label
-    importDTPLabel(authData, idempotentExecutor, allDestinationLabels);
+    importDTPLabel(id, authData, idempotentExecutor);
 
     // Import labels from the given set of messages
-    importLabelsForMessages(
-            authData, idempotentExecutor, allDestinationLabels, data.getMessages());
+    importLabelsForMessages(id, authData, idempotentExecutor, data.getMessages());
 
     importMessages(authData, idempotentExecutor, data.getMessages());
 
@@ -98,9 +117,9 @@ public class GoogleMailImporter implements Importer<TokensAndUrlAuthData, MailCo
    * Creates a label in the import account, if it doesn't already exist, for all {@code folders} .
    */
   private void importLabels(
+      UUID id,
       TokensAndUrlAuthData authData,
       IdempotentImportExecutor idempotentExecutor,
-      Supplier<Map<String, String>> allDestinationLabels,
       Collection<MailContainerModel> folders) throws Exception {
     for (MailContainerModel mailContainerModel : folders) {
       Preconditions.checkArgument(!Strings.isNullOrEmpty(mailContainerModel.getName()));
@@ -108,31 +127,17 @@ public class GoogleMailImporter implements Importer<TokensAndUrlAuthData, MailCo
       idempotentExecutor.executeAndSwallowIOExceptions(
           exportedLabelName,
           "Label - " + exportedLabelName,
-          () -> {
-            String importerLabelId = allDestinationLabels.get().get(mailContainerModel.getName());
-            if (importerLabelId == null) {
-              importerLabelId = createImportedLabelId(authData, mailContainerModel.getName());
-            }
-            return importerLabelId;
-          });
+          () -> getOrCreateImportedLabelId(id, authData, exportedLabelName));
       }
   }
 
   /** Creates a label in the import account to associate with all imported messages. */
   private void importDTPLabel(
+      UUID id,
       TokensAndUrlAuthData authData,
-      IdempotentImportExecutor idempotentExecutor,
-      Supplier<Map<String, String>> allDestinationLabels) throws Exception {
+      IdempotentImportExecutor idempotentExecutor) throws Exception {
     idempotentExecutor.executeAndSwallowIOExceptions(
-        LABEL,
-        LABEL,
-        () -> {
-          String migratedLabelId = allDestinationLabels.get().get(LABEL);
-          if (migratedLabelId == null) {
-            migratedLabelId = createImportedLabelId(authData, LABEL);
-          }
-          return migratedLabelId;
-        });
+        LABEL, LABEL, () -> getOrCreateImportedLabelId(id, authData, LABEL));
   }
 
   /**
@@ -140,9 +145,9 @@ public class GoogleMailImporter implements Importer<TokensAndUrlAuthData, MailCo
    * with the give {@code messages} .
    */
   private void importLabelsForMessages(
+      UUID id,
       TokensAndUrlAuthData authData,
       IdempotentImportExecutor idempotentExecutor,
-      Supplier<Map<String, String>> allDestinationLabels,
       Collection<MailMessageModel> messages) throws Exception {
     for (MailMessageModel mailMessageModel : messages) {
       // Get or create label ids associated with this message
@@ -150,79 +155,183 @@ public class GoogleMailImporter implements Importer<TokensAndUrlAuthData, MailCo
         idempotentExecutor.executeAndSwallowIOExceptions(
             exportedLabelName,
             exportedLabelName,
-            () -> {
-              String importerLabelId = allDestinationLabels.get().get(exportedLabelName);
-              // Found no existing map or label named the same, create a new one
-              if (importerLabelId == null) {
-                  importerLabelId = createImportedLabelId(authData, exportedLabelName);
-              }
-              return importerLabelId;
-            });
+            () -> getOrCreateImportedLabelId(id, authData, exportedLabelName));
       }
     }
   }
 
   /**
    * Import each message in {@code messages} into the import account with it's associated labels.
+   * The messages are inserted several at a time, and the outcome of each one is recorded in the
+   * {@code idempotentExecutor} once all are done. A message retried on its own is inserted again.
    */
   private void importMessages(
       TokensAndUrlAuthData authData,
       IdempotentImportExecutor idempotentExecutor,
       Collection<MailMessageModel> messages) throws Exception {
-    for (MailMessageModel mailMessageModel : messages) {
-      idempotentExecutor.executeAndSwallowIOExceptions(
-          mailMessageModel.toString(),
-          // Trim the full mail message to try to give some context to the user but not overwhelm
-          // them.
-          "Mail message: " + mailMessageModel.getRawString()
-              .substring(0, Math.min(50, mailMessageModel.getRawString().length())),
-          () -> {
-            // Gather the label ids that will be associated with this message
-            ImmutableList.Builder<String> importedLabelIds = ImmutableList.builder();
-            for (String exportedLabelIdOrName : mailMessageModel.getContainerIds()) {
-              // By this time all the label ids have been added to tempdata
-              String importedLabelId = idempotentExecutor.getCachedValue(exportedLabelIdOrName);
-              if (importedLabelId != null) {
-                importedLabelIds.add(exportedLabelIdOrName);
-              } else {
-                // TODO remove after testing
-                monitor.debug(
-                    () -> "labels should have been added prior to importing messages");
+    // Keyed by idempotent id, so duplicate messages in a page are only inserted once
+    Map<String, MailMessageModel> pending = new LinkedHashMap<>();
+    Map<String, Message> newMessages = new LinkedHashMap<>();
+    Map<String, CompletableFuture<String>> inserts = new LinkedHashMap<>();
+    AtomicBoolean abandoned = new AtomicBoolean();
+    try {
+      for (MailMessageModel mailMessageModel : messages) {
+        String idempotentId = getIdempotentId(mailMessageModel);
+        if (idempotentExecutor.isKeyCached(idempotentId) || pending.containsKey(idempotentId)) {
+          continue;
+        }
+        // Create the message to import
+        Message newMessage =
+            new Message()
+                .setRaw(mailMessageModel.getRawString())
+                .setLabelIds(getImportedLabelIds(idempotentExecutor, mailMessageModel));
+        pending.put(idempotentId, mailMessageModel);
+        newMessages.put(idempotentId, newMessage);
+        inserts.put(
+            idempotentId,
+            executor.submit(
+                () -> {
+                  if (abandoned.get()) {
+                    throw new CancellationException("The import of the page failed");
+                  }
+                  return insertMessage(authData, newMessage);
+                }));
+      }
+
+      for (Map.Entry<String, MailMessageModel> message : pending.entrySet()) {
+        CompletableFuture<String> insert = inserts.get(message.getKey());
+        Message newMessage = newMessages.get(message.getKey());
+        // The first call reports the outcome of the insert issued above, further calls are retries
+        AtomicBoolean joined = new AtomicBoolean();
+        idempotentExecutor.executeAndSwallowIOExceptions(
+            message.getKey(),
+            getItemName(message.getValue()),
+            () -> {
+              if (joined.getAndSet(true)) {
+                return insertMessage(authData, newMessage);
               }
-            }
-            // Create the message to import
-            Message newMessage =
-                new Message()
-                    .setRaw(mailMessageModel.getRawString())
-                    .setLabelIds(importedLabelIds.build());
-            return getOrCreateGmail(authData)
-                .users()
-                .messages()
-                .insert(USER, newMessage)
-                .execute()
-                .getId();
-          });
+              try {
+                return insert.join();
+              } catch (CompletionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+              }
+            });
+      }
+    } finally {
+      // Only has an effect if the import bailed out early: inserts that didn't start are skipped,
+      // running ones are waited for so that none outlives the page, and the ones that went through
+      // are recorded so that a retry of the page doesn't insert them again
+      abandoned.set(true);
+      for (Map.Entry<String, CompletableFuture<String>> insert : inserts.entrySet()) {
+        String importedId;
+        try {
+          importedId = insert.getValue().join();
+        } catch (CompletionException | CancellationException e) {
+          // Already recorded, or skipped
+          continue;
+        }
+        if (!idempotentExecutor.isKeyCached(insert.getKey())) {
+          recordInsertedMessage(
+              idempotentExecutor, insert.getKey(), pending.get(insert.getKey()), importedId);
+        }
+      }
     }
   }
 
-  /** Supplies a mapping of Label Name -> Label Id (in the import account). */
-  private java.util.function.Supplier<Map<String, String>> allDestinationLabelsSupplier(
-      TokensAndUrlAuthData authData) {
-    return () -> {
-      ListLabelsResponse response;
-      try {
-        response = getOrCreateGmail(authData).users().labels().list(USER).execute();
-      } catch (IOException e) {
-        throw new RuntimeException("Unable to list labels for user", e);
-      }
-      ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+  /**
+   * Records a message inserted before the import of its page bailed out. Failures are only logged
+   * so that they don't hide the one the page failed with.
+   */
+  private void recordInsertedMessage(
+      IdempotentImportExecutor idempotentExecutor,
+      String idempotentId,
+      MailMessageModel mailMessageModel,
+      String importedId) {
+    try {
+      idempotentExecutor.executeAndSwallowIOExceptions(
+          idempotentId, getItemName(mailMessageModel), () -> importedId);
+    } catch (Exception e) {
+      monitor.severe(() -> "Couldn't record inserted message " + idempotentId, e);
+    }
+  }
+
+  /**
+   * Trims the full mail message to try to give some context to the user but not overwhelm them.
+   */
+  private static String getItemName(MailMessageModel mailMessageModel) {
+    String rawString = mailMessageModel.getRawString();
+    return "Mail message: " + rawString.substring(0, Math.min(50, rawString.length()));
+  }
 
-      for (Label label : response.getLabels()) {
-        // TODO: remove system labels
-        builder.put(label.getName(), label.getId());
+  /** Gathers the ids of the labels that will be associated with {@code mailMessageModel}. */
+  private ImmutableList<String> getImportedLabelIds(
+      IdempotentImportExecutor idempotentExecutor, MailMessageModel mailMessageModel) {
+    ImmutableList.Builder<String> importedLabelIds = ImmutableList.builder();
+    for (String exportedLabelIdOrName : mailMessageModel.getContainerIds()) {
+      // By this time all the label ids have been added to tempdata
+      if (idempotentExecutor.isKeyCached(exportedLabelIdOrName)) {
+        importedLabelIds.add(
+            idempotentExecutor.<String>getCachedValue(exportedLabelIdOrName));
+      } else {
+        // Creating the label failed
+        monitor.debug(
+            () -> "labels should have been added prior to importing messages");
       }
-      return builder.build();
-    };
+    }
+    return importedLabelIds.build();
+  }
+
+  private String insertMessage(TokensAndUrlAuthData authData, Message newMessage)
+      throws IOException {
+    return getOrCreateGmail(authData).users().messages().insert(USER, newMessage).execute().getId();
+  }
+
+  /**
+   * Returns the key of a message in the idempotent executor, a hash of its content so the key is
+   * compact and stable across exports of the same message.
+   */
+  @VisibleForTesting
+  static String getIdempotentId(MailMessageModel mailMessageModel) {
+    return "message-" + Hashing.sha256().hashString(mailMessageModel.getRawString(), UTF_8);
+  }
+
+  /**
+   * Returns the id of the label named {@code labelName} in the import account, creating the label
+   * if it doesn't exist yet.
+   */
+  private String getOrCreateImportedLabelId(
+      UUID id, TokensAndUrlAuthData authData, String labelName) throws IOException {
+    Map<String, String> labelIndex = getLabelIndex(id, authData);
+    String importedLabelId = labelIndex.get(labelName);
+    // Found no existing label named the same, create a new one
+    if (importedLabelId == null) {
+      importedLabelId = createImportedLabelId(authData, labelName);
+      labelIndex.put(labelName, importedLabelId);
+    }
+    return importedLabelId;
+  }
+
+  /**
+   * Returns the mapping of Label Name -> Label Id in the import account, listed the first time it
+   * is needed by the job.
+   */
+  private Map<String, String> getLabelIndex(UUID id, TokensAndUrlAuthData authData) {
+    try {
+      return labelIndexes.get(
+          id,
+          () -> {
+            ListLabelsResponse response =
+                getOrCreateGmail(authData).users().labels().list(USER).execute();
+            Map<String, String> labelIndex = new ConcurrentHashMap<>();
+            for (Label label : response.getLabels()) {
+              // TODO: remove system labels
+              labelIndex.put(label.getName(), label.getId());
+            }
+            return labelIndex;
+          });
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Unable to list labels for user", e.getCause());
+    }
   }
 
   /** Creates the given {@code labelName} in the import service provider and returns the id. */
@@ -34,6 +34,10 @@ public class NewMediaItemResult implements Serializable {
   @JsonProperty("mediaItem")
   private GoogleMediaItem mediaItem;
 
+  public String getUploadToken() {
+    return uploadToken;
+  }
+
   public Status getStatus() {
     return status;
   }
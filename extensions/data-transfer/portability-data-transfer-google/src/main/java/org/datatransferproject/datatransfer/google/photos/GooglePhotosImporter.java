@@ -19,24 +19,40 @@ import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.json.JsonFactory;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.CountingInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.datatransfer.google.common.GoogleCredentialFactory;
 import org.datatransferproject.datatransfer.google.mediaModels.GoogleAlbum;
 import org.datatransferproject.datatransfer.google.mediaModels.NewMediaItem;
+import org.datatransferproject.datatransfer.google.mediaModels.NewMediaItemResult;
 import org.datatransferproject.datatransfer.google.mediaModels.NewMediaItemUpload;
 import org.datatransferproject.spi.cloud.storage.TemporaryPerJobDataStore;
 import org.datatransferproject.spi.cloud.storage.TemporaryPerJobDataStore.InputStreamWrapper;
 import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
 import org.datatransferproject.spi.transfer.provider.ImportResult;
 import org.datatransferproject.spi.transfer.provider.Importer;
-import org.datatransferproject.spi.transfer.types.CopyExceptionWithFailureReason;
 import org.datatransferproject.spi.transfer.types.DestinationMemoryFullException;
 import org.datatransferproject.spi.transfer.types.InvalidTokenException;
 import org.datatransferproject.spi.transfer.types.PermissionDeniedException;
@@ -45,12 +61,16 @@ import org.datatransferproject.types.common.models.photos.PhotoAlbum;
 import org.datatransferproject.types.common.models.photos.PhotoModel;
 import org.datatransferproject.types.common.models.photos.PhotosContainerResource;
 import org.datatransferproject.types.transfer.auth.TokensAndUrlAuthData;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
 
 public class GooglePhotosImporter
     implements Importer<TokensAndUrlAuthData, PhotosContainerResource> {
 
   // TODO: internationalize copy prefix
   private static final String COPY_PREFIX = "Copy of ";
+  // mediaItems:batchCreate accepts at most 50 new media items per request
+  // https://developers.google.com/photos/library/guides/upload-media#creating-media-item
+  private static final int MAX_NEW_MEDIA_ITEMS_PER_REQUEST = 50;
 
   private final GoogleCredentialFactory credentialFactory;
   private final TemporaryPerJobDataStore jobStore;
@@ -58,7 +78,10 @@ public class GooglePhotosImporter
   private final ImageStreamProvider imageStreamProvider;
   private final Monitor monitor;
   private final double writesPerSecond;
-  private volatile Map<UUID, GooglePhotosInterface> photosInterfacesMap;
+  private final TransferExecutor uploadExecutor;
+  // Keyed by job id, dropped once the job stopped using it
+  private final Cache<UUID, GooglePhotosInterface> photosInterfaces =
+      CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS).build();
   private volatile GooglePhotosInterface photosInterface;
 
   public GooglePhotosImporter(
@@ -66,16 +89,17 @@ public class GooglePhotosImporter
       TemporaryPerJobDataStore jobStore,
       JsonFactory jsonFactory,
       Monitor monitor,
-      double writesPerSecond) {
+      double writesPerSecond,
+      TransferExecutor uploadExecutor) {
     this(
         credentialFactory,
         jobStore,
         jsonFactory,
-        new HashMap<>(),
         null,
         new ImageStreamProvider(),
         monitor,
-        writesPerSecond);
+        writesPerSecond,
+        uploadExecutor);
   }
 
   @VisibleForTesting
@@ -83,19 +107,19 @@ public class GooglePhotosImporter
       GoogleCredentialFactory credentialFactory,
       TemporaryPerJobDataStore jobStore,
       JsonFactory jsonFactory,
-      Map<UUID, GooglePhotosInterface> photosInterfacesMap,
       GooglePhotosInterface photosInterface,
       ImageStreamProvider imageStreamProvider,
       Monitor monitor,
-      double writesPerSecond) {
+      double writesPerSecond,
+      TransferExecutor uploadExecutor) {
     this.credentialFactory = credentialFactory;
     this.jobStore = jobStore;
     this.jsonFactory = jsonFactory;
-    this.photosInterfacesMap = photosInterfacesMap;
     this.photosInterface = photosInterface;
     this.imageStreamProvider = imageStreamProvider;
     this.monitor = monitor;
     this.writesPerSecond = writesPerSecond;
+    this.uploadExecutor = uploadExecutor;
   }
 
   @Override
@@ -121,16 +145,7 @@ public class GooglePhotosImporter
     long bytes = 0L;
     // Uploads photos
     if (data.getPhotos() != null && data.getPhotos().size() > 0) {
-      for (PhotoModel photo : data.getPhotos()) {
-        final PhotoResult photoResult =
-            idempotentImportExecutor.executeAndSwallowIOExceptions(
-                photo.getAlbumId() + "-" + photo.getDataId(),
-                photo.getTitle(),
-                () -> importSinglePhoto(jobId, authData, photo, idempotentImportExecutor));
-        if (photoResult != null) {
-          bytes += photoResult.getBytes();
-        }
-      }
+      bytes = importPhotos(jobId, authData, data.getPhotos(), idempotentImportExecutor);
     }
 
     final ImportResult result = ImportResult.OK;
@@ -155,68 +170,275 @@ public class GooglePhotosImporter
     return responseAlbum.getId();
   }
 
+  /**
+   * Imports the photos of a page: the content of all photos is uploaded first, several at a time,
+   * then the media items are created in batches per album. The outcome of each photo is recorded
+   * in the {@code idempotentImportExecutor} under its own key. Should a photo be retried on its
+   * own, it is uploaded and created again rather than failing with the error of the page.
+   *
+   * @return the number of bytes imported
+   */
   @VisibleForTesting
-  PhotoResult importSinglePhoto(
+  long importPhotos(
       UUID jobId,
       TokensAndUrlAuthData authData,
-      PhotoModel inputPhoto,
+      Collection<PhotoModel> photos,
       IdempotentImportExecutor idempotentImportExecutor)
-      throws IOException, CopyExceptionWithFailureReason {
-    /*
-    TODO: resumable uploads https://developers.google.com/photos/library/guides/resumable-uploads
-    Resumable uploads would allow the upload of larger media that don't fit in memory.  To do this,
-    however, seems to require knowledge of the total file size.
-    */
-    // Upload photo
-    InputStream inputStream;
-    Long bytes;
-    if (inputPhoto.isInTempStore()) {
-      final InputStreamWrapper streamWrapper =
-          jobStore.getStream(jobId, inputPhoto.getFetchableUrl());
-      bytes = streamWrapper.getBytes();
-      inputStream = streamWrapper.getStream();
-    } else {
-      HttpURLConnection conn = imageStreamProvider.getConnection(inputPhoto.getFetchableUrl());
-      final long contentLengthLong = conn.getContentLengthLong();
-      bytes = contentLengthLong != -1 ? contentLengthLong : 0;
-      inputStream = conn.getInputStream();
+      throws Exception {
+    long bytes = 0L;
+    List<CompletableFuture<PhotoUpload>> uploads = new ArrayList<>();
+    // Photos repeated in the page are only imported once, the executor doesn't know of them yet
+    Set<String> seenIds = new HashSet<>();
+    try {
+      for (PhotoModel photo : photos) {
+        String idempotentId = getIdempotentId(photo);
+        if (!seenIds.add(idempotentId)) {
+          continue;
+        }
+        if (idempotentImportExecutor.isKeyCached(idempotentId)) {
+          PhotoResult photoResult = idempotentImportExecutor.getCachedValue(idempotentId);
+          bytes += photoResult.getBytes();
+        } else if (!Strings.isNullOrEmpty(photo.getAlbumId())
+            && !idempotentImportExecutor.isKeyCached(photo.getAlbumId())) {
+          // Creating the album failed, which also marks this photo as being failed.
+          idempotentImportExecutor.executeAndSwallowIOExceptions(
+              idempotentId,
+              photo.getTitle(),
+              () -> {
+                throw new IOException("Album " + photo.getAlbumId() + " was not imported");
+              });
+        } else {
+          uploads.add(uploadExecutor.submit(() -> uploadPhoto(jobId, authData, photo)));
+        }
+      }
+
+      // Groups the uploaded photos by the album they are created in, a null album id is fine as
+      // NewMediaItemUpload will ignore all null values.
+      Map<String, List<PhotoUpload>> uploadsByAlbum = new LinkedHashMap<>();
+      for (CompletableFuture<PhotoUpload> upload : uploads) {
+        PhotoUpload photoUpload = join(upload);
+        if (photoUpload.failure != null) {
+          idempotentImportExecutor.executeAndSwallowIOExceptions(
+              getIdempotentId(photoUpload.photo),
+              photoUpload.photo.getTitle(),
+              replayThenRetry(
+                  () -> {
+                    throw photoUpload.failure;
+                  },
+                  jobId,
+                  authData,
+                  photoUpload.photo,
+                  idempotentImportExecutor));
+          continue;
+        }
+        if (GooglePhotosInterface.EMPTY_PHOTO_UPLOAD_TOKEN.equals(photoUpload.uploadToken)) {
+          // Google Photos cannot add an empty photo, so there is no media item to create
+          idempotentImportExecutor.executeAndSwallowIOExceptions(
+              getIdempotentId(photoUpload.photo),
+              photoUpload.photo.getTitle(),
+              () -> {
+                throw new IOException("Empty photo " + photoUpload.photo.getDataId());
+              });
+          continue;
+        }
+        String albumId =
+            Strings.isNullOrEmpty(photoUpload.photo.getAlbumId())
+                ? null
+                : idempotentImportExecutor.getCachedValue(photoUpload.photo.getAlbumId());
+        uploadsByAlbum.computeIfAbsent(albumId, k -> new ArrayList<>()).add(photoUpload);
+      }
+
+      for (Map.Entry<String, List<PhotoUpload>> albumUploads : uploadsByAlbum.entrySet()) {
+        for (List<PhotoUpload> batch :
+            Lists.partition(albumUploads.getValue(), MAX_NEW_MEDIA_ITEMS_PER_REQUEST)) {
+          bytes +=
+              createPhotos(jobId, authData, albumUploads.getKey(), batch, idempotentImportExecutor);
+        }
+      }
+    } finally {
+      // Only has an effect if the import bailed out early
+      for (CompletableFuture<PhotoUpload> upload : uploads) {
+        upload.cancel(true);
+      }
     }
+    return bytes;
+  }
 
-    String uploadToken =
-        getOrCreatePhotosInterface(jobId, authData).uploadPhotoContent(inputStream);
+  /**
+   * Uploads the content of a photo. Failures are returned as part of the {@link PhotoUpload} so
+   * they can be recorded against the photo once all uploads of the page are done.
+   */
+  @VisibleForTesting
+  PhotoUpload uploadPhoto(UUID jobId, TokensAndUrlAuthData authData, PhotoModel inputPhoto) {
+    try {
+      InputStream inputStream;
+      // Null if unknown
+      Long contentLength;
+      if (inputPhoto.isInTempStore()) {
+        final InputStreamWrapper streamWrapper =
+            jobStore.getStream(jobId, inputPhoto.getFetchableUrl());
+        contentLength = streamWrapper.getBytes();
+        inputStream = streamWrapper.getStream();
+      } else {
+        HttpURLConnection conn = imageStreamProvider.getConnection(inputPhoto.getFetchableUrl());
+        final long contentLengthLong = conn.getContentLengthLong();
+        contentLength = contentLengthLong != -1 ? contentLengthLong : null;
+        inputStream = conn.getInputStream();
+      }
 
-    String description = getPhotoDescription(inputPhoto);
-    NewMediaItem newMediaItem = new NewMediaItem(description, uploadToken);
+      // Counts the bytes actually uploaded, which are known even if the length wasn't
+      try (CountingInputStream photoStream = new CountingInputStream(inputStream)) {
+        String uploadToken =
+            getOrCreatePhotosInterface(jobId, authData)
+                .uploadPhotoContent(photoStream, contentLength);
+        return new PhotoUpload(inputPhoto, uploadToken, photoStream.getCount(), null);
+      }
+    } catch (Exception e) {
+      return new PhotoUpload(inputPhoto, null, null, e);
+    }
+  }
 
-    String albumId;
-    if (Strings.isNullOrEmpty(inputPhoto.getAlbumId())) {
-      // This is ok, since NewMediaItemUpload will ignore all null values and it's possible to
-      // upload a NewMediaItem without a corresponding album id.
-      albumId = null;
-    } else {
-      // Note this will throw if creating the album failed, which is what we want
-      // because that will also mark this photo as being failed.
-      albumId = idempotentImportExecutor.getCachedValue(inputPhoto.getAlbumId());
+  /**
+   * Creates the media items for a batch of uploaded photos with a single request and records the
+   * result of each photo in the {@code idempotentImportExecutor}.
+   *
+   * @return the number of bytes of the photos created
+   */
+  private long createPhotos(
+      UUID jobId,
+      TokensAndUrlAuthData authData,
+      String albumId,
+      List<PhotoUpload> batch,
+      IdempotentImportExecutor idempotentImportExecutor)
+      throws Exception {
+    List<NewMediaItem> newMediaItems = new ArrayList<>(batch.size());
+    for (PhotoUpload photoUpload : batch) {
+      newMediaItems.add(
+          new NewMediaItem(getPhotoDescription(photoUpload.photo), photoUpload.uploadToken));
     }
 
-    NewMediaItemUpload uploadItem =
-        new NewMediaItemUpload(albumId, Collections.singletonList(newMediaItem));
+    Map<String, NewMediaItemResult> resultsByUploadToken = new HashMap<>();
+    IOException batchFailure = null;
     try {
-      return new PhotoResult(
+      NewMediaItemResult[] results =
           getOrCreatePhotosInterface(jobId, authData)
-              .createPhoto(uploadItem)
-              .getResults()[0]
-              .getMediaItem()
-              .getId(),
-          bytes);
+              .createPhoto(new NewMediaItemUpload(albumId, newMediaItems))
+              .getResults();
+      if (results != null) {
+        for (NewMediaItemResult result : results) {
+          resultsByUploadToken.put(result.getUploadToken(), result);
+        }
+      }
     } catch (IOException e) {
-      if (e.getMessage() != null
-          && e.getMessage().contains("The remaining storage in the user's account is not enough")) {
-        throw new DestinationMemoryFullException("Google destination storage full", e);
-      } else {
-        throw e;
+      checkDestinationMemory(e.getMessage(), e);
+      batchFailure = e;
+    }
+
+    long bytes = 0L;
+    for (PhotoUpload photoUpload : batch) {
+      NewMediaItemResult result = resultsByUploadToken.get(photoUpload.uploadToken);
+      IOException failure = batchFailure;
+      PhotoResult photoResult =
+          idempotentImportExecutor.executeAndSwallowIOExceptions(
+              getIdempotentId(photoUpload.photo),
+              photoUpload.photo.getTitle(),
+              replayThenRetry(
+                  () -> toPhotoResult(photoUpload, result, failure),
+                  jobId,
+                  authData,
+                  photoUpload.photo,
+                  idempotentImportExecutor));
+      if (photoResult != null) {
+        bytes += photoResult.getBytes();
       }
     }
+    return bytes;
+  }
+
+  /**
+   * Returns a callable that first reports the outcome the photo had as part of its page, and
+   * imports the photo on its own when called again, i.e. when the photo is retried.
+   */
+  private Callable<PhotoResult> replayThenRetry(
+      Callable<PhotoResult> outcome,
+      UUID jobId,
+      TokensAndUrlAuthData authData,
+      PhotoModel photo,
+      IdempotentImportExecutor idempotentImportExecutor) {
+    AtomicBoolean replayed = new AtomicBoolean();
+    return () ->
+        replayed.getAndSet(true)
+            ? importSinglePhoto(jobId, authData, photo, idempotentImportExecutor)
+            : outcome.call();
+  }
+
+  /** Uploads a photo and creates its media item with a request of its own. */
+  private PhotoResult importSinglePhoto(
+      UUID jobId,
+      TokensAndUrlAuthData authData,
+      PhotoModel photo,
+      IdempotentImportExecutor idempotentImportExecutor)
+      throws Exception {
+    PhotoUpload photoUpload = uploadPhoto(jobId, authData, photo);
+    if (photoUpload.failure != null) {
+      throw photoUpload.failure;
+    }
+    if (GooglePhotosInterface.EMPTY_PHOTO_UPLOAD_TOKEN.equals(photoUpload.uploadToken)) {
+      throw new IOException("Empty photo " + photo.getDataId());
+    }
+    String albumId =
+        Strings.isNullOrEmpty(photo.getAlbumId())
+            ? null
+            : idempotentImportExecutor.getCachedValue(photo.getAlbumId());
+    NewMediaItemResult[] results =
+        getOrCreatePhotosInterface(jobId, authData)
+            .createPhoto(
+                new NewMediaItemUpload(
+                    albumId,
+                    ImmutableList.of(
+                        new NewMediaItem(getPhotoDescription(photo), photoUpload.uploadToken))))
+            .getResults();
+    NewMediaItemResult result = results == null || results.length == 0 ? null : results[0];
+    return toPhotoResult(photoUpload, result, null);
+  }
+
+  private static PhotoUpload join(CompletableFuture<PhotoUpload> upload) {
+    try {
+      return upload.join();
+    } catch (CompletionException e) {
+      // uploadPhoto returns its failures, so only errors end up here
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
+  }
+
+  private static PhotoResult toPhotoResult(
+      PhotoUpload photoUpload, NewMediaItemResult result, IOException batchFailure)
+      throws IOException, DestinationMemoryFullException {
+    if (batchFailure != null) {
+      throw batchFailure;
+    }
+    if (result == null) {
+      throw new IOException("No result for upload token " + photoUpload.uploadToken);
+    }
+    if (result.getMediaItem() == null) {
+      String message = result.getStatus() == null ? null : result.getStatus().getMessage();
+      checkDestinationMemory(message, null);
+      throw new IOException("Unable to create media item: " + message);
+    }
+    return new PhotoResult(result.getMediaItem().getId(), photoUpload.bytes);
+  }
+
+  private static void checkDestinationMemory(String message, Throwable cause)
+      throws DestinationMemoryFullException {
+    if (message != null
+        && message.contains("The remaining storage in the user's account is not enough")) {
+      throw new DestinationMemoryFullException("Google destination storage full", cause);
+    }
+  }
+
+  private static String getIdempotentId(PhotoModel photo) {
+    return photo.getAlbumId() + "-" + photo.getDataId();
   }
 
   private String getPhotoDescription(PhotoModel inputPhoto) {
@@ -241,12 +463,13 @@ public class GooglePhotosImporter
       return photosInterface;
     }
 
-    if (photosInterfacesMap.containsKey(jobId)) {
-      return photosInterfacesMap.get(jobId);
+    GooglePhotosInterface existingInterface = photosInterfaces.getIfPresent(jobId);
+    if (existingInterface != null) {
+      return existingInterface;
     }
 
     GooglePhotosInterface newInterface = makePhotosInterface(authData);
-    photosInterfacesMap.put(jobId, newInterface);
+    photosInterfaces.put(jobId, newInterface);
 
     return newInterface;
   }
@@ -256,4 +479,27 @@ public class GooglePhotosImporter
     return new GooglePhotosInterface(
         credentialFactory, credential, jsonFactory, monitor, writesPerSecond);
   }
+
+  /**
+   * The content of a photo uploaded to Google Photos, waiting for its media item to be created, or
+   * the failure to upload it.
+   */
+  @VisibleForTesting
+  static final class PhotoUpload {
+    private final PhotoModel photo;
+    private final String uploadToken;
+    private final Long bytes;
+    private final Exception failure;
+
+    private PhotoUpload(PhotoModel photo, String uploadToken, Long bytes, Exception failure) {
+      this.photo = photo;
+      this.uploadToken = uploadToken;
+      this.bytes = bytes;
+      this.failure = failure;
+    }
+
+    String getUploadToken() {
+      return uploadToken;
+    }
+  }
 }
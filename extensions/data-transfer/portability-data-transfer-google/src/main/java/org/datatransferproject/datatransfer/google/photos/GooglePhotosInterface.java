@@ -21,28 +21,30 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.EmptyContent;
 import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.InputStreamContent;
-import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.util.ArrayMap;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
 import com.google.common.util.concurrent.RateLimiter;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -51,6 +53,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.datatransfer.google.common.GoogleCredentialFactory;
 import org.datatransferproject.datatransfer.google.mediaModels.AlbumListResponse;
@@ -63,7 +66,13 @@ import org.datatransferproject.spi.transfer.types.PermissionDeniedException;
 
 public class GooglePhotosInterface {
 
+  static final String EMPTY_PHOTO_UPLOAD_TOKEN = "EMPTY_PHOTO";
+
   private static final String BASE_URL = "https://photoslibrary.googleapis.com/v1/";
+  // Media larger than this is uploaded in chunks, see uploadPhotoContent
+  private static final long RESUMABLE_UPLOAD_THRESHOLD = 32L * 1024 * 1024;
+  private static final int RESUMABLE_UPLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
+  private static final int MAX_CHUNK_ATTEMPTS = 3;
   private static final int ALBUM_PAGE_SIZE = 20; // TODO
   private static final int MEDIA_PAGE_SIZE = 50; // TODO
 
@@ -77,11 +86,18 @@ public class GooglePhotosInterface {
       ImmutableMap.of(
           "Content-type", "application/octet-stream",
           "X-Goog-Upload-Protocol", "raw");
+  private static final String UPLOAD_COMMAND_HEADER = "X-Goog-Upload-Command";
+  private static final String UPLOAD_PROTOCOL_HEADER = "X-Goog-Upload-Protocol";
+  private static final String UPLOAD_RAW_SIZE_HEADER = "X-Goog-Upload-Raw-Size";
+  private static final String UPLOAD_URL_HEADER = "X-Goog-Upload-URL";
+  private static final String UPLOAD_CHUNK_GRANULARITY_HEADER = "X-Goog-Upload-Chunk-Granularity";
+  private static final String UPLOAD_OFFSET_HEADER = "X-Goog-Upload-Offset";
+  private static final String UPLOAD_SIZE_RECEIVED_HEADER = "X-Goog-Upload-Size-Received";
 
   private final ObjectMapper objectMapper =
       new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-  private final HttpTransport httpTransport = new NetHttpTransport();
-  private Credential credential;
+  private final HttpTransport httpTransport;
+  private volatile Credential credential;
   private final JsonFactory jsonFactory;
   private final Monitor monitor;
   private final GoogleCredentialFactory credentialFactory;
@@ -97,6 +113,8 @@ public class GooglePhotosInterface {
     this.jsonFactory = jsonFactory;
     this.monitor = monitor;
     this.credentialFactory = credentialFactory;
+    // Shared by the worker, so connections are reused across jobs
+    this.httpTransport = credentialFactory.getHttpTransport();
     writeRateLimiter = RateLimiter.create(writesPerSecond);
   }
 
@@ -122,7 +140,7 @@ public class GooglePhotosInterface {
     if (pageToken.isPresent()) {
       params.put(TOKEN_KEY, pageToken.get());
     }
-    HttpContent content = new JsonHttpContent(new JacksonFactory(), params);
+    HttpContent content = new JsonHttpContent(jsonFactory, params);
     return makePostRequest(
         BASE_URL + "mediaItems:search", Optional.empty(), content, MediaItemSearchResponse.class);
   }
@@ -136,27 +154,155 @@ public class GooglePhotosInterface {
     return makePostRequest(BASE_URL + "albums", Optional.empty(), content, GoogleAlbum.class);
   }
 
-  String uploadPhotoContent(InputStream inputStream)
-          throws IOException, InvalidTokenException, PermissionDeniedException {
+  /**
+   * Uploads the content of a photo and returns its upload token. The content is streamed rather
+   * than buffered in memory. Content larger than {@link #RESUMABLE_UPLOAD_THRESHOLD}, or of
+   * unknown size, is uploaded in chunks with the resumable upload protocol, so a failed chunk
+   * doesn't restart the whole upload.
+   *
+   * @param contentLength the size of the content in bytes, null if unknown
+   */
+  String uploadPhotoContent(InputStream inputStream, @Nullable Long contentLength)
+      throws IOException, InvalidTokenException, PermissionDeniedException {
     // TODO: add filename
-    InputStreamContent content = new InputStreamContent(null, inputStream);
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    content.writeTo(outputStream);
-    byte[] contentBytes = outputStream.toByteArray();
-    if (contentBytes.length == 0) {
+    PushbackInputStream content = new PushbackInputStream(inputStream, 1);
+    int firstByte = content.read();
+    if (firstByte == -1) {
       // Google Photos cannot add an empty photo so gracefully ignore
-      return "EMPTY_PHOTO";
+      return EMPTY_PHOTO_UPLOAD_TOKEN;
     }
-    HttpContent httpContent = new ByteArrayContent(null, contentBytes);
+    content.unread(firstByte);
 
+    if (contentLength == null || contentLength > RESUMABLE_UPLOAD_THRESHOLD) {
+      return uploadResumableContent(content, contentLength);
+    }
+    InputStreamContent httpContent = new InputStreamContent(null, content);
+    httpContent.setLength(contentLength);
     return makePostRequest(
         BASE_URL + "uploads/", Optional.of(PHOTO_UPLOAD_PARAMS), httpContent, String.class);
   }
 
+  /**
+   * Uploads content with the resumable upload protocol, reading it in chunks into a single buffer.
+   * Without a known length, the upload is finalized once the content is read to the end.
+   * https://developers.google.com/photos/library/guides/resumable-uploads
+   */
+  private String uploadResumableContent(InputStream inputStream, @Nullable Long contentLength)
+      throws IOException, InvalidTokenException, PermissionDeniedException {
+    HttpHeaders startHeaders = new HttpHeaders();
+    startHeaders.set(UPLOAD_COMMAND_HEADER, "start");
+    startHeaders.set(UPLOAD_PROTOCOL_HEADER, "resumable");
+    if (contentLength != null) {
+      startHeaders.set(UPLOAD_RAW_SIZE_HEADER, Long.toString(contentLength));
+    }
+    HttpResponse startResponse =
+        makeUploadRequest(BASE_URL + "uploads", startHeaders, new EmptyContent());
+    String uploadUrl = startResponse.getHeaders().getFirstHeaderStringValue(UPLOAD_URL_HEADER);
+    String granularity =
+        startResponse.getHeaders().getFirstHeaderStringValue(UPLOAD_CHUNK_GRANULARITY_HEADER);
+    startResponse.disconnect();
+    if (Strings.isNullOrEmpty(uploadUrl)) {
+      throw new IOException("No upload URL returned to start the resumable upload");
+    }
+
+    // Every chunk but the last must be a multiple of the granularity requested by the server
+    int chunkSize = RESUMABLE_UPLOAD_CHUNK_SIZE;
+    if (!Strings.isNullOrEmpty(granularity)) {
+      int granularityBytes = Integer.parseInt(granularity);
+      chunkSize = Math.max(granularityBytes, chunkSize / granularityBytes * granularityBytes);
+    }
+
+    byte[] buffer = new byte[chunkSize];
+    long offset = 0;
+    while (true) {
+      int chunkLength = ByteStreams.read(inputStream, buffer, 0, chunkSize);
+      boolean lastChunk =
+          chunkLength < chunkSize
+              || (contentLength != null && offset + chunkLength >= contentLength);
+      HttpResponse response = uploadChunk(uploadUrl, buffer, chunkLength, offset, lastChunk);
+      offset += chunkLength;
+      if (lastChunk) {
+        return CharStreams.toString(new InputStreamReader(response.getContent(), Charsets.UTF_8));
+      }
+      response.disconnect();
+    }
+  }
+
+  /**
+   * Uploads a chunk of a resumable upload. If sending the chunk fails, the server is asked how
+   * many bytes it received and the upload resumes from there.
+   */
+  private HttpResponse uploadChunk(
+      String uploadUrl, byte[] buffer, int chunkLength, long offset, boolean lastChunk)
+      throws IOException, InvalidTokenException, PermissionDeniedException {
+    int sent = 0;
+    for (int attempt = 1; ; attempt++) {
+      HttpHeaders headers = new HttpHeaders();
+      headers.set(UPLOAD_COMMAND_HEADER, lastChunk ? "upload, finalize" : "upload");
+      headers.set(UPLOAD_OFFSET_HEADER, Long.toString(offset + sent));
+      try {
+        return makeUploadRequest(
+            uploadUrl, headers, new ByteArrayContent(null, buffer, sent, chunkLength - sent));
+      } catch (IOException e) {
+        if (attempt >= MAX_CHUNK_ATTEMPTS) {
+          throw e;
+        }
+        long received = queryReceivedBytes(uploadUrl);
+        if (received < offset || received > offset + chunkLength) {
+          throw e;
+        }
+        sent = (int) (received - offset);
+        monitor.info(
+            () -> "Resuming upload from byte " + received + " after chunk upload failure", e);
+      }
+    }
+  }
+
+  private long queryReceivedBytes(String uploadUrl)
+      throws IOException, InvalidTokenException, PermissionDeniedException {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(UPLOAD_COMMAND_HEADER, "query");
+    HttpResponse response = makeUploadRequest(uploadUrl, headers, new EmptyContent());
+    String received = response.getHeaders().getFirstHeaderStringValue(UPLOAD_SIZE_RECEIVED_HEADER);
+    response.disconnect();
+    if (Strings.isNullOrEmpty(received)) {
+      throw new IOException("No received size returned for the resumable upload");
+    }
+    return Long.parseLong(received);
+  }
+
+  private HttpResponse makeUploadRequest(String url, HttpHeaders headers, HttpContent httpContent)
+      throws IOException, InvalidTokenException, PermissionDeniedException {
+    // Wait for write permit before making request
+    writeRateLimiter.acquire();
+
+    HttpRequestFactory requestFactory = httpTransport.createRequestFactory();
+    SupplierWithIO<HttpRequest> uploadRequest =
+        () -> {
+          HttpRequest request = requestFactory.buildPostRequest(new GenericUrl(url), httpContent);
+          request.setHeaders(
+              headers.clone().setAuthorization("Bearer " + credential.getAccessToken()));
+          request.setReadTimeout(2 * 60000); // 2 minutes read timeout
+          return request;
+        };
+    HttpResponse response;
+    try {
+      response = uploadRequest.getWithIO().execute();
+    } catch (HttpResponseException e) {
+      response = handleHttpResponseException(uploadRequest, e);
+    }
+    Preconditions.checkState(response.getStatusCode() == 200);
+    return response;
+  }
+
+  /**
+   * Creates the media items of {@code newMediaItemUpload}, at most 50 per request. The response
+   * holds a result per new media item, which may have failed on its own.
+   */
   BatchMediaItemResponse createPhoto(NewMediaItemUpload newMediaItemUpload)
       throws IOException, InvalidTokenException, PermissionDeniedException {
     HashMap<String, Object> map = createJsonMap(newMediaItemUpload);
-    HttpContent httpContent = new JsonHttpContent(new JacksonFactory(), map);
+    HttpContent httpContent = new JsonHttpContent(jsonFactory, map);
 
     return makePostRequest(
         BASE_URL + "mediaItems:batchCreate",
@@ -206,11 +352,15 @@ public class GooglePhotosInterface {
     try {
       response = postRequest.execute();
     } catch (HttpResponseException e) {
+      // Streamed content can't be sent a second time
       response =
           handleHttpResponseException(
-              () ->
-                  requestFactory.buildPostRequest(
-                      new GenericUrl(url + "?" + generateParamsString(parameters)), httpContent),
+              httpContent.retrySupported()
+                  ? () ->
+                      requestFactory.buildPostRequest(
+                          new GenericUrl(url + "?" + generateParamsString(parameters)),
+                          httpContent)
+                  : null,
               e);
     }
 
@@ -224,8 +374,12 @@ public class GooglePhotosInterface {
     }
   }
 
+  /**
+   * @param httpRequest supplies the request to retry once the authorization token is refreshed,
+   *     null if the request can't be retried
+   */
   private HttpResponse handleHttpResponseException(
-      SupplierWithIO<HttpRequest> httpRequest, HttpResponseException e)
+      @Nullable SupplierWithIO<HttpRequest> httpRequest, HttpResponseException e)
       throws IOException, InvalidTokenException, PermissionDeniedException {
     // if the response is "unauthorized", refresh the token and try the request again
     final int statusCode = e.getStatusCode();
@@ -236,6 +390,9 @@ public class GooglePhotosInterface {
       // thrown
       credential = credentialFactory.refreshCredential(credential);
       monitor.info(() -> "Refreshed authorization token successfuly");
+      if (httpRequest == null) {
+        throw new IOException("Request failed with an expired authorization token", e);
+      }
 
       // if the second attempt throws an error, then something else is wrong, and we bubble up the
       // response errors
@@ -134,6 +134,7 @@ public class GoogleVideosExporter
 
   private synchronized GoogleVideosInterface makeVideosInterface(TokensAndUrlAuthData authData) {
     Credential credential = credentialFactory.createCredential(authData);
-    return new GoogleVideosInterface(credential, this.jsonFactory);
+    return new GoogleVideosInterface(
+        credential, credentialFactory.getHttpTransport(), this.jsonFactory);
   }
 }
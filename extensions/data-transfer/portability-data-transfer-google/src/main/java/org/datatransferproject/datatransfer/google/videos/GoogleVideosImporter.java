@@ -53,10 +53,10 @@ import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.spi.cloud.storage.TemporaryPerJobDataStore;
@@ -81,7 +81,8 @@ public class GoogleVideosImporter
   private Monitor monitor;
   private final AppCredentials appCredentials;
   private final TemporaryPerJobDataStore dataStore;
-  private Map<UUID, PhotosLibraryClient> clientsMap = new HashMap<>();
+  // Pages of a job can be imported concurrently
+  private final Map<UUID, PhotosLibraryClient> clientsMap = new ConcurrentHashMap<>();
 
   public GoogleVideosImporter(
       AppCredentials appCredentials, TemporaryPerJobDataStore dataStore, Monitor monitor) {
@@ -102,26 +103,7 @@ public class GoogleVideosImporter
       return ImportResult.OK;
     }
 
-    PhotosLibraryClient client;
-    if (clientsMap.containsKey(jobId)) {
-      client = clientsMap.get(jobId);
-    } else {
-      PhotosLibrarySettings settings =
-          PhotosLibrarySettings.newBuilder()
-              .setCredentialsProvider(
-                  FixedCredentialsProvider.create(
-                      UserCredentials.newBuilder()
-                          .setClientId(appCredentials.getKey())
-                          .setClientSecret(appCredentials.getSecret())
-                          .setAccessToken(
-                              new AccessToken(
-                                  authData.getAccessToken(), new Date()))
-                          .setRefreshToken(authData.getRefreshToken())
-                          .build()))
-              .build();
-      client = PhotosLibraryClient.initialize(settings);
-      clientsMap.put(jobId, client);
-    }
+    PhotosLibraryClient client = getOrCreatePhotosLibraryClient(jobId, authData);
 
     long bytes = 0L;
     //     Uploads videos
@@ -139,6 +121,33 @@ public class GoogleVideosImporter
     return result.copyWithBytes(bytes);
   }
 
+  private PhotosLibraryClient getOrCreatePhotosLibraryClient(
+      UUID jobId, TokensAndUrlAuthData authData) throws IOException {
+    PhotosLibraryClient client = clientsMap.get(jobId);
+    if (client != null) {
+      return client;
+    }
+    PhotosLibrarySettings settings =
+        PhotosLibrarySettings.newBuilder()
+            .setCredentialsProvider(
+                FixedCredentialsProvider.create(
+                    UserCredentials.newBuilder()
+                        .setClientId(appCredentials.getKey())
+                        .setClientSecret(appCredentials.getSecret())
+                        .setAccessToken(new AccessToken(authData.getAccessToken(), new Date()))
+                        .setRefreshToken(authData.getRefreshToken())
+                        .build()))
+            .build();
+    client = PhotosLibraryClient.initialize(settings);
+    PhotosLibraryClient existingClient = clientsMap.putIfAbsent(jobId, client);
+    if (existingClient != null) {
+      // Created concurrently by another page of the job
+      client.close();
+      return existingClient;
+    }
+    return client;
+  }
+
   VideoResult importSingleVideo(VideoObject inputVideo, PhotosLibraryClient photosLibraryClient)
       throws Exception {
     if (inputVideo.getContentUrl() == null) {
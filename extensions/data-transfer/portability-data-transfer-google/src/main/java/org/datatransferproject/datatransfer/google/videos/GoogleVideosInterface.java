@@ -29,7 +29,6 @@ import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.InputStreamContent;
-import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.util.ArrayMap;
@@ -70,12 +69,14 @@ public class GoogleVideosInterface {
 
   private final ObjectMapper objectMapper =
       new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-  private final HttpTransport httpTransport = new NetHttpTransport();
+  private final HttpTransport httpTransport;
   private final Credential credential;
   private JsonFactory jsonFactory;
 
-  GoogleVideosInterface(Credential credential, JsonFactory jsonFactory) {
+  GoogleVideosInterface(
+      Credential credential, HttpTransport httpTransport, JsonFactory jsonFactory) {
     this.credential = credential;
+    this.httpTransport = httpTransport;
     this.jsonFactory = jsonFactory;
   }
 
@@ -16,8 +16,15 @@
 
 package org.datatransferproject.datatransfer.google.calendar;
 
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.services.calendar.Calendar;
 import com.google.api.services.calendar.model.Event;
+import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.datatransfer.google.common.GoogleCredentialFactory;
 import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
 import org.datatransferproject.test.types.FakeIdempotentImportExecutor;
@@ -28,15 +35,26 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 public class GoogleCalendarImporterTest {
+  private static final String MODEL_CALENDAR_ID = "modelCalendarId";
+  private static final String GOOGLE_CALENDAR_ID = "googleCalendarId";
+
+  private final UUID jobId = UUID.randomUUID();
   private GoogleCalendarImporter calendarService;
   private GoogleCredentialFactory credentialFactory;
 
@@ -45,32 +63,44 @@ public class GoogleCalendarImporterTest {
   private Calendar.Calendars.Insert calendarInsertRequest;
   private Calendar.Events calendarEvents;
   private Calendar.Events.Insert eventInsertRequest;
+  private BatchRequest batch;
   private IdempotentImportExecutor executor;
+  // Callbacks queued in the batch
+  private final List<JsonBatchCallback<Event>> callbacks = new ArrayList<>();
 
   @Before
-  public void setup() {
+  public void setup() throws IOException {
     calendarClient = mock(Calendar.class);
     calendarCalendars = mock(Calendar.Calendars.class);
     calendarInsertRequest = mock(Calendar.Calendars.Insert.class);
     calendarEvents = mock(Calendar.Events.class);
     eventInsertRequest = mock(Calendar.Events.Insert.class);
+    batch = mock(BatchRequest.class);
     credentialFactory = mock(GoogleCredentialFactory.class);
 
     executor = new FakeIdempotentImportExecutor();
 
-    calendarService = new GoogleCalendarImporter(credentialFactory, calendarClient);
+    calendarService =
+        new GoogleCalendarImporter(credentialFactory, new Monitor() {}, calendarClient);
 
     when(calendarClient.calendars()).thenReturn(calendarCalendars);
     when(calendarClient.events()).thenReturn(calendarEvents);
+    when(calendarClient.batch()).thenReturn(batch);
+    doAnswer(
+            invocation -> {
+              callbacks.add(invocation.getArgument(1));
+              return null;
+            })
+        .when(eventInsertRequest)
+        .queue(eq(batch), any());
 
     verifyNoInteractions(credentialFactory);
   }
 
   @Test
   public void importCalendarAndEvent() throws Exception {
-    String modelCalendarId = "modelCalendarId";
-    String googleCalendarId = "googleCalendarId";
-    UUID jobId = UUID.randomUUID();
+    String modelCalendarId = MODEL_CALENDAR_ID;
+    String googleCalendarId = GOOGLE_CALENDAR_ID;
 
     // Set up calendar, events, and mocks
     CalendarModel calendarModel = new CalendarModel(modelCalendarId, null, null);
@@ -81,10 +111,8 @@ public class GoogleCalendarImporterTest {
 
     CalendarEventModel eventModel =
         new CalendarEventModel(modelCalendarId, null, null, null, null, null, null, null);
-    Event eventToInsert = GoogleCalendarImporter.convertToGoogleCalendarEvent(eventModel);
-    Event responseEvent = new Event();
+    Event eventToInsert = getEventToInsert(eventModel);
 
-    when(eventInsertRequest.execute()).thenReturn(responseEvent);
     when(calendarEvents.insert(googleCalendarId, eventToInsert)).thenReturn(eventInsertRequest);
     when(calendarInsertRequest.execute()).thenReturn(responseCalendar);
     when(calendarCalendars.insert(calendarToInsert)).thenReturn(calendarInsertRequest);
@@ -100,6 +128,105 @@ public class GoogleCalendarImporterTest {
     verify(calendarCalendars).insert(calendarToInsert);
     verify(calendarInsertRequest).execute();
     verify(calendarEvents).insert(googleCalendarId, eventToInsert);
+    verify(eventInsertRequest).queue(eq(batch), any());
+    verify(batch).execute();
+    verify(eventInsertRequest, never()).execute();
+  }
+
+  @Test
+  public void importEventRetriesFailedBatchInsert() throws Exception {
+    CalendarEventModel eventModel = setUpEvent();
+    when(eventInsertRequest.execute()).thenReturn(new Event().setId("eventId"));
+    failBatchInserts(503);
+
+    importEvent(eventModel);
+
+    // Inserted again on its own
+    verify(eventInsertRequest).execute();
+    assertThat((String) executor.getCachedValue(Integer.toString(eventModel.hashCode())))
+        .isEqualTo("eventId");
+  }
+
+  @Test
+  public void importEventCountsConflictInBatchAsInserted() throws Exception {
+    CalendarEventModel eventModel = setUpEvent();
+    failBatchInserts(409);
+
+    importEvent(eventModel);
+
+    verify(eventInsertRequest, never()).execute();
+    assertThat((String) executor.getCachedValue(Integer.toString(eventModel.hashCode())))
+        .isEqualTo(getEventToInsert(eventModel).getId());
+  }
+
+  @Test
+  public void importEventFailsOnClientErrorInBatch() throws Exception {
+    CalendarEventModel eventModel = setUpEvent();
+    failBatchInserts(400);
+
+    importEvent(eventModel);
+
+    // Not inserted again until the item is retried
+    verify(eventInsertRequest, never()).execute();
+    assertThat(executor.isKeyCached(Integer.toString(eventModel.hashCode()))).isFalse();
+  }
+
+  @Test
+  public void importEventCountsConflictAfterFailedBatchAsInserted() throws Exception {
+    CalendarEventModel eventModel = setUpEvent();
+    when(batch.execute()).thenThrow(new IOException("Batch failed"));
+    when(eventInsertRequest.execute())
+        .thenThrow(
+            new GoogleJsonResponseException(
+                new HttpResponseException.Builder(409, "Conflict", new HttpHeaders()), null));
+
+    importEvent(eventModel);
+
+    // The batch may have inserted the event before failing
     verify(eventInsertRequest).execute();
+    assertThat((String) executor.getCachedValue(Integer.toString(eventModel.hashCode())))
+        .isEqualTo(getEventToInsert(eventModel).getId());
+  }
+
+  /** Returns an event of an imported calendar, inserted with {@code eventInsertRequest}. */
+  private CalendarEventModel setUpEvent() throws IOException {
+    CalendarEventModel eventModel =
+        new CalendarEventModel(MODEL_CALENDAR_ID, null, null, null, null, null, null, null);
+    when(calendarCalendars.insert(any())).thenReturn(calendarInsertRequest);
+    when(calendarInsertRequest.execute())
+        .thenReturn(
+            new com.google.api.services.calendar.model.Calendar().setId(GOOGLE_CALENDAR_ID));
+    when(calendarEvents.insert(GOOGLE_CALENDAR_ID, getEventToInsert(eventModel)))
+        .thenReturn(eventInsertRequest);
+    return eventModel;
+  }
+
+  private void importEvent(CalendarEventModel eventModel) throws Exception {
+    calendarService.importItem(
+        jobId,
+        executor,
+        null,
+        new CalendarContainerResource(
+            Collections.singleton(new CalendarModel(MODEL_CALENDAR_ID, null, null)),
+            Collections.singleton(eventModel)));
+  }
+
+  /** Makes every insert in the batch fail with the status {@code code}. */
+  private void failBatchInserts(int code) throws IOException {
+    doAnswer(
+            invocation -> {
+              for (JsonBatchCallback<Event> callback : callbacks) {
+                callback.onFailure(new GoogleJsonError().set("code", code), new HttpHeaders());
+              }
+              return null;
+            })
+        .when(batch)
+        .execute();
+  }
+
+  private Event getEventToInsert(CalendarEventModel eventModel) {
+    return GoogleCalendarImporter.convertToGoogleCalendarEvent(eventModel)
+        .setId(
+            GoogleCalendarImporter.getEventId(jobId, Integer.toString(eventModel.hashCode())));
   }
 }
@@ -17,13 +17,21 @@
 package org.datatransferproject.datatransfer.google.mail;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.calls;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.Gmail.Users;
 import com.google.api.services.gmail.Gmail.Users.Messages;
@@ -32,6 +40,8 @@ import com.google.api.services.gmail.model.ListMessagesResponse;
 import com.google.api.services.gmail.model.Message;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -46,6 +56,7 @@ import org.datatransferproject.types.common.PaginationData;
 import org.datatransferproject.types.common.StringPaginationToken;
 import org.datatransferproject.types.common.models.mail.MailContainerResource;
 import org.datatransferproject.types.common.models.mail.MailMessageModel;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -79,15 +90,20 @@ public class GoogleMailExporterTest {
   @Mock
   private Gmail gmail;
   @Mock
+  private BatchRequest batch;
+  @Mock
   private GoogleCredentialFactory googleCredentialFactory;
 
   private ListMessagesResponse messageListResponse;
+  // Callbacks queued in the batch
+  private final List<JsonBatchCallback<Message>> callbacks = new ArrayList<>();
 
   private GoogleMailExporter googleMailExporter;
 
   @Before
   public void setup() throws IOException {
-    googleMailExporter = new GoogleMailExporter(googleCredentialFactory, gmail);
+    TransferExecutor directExecutor = Runnable::run;
+    googleMailExporter = new GoogleMailExporter(googleCredentialFactory, gmail, directExecutor);
 
     when(gmail.users()).thenReturn(users);
     when(users.messages()).thenReturn(messages);
@@ -95,6 +111,14 @@ public class GoogleMailExporterTest {
     when(messageListRequest.setMaxResults(anyLong())).thenReturn(messageListRequest);
     when(messages.get(anyString(), anyString())).thenReturn(get);
     when(get.setFormat(anyString())).thenReturn(get);
+    when(gmail.batch()).thenReturn(batch);
+    doAnswer(
+            invocation -> {
+              callbacks.add(invocation.getArgument(1));
+              return null;
+            })
+        .when(get)
+        .queue(eq(batch), any());
 
     verifyNoInteractions(googleCredentialFactory);
   }
@@ -114,13 +138,16 @@ public class GoogleMailExporterTest {
     // Verify correct methods were called
     InOrder inOrder = Mockito.inOrder(messages, messageListRequest, get);
     // First request
-    inOrder.verify(messages).list(GoogleMailExporter.USER);
-    inOrder.verify(messageListRequest).setMaxResults(GoogleMailExporter.PAGE_SIZE);
-    verify(messageListRequest, never()).setPageToken(anyString());
-    // Second request
+    inOrder.verify(messages, calls(1)).list(GoogleMailExporter.USER);
+    inOrder.verify(messageListRequest, calls(1)).setMaxResults(GoogleMailExporter.PAGE_SIZE);
+    inOrder.verify(messageListRequest, calls(1)).execute();
+    // Next page prefetched
+    inOrder.verify(messageListRequest).setPageToken(NEXT_TOKEN);
+    // Second request, batched
     inOrder.verify(messages).get(GoogleMailExporter.USER, MESSAGE_ID);
     inOrder.verify(get).setFormat("raw");
-    inOrder.verify(get).execute();
+    verify(get).queue(eq(batch), any());
+    verify(get, never()).execute();
 
     // Check pagination token
     ContinuationData continuationData = (ContinuationData) result.getContinuationData();
@@ -163,13 +190,79 @@ public class GoogleMailExporterTest {
     assertThat(paginationToken).isNull();
   }
 
+  @Test
+  public void exportMessagesRetriesTransientFailures() throws IOException {
+    setUpSingleMessageResponseFailingWith(new GoogleJsonError().set("code", 503), null);
+
+    ExportResult<MailContainerResource> result =
+        googleMailExporter.export(JOB_ID, null, Optional.empty());
+
+    verify(messages, Mockito.times(2)).get(GoogleMailExporter.USER, MESSAGE_ID);
+    assertThat(
+        result.getExportedData().getMessages().stream()
+            .map(MailMessageModel::getRawString)
+            .collect(Collectors.toList()))
+        .containsExactly(MESSAGE_RAW);
+  }
+
+  @Test
+  public void exportMessagesFailsOnPermanentFailure() throws IOException {
+    setUpSingleMessageResponseFailingWith(new GoogleJsonError().set("code", 404));
+
+    ExportResult<MailContainerResource> result =
+        googleMailExporter.export(JOB_ID, null, Optional.empty());
+
+    assertThat(result.getType()).isEqualTo(ExportResult.ResultType.ERROR);
+    verify(messages).get(GoogleMailExporter.USER, MESSAGE_ID);
+  }
+
+  @Test
+  public void exportMessagesUsesPrefetchedPage() throws IOException {
+    setUpSingleMessageResponse();
+    messageListResponse.setNextPageToken(NEXT_TOKEN);
+    googleMailExporter.export(JOB_ID, null, Optional.empty());
+    // First page and prefetched second page
+    verify(messageListRequest, Mockito.times(2)).execute();
+
+    googleMailExporter.export(
+        JOB_ID,
+        null,
+        Optional.of(new ExportInformation(new StringPaginationToken(NEXT_TOKEN), null)));
+
+    // Third page prefetched, second page not listed again
+    verify(messageListRequest, Mockito.times(3)).execute();
+  }
+
   /**
    * Sets up a response with a single message
    */
   private void setUpSingleMessageResponse() throws IOException {
+    setUpSingleMessageResponseFailingWith();
+  }
+
+  /**
+   * Sets up a response with a single message, whose fetches first fail with {@code errors} in turn
+   */
+  private void setUpSingleMessageResponseFailingWith(GoogleJsonError... errors)
+      throws IOException {
     messageListResponse = new ListMessagesResponse()
         .setMessages(Collections.singletonList(INITIAL_MESSAGE));
     when(messageListRequest.execute()).thenReturn(messageListResponse);
-    when(get.execute()).thenReturn(FULL_MESSAGE);
+    List<GoogleJsonError> responses = new ArrayList<>(Arrays.asList(errors));
+    doAnswer(
+            invocation -> {
+              for (JsonBatchCallback<Message> callback : callbacks) {
+                GoogleJsonError error = responses.isEmpty() ? null : responses.remove(0);
+                if (error != null) {
+                  callback.onFailure(error, new HttpHeaders());
+                } else {
+                  callback.onSuccess(FULL_MESSAGE, new HttpHeaders());
+                }
+              }
+              callbacks.clear();
+              return null;
+            })
+        .when(batch)
+        .execute();
   }
 }
@@ -32,6 +32,7 @@ import org.datatransferproject.spi.transfer.provider.ImportResult;
 import org.datatransferproject.test.types.FakeIdempotentImportExecutor;
 import org.datatransferproject.types.common.models.mail.MailContainerResource;
 import org.datatransferproject.types.common.models.mail.MailMessageModel;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -39,9 +40,12 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -49,6 +53,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -86,7 +91,9 @@ public class GoogleMailImporterTest {
     labelsListResponse = new ListLabelsResponse().setLabels(Collections.singletonList(label));
 
     Monitor monitor = new Monitor() {};
-    googleMailImporter = new GoogleMailImporter(googleCredentialFactory, gmail, monitor);
+    TransferExecutor directExecutor = Runnable::run;
+    googleMailImporter =
+        new GoogleMailImporter(googleCredentialFactory, gmail, directExecutor, monitor);
     executor = new FakeIdempotentImportExecutor();
 
     when(gmail.users()).thenReturn(users);
@@ -117,4 +124,95 @@ public class GoogleMailImporterTest {
     assertThat(messageArgumentCaptor.getValue().getRaw()).isEqualTo(MESSAGE_RAW);
     // TODO(olsona): test labels
   }
+
+  @Test
+  public void importMessagesListsLabelsOncePerJob() throws Exception {
+    MailContainerResource resource =
+        new MailContainerResource(null, Collections.singletonList(MESSAGE_MODEL));
+    MailContainerResource otherResource =
+        new MailContainerResource(
+            null,
+            Collections.singletonList(
+                new MailMessageModel("other message content", ImmutableList.of("label3"))));
+
+    googleMailImporter.importItem(JOB_ID, executor, null, resource);
+    googleMailImporter.importItem(JOB_ID, executor, null, otherResource);
+
+    verify(labelsList, times(1)).execute();
+    verify(messages, times(2)).insert(eq(GoogleMailImporter.USER), any(Message.class));
+  }
+
+  @Test
+  public void importMessagesSkipsMessagesAlreadyImported() throws Exception {
+    MailContainerResource resource =
+        new MailContainerResource(null, ImmutableList.of(MESSAGE_MODEL, MESSAGE_MODEL));
+
+    googleMailImporter.importItem(JOB_ID, executor, null, resource);
+    googleMailImporter.importItem(JOB_ID, executor, null, resource);
+
+    verify(messages, times(1)).insert(eq(GoogleMailImporter.USER), any(Message.class));
+    assertThat(executor.isKeyCached(GoogleMailImporter.getIdempotentId(MESSAGE_MODEL))).isTrue();
+  }
+
+  @Test
+  public void retriedMessageIsInsertedAgain() throws Exception {
+    // Retries a failed item once, as the item-level retry of the copier does
+    IdempotentImportExecutor retryingExecutor =
+        new FakeIdempotentImportExecutor() {
+          @Override
+          public <T extends Serializable> T executeAndSwallowIOExceptions(
+              String idempotentId, String itemName, Callable<T> callable) throws Exception {
+            T result = super.executeAndSwallowIOExceptions(idempotentId, itemName, callable);
+            return result != null
+                ? result
+                : super.executeAndSwallowIOExceptions(idempotentId, itemName, callable);
+          }
+        };
+    when(insert.execute())
+        .thenThrow(new IOException("Insert failed"))
+        .thenReturn(new Message().setId("fooBar"));
+    MailContainerResource resource =
+        new MailContainerResource(null, Collections.singletonList(MESSAGE_MODEL));
+
+    googleMailImporter.importItem(JOB_ID, retryingExecutor, null, resource);
+
+    verify(insert, times(2)).execute();
+    String idempotentId = GoogleMailImporter.getIdempotentId(MESSAGE_MODEL);
+    assertThat(retryingExecutor.<String>getCachedValue(idempotentId)).isEqualTo("fooBar");
+  }
+
+  @Test
+  public void insertedMessagesAreRecordedWhenThePageBailsOut() throws Exception {
+    MailMessageModel otherMessage =
+        new MailMessageModel("other message content", ImmutableList.of(LABEL1));
+    String idempotentId = GoogleMailImporter.getIdempotentId(MESSAGE_MODEL);
+    String otherIdempotentId = GoogleMailImporter.getIdempotentId(otherMessage);
+    // Fails on the first outcome reported, before the other message is recorded
+    AtomicBoolean failed = new AtomicBoolean();
+    IdempotentImportExecutor failingExecutor =
+        new FakeIdempotentImportExecutor() {
+          @Override
+          public <T extends Serializable> T executeAndSwallowIOExceptions(
+              String idempotentId, String itemName, Callable<T> callable) throws Exception {
+            if (idempotentId.startsWith("message-") && !failed.getAndSet(true)) {
+              throw new IllegalStateException("Bailing out");
+            }
+            return super.executeAndSwallowIOExceptions(idempotentId, itemName, callable);
+          }
+        };
+    MailContainerResource resource =
+        new MailContainerResource(null, ImmutableList.of(MESSAGE_MODEL, otherMessage));
+
+    IllegalStateException thrown = null;
+    try {
+      googleMailImporter.importItem(JOB_ID, failingExecutor, null, resource);
+    } catch (IllegalStateException e) {
+      thrown = e;
+    }
+
+    assertThat(thrown).isNotNull();
+    verify(insert, times(2)).execute();
+    assertThat(failingExecutor.<String>getCachedValue(idempotentId)).isEqualTo("fooBar");
+    assertThat(failingExecutor.<String>getCachedValue(otherIdempotentId)).isEqualTo("fooBar");
+  }
 }
@@ -16,16 +16,21 @@
 package org.datatransferproject.datatransfer.google.photos;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 
+import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.net.HttpURLConnection;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.cloud.local.LocalJobStore;
 import org.datatransferproject.datatransfer.google.mediaModels.BatchMediaItemResponse;
@@ -71,7 +76,7 @@ public class GooglePhotosImporterTest {
     googlePhotosInterface = Mockito.mock(GooglePhotosInterface.class);
     monitor = Mockito.mock(Monitor.class);
 
-    Mockito.when(googlePhotosInterface.uploadPhotoContent(any(InputStream.class)))
+    Mockito.when(googlePhotosInterface.uploadPhotoContent(any(InputStream.class), any()))
         .thenReturn(UPLOAD_TOKEN);
     Mockito.when(
             googlePhotosInterface.makePostRequest(
@@ -85,10 +90,19 @@ public class GooglePhotosImporterTest {
     HttpURLConnection conn = Mockito.mock(HttpURLConnection.class);
     Mockito.when(imageStreamProvider.getConnection(anyString())).thenReturn(conn);
     Mockito.when(conn.getInputStream()).thenReturn(inputStream);
+    // The length of the content is unknown
+    Mockito.when(conn.getContentLengthLong()).thenReturn(-1L);
 
     googlePhotosImporter =
         new GooglePhotosImporter(
-            null, jobStore, null, null, googlePhotosInterface, imageStreamProvider, monitor, 1.0);
+            null,
+            jobStore,
+            null,
+            googlePhotosInterface,
+            imageStreamProvider,
+            monitor,
+            1.0,
+            Runnable::run);
   }
 
   @Test
@@ -128,22 +142,18 @@ public class GooglePhotosImporterTest {
 
     executor.executeOrThrowException(OLD_ALBUM_ID, OLD_ALBUM_ID, () -> NEW_ALBUM_ID);
 
-    NewMediaItemResult newMediaItemResult = Mockito.mock(NewMediaItemResult.class);
-    GoogleMediaItem googleMediaItem = new GoogleMediaItem();
-    googleMediaItem.setId("NewId");
-    Mockito.when(newMediaItemResult.getMediaItem()).thenReturn(googleMediaItem);
-
+    NewMediaItemResult newMediaItemResult = mockResult(UPLOAD_TOKEN, "NewId");
     BatchMediaItemResponse batchMediaItemResponse =
         new BatchMediaItemResponse(new NewMediaItemResult[] {newMediaItemResult});
     Mockito.when(googlePhotosInterface.createPhoto(any(NewMediaItemUpload.class)))
         .thenReturn(batchMediaItemResponse);
 
     // Run test
-    googlePhotosImporter.importSinglePhoto(uuid, null, photoModel, executor);
+    googlePhotosImporter.importPhotos(uuid, null, ImmutableList.of(photoModel), executor);
 
     // Check results
     Mockito.verify(imageStreamProvider).getConnection(IMG_URI);
-    Mockito.verify(googlePhotosInterface).uploadPhotoContent(inputStream);
+    Mockito.verify(googlePhotosInterface).uploadPhotoContent(any(InputStream.class), isNull());
 
     ArgumentCaptor<NewMediaItemUpload> uploadArgumentCaptor =
         ArgumentCaptor.forClass(NewMediaItemUpload.class);
@@ -154,5 +164,114 @@ public class GooglePhotosImporterTest {
     NewMediaItem mediaItem = newMediaItems.get(0);
     assertEquals(mediaItem.getSimpleMediaItem().getUploadToken(), UPLOAD_TOKEN);
     assertEquals(mediaItem.getDescription(), "Copy of " + PHOTO_DESCRIPTION);
+    assertEquals(
+        "NewId", executor.<PhotoResult>getCachedValue(OLD_ALBUM_ID + "-oldPhotoID").getId());
+  }
+
+  @Test
+  public void exportPhotosInOneBatch() throws Exception {
+    // Set up
+    PhotoModel photo1 =
+        new PhotoModel(
+            PHOTO_TITLE, IMG_URI, PHOTO_DESCRIPTION, JPEG_MEDIA_TYPE, "photo1", OLD_ALBUM_ID,
+            false);
+    PhotoModel photo2 =
+        new PhotoModel(
+            PHOTO_TITLE, IMG_URI, PHOTO_DESCRIPTION, JPEG_MEDIA_TYPE, "photo2", OLD_ALBUM_ID,
+            false);
+
+    executor.executeOrThrowException(OLD_ALBUM_ID, OLD_ALBUM_ID, () -> NEW_ALBUM_ID);
+
+    Mockito.when(googlePhotosInterface.uploadPhotoContent(any(InputStream.class), any()))
+        .thenReturn("token1", "token2");
+    // The second item fails on its own, the results aren't in the order of the request
+    NewMediaItemResult failedResult = mockResult("token2", null);
+    BatchMediaItemResponse batchMediaItemResponse =
+        new BatchMediaItemResponse(
+            new NewMediaItemResult[] {failedResult, mockResult("token1", "NewId1")});
+    Mockito.when(googlePhotosInterface.createPhoto(any(NewMediaItemUpload.class)))
+        .thenReturn(batchMediaItemResponse);
+
+    // Run test
+    googlePhotosImporter.importPhotos(uuid, null, ImmutableList.of(photo1, photo2), executor);
+
+    // Check results
+    ArgumentCaptor<NewMediaItemUpload> uploadArgumentCaptor =
+        ArgumentCaptor.forClass(NewMediaItemUpload.class);
+    Mockito.verify(googlePhotosInterface).createPhoto(uploadArgumentCaptor.capture());
+    assertEquals(uploadArgumentCaptor.getValue().getNewMediaItems().size(), 2);
+    assertEquals(
+        "NewId1", executor.<PhotoResult>getCachedValue(OLD_ALBUM_ID + "-photo1").getId());
+    assertFalse(executor.isKeyCached(OLD_ALBUM_ID + "-photo2"));
+  }
+
+  @Test
+  public void repeatedPhotoIsImportedOnce() throws Exception {
+    // Set up
+    PhotoModel photo =
+        new PhotoModel(
+            PHOTO_TITLE, IMG_URI, PHOTO_DESCRIPTION, JPEG_MEDIA_TYPE, "photo1", null, false);
+    BatchMediaItemResponse batchMediaItemResponse =
+        new BatchMediaItemResponse(new NewMediaItemResult[] {mockResult(UPLOAD_TOKEN, "NewId")});
+    Mockito.when(googlePhotosInterface.createPhoto(any(NewMediaItemUpload.class)))
+        .thenReturn(batchMediaItemResponse);
+
+    // Run test
+    googlePhotosImporter.importPhotos(uuid, null, ImmutableList.of(photo, photo), executor);
+
+    // Check results
+    Mockito.verify(googlePhotosInterface).uploadPhotoContent(any(InputStream.class), isNull());
+    ArgumentCaptor<NewMediaItemUpload> uploadArgumentCaptor =
+        ArgumentCaptor.forClass(NewMediaItemUpload.class);
+    Mockito.verify(googlePhotosInterface).createPhoto(uploadArgumentCaptor.capture());
+    assertEquals(uploadArgumentCaptor.getValue().getNewMediaItems().size(), 1);
+    assertEquals("NewId", executor.<PhotoResult>getCachedValue("null-photo1").getId());
+  }
+
+  @Test
+  public void retriedPhotoIsUploadedAgain() throws Exception {
+    // Set up
+    PhotoModel photo =
+        new PhotoModel(
+            PHOTO_TITLE, IMG_URI, PHOTO_DESCRIPTION, JPEG_MEDIA_TYPE, "photo1", null, false);
+    // Retries a failed item once, as the item-level retry of the copier does
+    IdempotentImportExecutor retryingExecutor =
+        new FakeIdempotentImportExecutor() {
+          @Override
+          public <T extends Serializable> T executeAndSwallowIOExceptions(
+              String idempotentId, String itemName, Callable<T> callable) throws Exception {
+            T result = super.executeAndSwallowIOExceptions(idempotentId, itemName, callable);
+            return result != null
+                ? result
+                : super.executeAndSwallowIOExceptions(idempotentId, itemName, callable);
+          }
+        };
+
+    Mockito.when(googlePhotosInterface.uploadPhotoContent(any(InputStream.class), any()))
+        .thenThrow(new IOException("Upload failed"))
+        .thenReturn(UPLOAD_TOKEN);
+    BatchMediaItemResponse batchMediaItemResponse =
+        new BatchMediaItemResponse(new NewMediaItemResult[] {mockResult(UPLOAD_TOKEN, "NewId")});
+    Mockito.when(googlePhotosInterface.createPhoto(any(NewMediaItemUpload.class)))
+        .thenReturn(batchMediaItemResponse);
+
+    // Run test
+    googlePhotosImporter.importPhotos(uuid, null, ImmutableList.of(photo), retryingExecutor);
+
+    // Check results
+    Mockito.verify(googlePhotosInterface, Mockito.times(2))
+        .uploadPhotoContent(any(InputStream.class), isNull());
+    assertEquals("NewId", retryingExecutor.<PhotoResult>getCachedValue("null-photo1").getId());
+  }
+
+  private static NewMediaItemResult mockResult(String uploadToken, String mediaItemId) {
+    NewMediaItemResult newMediaItemResult = Mockito.mock(NewMediaItemResult.class);
+    Mockito.when(newMediaItemResult.getUploadToken()).thenReturn(uploadToken);
+    if (mediaItemId != null) {
+      GoogleMediaItem googleMediaItem = new GoogleMediaItem();
+      googleMediaItem.setId(mediaItemId);
+      Mockito.when(newMediaItemResult.getMediaItem()).thenReturn(googleMediaItem);
+    }
+    return newMediaItemResult;
   }
 }
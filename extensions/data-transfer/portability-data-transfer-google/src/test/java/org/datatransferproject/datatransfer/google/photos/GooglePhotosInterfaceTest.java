@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.datatransferproject.datatransfer.google.photos;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.datatransfer.google.common.GoogleCredentialFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GooglePhotosInterfaceTest {
+
+  private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+  private static final String START_URL = "https://photoslibrary.googleapis.com/v1/uploads";
+  private static final String UPLOAD_URL = "https://photoslibrary.googleapis.com/upload/1";
+  private static final String UPLOAD_TOKEN = "uploadToken";
+
+  private FakeUploadTransport transport;
+  private GooglePhotosInterface photosInterface;
+
+  @Before
+  public void setUp() {
+    transport = new FakeUploadTransport();
+    GoogleCredentialFactory credentialFactory = mock(GoogleCredentialFactory.class);
+    when(credentialFactory.getHttpTransport()).thenReturn(transport);
+    Credential credential =
+        new Credential(BearerToken.authorizationHeaderAccessMethod()).setAccessToken("token");
+    photosInterface =
+        new GooglePhotosInterface(
+            credentialFactory, credential, new JacksonFactory(), new Monitor() {}, 1000);
+  }
+
+  @Test
+  public void uploadsKnownLengthContentInOneRequest() throws Exception {
+    byte[] content = randomBytes(1024);
+
+    String uploadToken =
+        photosInterface.uploadPhotoContent(
+            new ByteArrayInputStream(content), (long) content.length);
+
+    assertThat(uploadToken).isEqualTo(UPLOAD_TOKEN);
+    assertThat(transport.requests).containsExactly("upload 1024");
+    assertThat(transport.uploaded.toByteArray()).isEqualTo(content);
+  }
+
+  @Test
+  public void finalizesUnknownLengthContentThatFillsItsLastChunk() throws Exception {
+    byte[] content = randomBytes(2 * CHUNK_SIZE);
+
+    String uploadToken =
+        photosInterface.uploadPhotoContent(new ByteArrayInputStream(content), null);
+
+    assertThat(uploadToken).isEqualTo(UPLOAD_TOKEN);
+    assertThat(transport.requests)
+        .containsExactly(
+            "start",
+            "upload 0 " + CHUNK_SIZE,
+            "upload " + CHUNK_SIZE + " " + CHUNK_SIZE,
+            "upload, finalize " + 2 * CHUNK_SIZE + " 0")
+        .inOrder();
+    assertThat(transport.uploaded.toByteArray()).isEqualTo(content);
+  }
+
+  @Test
+  public void resumesFailedChunkFromReceivedOffset() throws Exception {
+    byte[] content = randomBytes(CHUNK_SIZE + 1000);
+    transport.failAtOffset = CHUNK_SIZE + 400;
+
+    String uploadToken =
+        photosInterface.uploadPhotoContent(new ByteArrayInputStream(content), null);
+
+    assertThat(uploadToken).isEqualTo(UPLOAD_TOKEN);
+    assertThat(transport.requests)
+        .containsExactly(
+            "start",
+            "upload 0 " + CHUNK_SIZE,
+            "upload, finalize " + CHUNK_SIZE + " 1000",
+            "query",
+            "upload, finalize " + (CHUNK_SIZE + 400) + " 600")
+        .inOrder();
+    assertThat(transport.uploaded.toByteArray()).isEqualTo(content);
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * Plays the part of the Google Photos upload endpoint, keeping the bytes it received and a
+   * summary of each request. The connection can be made to drop once at a given offset.
+   */
+  private static final class FakeUploadTransport extends MockHttpTransport {
+
+    final List<String> requests = new ArrayList<>();
+    final ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+    long failAtOffset = -1;
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest(url) {
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          ByteArrayOutputStream body = new ByteArrayOutputStream();
+          if (getStreamingContent() != null) {
+            getStreamingContent().writeTo(body);
+          }
+          return respond(this, body);
+        }
+      };
+    }
+
+    private LowLevelHttpResponse respond(
+        MockLowLevelHttpRequest request, ByteArrayOutputStream body) throws IOException {
+      MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+      String command = request.getFirstHeaderValue("X-Goog-Upload-Command");
+      if (command == null) {
+        assertThat(request.getUrl()).startsWith(START_URL + "/?");
+        requests.add("upload " + body.size());
+        body.writeTo(uploaded);
+        return response.setContent(UPLOAD_TOKEN);
+      }
+      assertThat(request.getUrl()).isEqualTo(command.equals("start") ? START_URL : UPLOAD_URL);
+      switch (command) {
+        case "start":
+          requests.add(command);
+          return response
+              .addHeader("X-Goog-Upload-URL", UPLOAD_URL)
+              .addHeader("X-Goog-Upload-Chunk-Granularity", "262144");
+        case "query":
+          requests.add(command);
+          return response.addHeader(
+              "X-Goog-Upload-Size-Received", Long.toString(uploaded.size()));
+        default:
+          long offset = Long.parseLong(request.getFirstHeaderValue("X-Goog-Upload-Offset"));
+          requests.add(command + " " + offset + " " + body.size());
+          assertThat(offset).isEqualTo((long) uploaded.size());
+          byte[] bytes = body.toByteArray();
+          if (failAtOffset >= offset && failAtOffset < offset + bytes.length) {
+            // The server keeps what it received before the connection dropped
+            uploaded.write(bytes, 0, (int) (failAtOffset - offset));
+            failAtOffset = -1;
+            throw new IOException("Connection reset");
+          }
+          uploaded.write(bytes);
+          return command.contains("finalize") ? response.setContent(UPLOAD_TOKEN) : response;
+      }
+    }
+  }
+}
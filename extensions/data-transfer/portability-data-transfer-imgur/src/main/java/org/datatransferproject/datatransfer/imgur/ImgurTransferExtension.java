@@ -29,6 +29,7 @@ import org.datatransferproject.spi.cloud.storage.TemporaryPerJobDataStore;
 import org.datatransferproject.spi.transfer.extension.TransferExtension;
 import org.datatransferproject.spi.transfer.provider.Exporter;
 import org.datatransferproject.spi.transfer.provider.Importer;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
 
 /** Extension for transferring Imgur data */
 public class ImgurTransferExtension implements TransferExtension {
@@ -55,7 +56,9 @@ public class ImgurTransferExtension implements TransferExtension {
     OkHttpClient client = context.getService(OkHttpClient.class);
     TemporaryPerJobDataStore jobStore = context.getService(TemporaryPerJobDataStore.class);
 
-    exporter = new ImgurPhotosExporter(monitor, client, mapper, jobStore, BASE_URL);
+    TransferExecutor executor = context.getService(TransferExecutor.class);
+
+    exporter = new ImgurPhotosExporter(monitor, client, mapper, jobStore, executor, BASE_URL);
     importer = new ImgurPhotosImporter(monitor, client, mapper, jobStore, BASE_URL);
 
     initialized = true;
@@ -35,11 +35,9 @@ import org.datatransferproject.types.common.models.photos.PhotoAlbum;
 import org.datatransferproject.types.common.models.photos.PhotoModel;
 import org.datatransferproject.types.common.models.photos.PhotosContainerResource;
 import org.datatransferproject.types.transfer.auth.TokensAndUrlAuthData;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -47,10 +45,17 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.lang.String.format;
 
-/** Exports Imgur albums and photos using Imgur API */
+/**
+ * Exports Imgur albums and photos using Imgur API. The photos of a page are downloaded into the
+ * job's temporary store, several at a time on the service's {@link TransferExecutor}.
+ */
 public class ImgurPhotosExporter
     implements Exporter<TokensAndUrlAuthData, PhotosContainerResource> {
   private static final String RESULTS_PER_PAGE = "10";
@@ -66,14 +71,17 @@ public class ImgurPhotosExporter
   private final ObjectMapper objectMapper;
   private final Monitor monitor;
   private final TemporaryPerJobDataStore jobStore;
+  private final TransferExecutor executor;
 
   public ImgurPhotosExporter(
       Monitor monitor,
       OkHttpClient client,
       ObjectMapper objectMapper,
       TemporaryPerJobDataStore jobStore,
+      TransferExecutor executor,
       String baseUrl) {
     this.client = client;
+    this.executor = executor;
     this.objectMapper = objectMapper;
     this.monitor = monitor;
     this.jobStore = jobStore;
@@ -202,12 +210,10 @@ public class ImgurPhotosExporter
               true);
       photos.add(photoModel);
 
-      InputStream inputStream = getImageAsStream(photoModel.getFetchableUrl());
-      jobStore.create(jobId, photoModel.getFetchableUrl(), inputStream);
-
       // Save id of each album photo for finding non-album photos later
       albumPhotos.add((String) item.get("id"));
     }
+    storePhotos(jobId, photos);
 
     // This request doesn't support pages
     ExportResult.ResultType resultType = ExportResult.ResultType.END;
@@ -255,11 +261,9 @@ public class ImgurPhotosExporter
                 DEFAULT_ALBUM_ID,
                 true);
         photos.add(photoModel);
-
-        InputStream inputStream = getImageAsStream(photoModel.getFetchableUrl());
-        jobStore.create(jobId, photoModel.getFetchableUrl(), inputStream);
       }
     }
+    storePhotos(jobId, photos);
 
     if (!containsNonAlbumPhotos && photos.size() > 0) {
       // Add album for non-album photos
@@ -306,10 +310,58 @@ public class ImgurPhotosExporter
     }
   }
 
-  private InputStream getImageAsStream(String imageUrl) throws IOException {
-    URL url = new URL(imageUrl);
-    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-    conn.connect();
-    return conn.getInputStream();
+  /**
+   * Downloads {@code photos} into the job's temporary store, several at a time, so they are
+   * available to the importer once the page is exported.
+   */
+  private void storePhotos(UUID jobId, List<PhotoModel> photos) throws IOException {
+    List<CompletableFuture<Void>> downloads = new ArrayList<>(photos.size());
+    AtomicBoolean abandoned = new AtomicBoolean();
+    try {
+      for (PhotoModel photo : photos) {
+        downloads.add(
+            executor.submit(
+                () -> {
+                  if (abandoned.get()) {
+                    throw new CancellationException("The export of the page failed");
+                  }
+                  storePhoto(jobId, photo.getFetchableUrl());
+                  return null;
+                }));
+      }
+      for (CompletableFuture<Void> download : downloads) {
+        try {
+          download.join();
+        } catch (CompletionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException("Unable to download photo", e.getCause());
+        }
+      }
+    } finally {
+      // Only has an effect if a download failed: downloads that didn't start are skipped, and
+      // running ones are waited for so that none writes to the job store after the page failed
+      abandoned.set(true);
+      for (CompletableFuture<Void> download : downloads) {
+        try {
+          download.join();
+        } catch (CompletionException | CancellationException e) {
+          // Already reported, or skipped
+        }
+      }
+    }
+  }
+
+  /** Streams the image at {@code imageUrl} into the job's temporary store. */
+  private void storePhoto(UUID jobId, String imageUrl) throws IOException {
+    Request request = new Request.Builder().url(imageUrl).build();
+    try (Response response = client.newCall(request).execute()) {
+      ResponseBody body = response.body();
+      if (!response.isSuccessful() || body == null) {
+        throw new IOException(format("Unable to download %s: %d", imageUrl, response.code()));
+      }
+      jobStore.create(jobId, imageUrl, body.byteStream());
+    }
   }
 }
@@ -33,6 +33,7 @@ import org.datatransferproject.types.common.models.photos.PhotoAlbum;
 import org.datatransferproject.types.common.models.photos.PhotoModel;
 import org.datatransferproject.types.common.models.photos.PhotosContainerResource;
 import org.datatransferproject.types.transfer.auth.TokensAndUrlAuthData;
+import org.datatransferproject.types.transfer.executor.ThreadPerTaskTransferExecutor;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -98,7 +99,13 @@ public class ImgurPhotoExporterTest {
     server = new MockWebServer();
     server.start();
     exporter =
-        new ImgurPhotosExporter(monitor, client, mapper, jobStore, server.url("").toString());
+        new ImgurPhotosExporter(
+            monitor,
+            client,
+            mapper,
+            jobStore,
+            ThreadPerTaskTransferExecutor.createWithPlatformThreads(),
+            server.url("").toString());
   }
 
   @Test
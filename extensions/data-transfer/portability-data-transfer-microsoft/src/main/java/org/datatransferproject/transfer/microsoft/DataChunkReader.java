@@ -0,0 +1,36 @@
+package org.datatransferproject.transfer.microsoft;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+  Reads an InputStream as consecutive {@link DataChunk}s for part-by-part upload. Only a single
+  chunk is held in memory: every chunk reuses the buffer of the previous one, so a chunk has to be
+  uploaded before the next one is read.
+*/
+public class DataChunkReader {
+  private final InputStream inputStream;
+  private final byte[] buffer;
+  private long position = 0;
+
+  public DataChunkReader(InputStream inputStream) {
+    this(inputStream, DataChunk.CHUNK_SIZE);
+  }
+
+  public DataChunkReader(InputStream inputStream, int chunkSize) {
+    this.inputStream = inputStream;
+    this.buffer = new byte[chunkSize];
+  }
+
+  /** Returns the next chunk of the stream, or null once the stream is exhausted. */
+  public DataChunk readChunk() throws IOException {
+    int size = ByteStreams.read(inputStream, buffer, 0, buffer.length);
+    if (size == 0) {
+      return null;
+    }
+    DataChunk chunk = new DataChunk(buffer, size, position);
+    position += size;
+    return chunk;
+  }
+}
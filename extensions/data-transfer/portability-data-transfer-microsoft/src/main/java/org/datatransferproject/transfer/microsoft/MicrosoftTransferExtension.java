@@ -93,7 +93,7 @@ public class MicrosoftTransferExtension implements TransferExtension {
     HttpTransport httpTransport = context.getService(HttpTransport.class);
     JsonFactory jsonFactory = context.getService(JsonFactory.class);
     TransformerService transformerService = new TransformerServiceImpl();
-    OkHttpClient client = new OkHttpClient.Builder().build();
+    OkHttpClient client = context.getService(OkHttpClient.class);
     ObjectMapper mapper = new ObjectMapper();
 
     AppCredentials appCredentials;
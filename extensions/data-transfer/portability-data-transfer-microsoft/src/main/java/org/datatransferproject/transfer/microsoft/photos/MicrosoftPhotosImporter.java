@@ -20,9 +20,14 @@ import com.google.api.client.auth.oauth2.Credential;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
-import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +40,7 @@ import okhttp3.Response;
 import okhttp3.ResponseBody;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.spi.cloud.storage.TemporaryPerJobDataStore;
+import org.datatransferproject.spi.cloud.storage.TemporaryPerJobDataStore.InputStreamWrapper;
 import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
 import org.datatransferproject.spi.transfer.provider.ImportResult;
 import org.datatransferproject.spi.transfer.provider.Importer;
@@ -42,6 +48,7 @@ import org.datatransferproject.spi.transfer.types.CopyExceptionWithFailureReason
 import org.datatransferproject.spi.transfer.types.DestinationMemoryFullException;
 import org.datatransferproject.spi.transfer.types.PermissionDeniedException;
 import org.datatransferproject.transfer.microsoft.DataChunk;
+import org.datatransferproject.transfer.microsoft.DataChunkReader;
 import org.datatransferproject.transfer.microsoft.MicrosoftTransmogrificationConfig;
 import org.datatransferproject.transfer.microsoft.common.MicrosoftCredentialFactory;
 import org.datatransferproject.types.common.models.photos.PhotoAlbum;
@@ -69,6 +76,7 @@ public class MicrosoftPhotosImporter
   private final String albumlessPhotoUrlTemplate;
 
   private static final String UPLOAD_PARAMS = "?@microsoft.graph.conflictBehavior=rename";
+  private static final int MAX_CHUNK_ATTEMPTS = 3;
 
   public MicrosoftPhotosImporter(
     String baseUrl,
@@ -192,38 +200,63 @@ public class MicrosoftPhotosImporter
     PhotoModel photo,
     UUID jobId,
     IdempotentImportExecutor idempotentImportExecutor) throws Exception {
-    BufferedInputStream inputStream = null;
+    InputStream inputStream;
+    long totalFileSize;
     if (photo.isInTempStore()) {
-      inputStream = new BufferedInputStream(jobStore.getStream(jobId, photo.getFetchableUrl()).getStream());
+      InputStreamWrapper streamWrapper = jobStore.getStream(jobId, photo.getFetchableUrl());
+      inputStream = streamWrapper.getStream();
+      totalFileSize = streamWrapper.getBytes() == null ? 0 : streamWrapper.getBytes();
     } else if (photo.getFetchableUrl() != null) {
-      inputStream = new BufferedInputStream(new URL(photo.getFetchableUrl()).openStream());
+      URLConnection connection = new URL(photo.getFetchableUrl()).openConnection();
+      inputStream = connection.getInputStream();
+      totalFileSize = connection.getContentLengthLong();
     } else {
       throw new IllegalStateException("Don't know how to get the inputStream for " + photo);
     }
-
-    String photoUploadUrl = createUploadSession(photo, idempotentImportExecutor);
-
-    // Arrange the data to be uploaded in chunks
-    List<DataChunk> chunksToSend = DataChunk.splitData(inputStream);
-    inputStream.close();
-    final int totalFileSize = chunksToSend.stream().map(DataChunk::getSize).reduce(0, Integer::sum);
-    Preconditions.checkState(
-        chunksToSend.size() != 0, "Data was split into zero chunks %s.", photo.getTitle());
+    if (totalFileSize <= 0) {
+      // Every chunk has to state the total size, spool the data to disk to learn it
+      Path tempFile = Files.createTempFile("onedrive-upload-", null);
+      try (InputStream photoStream = inputStream) {
+        Files.copy(photoStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        totalFileSize = Files.size(tempFile);
+        inputStream = Files.newInputStream(tempFile, StandardOpenOption.DELETE_ON_CLOSE);
+      } catch (IOException e) {
+        Files.deleteIfExists(tempFile);
+        throw e;
+      }
+    }
 
     Response chunkResponse = null;
-    for (DataChunk chunk : chunksToSend) {
-      chunkResponse = uploadChunk(chunk, photoUploadUrl, totalFileSize, photo.getMediaType());
+    try (InputStream photoStream = inputStream) {
+      Preconditions.checkState(totalFileSize > 0, "Data was split into zero chunks %s.", photo.getTitle());
+
+      String photoUploadUrl = createUploadSession(photo, idempotentImportExecutor);
+
+      // Upload the data in chunks as it is read
+      DataChunkReader chunkReader = new DataChunkReader(photoStream);
+      DataChunk chunk;
+      while ((chunk = chunkReader.readChunk()) != null) {
+        Response response = uploadChunk(chunk, photoUploadUrl, totalFileSize, photo.getMediaType());
+        if (response != null) {
+          if (chunkResponse != null) {
+            chunkResponse.close();
+          }
+          chunkResponse = response;
+        }
+      }
     }
+    Preconditions.checkState(chunkResponse != null, "No response to the last chunk of %s.", photo.getTitle());
     if (chunkResponse.code() != 200 && chunkResponse.code() != 201) {
       // Once we upload the last chunk, we should have either 200 or 201.
       // This should change to a precondition check after we debug some more.
-      monitor.debug(
-          () -> "Received a bad code on completion of uploading chunks", chunkResponse.code());
+      int code = chunkResponse.code();
+      monitor.debug(() -> "Received a bad code on completion of uploading chunks", code);
     }
     // get complete file response
-    ResponseBody chunkResponseBody = chunkResponse.body();
-    Map<String, Object> chunkResponseData = objectMapper.readValue(chunkResponseBody.bytes(), Map.class);
-    return (String) chunkResponseData.get("id");
+    try (ResponseBody chunkResponseBody = chunkResponse.body()) {
+      Map<String, Object> chunkResponseData = objectMapper.readValue(chunkResponseBody.bytes(), Map.class);
+      return (String) chunkResponseData.get("id");
+    }
   }
 
   private Credential getOrCreateCredential(TokensAndUrlAuthData authData) {
@@ -318,28 +351,86 @@ public class MicrosoftPhotosImporter
     return (String) responseData.get("uploadUrl");
   }
 
-  // Uploads a single DataChunk to an upload URL
+  // Uploads a single DataChunk to an upload URL. If the upload fails, the upload session is asked
+  // which bytes it still expects and the upload of the chunk resumes from there.
+  // Returns null if the chunk turned out to be received already.
+  private Response uploadChunk(DataChunk chunk, String photoUploadUrl, long totalFileSize, String mediaType)
+          throws IOException, DestinationMemoryFullException {
+    int offset = 0;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return uploadChunk(chunk, offset, photoUploadUrl, totalFileSize, mediaType);
+      } catch (IOException e) {
+        if (attempt >= MAX_CHUNK_ATTEMPTS) {
+          throw e;
+        }
+        long nextExpectedByte;
+        try {
+          nextExpectedByte = getNextExpectedByte(photoUploadUrl);
+        } catch (IOException statusException) {
+          e.addSuppressed(statusException);
+          throw e;
+        }
+        if (nextExpectedByte < chunk.getStart() || nextExpectedByte > chunk.getEnd() + 1) {
+          throw e;
+        }
+        if (nextExpectedByte == chunk.getEnd() + 1) {
+          return null;
+        }
+        offset = (int) (nextExpectedByte - chunk.getStart());
+        monitor.info(
+            () -> String.format("Resuming upload from byte %d after chunk upload failure", nextExpectedByte), e);
+      }
+    }
+  }
+
+  // Gets the first byte the upload session still expects
+  // GET to {photoUploadUrl}
+  @SuppressWarnings("unchecked")
+  private long getNextExpectedByte(String photoUploadUrl) throws IOException {
+    Request.Builder statusRequestBuilder = new Request.Builder().url(photoUploadUrl);
+    statusRequestBuilder.header("Authorization", "Bearer " + credential.getAccessToken());
+    try (Response response = client.newCall(statusRequestBuilder.build()).execute()) {
+      ResponseBody body = response.body();
+      if (response.code() != 200 || body == null) {
+        throw new IOException(
+            "Got error code: " + response.code() + " message: " + response.message());
+      }
+      Map<String, Object> statusData = objectMapper.readValue(body.bytes(), Map.class);
+      List<String> nextExpectedRanges = (List<String>) statusData.get("nextExpectedRanges");
+      if (nextExpectedRanges == null || nextExpectedRanges.isEmpty()) {
+        throw new IOException("No expected ranges left in upload session");
+      }
+      String range = nextExpectedRanges.get(0);
+      int separator = range.indexOf('-');
+      return Long.parseLong(separator == -1 ? range : range.substring(0, separator));
+    }
+  }
+
+  // Uploads the part of a DataChunk starting at offset to an upload URL
   // PUT to {photoUploadUrl}
   // HEADERS
   // Content-Length: {chunk size in bytes}
   // Content-Range: bytes {begin}-{end}/{total size}
   // body={bytes}
-  private Response uploadChunk(DataChunk chunk, String photoUploadUrl, int totalFileSize, String mediaType)
+  private Response uploadChunk(
+      DataChunk chunk, int offset, String photoUploadUrl, long totalFileSize, String mediaType)
           throws IOException, DestinationMemoryFullException {
 
     Request.Builder uploadRequestBuilder = new Request.Builder().url(photoUploadUrl);
     uploadRequestBuilder.header("Authorization", "Bearer " + credential.getAccessToken());
 
     // put chunk data in
-    RequestBody uploadChunkBody = RequestBody.create(MediaType.parse(mediaType), chunk.getData(), 0, chunk.getSize());
+    int size = chunk.getSize() - offset;
+    RequestBody uploadChunkBody = RequestBody.create(MediaType.parse(mediaType), chunk.getData(), offset, size);
     uploadRequestBuilder.put(uploadChunkBody);
 
     // set chunk data headers, indicating size and chunk range
+    long start = chunk.getStart() + offset;
     final String contentRange =
-        String.format("bytes %d-%d/%d", chunk.getStart(), chunk.getEnd(), totalFileSize);
+        String.format("bytes %d-%d/%d", start, chunk.getEnd(), totalFileSize);
     uploadRequestBuilder.header("Content-Range", contentRange);
-    uploadRequestBuilder.header("Content-Length", String.format("%d", chunk.getSize()));
-
+    uploadRequestBuilder.header("Content-Length", String.format("%d", size));
     // upload the chunk
     Response chunkResponse = client.newCall(uploadRequestBuilder.build()).execute();
     Preconditions.checkNotNull(chunkResponse, "chunkResponse is null");
@@ -372,7 +463,7 @@ public class MicrosoftPhotosImporter
           () ->
               String.format(
                   "Uploaded chunk %s-%s successfuly, code %d",
-                  chunk.getStart(), chunk.getEnd(), chunkCode));
+                  start, chunk.getEnd(), chunkCode));
     }
     return chunkResponse;
   }
@@ -42,6 +42,7 @@ import org.datatransferproject.types.common.models.photos.PhotoModel;
 import org.datatransferproject.types.transfer.auth.TokensAndUrlAuthData;
 import org.datatransferproject.types.common.models.photos.PhotosContainerResource;
 import org.datatransferproject.transfer.microsoft.DataChunk;
+import org.datatransferproject.transfer.microsoft.DataChunkReader;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Matchers;
@@ -68,56 +69,73 @@ public class DataChunkTest {
   }
 
   @Test
-  public void testSplitDataSingleFullChunk() throws IOException {
-    inputStream = new ByteArrayInputStream(new byte[CHUNK_SIZE]);
-    List<DataChunk> l = DataChunk.splitData(inputStream);
-    assertThat(l).hasSize(1);
-    assertThat(l.get(0).getSize()).isEqualTo(CHUNK_SIZE);
-    assertThat(l.get(0).getStart()).isEqualTo(0);
-    assertThat(l.get(0).getEnd()).isEqualTo(CHUNK_SIZE - 1);
+  public void testReadSingleFullChunk() throws IOException {
+    DataChunkReader reader = new DataChunkReader(new ByteArrayInputStream(new byte[CHUNK_SIZE]));
+    DataChunk chunk = reader.readChunk();
+    assertThat(chunk.getSize()).isEqualTo(CHUNK_SIZE);
+    assertThat(chunk.getStart()).isEqualTo(0L);
+    assertThat(chunk.getEnd()).isEqualTo(CHUNK_SIZE - 1L);
+    assertThat(reader.readChunk()).isNull();
   }
 
   @Test
-  public void testSplitDataSingleNotFullChunk() throws IOException {
-    inputStream = new ByteArrayInputStream(new byte[CHUNK_SIZE-1]);
-    List<DataChunk> l = DataChunk.splitData(inputStream);
-    assertThat(l).hasSize(1);
-    assertThat(l.get(0).getSize()).isEqualTo(CHUNK_SIZE - 1);
-    assertThat(l.get(0).getStart()).isEqualTo(0);
-    assertThat(l.get(0).getEnd()).isEqualTo(CHUNK_SIZE - 2);
+  public void testReadSingleNotFullChunk() throws IOException {
+    DataChunkReader reader =
+        new DataChunkReader(new ByteArrayInputStream(new byte[CHUNK_SIZE - 1]));
+    DataChunk chunk = reader.readChunk();
+    assertThat(chunk.getSize()).isEqualTo(CHUNK_SIZE - 1);
+    assertThat(chunk.getStart()).isEqualTo(0L);
+    assertThat(chunk.getEnd()).isEqualTo(CHUNK_SIZE - 2L);
+    assertThat(reader.readChunk()).isNull();
   }
 
   @Test
-  public void testSplitDataEmpty() throws IOException {
-    inputStream = new ByteArrayInputStream(new byte[0]);
-    List<DataChunk> l = DataChunk.splitData(inputStream);
-    assertThat(l).hasSize(0);
+  public void testReadEmpty() throws IOException {
+    DataChunkReader reader = new DataChunkReader(new ByteArrayInputStream(new byte[0]));
+    assertThat(reader.readChunk()).isNull();
   }
 
   @Test
-  public void testSplitTwoEvenChunks() throws IOException {
-    inputStream = new ByteArrayInputStream(new byte[CHUNK_SIZE*2]);
-    List<DataChunk> l = DataChunk.splitData(inputStream);
-    assertThat(l).hasSize(2);
-    assertThat(l.get(0).getSize()).isEqualTo(CHUNK_SIZE);
-    assertThat(l.get(0).getStart()).isEqualTo(0);
-    assertThat(l.get(0).getEnd()).isEqualTo(CHUNK_SIZE - 1);
-    assertThat(l.get(1).getSize()).isEqualTo(CHUNK_SIZE);
-    assertThat(l.get(1).getStart()).isEqualTo(CHUNK_SIZE);
-    assertThat(l.get(1).getEnd()).isEqualTo(2*CHUNK_SIZE - 1);
+  public void testReadTwoEvenChunks() throws IOException {
+    DataChunkReader reader =
+        new DataChunkReader(new ByteArrayInputStream(new byte[CHUNK_SIZE * 2]));
+    DataChunk first = reader.readChunk();
+    assertThat(first.getSize()).isEqualTo(CHUNK_SIZE);
+    assertThat(first.getStart()).isEqualTo(0L);
+    assertThat(first.getEnd()).isEqualTo(CHUNK_SIZE - 1L);
+    DataChunk second = reader.readChunk();
+    assertThat(second.getSize()).isEqualTo(CHUNK_SIZE);
+    assertThat(second.getStart()).isEqualTo((long) CHUNK_SIZE);
+    assertThat(second.getEnd()).isEqualTo(2L * CHUNK_SIZE - 1);
+    assertThat(reader.readChunk()).isNull();
   }
 
   @Test
-  public void testSplitTwoChunksUneven() throws IOException {
-    inputStream = new ByteArrayInputStream(new byte[CHUNK_SIZE*2 - 10]);
-    List<DataChunk> l = DataChunk.splitData(inputStream);
-    assertThat(l).hasSize(2);
-    assertThat(l.get(0).getSize()).isEqualTo(CHUNK_SIZE);
-    assertThat(l.get(0).getStart()).isEqualTo(0);
-    assertThat(l.get(0).getEnd()).isEqualTo(CHUNK_SIZE - 1);
-    assertThat(l.get(1).getSize()).isEqualTo(CHUNK_SIZE - 10);
-    assertThat(l.get(1).getStart()).isEqualTo(CHUNK_SIZE);
-    assertThat(l.get(1).getEnd()).isEqualTo(2*CHUNK_SIZE - 11);
+  public void testReadTwoChunksUneven() throws IOException {
+    DataChunkReader reader =
+        new DataChunkReader(new ByteArrayInputStream(new byte[CHUNK_SIZE * 2 - 10]));
+    DataChunk first = reader.readChunk();
+    assertThat(first.getSize()).isEqualTo(CHUNK_SIZE);
+    assertThat(first.getStart()).isEqualTo(0L);
+    assertThat(first.getEnd()).isEqualTo(CHUNK_SIZE - 1L);
+    DataChunk second = reader.readChunk();
+    assertThat(second.getSize()).isEqualTo(CHUNK_SIZE - 10);
+    assertThat(second.getStart()).isEqualTo((long) CHUNK_SIZE);
+    assertThat(second.getEnd()).isEqualTo(2L * CHUNK_SIZE - 11);
+    assertThat(reader.readChunk()).isNull();
+  }
+
+  @Test
+  public void testChunksReuseBuffer() throws IOException {
+    DataChunkReader reader = new DataChunkReader(new ByteArrayInputStream(new byte[10]), 4);
+    byte[] buffer = reader.readChunk().getData();
+    DataChunk last = null;
+    for (DataChunk chunk = reader.readChunk(); chunk != null; chunk = reader.readChunk()) {
+      assertThat(chunk.getData()).isSameAs(buffer);
+      last = chunk;
+    }
+    assertThat(last.getSize()).isEqualTo(2);
+    assertThat(last.getStart()).isEqualTo(8L);
   }
 
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.datatransferproject.transfer.microsoft.photos;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayInputStream;
+import java.util.UUID;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.spi.cloud.storage.TemporaryPerJobDataStore;
+import org.datatransferproject.spi.cloud.storage.TemporaryPerJobDataStore.InputStreamWrapper;
+import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
+import org.datatransferproject.test.types.FakeIdempotentImportExecutor;
+import org.datatransferproject.transfer.microsoft.common.MicrosoftCredentialFactory;
+import org.datatransferproject.types.common.models.photos.PhotoModel;
+import org.datatransferproject.types.common.models.photos.PhotosContainerResource;
+import org.datatransferproject.types.transfer.auth.TokensAndUrlAuthData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verifies that the upload of a photo chunk resumes from the byte the upload session expects next,
+ * using a mock HTTP server in place of the Microsoft Graph API.
+ */
+public class MicrosoftPhotosImporterChunkUploadTest {
+
+  private static final int CHUNK_SIZE = 32000 * 1024; // 32000KiB
+  private static final UUID JOB_ID = UUID.randomUUID();
+  private static final String PHOTO_URL = "http://fake.com/1.jpg";
+  private static final String PHOTO_KEY = "null-p1";
+
+  private MockWebServer server;
+  private TemporaryPerJobDataStore jobStore;
+  private IdempotentImportExecutor executor;
+  private MicrosoftPhotosImporter importer;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new MockWebServer();
+    server.start();
+    String baseUrl = server.url("/").toString();
+
+    jobStore = mock(TemporaryPerJobDataStore.class);
+    executor = new FakeIdempotentImportExecutor();
+    MicrosoftCredentialFactory credentialFactory = mock(MicrosoftCredentialFactory.class);
+    Credential credential =
+        new Credential.Builder(BearerToken.authorizationHeaderAccessMethod()).build();
+    credential.setAccessToken("acc");
+    when(credentialFactory.createCredential(any())).thenReturn(credential);
+    importer =
+        new MicrosoftPhotosImporter(
+            baseUrl.substring(0, baseUrl.length() - 1),
+            new OkHttpClient(),
+            new ObjectMapper(),
+            jobStore,
+            new Monitor() {},
+            credentialFactory);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.shutdown();
+  }
+
+  @Test
+  public void resumesChunkFromNextExpectedByte() throws Exception {
+    storePhoto(1000);
+    enqueueUploadSession();
+    server.enqueue(new MockResponse().setResponseCode(503));
+    enqueueNextExpectedRange("400-999");
+    server.enqueue(new MockResponse().setResponseCode(201).setBody("{\"id\": \"photoId\"}"));
+
+    importPhoto();
+
+    assertThat(server.getRequestCount()).isEqualTo(4);
+    takeRequests(2);
+    assertThat(server.takeRequest().getMethod()).isEqualTo("GET");
+    RecordedRequest resumed = server.takeRequest();
+    assertThat(resumed.getHeader("Content-Range")).isEqualTo("bytes 400-999/1000");
+    assertThat(resumed.getBodySize()).isEqualTo(600L);
+    assertThat(executor.<String>getCachedValue(PHOTO_KEY)).isEqualTo("photoId");
+  }
+
+  @Test
+  public void skipsChunkAlreadyReceived() throws Exception {
+    int size = CHUNK_SIZE + 100;
+    storePhoto(size);
+    enqueueUploadSession();
+    server.enqueue(new MockResponse().setResponseCode(503));
+    enqueueNextExpectedRange(CHUNK_SIZE + "-");
+    server.enqueue(new MockResponse().setResponseCode(201).setBody("{\"id\": \"photoId\"}"));
+
+    importPhoto();
+
+    assertThat(server.getRequestCount()).isEqualTo(4);
+    takeRequests(3);
+    RecordedRequest nextChunk = server.takeRequest();
+    assertThat(nextChunk.getHeader("Content-Range"))
+        .isEqualTo("bytes " + CHUNK_SIZE + "-" + (size - 1) + "/" + size);
+    assertThat(executor.<String>getCachedValue(PHOTO_KEY)).isEqualTo("photoId");
+  }
+
+  @Test
+  public void failsWhenNextExpectedByteIsOutsideTheChunk() throws Exception {
+    storePhoto(1000);
+    enqueueUploadSession();
+    server.enqueue(new MockResponse().setResponseCode(503));
+    enqueueNextExpectedRange("5000-");
+
+    importPhoto();
+
+    // The upload is given up on without resending the chunk
+    assertThat(server.getRequestCount()).isEqualTo(3);
+    assertThat(executor.isKeyCached(PHOTO_KEY)).isFalse();
+  }
+
+  private void storePhoto(int size) throws Exception {
+    when(jobStore.getStream(JOB_ID, PHOTO_URL))
+        .thenReturn(new InputStreamWrapper(new ByteArrayInputStream(new byte[size]), (long) size));
+  }
+
+  private void enqueueUploadSession() {
+    server.enqueue(
+        new MockResponse()
+            .setBody("{\"uploadUrl\": \"" + server.url("/upload/session1") + "\"}"));
+  }
+
+  private void enqueueNextExpectedRange(String range) {
+    server.enqueue(new MockResponse().setBody("{\"nextExpectedRanges\": [\"" + range + "\"]}"));
+  }
+
+  private void importPhoto() throws Exception {
+    importer.importItem(
+        JOB_ID,
+        executor,
+        mock(TokensAndUrlAuthData.class),
+        new PhotosContainerResource(
+            ImmutableList.of(),
+            ImmutableList.of(
+                new PhotoModel("Pic1", PHOTO_URL, "A pic", "image/jpg", "p1", null, true))));
+  }
+
+  private void takeRequests(int count) throws Exception {
+    for (int i = 0; i < count; i++) {
+      server.takeRequest();
+    }
+  }
+}
@@ -30,6 +30,8 @@ import org.datatransferproject.transfer.spotify.playlists.SpotifyPlaylistImporte
 import org.datatransferproject.types.common.models.playlists.PlaylistContainerResource;
 import org.datatransferproject.types.transfer.auth.AppCredentials;
 import org.datatransferproject.types.transfer.auth.TokensAndUrlAuthData;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
+import org.datatransferproject.types.transfer.serviceconfig.TransferServiceConfig;
 
 
 public class SpotifyTransferExtension implements TransferExtension {
@@ -92,7 +94,12 @@ public class SpotifyTransferExtension implements TransferExtension {
         .build();
 
     exporter = new SpotifyPlaylistExporter(monitor, spotifyApi);
-    importer = new SpotifyPlaylistImporter(monitor, spotifyApi);
+    importer =
+        new SpotifyPlaylistImporter(
+            monitor,
+            appCredentials,
+            context.getService(TransferExecutor.class),
+            context.getService(TransferServiceConfig.class));
     initialized = true;
   }
 }
@@ -17,7 +17,11 @@
 package org.datatransferproject.transfer.spotify.playlists;
 
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
 import com.wrapper.spotify.SpotifyApi;
 import com.wrapper.spotify.exceptions.SpotifyWebApiException;
 import com.wrapper.spotify.model_objects.specification.Paging;
@@ -30,24 +34,76 @@ import org.datatransferproject.spi.transfer.provider.Importer;
 import org.datatransferproject.types.common.models.playlists.MusicPlaylist;
 import org.datatransferproject.types.common.models.playlists.MusicRecording;
 import org.datatransferproject.types.common.models.playlists.PlaylistContainerResource;
+import org.datatransferproject.types.transfer.auth.AppCredentials;
 import org.datatransferproject.types.transfer.auth.TokensAndUrlAuthData;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
+import org.datatransferproject.types.transfer.serviceconfig.TransferServiceConfig;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * Imports playlists into Spotify.
+ *
+ * <p>The tracks of a playlist are looked up by ISRC several at a time, drawing from the service's
+ * rate limiter, and then added to the playlist in order, in batches. The lookups are cached by the
+ * worker, across jobs. A track retried on its own is added to the end of the playlist.
  **/
 public class SpotifyPlaylistImporter
     implements Importer<TokensAndUrlAuthData, PlaylistContainerResource> {
+  // The most tracks the Spotify API adds to a playlist per request
+  private static final int MAX_TRACKS_PER_REQUEST = 100;
+  private static final int MAX_CACHED_TRACKS = 100_000;
+
+  // Mapping of ISRC -> Spotify track URI, shared by the importers of the worker's jobs
+  private static final Cache<String, String> TRACK_URIS =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_TRACKS).build();
+
   private final Monitor monitor;
-  private final SpotifyApi spotifyApi;
+  // Creates a client acting for the user of the given tokens
+  private final Function<TokensAndUrlAuthData, SpotifyApi> spotifyApiFactory;
+  private final TransferExecutor executor;
+  private final TransferServiceConfig transferServiceConfig;
 
-  public SpotifyPlaylistImporter(Monitor monitor, SpotifyApi spotifyApi) {
+  public SpotifyPlaylistImporter(
+      Monitor monitor,
+      AppCredentials appCredentials,
+      TransferExecutor executor,
+      TransferServiceConfig transferServiceConfig) {
+    this(
+        monitor,
+        authData ->
+            new SpotifyApi.Builder()
+                .setClientId(appCredentials.getKey())
+                .setClientSecret(appCredentials.getSecret())
+                .setAccessToken(authData.getAccessToken())
+                .setRefreshToken(authData.getRefreshToken())
+                .build(),
+        executor,
+        transferServiceConfig);
+  }
+
+  @VisibleForTesting
+  SpotifyPlaylistImporter(
+      Monitor monitor,
+      Function<TokensAndUrlAuthData, SpotifyApi> spotifyApiFactory,
+      TransferExecutor executor,
+      TransferServiceConfig transferServiceConfig) {
     this.monitor = monitor;
-    this.spotifyApi = spotifyApi;
+    this.spotifyApiFactory = spotifyApiFactory;
+    this.executor = executor;
+    this.transferServiceConfig = transferServiceConfig;
   }
 
   @Override
@@ -56,17 +112,18 @@ public class SpotifyPlaylistImporter
       IdempotentImportExecutor idempotentExecutor,
       TokensAndUrlAuthData authData,
       PlaylistContainerResource data) throws Exception {
-    spotifyApi.setAccessToken(authData.getAccessToken());
-    spotifyApi.setRefreshToken(authData.getRefreshToken());
-
+    // A client of its own, as the lookups of other jobs run concurrently with different tokens
+    SpotifyApi spotifyApi = spotifyApiFactory.apply(authData);
     User user = spotifyApi.getCurrentUsersProfile().build().execute();
     for (MusicPlaylist playlist : data.getLists()) {
-      createPlaylist(idempotentExecutor, playlist, user.getId());
+      createPlaylist(spotifyApi, idempotentExecutor, playlist, user.getId());
     }
     return ImportResult.OK;
   }
 
-  private void createPlaylist(IdempotentImportExecutor idempotentExecutor,
+  private void createPlaylist(
+      SpotifyApi spotifyApi,
+      IdempotentImportExecutor idempotentExecutor,
       MusicPlaylist playlist,
       String userId)
       throws Exception, SpotifyWebApiException {
@@ -82,39 +139,120 @@ public class SpotifyPlaylistImporter
             .execute()
             .getId());
     if (playlistId != null) {
-      for (MusicRecording track : playlist.getTrack()) {
-        addTrack(idempotentExecutor, playlistId, playlist.getHeadline(), track);
-      }
+      addTracks(
+          spotifyApi, idempotentExecutor, playlistId, playlist.getHeadline(), playlist.getTrack());
     }
   }
 
-  private void addTrack(
+  /**
+   * Adds the {@code tracks} not added yet to the end of the playlist, in order. The outcome of each
+   * track is recorded in the {@code idempotentExecutor}: a track fails if it can't be found, or if
+   * the request adding its batch fails.
+   */
+  private void addTracks(
+      SpotifyApi spotifyApi,
       IdempotentImportExecutor idempotentExecutor,
       String playlistId,
       String playlistName,
-      MusicRecording track)
+      List<MusicRecording> tracks)
       throws Exception {
-    idempotentExecutor.executeAndSwallowIOExceptions(
-        playlistId + "-" + track.hashCode(),
-        playlistName + " - " + track.getHeadline(),
-        () -> {
-          Track spotifyTrack = searchForSong(track);
+    // Keyed by idempotent id, in the order of the playlist
+    Map<String, MusicRecording> pending = new LinkedHashMap<>();
+    Map<String, CompletableFuture<String>> lookups = new LinkedHashMap<>();
+    try {
+      for (MusicRecording track : tracks) {
+        String idempotentId = playlistId + "-" + track.hashCode();
+        if (!idempotentExecutor.isKeyCached(idempotentId) && !pending.containsKey(idempotentId)) {
+          pending.put(idempotentId, track);
+          lookups.put(idempotentId, executor.submit(() -> getTrackUri(spotifyApi, track)));
+        }
+      }
+
+      // Ids and URIs of the tracks found
+      List<String> foundIds = new ArrayList<>();
+      List<String> foundUris = new ArrayList<>();
+      for (Map.Entry<String, MusicRecording> track : pending.entrySet()) {
+        try {
+          foundUris.add(lookups.get(track.getKey()).join());
+          foundIds.add(track.getKey());
+        } catch (CompletionException e) {
+          Exception failure =
+              e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+          idempotentExecutor.executeAndSwallowIOExceptions(
+              track.getKey(),
+              playlistName + " - " + track.getValue().getHeadline(),
+              failThenRetry(failure, spotifyApi, playlistId, track.getValue()));
+        }
+      }
+
+      List<List<String>> idBatches = Lists.partition(foundIds, MAX_TRACKS_PER_REQUEST);
+      List<List<String>> uriBatches = Lists.partition(foundUris, MAX_TRACKS_PER_REQUEST);
+      for (int i = 0; i < idBatches.size(); i++) {
+        IOException failure = null;
+        try {
           spotifyApi
-              .addTracksToPlaylist(playlistId, new String[] {spotifyTrack.getUri()})
-              .position(0)
+              .addTracksToPlaylist(playlistId, uriBatches.get(i).toArray(new String[0]))
               .build()
               .execute();
-          return null;
+        } catch (IOException e) {
+          failure = e;
+        }
+        List<String> batchIds = idBatches.get(i);
+        List<String> batchUris = uriBatches.get(i);
+        for (int j = 0; j < batchIds.size(); j++) {
+          String uri = batchUris.get(j);
+          MusicRecording track = pending.get(batchIds.get(j));
+          idempotentExecutor.executeAndSwallowIOExceptions(
+              batchIds.get(j),
+              playlistName + " - " + track.getHeadline(),
+              failure == null
+                  ? () -> uri
+                  : failThenRetry(failure, spotifyApi, playlistId, track));
         }
-    );
+      }
+    } finally {
+      // Only has an effect if the import bailed out early
+      for (CompletableFuture<String> lookup : lookups.values()) {
+        lookup.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Returns a callable that throws {@code failure}, the outcome of {@code track} in this page, when
+   * first called, and looks up and adds the track on its own when the item is retried.
+   */
+  private Callable<String> failThenRetry(
+      Exception failure, SpotifyApi spotifyApi, String playlistId, MusicRecording track) {
+    AtomicBoolean failed = new AtomicBoolean();
+    return () -> {
+      if (failed.compareAndSet(false, true)) {
+        throw failure;
+      }
+      String uri = getTrackUri(spotifyApi, track);
+      spotifyApi.addTracksToPlaylist(playlistId, new String[] {uri}).build().execute();
+      return uri;
+    };
   }
 
-  private Track searchForSong(MusicRecording track)
+  /** Returns the URI of the Spotify track with the ISRC of {@code track}. */
+  private String getTrackUri(SpotifyApi spotifyApi, MusicRecording track)
       throws IOException, SpotifyWebApiException {
     // TODO: right now this depends on an ISRC being present, we should add fallback
     // logic.
     checkArgument(!Strings.isNullOrEmpty(track.getIsrcCode()), "No ISRC code present for: "
         + track.getHeadline());
+    String uri = TRACK_URIS.getIfPresent(track.getIsrcCode());
+    if (uri == null) {
+      transferServiceConfig.getPerUserRateLimiter().acquire();
+      uri = searchForSong(spotifyApi, track).getUri();
+      TRACK_URIS.put(track.getIsrcCode(), uri);
+    }
+    return uri;
+  }
+
+  private Track searchForSong(SpotifyApi spotifyApi, MusicRecording track)
+      throws IOException, SpotifyWebApiException {
     Paging<Track> searchResponse = spotifyApi
         .searchTracks("isrc:" + track.getIsrcCode())
         .build()
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer.spotify.playlists;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.wrapper.spotify.SpotifyApi;
+import com.wrapper.spotify.model_objects.specification.Paging;
+import com.wrapper.spotify.model_objects.specification.Playlist;
+import com.wrapper.spotify.model_objects.specification.Track;
+import com.wrapper.spotify.model_objects.specification.User;
+import com.wrapper.spotify.requests.data.playlists.AddTracksToPlaylistRequest;
+import com.wrapper.spotify.requests.data.search.simplified.SearchTracksRequest;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
+import org.datatransferproject.test.types.FakeIdempotentImportExecutor;
+import org.datatransferproject.types.common.models.playlists.MusicPlaylist;
+import org.datatransferproject.types.common.models.playlists.MusicRecording;
+import org.datatransferproject.types.common.models.playlists.PlaylistContainerResource;
+import org.datatransferproject.types.transfer.auth.TokensAndUrlAuthData;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
+import org.datatransferproject.types.transfer.serviceconfig.TransferServiceConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SpotifyPlaylistImporterTest {
+
+  private static final UUID JOB_ID = UUID.randomUUID();
+  private static final String PLAYLIST_ID = "playlistId";
+  private static final TokensAndUrlAuthData AUTH_DATA =
+      new TokensAndUrlAuthData("accessToken", "refreshToken", "tokenUrl");
+
+  @Mock private AddTracksToPlaylistRequest.Builder addTracksBuilder;
+  @Mock private AddTracksToPlaylistRequest addTracksRequest;
+
+  private final SpotifyApi spotifyApi = mock(SpotifyApi.class, RETURNS_DEEP_STUBS);
+  // Tracks are cached across importers by ISRC, so each test looks up tracks of its own
+  private final String isrcPrefix = UUID.randomUUID().toString();
+  private IdempotentImportExecutor idempotentExecutor = new FakeIdempotentImportExecutor();
+  private SpotifyPlaylistImporter importer;
+
+  @Before
+  public void setUp() throws Exception {
+    TransferExecutor directExecutor = Runnable::run;
+    importer =
+        new SpotifyPlaylistImporter(
+            new Monitor() {},
+            authData -> spotifyApi,
+            directExecutor,
+            TransferServiceConfig.getDefaultInstance());
+    when(spotifyApi.getCurrentUsersProfile().build().execute())
+        .thenReturn(new User.Builder().setId("user").build());
+    when(spotifyApi
+            .createPlaylist("user", "playlist")
+            .collaborative(false)
+            .public_(false)
+            .name("Imported - playlist")
+            .build()
+            .execute())
+        .thenReturn(new Playlist.Builder().setId(PLAYLIST_ID).build());
+    when(spotifyApi.searchTracks(anyString()))
+        .thenAnswer(invocation -> search(invocation.getArgument(0)));
+    when(spotifyApi.addTracksToPlaylist(eq(PLAYLIST_ID), any(String[].class)))
+        .thenReturn(addTracksBuilder);
+    when(addTracksBuilder.build()).thenReturn(addTracksRequest);
+  }
+
+  @Test
+  public void addsTracksInBatchesInPlaylistOrder() throws Exception {
+    List<MusicRecording> tracks = createTracks(250);
+
+    importer.importItem(JOB_ID, idempotentExecutor, AUTH_DATA, createPlaylist(tracks));
+
+    ArgumentCaptor<String[]> uris = ArgumentCaptor.forClass(String[].class);
+    verify(spotifyApi, times(3)).addTracksToPlaylist(eq(PLAYLIST_ID), uris.capture());
+    assertThat(uris.getAllValues().get(0)).hasLength(100);
+    assertThat(uris.getAllValues().get(1)).hasLength(100);
+    assertThat(uris.getAllValues().get(2)).hasLength(50);
+    List<String> added = new ArrayList<>();
+    for (String[] batch : uris.getAllValues()) {
+      added.addAll(Arrays.asList(batch));
+    }
+    List<String> expected = new ArrayList<>();
+    for (MusicRecording track : tracks) {
+      expected.add(getUri(track));
+    }
+    assertThat(added).containsExactlyElementsIn(expected).inOrder();
+    for (MusicRecording track : tracks) {
+      assertThat(idempotentExecutor.isKeyCached(getIdempotentId(track))).isTrue();
+    }
+  }
+
+  @Test
+  public void failedBatchFailsItsTracksOnly() throws Exception {
+    List<MusicRecording> tracks = createTracks(150);
+    when(addTracksRequest.execute()).thenReturn(null).thenThrow(new IOException("Add failed"));
+
+    importer.importItem(JOB_ID, idempotentExecutor, AUTH_DATA, createPlaylist(tracks));
+
+    for (MusicRecording track : tracks.subList(0, 100)) {
+      assertThat(idempotentExecutor.isKeyCached(getIdempotentId(track))).isTrue();
+    }
+    for (MusicRecording track : tracks.subList(100, 150)) {
+      assertThat(idempotentExecutor.isKeyCached(getIdempotentId(track))).isFalse();
+    }
+  }
+
+  @Test
+  public void retriedTrackIsAddedAgain() throws Exception {
+    // Retries a failed item once, as the item-level retry of the copier does
+    idempotentExecutor =
+        new FakeIdempotentImportExecutor() {
+          @Override
+          public <T extends Serializable> T executeAndSwallowIOExceptions(
+              String idempotentId, String itemName, Callable<T> callable) throws Exception {
+            T result = super.executeAndSwallowIOExceptions(idempotentId, itemName, callable);
+            return result != null
+                ? result
+                : super.executeAndSwallowIOExceptions(idempotentId, itemName, callable);
+          }
+        };
+    List<MusicRecording> tracks = createTracks(1);
+    when(addTracksRequest.execute()).thenThrow(new IOException("Add failed")).thenReturn(null);
+
+    importer.importItem(JOB_ID, idempotentExecutor, AUTH_DATA, createPlaylist(tracks));
+
+    verify(addTracksRequest, times(2)).execute();
+    assertThat(idempotentExecutor.<String>getCachedValue(getIdempotentId(tracks.get(0))))
+        .isEqualTo(getUri(tracks.get(0)));
+  }
+
+  private List<MusicRecording> createTracks(int count) {
+    List<MusicRecording> tracks = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      tracks.add(new MusicRecording("track" + i, "Track " + i, isrcPrefix + i, null, null));
+    }
+    return tracks;
+  }
+
+  private static PlaylistContainerResource createPlaylist(List<MusicRecording> tracks) {
+    return new PlaylistContainerResource(
+        ImmutableList.of(new MusicPlaylist("playlist", "playlist", tracks)));
+  }
+
+  private static String getIdempotentId(MusicRecording track) {
+    return PLAYLIST_ID + "-" + track.hashCode();
+  }
+
+  private static String getUri(MusicRecording track) {
+    return "spotify:track:" + track.getIsrcCode();
+  }
+
+  /** Returns a search request finding the track with the ISRC of {@code query}. */
+  private static SearchTracksRequest.Builder search(String query) throws Exception {
+    SearchTracksRequest.Builder builder = mock(SearchTracksRequest.Builder.class);
+    SearchTracksRequest request = mock(SearchTracksRequest.class);
+    Track track =
+        new Track.Builder().setUri("spotify:track:" + query.substring("isrc:".length())).build();
+    when(builder.build()).thenReturn(request);
+    when(request.execute())
+        .thenReturn(new Paging.Builder<Track>().setItems(new Track[] {track}).build());
+    return builder;
+  }
+}
@@ -64,7 +64,8 @@ public class JerseyTransportBinder implements TransportBinder {
               actions.get(ReserveWorker.class),
               actions.get(GetReservedWorker.class),
               actions.get(StartTransferJob.class),
-              actions.get(GetTransferJob.class)));
+              actions.get(GetTransferJob.class),
+              actions.get(GetTransferJobProgress.class)));
 
       // Create a Jersey JAX-RS Application (resourceConfig), add the actions, and register it with
       // the Jetty transport.
@@ -37,6 +37,7 @@ public class TransferController {
     private final Action<GetReservedWorker, ReservedWorker> getReservedWorkerAction;
     private final Action<StartTransferJob, TransferJob> startJobAction;
     private final Action<GetTransferJob, TransferJob> getJobAction;
+    private final Action<GetTransferJobProgress, TransferJobProgress> getJobProgressAction;
 
     public TransferController(
             Action<CreateTransferJob, TransferJob> createJobAction,
@@ -44,13 +45,15 @@ public class TransferController {
             Action<ReserveWorker, ReservedWorker> reserveWorkerAction,
             Action<GetReservedWorker, ReservedWorker> getReservedWorkerAction,
             Action<StartTransferJob, TransferJob> startJobAction,
-            Action<GetTransferJob, TransferJob> getJobAction) {
+            Action<GetTransferJob, TransferJob> getJobAction,
+            Action<GetTransferJobProgress, TransferJobProgress> getJobProgressAction) {
         this.createJobAction = createJobAction;
         this.generateAuthDataAction = generateAuthDataAction;
         this.reserveWorkerAction = reserveWorkerAction;
         this.getReservedWorkerAction = getReservedWorkerAction;
         this.startJobAction = startJobAction;
         this.getJobAction = getJobAction;
+        this.getJobProgressAction = getJobProgressAction;
     }
 
     @GET
@@ -59,6 +62,12 @@ public class TransferController {
         return getJobAction.handle((new GetTransferJob(id)));
     }
 
+    @GET
+    @Path("{id}/progress")
+    public TransferJobProgress getTransferJobProgress(@PathParam("id") String id) {
+        return getJobProgressAction.handle(new GetTransferJobProgress(id));
+    }
+
     @POST
     public TransferJob createTransferJob(CreateTransferJob request) {
         return createJobAction.handle(request);
@@ -4,6 +4,8 @@ public class EventCode {
   public static final EventCode API_GENERATED_AUTH_DATA = new EventCode("API_GENERATED_AUTH_DATA");
   public static final EventCode API_GOT_RESERVED_WORKER = new EventCode("API_GOT_RESERVED_WORKER");
   public static final EventCode API_GOT_TRANSFER_JOB = new EventCode("API_GOT_TRANSFER_JOB");
+  public static final EventCode API_GOT_TRANSFER_JOB_PROGRESS =
+      new EventCode("API_GOT_TRANSFER_JOB_PROGRESS");
   public static final EventCode API_JOB_CREATED = new EventCode("API_JOB_CREATED");
   public static final EventCode API_JOB_CREDS_AVAILABLE = new EventCode("API_JOB_CREDS_AVAILABLE");
   public static final EventCode API_JOB_CREDS_STORED = new EventCode("API_JOB_CREDS_STORED");
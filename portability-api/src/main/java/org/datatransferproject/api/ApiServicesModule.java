@@ -11,6 +11,7 @@ import org.datatransferproject.api.action.transfer.CreateTransferJobAction;
 import org.datatransferproject.api.action.transfer.GenerateServiceAuthDataAction;
 import org.datatransferproject.api.action.transfer.GetReservedWorkerAction;
 import org.datatransferproject.api.action.transfer.GetTransferJobAction;
+import org.datatransferproject.api.action.transfer.GetTransferJobProgressAction;
 import org.datatransferproject.api.action.transfer.GetTransferServicesAction;
 import org.datatransferproject.api.action.transfer.ReserveWorkerAction;
 import org.datatransferproject.api.action.transfer.StartTransferJobAction;
@@ -109,6 +110,7 @@ public class ApiServicesModule extends FlagBindingModule {
     actionBinder.addBinding().to(GetReservedWorkerAction.class);
     actionBinder.addBinding().to(StartTransferJobAction.class);
     actionBinder.addBinding().to(GetTransferJobAction.class);
+    actionBinder.addBinding().to(GetTransferJobProgressAction.class);
   }
 
   @Provides
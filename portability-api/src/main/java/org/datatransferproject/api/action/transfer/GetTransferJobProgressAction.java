@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.api.action.transfer;
+
+import static java.lang.String.format;
+import static org.datatransferproject.api.action.ActionUtils.decodeJobId;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.datatransferproject.api.action.Action;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.launcher.monitor.events.EventCode;
+import org.datatransferproject.spi.cloud.storage.JobStore;
+import org.datatransferproject.spi.cloud.types.JobProgress;
+import org.datatransferproject.types.client.transfer.GetTransferJobProgress;
+import org.datatransferproject.types.client.transfer.TransferJobProgress;
+
+/**
+ * Requests the progress of a transfer job, from the snapshot its worker last published.
+ *
+ * <p>Snapshots are cached for a second, as clients poll the progress of running jobs.
+ */
+public class GetTransferJobProgressAction
+    implements Action<GetTransferJobProgress, TransferJobProgress> {
+  private static final long CACHE_SECONDS = 1;
+  private static final int MAX_CACHED_JOBS = 10000;
+
+  private final JobStore jobStore;
+  private final Monitor monitor;
+  private final Cache<UUID, Optional<JobProgress>> progressCache =
+      CacheBuilder.newBuilder()
+          .expireAfterWrite(CACHE_SECONDS, TimeUnit.SECONDS)
+          .maximumSize(MAX_CACHED_JOBS)
+          .build();
+
+  @Inject
+  public GetTransferJobProgressAction(JobStore jobStore, Monitor monitor) {
+    this.jobStore = jobStore;
+    this.monitor = monitor;
+  }
+
+  @Override
+  public Class<GetTransferJobProgress> getRequestType() {
+    return GetTransferJobProgress.class;
+  }
+
+  @Override
+  public TransferJobProgress handle(GetTransferJobProgress progressRequest) {
+    String id = progressRequest.getId();
+    Preconditions.checkNotNull(id, "transfer job ID required for GetTransferJobProgressAction");
+    UUID jobId = decodeJobId(id);
+
+    Optional<JobProgress> progress;
+    try {
+      progress = progressCache.get(jobId, () -> findProgress(jobId));
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Unable to read the progress of job " + jobId, e.getCause());
+    }
+
+    monitor.debug(
+        () -> format("Fetched progress of job with jobId: %s", jobId),
+        jobId,
+        EventCode.API_GOT_TRANSFER_JOB_PROGRESS);
+
+    if (!progress.isPresent()) {
+      // The worker didn't report any progress yet
+      return new TransferJobProgress(id, ImmutableMap.of(), 0, 0, 0, 0, null, null);
+    }
+    JobProgress jobProgress = progress.get();
+    return new TransferJobProgress(
+        id,
+        jobProgress.getCounts(),
+        jobProgress.getBytes(),
+        jobProgress.getPages(),
+        jobProgress.getPagesPerSecond(),
+        jobProgress.getBytesPerSecond(),
+        jobProgress.getEstimatedSecondsRemaining(),
+        jobProgress.getTimestamp());
+  }
+
+  private Optional<JobProgress> findProgress(UUID jobId) throws IOException {
+    try {
+      return Optional.ofNullable(
+          jobStore.findData(jobId, JobProgress.DATA_KEY, JobProgress.class));
+    } catch (UnsupportedOperationException e) {
+      // The job store can't store progress
+      return Optional.empty();
+    }
+  }
+}
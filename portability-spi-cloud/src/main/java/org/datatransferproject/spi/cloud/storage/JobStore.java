@@ -1,7 +1,9 @@
 package org.datatransferproject.spi.cloud.storage;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.UUID;
 import org.datatransferproject.spi.cloud.types.JobAuthorization;
@@ -37,6 +39,48 @@ public interface JobStore extends TemporaryPerJobDataStore {
    */
   void claimJob(UUID jobId, PortabilityJob job) throws IOException;
 
+  /**
+   * Claims the job like {@link #claimJob(UUID, PortabilityJob)}, and leases it to the claiming
+   * worker, identified by the {@link JobAuthorization#instanceId()} of {@code job}, for {@code
+   * leaseDuration}. The worker keeps the lease by renewing it with {@link #renewJobLease} until it
+   * is done with the job, if it stops the job is reclaimed by {@link #requeueExpiredJobLeases}.
+   *
+   * <p>Stores that don't support leases claim the job without one.
+   */
+  default void claimJob(UUID jobId, PortabilityJob job, Duration leaseDuration)
+      throws IOException {
+    claimJob(jobId, job);
+  }
+
+  /**
+   * Extends the lease of worker {@code instanceId} on job {@code jobId} to {@code leaseDuration}
+   * from now. Called periodically as a heartbeat by the worker holding the lease.
+   *
+   * @throws IllegalStateException if the worker doesn't hold the lease anymore
+   * @throws IOException if there was a problem updating the lease
+   */
+  default void renewJobLease(UUID jobId, String instanceId, Duration leaseDuration)
+      throws IOException {}
+
+  /**
+   * Ends the lease of worker {@code instanceId} on job {@code jobId}, once it is done with the
+   * job. Does nothing if the worker doesn't hold the lease.
+   */
+  default void releaseJobLease(UUID jobId, String instanceId) throws IOException {}
+
+  /**
+   * Reclaims the jobs whose lease expired because their worker stopped renewing it. Jobs still
+   * waiting for credentials are put back in state {@link JobAuthorization.State#CREDS_AVAILABLE}, to
+   * be claimed again, ahead of jobs that became available after them. Jobs whose credentials were
+   * already stored can't be resumed, since only the lost worker could decrypt them, and are marked
+   * as failed.
+   *
+   * @return the ids of the reclaimed jobs
+   */
+  default Collection<UUID> requeueExpiredJobLeases() throws IOException {
+    return Collections.emptyList();
+  }
+
   /**
    * Update the jobs auth state to {@code JobAuthorization.State.CREDS_AVAILABLE} in the store. This
    * indicates to the pool of workers that this job is available for processing.
@@ -103,12 +147,35 @@ public interface JobStore extends TemporaryPerJobDataStore {
    */
   PortabilityJob findJob(UUID jobId);
 
+  /**
+   * Returns the {@link State} of the job, or null if not found. Stores should read the state alone
+   * rather than the whole job, as it is read often to find out whether a job was canceled.
+   */
+  default State getJobState(UUID jobId) {
+    PortabilityJob job = findJob(jobId);
+    return job == null ? null : job.state();
+  }
+
   /**
    * Gets the ID of the first {@link PortabilityJob} in state {@code jobState} in the store, or null
-   * if none found.
+   * if none found. Stores should return the job that has been waiting longest, so jobs are
+   * processed in the order they became available.
    */
   UUID findFirst(JobAuthorization.State jobState);
 
+  /**
+   * Registers {@code listener} to be notified whenever a job is created or updated, so workers can
+   * react to new jobs and credentials as soon as they are stored.
+   *
+   * @return false if this store can't notify of updates, in which case callers have to poll
+   */
+  default boolean addJobUpdateListener(JobUpdateListener listener) {
+    return false;
+  }
+
+  /** Stops notifying a listener registered with {@link #addJobUpdateListener}. */
+  default void removeJobUpdateListener(JobUpdateListener listener) {}
+
   /**
    * Updates the counter data.
    *
@@ -131,6 +131,33 @@ public abstract class JobStoreWithValidator implements JobStore {
     updateJob(jobId, updatedJob);
   }
 
+  /**
+   * Returns {@code job} as it should be stored once the lease of its worker expired, see {@link
+   * JobStore#requeueExpiredJobLeases}, or {@code job} itself if it is already finished.
+   *
+   * @param failureReason the failure reason of jobs that can't be requeued
+   */
+  protected static PortabilityJob getJobAfterLeaseExpired(
+      PortabilityJob job, String failureReason) {
+    if (job.state() == State.NEW
+        && job.jobAuthorization().state() == CREDS_ENCRYPTION_KEY_GENERATED) {
+      // The credentials weren't encrypted for the lost worker yet, another worker can claim it
+      return job.toBuilder()
+          .setAndValidateJobAuthorization(
+              job.jobAuthorization()
+                  .toBuilder()
+                  .setState(CREDS_AVAILABLE)
+                  .setAuthPublicKey(null)
+                  .setInstanceId(null)
+                  .build())
+          .build();
+    }
+    if (job.state() == State.NEW || job.state() == State.IN_PROGRESS) {
+      return job.toBuilder().setState(State.ERROR).setFailureReason(failureReason).build();
+    }
+    return job;
+  }
+
   public interface JobUpdateValidator {
 
     /**
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.spi.cloud.storage;
+
+import java.util.UUID;
+import org.datatransferproject.spi.cloud.types.PortabilityJob;
+
+/** Notified by a {@link JobStore} whenever a job is created or updated. */
+public interface JobUpdateListener {
+
+  /**
+   * Called once {@code job} has been stored for {@code jobId}. Implementations must return quickly,
+   * they are called on the thread updating the job.
+   */
+  void jobUpdated(UUID jobId, PortabilityJob job);
+}
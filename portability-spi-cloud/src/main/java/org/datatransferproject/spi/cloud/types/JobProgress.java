@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.datatransferproject.spi.cloud.types;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import org.datatransferproject.types.common.models.DataModel;
+
+/**
+ * A snapshot of the progress of a job, published by its worker in the job store under {@link
+ * #DATA_KEY} so it can be served without adding up the job's counters.
+ */
+@JsonTypeName("org.dataportability:JobProgress")
+public final class JobProgress extends DataModel {
+  public static final String DATA_KEY = "jobProgress";
+
+  @JsonProperty("counts")
+  private final Map<String, Integer> counts;
+
+  @JsonProperty("bytes")
+  private final long bytes;
+
+  @JsonProperty("pages")
+  private final long pages;
+
+  @JsonProperty("pagesPerSecond")
+  private final double pagesPerSecond;
+
+  @JsonProperty("bytesPerSecond")
+  private final double bytesPerSecond;
+
+  @JsonProperty("estimatedSecondsRemaining")
+  private final Long estimatedSecondsRemaining;
+
+  @JsonProperty("timestamp")
+  private final long timestamp;
+
+  /**
+   * @param counts mapping from item names to the number of such items imported
+   * @param bytes the number of bytes imported
+   * @param pages the number of pages imported
+   * @param pagesPerSecond the rate pages were recently imported at
+   * @param bytesPerSecond the rate bytes were recently imported at
+   * @param estimatedSecondsRemaining the estimated time until the job is done, null if unknown
+   * @param timestamp when the snapshot was taken, in milliseconds since the epoch
+   */
+  @JsonCreator
+  public JobProgress(
+      @JsonProperty("counts") Map<String, Integer> counts,
+      @JsonProperty("bytes") long bytes,
+      @JsonProperty("pages") long pages,
+      @JsonProperty("pagesPerSecond") double pagesPerSecond,
+      @JsonProperty("bytesPerSecond") double bytesPerSecond,
+      @JsonProperty("estimatedSecondsRemaining") Long estimatedSecondsRemaining,
+      @JsonProperty("timestamp") long timestamp) {
+    this.counts = counts == null ? ImmutableMap.of() : ImmutableMap.copyOf(counts);
+    this.bytes = bytes;
+    this.pages = pages;
+    this.pagesPerSecond = pagesPerSecond;
+    this.bytesPerSecond = bytesPerSecond;
+    this.estimatedSecondsRemaining = estimatedSecondsRemaining;
+    this.timestamp = timestamp;
+  }
+
+  @Override
+  public Map<String, Integer> getCounts() {
+    return counts;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public long getPages() {
+    return pages;
+  }
+
+  public double getPagesPerSecond() {
+    return pagesPerSecond;
+  }
+
+  public double getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  public Long getEstimatedSecondsRemaining() {
+    return estimatedSecondsRemaining;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+}
@@ -24,6 +24,7 @@ import java.util.Objects;
 @JsonDeserialize(builder = PortabilityJob.Builder.class)
 public abstract class PortabilityJob {
   public static final String AUTHORIZATION_STATE = "AUTHORIZATION_STATE";
+  public static final String JOB_STATE = "JOB_STATE";
   // Keys for specific values in the key value store
   private static final String DATA_TYPE_KEY = "DATA_TYPE";
   private static final String EXPORT_SERVICE_KEY = "EXPORT_SERVICE";
@@ -38,7 +39,6 @@ public abstract class PortabilityJob {
       "IMPORT_ENCRYPTED_INITIAL_AUTH_DATA";
   private static final String EXPORT_ENCRYPTED_INITIAL_AUTH_DATA =
       "EXPORT_ENCRYPTED_INITIAL_AUTH_DATA";
-  private static final String JOB_STATE = "JOB_STATE";
   private static final String FAILURE_REASON = "FAILURE_REASON";
   private static final String NUMBER_OF_FAILED_FILES_KEY = "NUM_FAILED_FILES";
 
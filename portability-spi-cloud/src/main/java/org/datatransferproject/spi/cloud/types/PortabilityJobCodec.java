@@ -0,0 +1,279 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.datatransferproject.spi.cloud.types;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.time.Instant;
+import org.datatransferproject.types.common.ExportInformation;
+import org.datatransferproject.types.common.models.playlists.PlaylistContainerResource;
+import org.datatransferproject.types.common.models.social.SocialActivityContainerResource;
+import org.datatransferproject.types.common.models.videos.VideosContainerResource;
+import org.datatransferproject.types.transfer.models.blob.BlobbyStorageContainerResource;
+
+/**
+ * Encodes {@link PortabilityJob}s into a compact binary form for job stores, and decodes them
+ * back.
+ *
+ * <p>An encoded job is a format version byte followed by a sequence of fields, each a tag, the
+ * length of its value and the value. Unset fields are left out. Decoders skip the fields they don't
+ * know, and leave the fields missing from the encoding unset, so fields can be added without
+ * changing the format version: a job written by a newer version can be read by an older one and
+ * vice versa. Tags must never be reused for a different field. The format version only changes for
+ * changes older decoders can't cope with, they refuse to decode such jobs.
+ *
+ * <p>Strings are UTF-8 encoded and enums are encoded by name. A job whose state is unknown to the
+ * decoder can't be processed, so decoding it fails. The {@link ExportInformation} is encoded as
+ * JSON, so its polymorphic resources are decoded by type name rather than with Java
+ * deserialization.
+ */
+public final class PortabilityJobCodec {
+  private static final int FORMAT_VERSION = 1;
+
+  // Tags of the job's fields
+  private static final int STATE = 1;
+  private static final int EXPORT_SERVICE = 2;
+  private static final int IMPORT_SERVICE = 3;
+  private static final int TRANSFER_DATA_TYPE = 4;
+  private static final int EXPORT_INFORMATION = 5;
+  private static final int CREATED_TIMESTAMP = 6;
+  private static final int LAST_UPDATE_TIMESTAMP = 7;
+  private static final int FAILURE_REASON = 8;
+  // Tags of the job authorization's fields
+  private static final int AUTHORIZATION_STATE = 20;
+  private static final int ENCRYPTED_INITIAL_EXPORT_AUTH_DATA = 21;
+  private static final int ENCRYPTED_INITIAL_IMPORT_AUTH_DATA = 22;
+  private static final int ENCRYPTED_AUTH_DATA = 23;
+  private static final int ENCRYPTION_SCHEME = 24;
+  private static final int SESSION_SECRET_KEY = 25;
+  private static final int AUTH_PUBLIC_KEY = 26;
+  private static final int INSTANCE_ID = 27;
+
+  private final ObjectMapper objectMapper;
+
+  /**
+   * @param objectMapper the mapper of the job store, which knows the modules and types registered
+   *     with the type manager
+   */
+  public PortabilityJobCodec(ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper;
+    // Container resources that aren't listed as subtypes of ContainerResource
+    objectMapper.registerSubtypes(
+        BlobbyStorageContainerResource.class,
+        PlaylistContainerResource.class,
+        SocialActivityContainerResource.class,
+        VideosContainerResource.class);
+  }
+
+  /** Returns the encoded form of {@code job}. */
+  public byte[] encode(PortabilityJob job) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(FORMAT_VERSION);
+    writeString(out, STATE, job.state().name());
+    writeString(out, EXPORT_SERVICE, job.exportService());
+    writeString(out, IMPORT_SERVICE, job.importService());
+    writeString(out, TRANSFER_DATA_TYPE, job.transferDataType());
+    if (job.exportInformation() != null) {
+      writeField(out, EXPORT_INFORMATION, objectMapper.writeValueAsBytes(job.exportInformation()));
+    }
+    writeInstant(out, CREATED_TIMESTAMP, job.createdTimestamp());
+    writeInstant(out, LAST_UPDATE_TIMESTAMP, job.lastUpdateTimestamp());
+    writeString(out, FAILURE_REASON, job.failureReason());
+
+    JobAuthorization jobAuthorization = job.jobAuthorization();
+    writeString(out, AUTHORIZATION_STATE, jobAuthorization.state().name());
+    writeString(
+        out,
+        ENCRYPTED_INITIAL_EXPORT_AUTH_DATA,
+        jobAuthorization.encryptedInitialExportAuthData());
+    writeString(
+        out,
+        ENCRYPTED_INITIAL_IMPORT_AUTH_DATA,
+        jobAuthorization.encryptedInitialImportAuthData());
+    writeString(out, ENCRYPTED_AUTH_DATA, jobAuthorization.encryptedAuthData());
+    // Defaults like in PortabilityJob.toMap(), jobs written by older versions had a scheme
+    writeString(
+        out,
+        ENCRYPTION_SCHEME,
+        jobAuthorization.encryptionScheme() != null ? jobAuthorization.encryptionScheme() : "jwe");
+    writeString(out, SESSION_SECRET_KEY, jobAuthorization.sessionSecretKey());
+    writeString(out, AUTH_PUBLIC_KEY, jobAuthorization.authPublicKey());
+    writeString(out, INSTANCE_ID, jobAuthorization.instanceId());
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Returns the job encoded in {@code encoded}.
+   *
+   * @throws IOException if the encoding is invalid, or of an unknown format version
+   */
+  public PortabilityJob decode(byte[] encoded) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+    int formatVersion = in.readUnsignedByte();
+    if (formatVersion != FORMAT_VERSION) {
+      throw new IOException("Unknown job format version: " + formatVersion);
+    }
+    // Timestamps missing from the encoding default to now, like for new jobs
+    PortabilityJob.Builder job = PortabilityJob.builder();
+    JobAuthorization.Builder jobAuthorization = JobAuthorization.builder();
+    while (in.available() > 0) {
+      int tag = readVarInt(in);
+      int length = readVarInt(in);
+      // Checked before allocating, the encoding may be corrupt or truncated
+      if (length < 0 || length > in.available()) {
+        throw new IOException("Invalid length " + length + " of field " + tag);
+      }
+      byte[] value = new byte[length];
+      in.readFully(value);
+      switch (tag) {
+        case STATE:
+          job.setState(toEnum(PortabilityJob.State.class, value, "state"));
+          break;
+        case EXPORT_SERVICE:
+          job.setExportService(toString(value));
+          break;
+        case IMPORT_SERVICE:
+          job.setImportService(toString(value));
+          break;
+        case TRANSFER_DATA_TYPE:
+          job.setTransferDataType(toString(value));
+          break;
+        case EXPORT_INFORMATION:
+          job.setExportInformation(objectMapper.readValue(value, ExportInformation.class));
+          break;
+        case CREATED_TIMESTAMP:
+          job.setCreatedTimestamp(toInstant(value));
+          break;
+        case LAST_UPDATE_TIMESTAMP:
+          job.setLastUpdateTimestamp(toInstant(value));
+          break;
+        case FAILURE_REASON:
+          job.setFailureReason(toString(value));
+          break;
+        case AUTHORIZATION_STATE:
+          jobAuthorization.setState(
+              toEnum(JobAuthorization.State.class, value, "authorization state"));
+          break;
+        case ENCRYPTED_INITIAL_EXPORT_AUTH_DATA:
+          jobAuthorization.setEncryptedInitialExportAuthData(toString(value));
+          break;
+        case ENCRYPTED_INITIAL_IMPORT_AUTH_DATA:
+          jobAuthorization.setEncryptedInitialImportAuthData(toString(value));
+          break;
+        case ENCRYPTED_AUTH_DATA:
+          jobAuthorization.setEncryptedAuthData(toString(value));
+          break;
+        case ENCRYPTION_SCHEME:
+          jobAuthorization.setEncryptionScheme(toString(value));
+          break;
+        case SESSION_SECRET_KEY:
+          jobAuthorization.setSessionSecretKey(toString(value));
+          break;
+        case AUTH_PUBLIC_KEY:
+          jobAuthorization.setAuthPublicKey(toString(value));
+          break;
+        case INSTANCE_ID:
+          jobAuthorization.setInstanceId(toString(value));
+          break;
+        default:
+          // Written by a newer version, skipped
+      }
+    }
+    try {
+      // Stored jobs were validated when they were stored
+      return job.setJobAuthorization(jobAuthorization.build()).build();
+    } catch (IllegalStateException e) {
+      throw new IOException("Encoded job is missing required fields", e);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, int tag, String value)
+      throws IOException {
+    if (value != null) {
+      writeField(out, tag, value.getBytes(UTF_8));
+    }
+  }
+
+  private static void writeInstant(DataOutputStream out, int tag, Instant value)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(12);
+    DataOutputStream instant = new DataOutputStream(bytes);
+    instant.writeLong(value.getEpochSecond());
+    instant.writeInt(value.getNano());
+    writeField(out, tag, bytes.toByteArray());
+  }
+
+  private static void writeField(DataOutputStream out, int tag, byte[] value) throws IOException {
+    writeVarInt(out, tag);
+    writeVarInt(out, value.length);
+    out.write(value);
+  }
+
+  private static String toString(byte[] value) {
+    return new String(value, UTF_8);
+  }
+
+  /**
+   * Returns the constant of {@code type} named {@code value}.
+   *
+   * @throws IOException if there is no such constant, as for a value added by a newer version
+   */
+  private static <E extends Enum<E>> E toEnum(Class<E> type, byte[] value, String field)
+      throws IOException {
+    String name = toString(value);
+    try {
+      return Enum.valueOf(type, name);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unknown " + field + " of encoded job: " + name, e);
+    }
+  }
+
+  private static Instant toInstant(byte[] value) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+    return Instant.ofEpochSecond(in.readLong(), in.readInt());
+  }
+
+  /** Writes {@code value} 7 bits at a time, least significant first. */
+  private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new EOFException("Malformed varint");
+  }
+}
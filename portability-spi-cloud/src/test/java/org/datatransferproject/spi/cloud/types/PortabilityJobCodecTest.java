@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.datatransferproject.spi.cloud.types;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import org.datatransferproject.spi.cloud.types.PortabilityJob.State;
+import org.datatransferproject.types.common.ExportInformation;
+import org.datatransferproject.types.common.models.photos.PhotoAlbum;
+import org.datatransferproject.types.common.models.photos.PhotosContainerResource;
+import org.junit.Test;
+
+/** Tests encoding and decoding of a {@link PortabilityJob}. */
+public class PortabilityJobCodecTest {
+
+  private final PortabilityJobCodec codec = new PortabilityJobCodec(new ObjectMapper());
+
+  @Test
+  public void verifyEncodeDecode() throws IOException {
+    PortabilityJob job = createJob();
+
+    assertThat(codec.decode(codec.encode(job))).isEqualTo(job);
+  }
+
+  @Test
+  public void decodeSkipsUnknownFields() throws IOException {
+    PortabilityJob job = createJob();
+    byte[] encoded = codec.encode(job);
+    // A field with tag 100 and a 2 byte value, as added by a newer version
+    byte[] withUnknownField = Arrays.copyOf(encoded, encoded.length + 4);
+    withUnknownField[encoded.length] = 100;
+    withUnknownField[encoded.length + 1] = 2;
+
+    assertThat(codec.decode(withUnknownField)).isEqualTo(job);
+  }
+
+  @Test(expected = IOException.class)
+  public void decodeRejectsUnknownFormatVersions() throws IOException {
+    byte[] encoded = codec.encode(createJob());
+    encoded[0] = 2;
+
+    codec.decode(encoded);
+  }
+
+  @Test(expected = IOException.class)
+  public void decodeRejectsTruncatedFields() throws IOException {
+    byte[] encoded = codec.encode(createJob());
+    // A field with tag 100 claiming a 100 byte value, of which there is none
+    byte[] truncated = Arrays.copyOf(encoded, encoded.length + 2);
+    truncated[encoded.length] = 100;
+    truncated[encoded.length + 1] = 100;
+
+    codec.decode(truncated);
+  }
+
+  @Test(expected = IOException.class)
+  public void decodeRejectsNegativeLengths() throws IOException {
+    byte[] encoded = codec.encode(createJob());
+    // A field with tag 100 and a length of -1
+    byte[] corrupt = Arrays.copyOf(encoded, encoded.length + 6);
+    corrupt[encoded.length] = 100;
+    for (int i = 1; i < 5; i++) {
+      corrupt[encoded.length + i] = (byte) 0xFF;
+    }
+    corrupt[encoded.length + 5] = 0x0F;
+
+    codec.decode(corrupt);
+  }
+
+  @Test(expected = IOException.class)
+  public void decodeRejectsUnknownStates() throws IOException {
+    byte[] encoded = codec.encode(createJob());
+    // The state field again, with a state added by a newer version
+    byte[] state = "NEW_STATE".getBytes(UTF_8);
+    byte[] withUnknownState = Arrays.copyOf(encoded, encoded.length + 2 + state.length);
+    withUnknownState[encoded.length] = 1;
+    withUnknownState[encoded.length + 1] = (byte) state.length;
+    System.arraycopy(state, 0, withUnknownState, encoded.length + 2, state.length);
+
+    codec.decode(withUnknownState);
+  }
+
+  private static PortabilityJob createJob() {
+    Instant date = Instant.now();
+    return PortabilityJob.builder()
+        .setState(State.IN_PROGRESS)
+        .setExportService("fooService")
+        .setImportService("barService")
+        .setTransferDataType("PHOTOS")
+        .setExportInformation(
+            new ExportInformation(
+                null,
+                new PhotosContainerResource(
+                    Lists.newArrayList(
+                        new PhotoAlbum("album_id", "album name", "album description")),
+                    null)))
+        .setCreatedTimestamp(date)
+        .setLastUpdateTimestamp(date.plusSeconds(120))
+        .setJobAuthorization(
+            JobAuthorization.builder()
+                .setState(JobAuthorization.State.CREDS_STORED)
+                .setEncryptedAuthData("authData")
+                .setEncryptionScheme("jwe")
+                .setSessionSecretKey("foo")
+                .setAuthPublicKey("publicKey")
+                .setInstanceId("instanceId")
+                .build())
+        .build();
+  }
+}
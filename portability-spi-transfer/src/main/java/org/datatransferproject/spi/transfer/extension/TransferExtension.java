@@ -30,4 +30,13 @@ public interface TransferExtension extends AbstractExtension {
 
   /** Returns initialized extension importer. */
   Importer<?, ?> getImporter(String transferDataType);
+
+  /**
+   * Returns whether the exporter and importer for {@code transferDataType} can be called from
+   * several threads at once for the same job. Only then does a worker configured with the parallel
+   * copier copy the job's resources in parallel, it copies them one at a time otherwise.
+   */
+  default boolean isThreadSafe(String transferDataType) {
+    return false;
+  }
 }
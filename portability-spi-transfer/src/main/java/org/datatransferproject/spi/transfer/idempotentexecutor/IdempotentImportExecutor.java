@@ -29,6 +29,10 @@ import java.util.concurrent.Callable;
  * A utility that will execute a {@link Callable} only once for a given {@code idempotentId}. This
  * allows client code to be called multiple times in the case of retries without worrying about
  * duplicating imported data.
+ *
+ * <p>Importers may execute callables from several threads. Implementations have to support that,
+ * if callables for the same {@code idempotentId} are executed concurrently only one of them is
+ * executed and all callers get its result, see {@link SingleFlight}.
  */
 public interface IdempotentImportExecutor {
   /**
@@ -96,4 +100,21 @@ public interface IdempotentImportExecutor {
    * @param jobId The jobId of the job that this IdempotentImportExecutor is being used for
    */
   void setJobId(UUID jobId);
+
+  /**
+   * Makes sure the results and errors of all callables executed so far are persisted.
+   * IdempotentImportExecutors that persist them asynchronously must do so before returning, this is
+   * called before a page of data is reported as imported.
+   *
+   * @throws IOException if the results can't be persisted, they are kept to be persisted later
+   */
+  default void flush() throws IOException {}
+
+  /**
+   * Persists pending results and releases the resources held for the job. Called once the job is
+   * done, the executor isn't used afterwards.
+   */
+  default void close() throws IOException {
+    flush();
+  }
 }
@@ -29,16 +29,23 @@ import org.datatransferproject.types.transfer.errors.ErrorDetail;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
 
-/** A {@link IdempotentImportExecutor} that stores known values in memory. */
+/**
+ * A {@link IdempotentImportExecutor} that stores known values in memory. It can be used from
+ * several threads, concurrent calls for the same idempotent id execute the callable only once.
+ */
 public class InMemoryIdempotentImportExecutor implements IdempotentImportExecutor {
-  private final Map<String, Serializable> knownValues = new HashMap<>();
-  private final Map<String, ErrorDetail> errors = new HashMap<>();
+  // Synchronized as copiers may import items of a job from several threads
+  private final Map<String, Serializable> knownValues =
+      Collections.synchronizedMap(new HashMap<>());
+  private final Map<String, ErrorDetail> errors = Collections.synchronizedMap(new HashMap<>());
+  private final SingleFlight inFlightCalls = new SingleFlight();
   private final Monitor monitor;
-  private UUID jobId;
+  private volatile UUID jobId;
 
   public InMemoryIdempotentImportExecutor(Monitor monitor) {
     this.monitor = monitor;
@@ -68,6 +75,18 @@ public class InMemoryIdempotentImportExecutor implements IdempotentImportExecuto
                   + format("Using cached key %s from cache for %s", idempotentId, itemName));
       return (T) knownValues.get(idempotentId);
     }
+    return inFlightCalls.execute(
+        idempotentId, () -> executeOnce(jobIdPrefix, idempotentId, itemName, callable));
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends Serializable> T executeOnce(
+      String jobIdPrefix, String idempotentId, String itemName, Callable<T> callable)
+      throws Exception {
+    // Another caller may have stored the result since it was last checked
+    if (knownValues.containsKey(idempotentId)) {
+      return (T) knownValues.get(idempotentId);
+    }
     try {
       T result = callable.call();
       knownValues.put(idempotentId, result);
@@ -107,7 +126,9 @@ public class InMemoryIdempotentImportExecutor implements IdempotentImportExecuto
 
   @Override
   public Collection<ErrorDetail> getErrors() {
-    return ImmutableList.copyOf(errors.values());
+    synchronized (errors) {
+      return ImmutableList.copyOf(errors.values());
+    }
   }
 
   @Override
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.spi.transfer.idempotentexecutor;
+
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Collapses concurrent calls for the same idempotent id into a single call, for {@link
+ * IdempotentImportExecutor}s whose callables may be executed from several threads.
+ *
+ * <p>The first caller for an id runs its callable, callers arriving while it runs wait for it and
+ * get the same result or exception. Once the call is done the next caller for the id runs its
+ * callable again, so callables have to check for a result stored by a previous call themselves.
+ */
+public final class SingleFlight {
+  private final ConcurrentMap<String, CompletableFuture<Serializable>> calls =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Runs {@code callable} unless a call for {@code idempotentId} is already running, in which case
+   * the outcome of that call is returned or thrown.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Serializable> T execute(String idempotentId, Callable<T> callable)
+      throws Exception {
+    CompletableFuture<Serializable> call = new CompletableFuture<>();
+    CompletableFuture<Serializable> runningCall = calls.putIfAbsent(idempotentId, call);
+    if (runningCall != null) {
+      return (T) await(runningCall);
+    }
+    try {
+      T result = callable.call();
+      calls.remove(idempotentId, call);
+      call.complete(result);
+      return result;
+    } catch (Throwable t) {
+      calls.remove(idempotentId, call);
+      call.completeExceptionally(t);
+      throw t;
+    }
+  }
+
+  private static Serializable await(CompletableFuture<Serializable> call) throws Exception {
+    try {
+      return call.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+}
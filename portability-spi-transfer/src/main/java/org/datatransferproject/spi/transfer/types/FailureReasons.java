@@ -5,7 +5,8 @@ public enum FailureReasons {
   INVALID_TOKEN("INVALID_TOKEN"),
   PERMISSION_DENIED("PERMISSION_DENIED"),
   CREDS_TIMEOUT("CREDS_TIMEOUT"),
-  UPLOAD_ERROR("UPLOAD_ERROR");
+  UPLOAD_ERROR("UPLOAD_ERROR"),
+  WORKER_LEASE_EXPIRED("WORKER_LEASE_EXPIRED");
 
   private final String string;
 
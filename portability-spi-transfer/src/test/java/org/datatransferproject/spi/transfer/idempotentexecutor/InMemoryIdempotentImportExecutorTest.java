@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.spi.transfer.idempotentexecutor;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.datatransferproject.api.launcher.Monitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InMemoryIdempotentImportExecutorTest {
+
+  private InMemoryIdempotentImportExecutor executor;
+  private ExecutorService threads;
+
+  @Before
+  public void setUp() {
+    executor = new InMemoryIdempotentImportExecutor(new Monitor() {});
+    executor.setJobId(UUID.randomUUID());
+    threads = Executors.newFixedThreadPool(2);
+  }
+
+  @After
+  public void tearDown() {
+    threads.shutdownNow();
+  }
+
+  @Test
+  public void concurrentCallsExecuteOnce() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<String> first =
+        threads.submit(
+            () ->
+                executor.executeAndSwallowIOExceptions(
+                    "id",
+                    "item",
+                    () -> {
+                      calls.incrementAndGet();
+                      started.countDown();
+                      release.await();
+                      return "value";
+                    }));
+    started.await();
+    AtomicReference<Thread> secondThread = new AtomicReference<>();
+    Future<String> second =
+        threads.submit(
+            () -> {
+              secondThread.set(Thread.currentThread());
+              return executor.executeAndSwallowIOExceptions(
+                  "id",
+                  "item",
+                  () -> {
+                    calls.incrementAndGet();
+                    return "other value";
+                  });
+            });
+    // The first call only completes once the second caller waits for it, rather than having the
+    // second caller find the cached value
+    while (secondThread.get() == null || secondThread.get().getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+
+    assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("value");
+    assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo("value");
+    assertThat(calls.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void failedCallIsExecutedAgain() throws Exception {
+    executor.executeAndSwallowIOExceptions(
+        "id",
+        "item",
+        () -> {
+          throw new IOException("failed");
+        });
+    assertThat(executor.getErrors()).hasSize(1);
+
+    assertThat(executor.executeAndSwallowIOExceptions("id", "item", () -> "value"))
+        .isEqualTo("value");
+    assertThat(executor.getErrors()).isEmpty();
+  }
+}
@@ -26,5 +26,25 @@ final class Annotations {
   @Retention(RetentionPolicy.RUNTIME)
   @interface CancelScheduler {}
 
+  /** A scheduler for flushing the counts of imported items to the job store. */
+  @Qualifier
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface CountsScheduler {}
+
+  /** Whether failing items are retried on their own rather than by re-importing their page. */
+  @Qualifier
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface ItemLevelImportRetry {}
+
+  /** How long a worker holds the lease on a job it claimed without renewing it. */
+  @Qualifier
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface JobLeaseDuration {}
+
+  /** A scheduler for renewing the lease on a job. */
+  @Qualifier
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface LeaseScheduler {}
+
   private Annotations() {}
 }
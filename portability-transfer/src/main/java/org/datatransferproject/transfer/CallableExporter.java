@@ -25,7 +25,6 @@ import org.datatransferproject.types.common.ExportInformation;
 import org.datatransferproject.types.transfer.auth.AuthData;
 
 import java.util.Optional;
-import java.util.UUID;
 import java.util.concurrent.Callable;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -36,19 +35,19 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class CallableExporter implements Callable<ExportResult> {
 
   private Provider<Exporter> exporterProvider;
-  private UUID jobId;
+  private JobContext jobContext;
   private AuthData authData;
   private Optional<ExportInformation> exportInformation;
   private final DtpInternalMetricRecorder metricRecorder;
 
   public CallableExporter(
       Provider<Exporter> exporterProvider,
-      UUID jobId,
+      JobContext jobContext,
       AuthData authData,
       Optional<ExportInformation> exportInformation,
       DtpInternalMetricRecorder metricRecorder) {
     this.exporterProvider = checkNotNull(exporterProvider, "exportProvider can't be null");
-    this.jobId = checkNotNull(jobId, "jobId can't be null");
+    this.jobContext = checkNotNull(jobContext, "jobContext can't be null");
     this.authData = checkNotNull(authData, "authData can't be null");
     this.exportInformation = exportInformation;
     this.metricRecorder = checkNotNull(metricRecorder, "metric recorder can't be null");
@@ -59,13 +58,13 @@ public class CallableExporter implements Callable<ExportResult> {
     boolean success = false;
     Stopwatch stopwatch = Stopwatch.createStarted();
     try {
-      ExportResult result =  exporterProvider.get().export(jobId, authData, exportInformation);
+      ExportResult result =  exporterProvider.get().export(jobContext.getJobId(), authData, exportInformation);
       success = result.getType() != ExportResult.ResultType.ERROR;
       return result;
     } finally{
       metricRecorder.exportPageAttemptFinished(
-          JobMetadata.getDataType(),
-          JobMetadata.getExportService(),
+          jobContext.getDataType(),
+          jobContext.getExportService(),
           success,
           stopwatch.elapsed());
     }
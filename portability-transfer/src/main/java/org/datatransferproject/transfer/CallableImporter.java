@@ -28,7 +28,6 @@ import org.datatransferproject.types.transfer.errors.ErrorDetail;
 
 import java.io.IOException;
 import java.util.Collection;
-import java.util.UUID;
 import java.util.concurrent.Callable;
 
 /**
@@ -37,25 +36,34 @@ import java.util.concurrent.Callable;
 public class CallableImporter implements Callable<ImportResult> {
 
   private final Provider<Importer> importerProvider;
-  private final UUID jobId;
+  private final JobContext jobContext;
   private final IdempotentImportExecutor idempotentImportExecutor;
   private final AuthData authData;
   private final DataModel data;
   private final DtpInternalMetricRecorder metricRecorder;
+  private final boolean retryOnItemErrors;
 
+  /**
+   * @param idempotentImportExecutor the executor for the page being imported, its errors decide
+   *     whether the import of the page is retried
+   * @param retryOnItemErrors whether the import of the page should be retried if some items
+   *     failed, false when items are retried individually instead
+   */
   public CallableImporter(
       Provider<Importer> importerProvider,
-      UUID jobId,
+      JobContext jobContext,
       IdempotentImportExecutor idempotentImportExecutor,
       AuthData authData,
       DataModel data,
-      DtpInternalMetricRecorder metricRecorder) {
+      DtpInternalMetricRecorder metricRecorder,
+      boolean retryOnItemErrors) {
     this.importerProvider = importerProvider;
-    this.jobId = jobId;
+    this.jobContext = jobContext;
     this.idempotentImportExecutor = idempotentImportExecutor;
     this.authData = authData;
     this.data = data;
     this.metricRecorder = metricRecorder;
+    this.retryOnItemErrors = retryOnItemErrors;
   }
 
   @Override
@@ -64,13 +72,15 @@ public class CallableImporter implements Callable<ImportResult> {
     Stopwatch stopwatch = Stopwatch.createStarted();
     try {
       ImportResult result = importerProvider.get()
-          .importItem(jobId, idempotentImportExecutor, authData, data);
+          .importItem(jobContext.getJobId(), idempotentImportExecutor, authData, data);
+      // Persists the results of the page before reporting it as imported
+      idempotentImportExecutor.flush();
       success = result.getType() == ImportResult.ResultType.OK;
       if (success) {
         result = result.copyWithCounts(data.getCounts());
       }
       Collection<ErrorDetail> errors = idempotentImportExecutor.getErrors();
-      if (!success || !errors.isEmpty()) {
+      if (!success || (retryOnItemErrors && !errors.isEmpty())) {
         throw new IOException("Problem with importer, forcing a retry, "
             + errors.size() + " errors, first one: " +
             (errors.iterator().hasNext() ? errors.iterator().next() : "none"));
@@ -78,8 +88,8 @@ public class CallableImporter implements Callable<ImportResult> {
       return result;
     } finally{
       metricRecorder.importPageAttemptFinished(
-          JobMetadata.getDataType(),
-          JobMetadata.getImportService(),
+          jobContext.getDataType(),
+          jobContext.getImportService(),
           success,
           stopwatch.elapsed());
     }
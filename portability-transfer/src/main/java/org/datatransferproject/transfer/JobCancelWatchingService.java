@@ -17,51 +17,86 @@ package org.datatransferproject.transfer;
 
 import com.google.common.util.concurrent.AbstractScheduledService;
 import com.google.inject.Inject;
+import java.util.UUID;
 import org.datatransferproject.api.launcher.DtpInternalMetricRecorder;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.launcher.monitor.events.EventCode;
 import org.datatransferproject.spi.cloud.storage.JobStore;
+import org.datatransferproject.spi.cloud.storage.JobUpdateListener;
 import org.datatransferproject.spi.cloud.types.PortabilityJob;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
 
-/** A service that polls storage to see if a job is canceled, if it is it kills the binary. */
+/**
+ * A service that watches for a job being canceled, if it is it cancels the job's {@link
+ * CancellationToken} so the copy stops.
+ *
+ * <p>If the store notifies of job updates, the job is canceled as soon as the update is stored.
+ * The store is also polled for the state of the job, the only way to find out about a cancellation
+ * for stores that don't notify.
+ */
 class JobCancelWatchingService extends AbstractScheduledService {
   private final JobStore store;
+  private final JobContext jobContext;
+  private final CancellationToken cancellationToken;
   private final Scheduler scheduler;
   private final Monitor monitor;
   private final DtpInternalMetricRecorder dtpInternalMetricRecorder;
+  private final JobUpdateListener jobUpdateListener = this::jobUpdated;
 
   @Inject
   JobCancelWatchingService(
-          JobStore store, @Annotations.CancelScheduler Scheduler scheduler,
+          JobStore store, JobContext jobContext, CancellationToken cancellationToken,
+          @Annotations.CancelScheduler Scheduler scheduler,
           Monitor monitor, DtpInternalMetricRecorder dtpInternalMetricRecorder) {
     this.store = store;
+    this.jobContext = jobContext;
+    this.cancellationToken = cancellationToken;
     this.scheduler = scheduler;
     this.monitor = monitor;
     this.dtpInternalMetricRecorder = dtpInternalMetricRecorder;
   }
 
+  @Override
+  protected void startUp() {
+    store.addJobUpdateListener(jobUpdateListener);
+  }
+
+  @Override
+  protected void shutDown() {
+    store.removeJobUpdateListener(jobUpdateListener);
+  }
+
   @Override
   protected void runOneIteration() {
-    if (!JobMetadata.isInitialized()) {
-      return;
-    }
     monitor.debug(() -> "polling for job to check cancellation");
-    PortabilityJob currentJob = store.findJob(JobMetadata.getJobId());
-    boolean isCanceled = currentJob.state() == PortabilityJob.State.CANCELED;
-    if (isCanceled) {
-      monitor.info(
-          () -> String.format("Job %s is canceled", JobMetadata.getJobId()),
-          EventCode.WORKER_JOB_CANCELED);
-      dtpInternalMetricRecorder.cancelledJob(
-              JobMetadata.getDataType(),
-              JobMetadata.getExportService(),
-              JobMetadata.getImportService(),
-              JobMetadata.getStopWatch().elapsed());
-      monitor.flushLogs();
-      System.exit(0);
+    if (store.getJobState(jobContext.getJobId()) == PortabilityJob.State.CANCELED) {
+      cancel();
     } else {
-      monitor.debug(() -> String.format("Job %s is not canceled", JobMetadata.getJobId()));
+      monitor.debug(() -> String.format("Job %s is not canceled", jobContext.getJobId()));
+    }
+  }
+
+  private void jobUpdated(UUID jobId, PortabilityJob job) {
+    if (jobContext.getJobId().equals(jobId) && job.state() == PortabilityJob.State.CANCELED) {
+      cancel();
+    }
+  }
+
+  private synchronized void cancel() {
+    if (cancellationToken.isCanceled()) {
+      return;
     }
+    monitor.info(
+        () -> String.format("Job %s is canceled", jobContext.getJobId()),
+        EventCode.WORKER_JOB_CANCELED);
+    dtpInternalMetricRecorder.cancelledJob(
+            jobContext.getDataType(),
+            jobContext.getExportService(),
+            jobContext.getImportService(),
+            jobContext.getStopWatch().elapsed());
+    monitor.flushLogs();
+    cancellationToken.cancel();
+    stopAsync();
   }
 
   @Override
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Stopwatch;
+import java.util.UUID;
+
+/**
+ * The metadata of a job claimed by a transfer worker.
+ *
+ * <p>A worker may process several jobs at once, each with its own context. The context of a job is
+ * bound in the job's injector, see {@link JobModule}.
+ */
+@SuppressWarnings("WeakerAccess")
+// We make the class and various methods public so they can be accessed from Monitors
+public final class JobContext {
+  private final UUID jobId;
+  private final String instanceId;
+  private final byte[] encodedPrivateKey;
+  private final String dataType;
+  private final String exportService;
+  private final String importService;
+  private final Stopwatch stopWatch;
+
+  JobContext(
+      UUID jobId,
+      String instanceId,
+      byte[] encodedPrivateKey,
+      String dataType,
+      String exportService,
+      String importService,
+      Stopwatch stopWatch) {
+    this.jobId = checkNotNull(jobId, "jobId can't be null");
+    this.instanceId = checkNotNull(instanceId, "instanceId can't be null");
+    this.encodedPrivateKey = checkNotNull(encodedPrivateKey, "encodedPrivateKey can't be null");
+    this.dataType = checkNotNull(dataType, "dataType can't be null");
+    this.exportService = checkNotNull(exportService, "exportService can't be null");
+    this.importService = checkNotNull(importService, "importService can't be null");
+    this.stopWatch = checkNotNull(stopWatch, "stopWatch can't be null");
+  }
+
+  byte[] getPrivateKey() {
+    return encodedPrivateKey;
+  }
+
+  public UUID getJobId() {
+    return jobId;
+  }
+
+  /** The id of the worker instance that claimed the job and holds its lease. */
+  public String getInstanceId() {
+    return instanceId;
+  }
+
+  public String getDataType() {
+    return dataType;
+  }
+
+  public String getExportService() {
+    return exportService;
+  }
+
+  public String getImportService() {
+    return importService;
+  }
+
+  public Stopwatch getStopWatch() {
+    return stopWatch;
+  }
+}
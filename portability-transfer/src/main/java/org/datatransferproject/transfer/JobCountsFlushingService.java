@@ -0,0 +1,221 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.datatransferproject.transfer;
+
+import static java.lang.String.format;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.spi.cloud.storage.JobStore;
+import org.datatransferproject.spi.cloud.types.JobProgress;
+
+/**
+ * A service that adds up the items and bytes a job imported, and adds them to the {@link
+ * JobStore} periodically and once stopped, rather than on every imported page.
+ *
+ * <p>Counts that can't be flushed are kept and flushed along with the next ones.
+ *
+ * <p>Every flush also publishes a {@link JobProgress} snapshot of the job, with the rates of the
+ * pages and bytes imported since the previous flush.
+ */
+class JobCountsFlushingService extends AbstractScheduledService {
+  private final JobStore store;
+  private final JobContext jobContext;
+  private final Scheduler scheduler;
+  private final Monitor monitor;
+  // Counted since the last flush, guarded by this
+  private Map<String, Integer> counts = new HashMap<>();
+  private long bytes;
+  // Counted since the job started, including by previous workers, guarded by this
+  private final Map<String, Integer> totalCounts = new HashMap<>();
+  private long totalBytes;
+  private long totalPages;
+  // Copy iterations still to do, or -1 if unknown, guarded by this
+  private int pendingIterations = -1;
+  // Only accessed by the flushing thread
+  private long lastFlushNanos;
+  private long lastFlushPages;
+  private long lastFlushBytes;
+  private boolean progressPublishing = true;
+  private boolean progressExists;
+
+  @Inject
+  JobCountsFlushingService(
+      JobStore store,
+      JobContext jobContext,
+      @Annotations.CountsScheduler Scheduler scheduler,
+      Monitor monitor) {
+    this.store = store;
+    this.jobContext = jobContext;
+    this.scheduler = scheduler;
+    this.monitor = monitor;
+  }
+
+  /**
+   * Counts a page imported.
+   *
+   * @param newCounts mapping from item names to the number of such items imported, or null
+   * @param newBytes bytes imported, or null
+   */
+  synchronized void add(Map<String, Integer> newCounts, Long newBytes) {
+    totalPages++;
+    addCounts(newCounts, newBytes);
+    if (newCounts != null) {
+      newCounts.forEach((name, count) -> totalCounts.merge(name, count, Integer::sum));
+    }
+    if (newBytes != null) {
+      totalBytes += newBytes;
+    }
+  }
+
+  /**
+   * Sets the number of copy iterations the job still has to do, each importing at least one page,
+   * from which the time remaining is estimated.
+   */
+  synchronized void setPendingIterations(int pendingIterations) {
+    this.pendingIterations = pendingIterations;
+  }
+
+  private synchronized void addCounts(Map<String, Integer> newCounts, Long newBytes) {
+    if (newCounts != null) {
+      newCounts.forEach((name, count) -> counts.merge(name, count, Integer::sum));
+    }
+    if (newBytes != null) {
+      bytes += newBytes;
+    }
+  }
+
+  @Override
+  protected void startUp() {
+    // A job resumed by this worker starts from the counts of the previous ones
+    Map<String, Integer> storedCounts = null;
+    Long storedBytes = null;
+    try {
+      storedCounts = store.getCounts(jobContext.getJobId());
+      storedBytes = store.getBytes(jobContext.getJobId());
+    } catch (RuntimeException e) {
+      monitor.debug(() -> format("Unable to read the counts of job %s", jobContext.getJobId()), e);
+    }
+    synchronized (this) {
+      if (storedCounts != null) {
+        storedCounts.forEach((name, count) -> totalCounts.merge(name, count, Integer::sum));
+      }
+      if (storedBytes != null) {
+        totalBytes += storedBytes;
+      }
+      lastFlushBytes = totalBytes;
+    }
+    lastFlushNanos = System.nanoTime();
+    try {
+      progressExists =
+          store.findData(jobContext.getJobId(), JobProgress.DATA_KEY, JobProgress.class) != null;
+    } catch (UnsupportedOperationException e) {
+      monitor.info(() -> "Job store doesn't support storing data, not publishing job progress");
+      progressPublishing = false;
+    } catch (IOException | RuntimeException e) {
+      // Most likely published by a previous worker of the job
+      progressExists = true;
+      monitor.debug(
+          () -> format("Unable to read the progress of job %s", jobContext.getJobId()), e);
+    }
+  }
+
+  @Override
+  protected void runOneIteration() {
+    flush();
+  }
+
+  @Override
+  protected void shutDown() {
+    flush();
+  }
+
+  private void flush() {
+    Map<String, Integer> flushedCounts;
+    long flushedBytes;
+    synchronized (this) {
+      flushedCounts = counts;
+      flushedBytes = bytes;
+      counts = new HashMap<>();
+      bytes = 0;
+    }
+    try {
+      if (!flushedCounts.isEmpty()) {
+        store.addCounts(jobContext.getJobId(), flushedCounts);
+        flushedCounts = null;
+      }
+      if (flushedBytes != 0) {
+        store.addBytes(jobContext.getJobId(), flushedBytes);
+        flushedBytes = 0;
+      }
+    } catch (IOException e) {
+      monitor.debug(() -> format("Unable to add counts to job %s", jobContext.getJobId()), e);
+      // Retried with the next flush
+      addCounts(flushedCounts, flushedBytes);
+    }
+    if (progressPublishing) {
+      publishProgress();
+    }
+  }
+
+  private void publishProgress() {
+    long now = System.nanoTime();
+    double seconds = Math.max(now - lastFlushNanos, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+    JobProgress progress;
+    synchronized (this) {
+      double pagesPerSecond = (totalPages - lastFlushPages) / seconds;
+      Long estimatedSecondsRemaining =
+          pendingIterations >= 0 && pagesPerSecond > 0
+              ? (long) Math.ceil(pendingIterations / pagesPerSecond)
+              : null;
+      progress =
+          new JobProgress(
+              totalCounts,
+              totalBytes,
+              totalPages,
+              pagesPerSecond,
+              (totalBytes - lastFlushBytes) / seconds,
+              estimatedSecondsRemaining,
+              System.currentTimeMillis());
+      lastFlushPages = totalPages;
+      lastFlushBytes = totalBytes;
+    }
+    lastFlushNanos = now;
+    try {
+      if (progressExists) {
+        store.update(jobContext.getJobId(), JobProgress.DATA_KEY, progress);
+      } else {
+        store.create(jobContext.getJobId(), JobProgress.DATA_KEY, progress);
+        progressExists = true;
+      }
+    } catch (IOException | RuntimeException e) {
+      // Published with the next flush
+      monitor.debug(
+          () -> format("Unable to publish the progress of job %s", jobContext.getJobId()), e);
+    }
+  }
+
+  @Override
+  protected Scheduler scheduler() {
+    return scheduler;
+  }
+}
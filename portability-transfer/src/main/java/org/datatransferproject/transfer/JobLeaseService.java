@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import static java.lang.String.format;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.time.Duration;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.launcher.monitor.events.EventCode;
+import org.datatransferproject.spi.cloud.storage.JobStore;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
+
+/**
+ * A service that renews the worker's lease on the job it processes, as a heartbeat telling the
+ * {@link JobStore} the worker is still alive, and releases it once stopped.
+ *
+ * <p>If the lease was lost, the job was reclaimed by another worker and is canceled through its
+ * {@link CancellationToken}.
+ */
+class JobLeaseService extends AbstractScheduledService {
+  private final JobStore store;
+  private final JobContext jobContext;
+  private final Duration leaseDuration;
+  private final CancellationToken cancellationToken;
+  private final Scheduler scheduler;
+  private final Monitor monitor;
+
+  @Inject
+  JobLeaseService(
+      JobStore store,
+      JobContext jobContext,
+      @Annotations.JobLeaseDuration Duration leaseDuration,
+      CancellationToken cancellationToken,
+      @Annotations.LeaseScheduler Scheduler scheduler,
+      Monitor monitor) {
+    this.store = store;
+    this.jobContext = jobContext;
+    this.leaseDuration = leaseDuration;
+    this.cancellationToken = cancellationToken;
+    this.scheduler = scheduler;
+    this.monitor = monitor;
+  }
+
+  @Override
+  protected void runOneIteration() {
+    try {
+      store.renewJobLease(jobContext.getJobId(), jobContext.getInstanceId(), leaseDuration);
+    } catch (IOException e) {
+      // Retried on the next iteration, the lease outlasts a few of them
+      monitor.info(() -> format("Could not renew the lease of job %s", jobContext.getJobId()), e);
+    } catch (IllegalStateException e) {
+      monitor.severe(
+          () -> format("Lost the lease of job %s, stopping it", jobContext.getJobId()),
+          e,
+          EventCode.WORKER_JOB_ERRORED);
+      stopAsync();
+      cancellationToken.cancel();
+    }
+  }
+
+  @Override
+  protected void shutDown() {
+    try {
+      store.releaseJobLease(jobContext.getJobId(), jobContext.getInstanceId());
+    } catch (IOException e) {
+      // The lease expires on its own
+      monitor.info(() -> format("Could not release the lease of job %s", jobContext.getJobId()), e);
+    }
+  }
+
+  @Override
+  protected Scheduler scheduler() {
+    return scheduler;
+  }
+}
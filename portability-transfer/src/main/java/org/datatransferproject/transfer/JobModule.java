@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import static java.lang.String.format;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.datatransferproject.api.launcher.ExtensionContext;
+import org.datatransferproject.spi.transfer.extension.TransferExtension;
+import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
+import org.datatransferproject.spi.transfer.provider.Exporter;
+import org.datatransferproject.spi.transfer.provider.Importer;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
+
+/**
+ * Bindings for a single job, installed in a child injector of the worker's injector for every job
+ * the worker processes.
+ */
+final class JobModule extends AbstractModule {
+
+  private final ExtensionContext context;
+  private final JobContext jobContext;
+  private final CancellationToken cancellationToken;
+  // The extensions initialized for the job, keyed by lower case service id, guarded by this
+  private final Map<String, TransferExtension> extensions = new HashMap<>();
+
+  /**
+   * @param cancellationToken canceled once the job has been canceled
+   */
+  JobModule(ExtensionContext context, JobContext jobContext, CancellationToken cancellationToken) {
+    this.context = context;
+    this.jobContext = jobContext;
+    this.cancellationToken = cancellationToken;
+  }
+
+  @Override
+  protected void configure() {
+    bind(JobContext.class).toInstance(jobContext);
+    bind(CancellationToken.class).toInstance(cancellationToken);
+    // Shared by the copier counting imported items and the worker flushing them
+    bind(JobCountsFlushingService.class).in(Singleton.class);
+  }
+
+  @Provides
+  @Singleton
+  InMemoryDataCopier getInMemoryDataCopier(
+      Injector injector, TransferExtensionInitializer transferExtensionInitializer) {
+    Class<? extends InMemoryDataCopier> copierClass =
+        WorkerModule.getInMemoryDataCopierClass(context);
+    if (copierClass == PortabilityParallelInMemoryDataCopier.class
+        && !(getExtension(transferExtensionInitializer, jobContext.getExportService())
+                .isThreadSafe(jobContext.getDataType())
+            && getExtension(transferExtensionInitializer, jobContext.getImportService())
+                .isThreadSafe(jobContext.getDataType()))) {
+      context
+          .getMonitor()
+          .info(
+              () ->
+                  format(
+                      "Job %s: %s to %s isn't thread-safe, copying one page at a time",
+                      jobContext.getJobId(),
+                      jobContext.getExportService(),
+                      jobContext.getImportService()));
+      copierClass = PortabilityInMemoryDataCopier.class;
+    }
+    return injector.getInstance(copierClass);
+  }
+
+  @Provides
+  @Singleton
+  Exporter getExporter(TransferExtensionInitializer transferExtensionInitializer) {
+    return getExtension(transferExtensionInitializer, jobContext.getExportService())
+        .getExporter(jobContext.getDataType());
+  }
+
+  @Provides
+  @Singleton
+  Importer getImporter(TransferExtensionInitializer transferExtensionInitializer) {
+    return getExtension(transferExtensionInitializer, jobContext.getImportService())
+        .getImporter(jobContext.getDataType());
+  }
+
+  /** Returns the extension of {@code service}, initialized once for the job. */
+  private synchronized TransferExtension getExtension(
+      TransferExtensionInitializer transferExtensionInitializer, String service) {
+    return extensions.computeIfAbsent(
+        service.toLowerCase(),
+        serviceId -> transferExtensionInitializer.initialize(service, jobContext));
+  }
+
+  /** A new executor per job, executors hold the state of a single job. */
+  @Provides
+  @Singleton
+  IdempotentImportExecutor getIdempotentImportExecutor(
+      Supplier<IdempotentImportExecutor> idempotentImportExecutorFactory) {
+    return idempotentImportExecutorFactory.get();
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.function.Supplier;
+import org.datatransferproject.api.launcher.Monitor;
+
+/**
+ * A {@link Monitor} that adds the id of a job to the events it records, for the jobs of a worker
+ * processing several of them concurrently, which can't set the job id on the worker's monitor.
+ */
+final class JobMonitor implements Monitor {
+  private final Monitor delegate;
+  private final UUID jobId;
+
+  JobMonitor(Monitor delegate, UUID jobId) {
+    this.delegate = delegate;
+    this.jobId = jobId;
+  }
+
+  @Override
+  public void severe(Supplier<String> supplier, Object... data) {
+    delegate.severe(supplier, withJobId(data));
+  }
+
+  @Override
+  public void info(Supplier<String> supplier, Object... data) {
+    delegate.info(supplier, withJobId(data));
+  }
+
+  @Override
+  public void debug(Supplier<String> supplier, Object... data) {
+    delegate.debug(supplier, withJobId(data));
+  }
+
+  @Override
+  public void flushLogs() {
+    delegate.flushLogs();
+  }
+
+  private Object[] withJobId(Object[] data) {
+    if (data == null) {
+      return new Object[] {jobId};
+    }
+    Object[] withJobId = Arrays.copyOf(data, data.length + 1);
+    withJobId[data.length] = jobId;
+    return withJobId;
+  }
+}
@@ -16,6 +16,7 @@
 package org.datatransferproject.transfer;
 
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 
 /**
  * Polls a {@code PortabilityJob} for this transfer worker to process.
@@ -26,15 +27,24 @@ import com.google.inject.Inject;
  * implementation details.
  */
 final class JobPoller {
-  private final JobPollingService jobPollingService;
+  private final Provider<JobPollingService> jobPollingServiceProvider;
 
   @Inject
-  JobPoller(JobPollingService jobPollingService) {
-    this.jobPollingService = jobPollingService;
+  JobPoller(Provider<JobPollingService> jobPollingServiceProvider) {
+    this.jobPollingServiceProvider = jobPollingServiceProvider;
   }
 
-  void pollJob() {
+  /**
+   * Claims a job and waits until it is ready to be processed.
+   *
+   * @return the context of the claimed job
+   * @throws IllegalStateException if the claimed job timed out waiting for its credentials
+   */
+  JobContext pollJob() {
+    // A new service per job, a service can only be started once
+    JobPollingService jobPollingService = jobPollingServiceProvider.get();
     jobPollingService.startAsync();
     jobPollingService.awaitTerminated();
+    return jobPollingService.getJobContext();
   }
 }
@@ -20,9 +20,11 @@ import static java.lang.String.format;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
-import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import com.google.inject.Inject;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import org.datatransferproject.api.launcher.ExtensionContext;
@@ -30,6 +32,7 @@ import org.datatransferproject.api.launcher.JobAwareMonitor;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.launcher.monitor.events.EventCode;
 import org.datatransferproject.spi.cloud.storage.JobStore;
+import org.datatransferproject.spi.cloud.storage.JobUpdateListener;
 import org.datatransferproject.spi.cloud.types.JobAuthorization;
 import org.datatransferproject.spi.cloud.types.PortabilityJob;
 import org.datatransferproject.spi.cloud.types.PortabilityJob.State;
@@ -42,41 +45,105 @@ import org.datatransferproject.spi.transfer.types.FailureReasons;
  * A service that polls storage for a job to process in two steps: <br> (1) find an unassigned job
  * for this transfer worker <br> (2) wait until the job is ready to process (i.e. creds are
  * available)
+ *
+ * <p>A service claims a single job, the {@link JobContext} of which is available once the service
+ * terminated.
+ *
+ * <p>Polls are spaced out by a {@link PollingBackoff} while there is nothing to do. If the store
+ * notifies of job updates, the service polls as soon as a job becomes available or the claimed
+ * job is updated, and only falls back to the backoff if notifications are missed.
+ *
+ * <p>A job is claimed with a lease, which the service renews while it waits for the credentials.
+ * Before looking for a job, it has the store requeue the jobs of workers whose lease expired.
  */
-class JobPollingService extends AbstractScheduledService {
+class JobPollingService extends AbstractExecutionThreadService {
 
   private final JobStore store;
   private final TransferKeyGenerator transferKeyGenerator;
   private final PublicKeySerializer publicKeySerializer;
-  private final Scheduler scheduler;
+  private final PollingBackoff backoff;
   private final Monitor monitor;
   private final Stopwatch stopwatch = Stopwatch.createUnstarted();
+  // Time since the lease was renewed, or since expired leases were requeued if no job is claimed
+  private final Stopwatch leaseStopwatch = Stopwatch.createUnstarted();
   private final int credsTimeoutSeconds;
+  private final Duration leaseDuration;
+  private final JobUpdateListener jobUpdateListener = this::jobUpdated;
+  private final boolean concurrentJobs;
+  private volatile JobContext jobContext;
 
   @Inject
   JobPollingService(
       JobStore store,
       TransferKeyGenerator transferKeyGenerator,
       PublicKeySerializer publicKeySerializer,
-      Scheduler scheduler,
+      PollingBackoff backoff,
+      @Annotations.JobLeaseDuration Duration leaseDuration,
       Monitor monitor,
       ExtensionContext context) {
     monitor.debug(() -> "initializing JobPollingService");
     this.store = store;
     this.transferKeyGenerator = transferKeyGenerator;
     this.publicKeySerializer = publicKeySerializer;
-    this.scheduler = scheduler;
+    this.backoff = backoff;
+    this.leaseDuration = leaseDuration;
     this.monitor = monitor;
     this.credsTimeoutSeconds = context.getSetting("credTimeoutSeconds", 300);
+    this.concurrentJobs = context.getSetting("maxConcurrentJobs", 0) > 0;
     monitor.debug(() -> "initialized JobPollingService");
   }
 
+  /** Returns the context of the job claimed by this service, or null if none was claimed yet. */
+  JobContext getJobContext() {
+    return jobContext;
+  }
+
+  @Override
+  protected void startUp() {
+    boolean notifying = store.addJobUpdateListener(jobUpdateListener);
+    monitor.debug(() -> "Job store notifies of job updates: " + notifying);
+  }
+
   @Override
-  protected void runOneIteration() {
-    monitor.debug(() -> "JobMetadata.isInitialized(): " + JobMetadata.isInitialized());
-    if (JobMetadata.isInitialized()) {
+  protected void run() throws InterruptedException {
+    while (isRunning()) {
+      JobContext claimedJob = jobContext;
+      runOneIteration();
+      if (jobContext != claimedJob) {
+        // Claimed a job, its credentials are usually stored right after
+        backoff.reset();
+      }
+      if (isRunning()) {
+        backoff.await();
+      }
+    }
+  }
+
+  @Override
+  protected void triggerShutdown() {
+    backoff.wake();
+  }
+
+  @Override
+  protected void shutDown() {
+    store.removeJobUpdateListener(jobUpdateListener);
+  }
+
+  /** Wakes the service up for updates it is waiting for. */
+  private void jobUpdated(UUID jobId, PortabilityJob job) {
+    JobContext claimedJob = jobContext;
+    if (claimedJob == null
+        ? job.jobAuthorization().state() == JobAuthorization.State.CREDS_AVAILABLE
+        : claimedJob.getJobId().equals(jobId)) {
+      backoff.wake();
+    }
+  }
+
+  void runOneIteration() {
+    monitor.debug(() -> "Claimed a job: " + (jobContext != null));
+    if (jobContext != null) {
       if (stopwatch.elapsed(TimeUnit.SECONDS) > credsTimeoutSeconds) {
-        UUID jobId = JobMetadata.getJobId();
+        UUID jobId = jobContext.getJobId();
         markJobTimedOut(jobId);
         String message =
             format(
@@ -85,8 +152,11 @@ class JobPollingService extends AbstractScheduledService {
         monitor.severe(() -> message, EventCode.WORKER_CREDS_TIMEOUT);
         throw new CredsTimeoutException(message, jobId);
       }
-      pollUntilJobIsReady();
+      if (renewLeaseIfDue()) {
+        pollUntilJobIsReady();
+      }
     } else {
+      requeueExpiredJobsIfDue();
       // Poll for an unassigned job to process with this transfer worker instance.
       // Once a transfer worker instance is assigned, the client will populate storage with
       // auth data encrypted with this instances public key and the copy process can begin
@@ -94,6 +164,50 @@ class JobPollingService extends AbstractScheduledService {
     }
   }
 
+  /**
+   * Renews the lease on the claimed job once a third of it elapsed. Drops the job if the lease was
+   * lost, in which case the job was requeued and the service polls for another one.
+   *
+   * @return whether the service still holds the lease
+   */
+  private boolean renewLeaseIfDue() {
+    if (leaseStopwatch.elapsed(TimeUnit.MILLISECONDS) < leaseDuration.toMillis() / 3) {
+      return true;
+    }
+    UUID jobId = jobContext.getJobId();
+    try {
+      store.renewJobLease(jobId, jobContext.getInstanceId(), leaseDuration);
+      leaseStopwatch.reset().start();
+    } catch (IOException e) {
+      // Retried on the next poll, the lease outlasts a few of them
+      monitor.info(() -> format("Could not renew the lease of job %s", jobId), e);
+    } catch (IllegalStateException e) {
+      monitor.severe(() -> format("Lost the lease of job %s, polling for another job", jobId), e);
+      jobContext = null;
+      stopwatch.reset();
+      leaseStopwatch.reset();
+      return false;
+    }
+    return true;
+  }
+
+  /** Requeues the jobs of lost workers, at most once per lease renewal interval. */
+  private void requeueExpiredJobsIfDue() {
+    if (leaseStopwatch.isRunning()
+        && leaseStopwatch.elapsed(TimeUnit.MILLISECONDS) < leaseDuration.toMillis() / 3) {
+      return;
+    }
+    leaseStopwatch.reset().start();
+    try {
+      Collection<UUID> jobIds = store.requeueExpiredJobLeases();
+      if (!jobIds.isEmpty()) {
+        monitor.info(() -> format("Requeued jobs with an expired lease: %s", jobIds));
+      }
+    } catch (IOException | RuntimeException e) {
+      monitor.severe(() -> "Could not requeue jobs with an expired lease", e);
+    }
+  }
+
   private void markJobTimedOut(UUID jobId) {
     try {
       store.markJobAsTimedOut(jobId);
@@ -108,15 +222,7 @@ class JobPollingService extends AbstractScheduledService {
     }
   }
 
-  @Override
-  protected Scheduler scheduler() {
-    return scheduler;
-  }
-
-  /**
-   * Polls for an unassigned job, and once found, initializes the global singleton job metadata
-   * object for this running instance of the transfer worker.
-   */
+  /** Polls for an unassigned job, and once found, claims it and creates its {@link JobContext}. */
   private void pollForUnassignedJob() {
     UUID jobId = store.findFirst(JobAuthorization.State.CREDS_AVAILABLE);
     monitor.debug(() -> "Polling for a job in state CREDS_AVAILABLE");
@@ -125,7 +231,7 @@ class JobPollingService extends AbstractScheduledService {
       return;
     }
     monitor.debug(() -> format("Found job %s", jobId));
-    Preconditions.checkState(!JobMetadata.isInitialized());
+    Preconditions.checkState(jobContext == null);
     WorkerKeyPair keyPair = transferKeyGenerator.generate();
     // TODO: Back up private key (keyPair.getPrivate()) in case this transfer worker dies mid-copy,
     // so we don't have to make the user start from scratch. Some options are to manage this key
@@ -142,6 +248,7 @@ class JobPollingService extends AbstractScheduledService {
                   "Updated job %s to CREDS_ENCRYPTION_KEY_GENERATED, publicKey length: %s",
                   jobId, keyPair.getEncodedPublicKey().length));
       stopwatch.start();
+      leaseStopwatch.reset().start();
     }
   }
 
@@ -188,9 +295,7 @@ class JobPollingService extends AbstractScheduledService {
     // instance polled the same job, and already claimed it, it will have updated the job's state
     // to CREDS_ENCRYPTION_KEY_GENERATED.
     try {
-      store.claimJob(
-          jobId,
-          updatedJob);
+      store.claimJob(jobId, updatedJob, leaseDuration);
 
       monitor.debug(() -> format("Stored updated job: tryToClaimJob: jobId: %s", existingJob));
     } catch (IllegalStateException | IOException e) {
@@ -205,19 +310,23 @@ class JobPollingService extends AbstractScheduledService {
       return false;
     }
 
-    if (monitor instanceof JobAwareMonitor) {
+    // The monitor is shared by the jobs of a worker processing several, their extensions add the
+    // job id to their events instead, see JobMonitor
+    if (!concurrentJobs && monitor instanceof JobAwareMonitor) {
       ((JobAwareMonitor) monitor).setJobId(jobId.toString());
     }
 
-    JobMetadata.init(
-        jobId,
-        keyPair.getEncodedPrivateKey(),
-        existingJob.transferDataType(),
-        existingJob.exportService(),
-        existingJob.importService(),
-        Stopwatch.createUnstarted());
+    jobContext =
+        new JobContext(
+            jobId,
+            updatedJob.jobAuthorization().instanceId(),
+            keyPair.getEncodedPrivateKey(),
+            existingJob.transferDataType(),
+            existingJob.exportService(),
+            existingJob.importService(),
+            Stopwatch.createUnstarted());
     monitor.debug(
-        () -> format("Stored updated job: tryToClaimJob: JobMetadata initialized: %s", jobId));
+        () -> format("Stored updated job: tryToClaimJob: JobContext created: %s", jobId));
 
     return true;
   }
@@ -227,7 +336,7 @@ class JobPollingService extends AbstractScheduledService {
    */
   private void pollUntilJobIsReady() {
     monitor.debug(() -> "pollUntilJobIsReady");
-    UUID jobId = JobMetadata.getJobId();
+    UUID jobId = jobContext.getJobId();
     PortabilityJob job = store.findJob(jobId);
     if (job == null) {
       monitor.severe(
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
 import javax.annotation.Nullable;
 import org.datatransferproject.api.launcher.DtpInternalMetricRecorder;
 import org.datatransferproject.api.launcher.Monitor;
@@ -39,6 +40,7 @@ import org.datatransferproject.spi.transfer.types.CopyExceptionWithFailureReason
 import org.datatransferproject.types.common.ExportInformation;
 import org.datatransferproject.types.transfer.auth.AuthData;
 import org.datatransferproject.types.transfer.auth.AuthDataPair;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
 import org.datatransferproject.types.transfer.errors.ErrorDetail;
 
 /**
@@ -55,9 +57,13 @@ final class JobProcessor {
   private final AuthDataDecryptService decryptService;
   private final Monitor monitor;
   private final DtpInternalMetricRecorder dtpInternalMetricRecorder;
+  private final JobContext jobContext;
+  private final CancellationToken cancellationToken;
 
   @Inject
   JobProcessor(
+      JobContext jobContext,
+      CancellationToken cancellationToken,
       JobStore store,
       JobHooks hooks,
       ObjectMapper objectMapper,
@@ -65,6 +71,8 @@ final class JobProcessor {
       AuthDataDecryptService decryptService,
       Monitor monitor,
       DtpInternalMetricRecorder dtpInternalMetricRecorder) {
+    this.jobContext = jobContext;
+    this.cancellationToken = cancellationToken;
     this.store = store;
     this.hooks = hooks;
     this.objectMapper = objectMapper;
@@ -74,10 +82,10 @@ final class JobProcessor {
     this.dtpInternalMetricRecorder = dtpInternalMetricRecorder;
   }
 
-  /** Process our job, whose metadata is available via {@link JobMetadata}. */
+  /** Process our job, whose metadata is available via its {@link JobContext}. */
   void processJob() {
     boolean success = false;
-    UUID jobId = JobMetadata.getJobId();
+    UUID jobId = jobContext.getJobId();
     monitor.debug(() -> format("Begin processing jobId: %s", jobId), EventCode.WORKER_JOB_STARTED);
     markJobStarted(jobId);
     hooks.jobStarted(jobId);
@@ -105,7 +113,7 @@ final class JobProcessor {
       }
 
       String encrypted = jobAuthorization.encryptedAuthData();
-      byte[] encodedPrivateKey = JobMetadata.getPrivateKey();
+      byte[] encodedPrivateKey = jobContext.getPrivateKey();
       AuthDataPair pair = decryptService.decrypt(encrypted, encodedPrivateKey);
       AuthData exportAuthData = objectMapper.readValue(pair.getExportAuthData(), AuthData.class);
       AuthData importAuthData = objectMapper.readValue(pair.getImportAuthData(), AuthData.class);
@@ -114,10 +122,10 @@ final class JobProcessor {
 
       // Copy the data
       dtpInternalMetricRecorder.startedJob(
-          JobMetadata.getDataType(),
-          JobMetadata.getExportService(),
-          JobMetadata.getImportService());
-      JobMetadata.getStopWatch().start();
+          jobContext.getDataType(),
+          jobContext.getExportService(),
+          jobContext.getImportService());
+      jobContext.getStopWatch().start();
       errors = copier.copy(exportAuthData, importAuthData, jobId, exportInfo);
       final int numErrors = errors.size();
       monitor.debug(
@@ -132,20 +140,24 @@ final class JobProcessor {
           e,
           EventCode.WORKER_JOB_ERRORED);
       addFailureReasonToJob(jobId, e.getFailureReason());
+    } catch (CancellationException e) {
+      monitor.info(() -> "Stopped processing canceled jobId: " + jobId);
     } catch (IOException | CopyException | RuntimeException e) {
       monitor.severe(() -> "Error processing jobId: " + jobId, e, EventCode.WORKER_JOB_ERRORED);
     } finally {
       monitor.debug(() -> "Finished processing jobId: " + jobId, EventCode.WORKER_JOB_FINISHED);
-      addErrorsAndMarkJobFinished(jobId, success, errors);
+      if (!cancellationToken.isCanceled()) {
+        // A canceled job keeps its state
+        addErrorsAndMarkJobFinished(jobId, success, errors);
+      }
       hooks.jobFinished(jobId, success);
       dtpInternalMetricRecorder.finishedJob(
-          JobMetadata.getDataType(),
-          JobMetadata.getExportService(),
-          JobMetadata.getImportService(),
+          jobContext.getDataType(),
+          jobContext.getExportService(),
+          jobContext.getImportService(),
           success,
-          JobMetadata.getStopWatch().elapsed());
+          jobContext.getStopWatch().elapsed());
       monitor.flushLogs();
-      JobMetadata.reset();
     }
   }
 
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.Clock;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
+import org.datatransferproject.types.transfer.errors.ErrorDetail;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
+import org.datatransferproject.types.transfer.retry.RetryException;
+import org.datatransferproject.types.transfer.retry.RetryStrategyLibrary;
+import org.datatransferproject.types.transfer.retry.RetryingCallable;
+
+/**
+ * An {@link IdempotentImportExecutor} handed to the importer for a single page of data. All calls
+ * go to the job's executor, but {@link #getErrors()} only reports errors of the items attempted
+ * while importing this page, so a permanently failing item doesn't fail every later page.
+ *
+ * <p>If a {@link RetryStrategyLibrary} is given, each item is retried on its own following that
+ * library before it is recorded as an error, so an import attempt doesn't have to be repeated for
+ * the whole page. Items already imported are served from the job's executor without calling the
+ * importer's callable again.
+ *
+ * <p>Once the job is canceled, the next item the importer executes fails with a {@link
+ * CancellationException}, so importers stop between two items without having to check for
+ * cancellation themselves.
+ */
+final class PageScopedIdempotentImportExecutor implements IdempotentImportExecutor {
+
+  private final IdempotentImportExecutor delegate;
+  private final JobContext jobContext;
+  @Nullable private final RetryStrategyLibrary itemRetryStrategyLibrary;
+  private final CancellationToken cancellationToken;
+  private final Monitor monitor;
+  private final Set<String> attemptedIds = ConcurrentHashMap.newKeySet();
+
+  PageScopedIdempotentImportExecutor(
+      IdempotentImportExecutor delegate,
+      JobContext jobContext,
+      @Nullable RetryStrategyLibrary itemRetryStrategyLibrary,
+      CancellationToken cancellationToken,
+      Monitor monitor) {
+    this.delegate = delegate;
+    this.jobContext = jobContext;
+    this.itemRetryStrategyLibrary = itemRetryStrategyLibrary;
+    this.cancellationToken = cancellationToken;
+    this.monitor = monitor;
+  }
+
+  @Override
+  public <T extends Serializable> T executeAndSwallowIOExceptions(
+      String idempotentId, String itemName, Callable<T> callable) throws Exception {
+    cancellationToken.throwIfCanceled();
+    attemptedIds.add(idempotentId);
+    return delegate.executeAndSwallowIOExceptions(idempotentId, itemName, retrying(callable));
+  }
+
+  @Override
+  public <T extends Serializable> T executeOrThrowException(
+      String idempotentId, String itemName, Callable<T> callable) throws Exception {
+    cancellationToken.throwIfCanceled();
+    attemptedIds.add(idempotentId);
+    return delegate.executeOrThrowException(idempotentId, itemName, retrying(callable));
+  }
+
+  @Override
+  public <T extends Serializable> T getCachedValue(String idempotentId) {
+    return delegate.getCachedValue(idempotentId);
+  }
+
+  @Override
+  public boolean isKeyCached(String idempotentId) {
+    return delegate.isKeyCached(idempotentId);
+  }
+
+  /** Returns the errors of the items attempted on this page that weren't subsequently successful. */
+  @Override
+  public Collection<ErrorDetail> getErrors() {
+    ImmutableList.Builder<ErrorDetail> pageErrors = ImmutableList.builder();
+    for (ErrorDetail error : delegate.getErrors()) {
+      if (attemptedIds.contains(error.id())) {
+        pageErrors.add(error);
+      }
+    }
+    return pageErrors.build();
+  }
+
+  @Override
+  public void setJobId(UUID jobId) {
+    delegate.setJobId(jobId);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    delegate.flush();
+  }
+
+  /**
+   * Wraps {@code callable} so it is retried following the item retry strategy. Once the retries
+   * are exhausted the last exception is rethrown as is, so IOExceptions are still swallowed by
+   * {@link #executeAndSwallowIOExceptions}.
+   */
+  private <T> Callable<T> retrying(Callable<T> callable) {
+    if (itemRetryStrategyLibrary == null) {
+      return callable;
+    }
+    RetryingCallable<T> retryingCallable =
+        new RetryingCallable<>(
+            callable,
+            itemRetryStrategyLibrary,
+            Clock.systemUTC(),
+            monitor,
+            jobContext.getDataType(),
+            jobContext.getImportService(),
+            cancellationToken);
+    return () -> {
+      try {
+        return retryingCallable.call();
+      } catch (RetryException e) {
+        throw e.getCause();
+      }
+    };
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import com.google.common.base.Preconditions;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Waits between two polls of the job store. The wait starts at the minimum interval and doubles
+ * with every idle poll up to the maximum interval, so idle workers don't keep reading the store.
+ * Waits are jittered so workers started together don't poll in lockstep, and end early when the
+ * poller is woken up by a job update.
+ */
+final class PollingBackoff {
+  // Waits are randomly shortened or lengthened by up to this fraction
+  private static final double JITTER = 0.2;
+
+  private final long minIntervalMillis;
+  private final long maxIntervalMillis;
+  // Guarded by this
+  private long intervalMillis;
+  private boolean woken;
+
+  PollingBackoff(long minIntervalMillis, long maxIntervalMillis) {
+    Preconditions.checkArgument(minIntervalMillis > 0, "min interval must be positive");
+    Preconditions.checkArgument(
+        maxIntervalMillis >= minIntervalMillis, "max interval must not be below min interval");
+    this.minIntervalMillis = minIntervalMillis;
+    this.maxIntervalMillis = maxIntervalMillis;
+    this.intervalMillis = minIntervalMillis;
+  }
+
+  /** Polls again after the minimum interval, called once a poll made progress. */
+  synchronized void reset() {
+    intervalMillis = minIntervalMillis;
+  }
+
+  /** Ends the current or the next wait early. */
+  synchronized void wake() {
+    woken = true;
+    notifyAll();
+  }
+
+  /** Waits until the next poll is due, doubling the interval for the following wait. */
+  synchronized void await() throws InterruptedException {
+    long jitter = (long) (intervalMillis * JITTER * ThreadLocalRandom.current().nextDouble(-1, 1));
+    long deadline = System.currentTimeMillis() + intervalMillis + jitter;
+    intervalMillis = Math.min(maxIntervalMillis, intervalMillis * 2);
+    long remaining = deadline - System.currentTimeMillis();
+    while (!woken && remaining > 0) {
+      wait(remaining);
+      remaining = deadline - System.currentTimeMillis();
+    }
+    woken = false;
+  }
+}
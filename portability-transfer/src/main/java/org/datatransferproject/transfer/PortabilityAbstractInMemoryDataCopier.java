@@ -0,0 +1,283 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import static java.lang.String.format;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Provider;
+import java.time.Clock;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.datatransferproject.api.launcher.DtpInternalMetricRecorder;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.launcher.monitor.events.EventCode;
+import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
+import org.datatransferproject.spi.transfer.provider.ExportResult;
+import org.datatransferproject.spi.transfer.provider.Exporter;
+import org.datatransferproject.spi.transfer.provider.ImportResult;
+import org.datatransferproject.spi.transfer.provider.Importer;
+import org.datatransferproject.spi.transfer.types.ContinuationData;
+import org.datatransferproject.spi.transfer.types.CopyException;
+import org.datatransferproject.spi.transfer.types.CopyExceptionWithFailureReason;
+import org.datatransferproject.types.common.ExportInformation;
+import org.datatransferproject.types.common.models.ContainerResource;
+import org.datatransferproject.types.transfer.auth.AuthData;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
+import org.datatransferproject.types.transfer.retry.RetryException;
+import org.datatransferproject.types.transfer.retry.RetryStrategyLibrary;
+import org.datatransferproject.types.transfer.retry.RetryingCallable;
+
+/**
+ * Base class for {@link InMemoryDataCopier} implementations, holding the logic to export and import
+ * a single page of data. Subclasses decide how the pages of a job are scheduled.
+ *
+ * <p>Once the job's {@link CancellationToken} is canceled, no further page or item is copied and
+ * the copy fails with a {@link CancellationException}.
+ */
+abstract class PortabilityAbstractInMemoryDataCopier implements InMemoryDataCopier {
+
+  private static final AtomicInteger COPY_ITERATION_COUNTER = new AtomicInteger();
+
+  /** Lazy evaluate exporter and importer as they are only needed once data is copied. */
+  private final Provider<Exporter> exporterProvider;
+
+  private final Provider<Importer> importerProvider;
+  private final Provider<RetryStrategyLibrary> retryStrategyLibraryProvider;
+  private final DtpInternalMetricRecorder metricRecorder;
+  private final JobCountsFlushingService jobCounts;
+  private final JobContext jobContext;
+  private final CancellationToken cancellationToken;
+  private final boolean itemLevelImportRetry;
+  protected final IdempotentImportExecutor idempotentImportExecutor;
+  protected final Monitor monitor;
+
+  PortabilityAbstractInMemoryDataCopier(
+      Provider<Exporter> exporterProvider,
+      Provider<Importer> importerProvider,
+      Provider<RetryStrategyLibrary> retryStrategyLibraryProvider,
+      Monitor monitor,
+      IdempotentImportExecutor idempotentImportExecutor,
+      DtpInternalMetricRecorder dtpInternalMetricRecorder,
+      JobCountsFlushingService jobCounts,
+      JobContext jobContext,
+      CancellationToken cancellationToken,
+      boolean itemLevelImportRetry) {
+    this.exporterProvider = exporterProvider;
+    this.importerProvider = importerProvider;
+    this.retryStrategyLibraryProvider = retryStrategyLibraryProvider;
+    this.monitor = monitor;
+    this.idempotentImportExecutor = idempotentImportExecutor;
+    this.metricRecorder = dtpInternalMetricRecorder;
+    this.jobCounts = jobCounts;
+    this.jobContext = jobContext;
+    this.cancellationToken = cancellationToken;
+    this.itemLevelImportRetry = itemLevelImportRetry;
+  }
+
+  /** Returns a new, process-wide unique number identifying a copy iteration in the logs. */
+  static int nextCopyIteration() {
+    return COPY_ITERATION_COUNTER.incrementAndGet();
+  }
+
+  static String jobIdPrefix(UUID jobId) {
+    return "Job " + jobId + ": ";
+  }
+
+  /**
+   * Exports and then imports a single page of data.
+   *
+   * @return the {@link ExportResult} of the page, whose {@link ContinuationData} describes the
+   *     work remaining after this page
+   */
+  protected ExportResult<?> copyIteration(
+      UUID jobId,
+      AuthData exportAuthData,
+      AuthData importAuthData,
+      Optional<ExportInformation> exportInformation,
+      int copyIteration)
+      throws CopyException {
+    // NOTE: order is important below, do the import of all the items, then do continuation
+    // then do sub resources, this ensures all parents are populated before children get
+    // processed.
+    ExportResult<?> exportResult =
+        exportIteration(jobId, exportAuthData, exportInformation, copyIteration);
+    importIteration(jobId, importAuthData, exportResult, copyIteration);
+    return exportResult;
+  }
+
+  /**
+   * Exports a single page of data starting at the point specified in the provided {@code
+   * exportInformation}.
+   */
+  protected ExportResult<?> exportIteration(
+      UUID jobId,
+      AuthData exportAuthData,
+      Optional<ExportInformation> exportInformation,
+      int copyIteration)
+      throws CopyException {
+    cancellationToken.throwIfCanceled();
+    String jobIdPrefix = jobIdPrefix(jobId);
+    monitor.debug(() -> jobIdPrefix + "Copy iteration: " + copyIteration);
+    monitor.debug(
+        () -> jobIdPrefix + "Starting export, copy iteration: " + copyIteration,
+        EventCode.COPIER_STARTED_EXPORT);
+    CallableExporter callableExporter =
+        new CallableExporter(
+            exporterProvider, jobContext, exportAuthData, exportInformation, metricRecorder);
+    RetryingCallable<ExportResult> retryingExporter =
+        new RetryingCallable<>(
+            callableExporter,
+            retryStrategyLibraryProvider.get(),
+            Clock.systemUTC(),
+            monitor,
+            jobContext.getDataType(),
+            jobContext.getExportService(),
+            cancellationToken);
+    ExportResult<?> exportResult;
+    boolean exportSuccess = false;
+    Stopwatch exportStopwatch = Stopwatch.createStarted();
+    try {
+      exportResult = retryingExporter.call();
+      exportSuccess = exportResult.getType() != ExportResult.ResultType.ERROR;
+    } catch (CancellationException e) {
+      throw e;
+    } catch (RetryException | RuntimeException e) {
+      if (e.getClass() == RetryException.class
+          && CopyExceptionWithFailureReason.class.isAssignableFrom(e.getCause().getClass())) {
+        throw (CopyExceptionWithFailureReason) e.getCause();
+      }
+      throw new CopyException(jobIdPrefix + "Error happened during export", e);
+    } finally {
+      metricRecorder.exportPageFinished(
+          jobContext.getDataType(),
+          jobContext.getExportService(),
+          exportSuccess,
+          exportStopwatch.elapsed());
+    }
+    monitor.debug(
+        () -> jobIdPrefix + "Finished export, copy iteration: " + copyIteration,
+        EventCode.COPIER_FINISHED_EXPORT);
+    return exportResult;
+  }
+
+  /**
+   * Imports the data held by {@code exportResult}, if any. Failures that don't carry a failure
+   * reason are logged and swallowed so the rest of the job can continue.
+   *
+   * <p>Only the errors of items on this page cause the import of the page to be retried. With
+   * item level import retries the failing items are retried on their own instead, and the page
+   * is only retried if the importer itself fails.
+   */
+  protected void importIteration(
+      UUID jobId, AuthData importAuthData, ExportResult<?> exportResult, int copyIteration)
+      throws CopyException {
+    if (exportResult.getExportedData() == null) {
+      return;
+    }
+    cancellationToken.throwIfCanceled();
+    String jobIdPrefix = jobIdPrefix(jobId);
+    monitor.debug(
+        () -> jobIdPrefix + "Starting import, copy iteration: " + copyIteration,
+        EventCode.COPIER_STARTED_IMPORT);
+    RetryStrategyLibrary retryStrategyLibrary = retryStrategyLibraryProvider.get();
+    IdempotentImportExecutor pageExecutor =
+        new PageScopedIdempotentImportExecutor(
+            idempotentImportExecutor,
+            jobContext,
+            itemLevelImportRetry ? retryStrategyLibrary : null,
+            cancellationToken,
+            monitor);
+    CallableImporter callableImporter =
+        new CallableImporter(
+            importerProvider,
+            jobContext,
+            pageExecutor,
+            importAuthData,
+            exportResult.getExportedData(),
+            metricRecorder,
+            !itemLevelImportRetry);
+    RetryingCallable<ImportResult> retryingImporter =
+        new RetryingCallable<>(
+            callableImporter,
+            retryStrategyLibrary,
+            Clock.systemUTC(),
+            monitor,
+            jobContext.getDataType(),
+            jobContext.getImportService(),
+            cancellationToken);
+    boolean importSuccess = false;
+    Stopwatch importStopwatch = Stopwatch.createStarted();
+    try {
+      ImportResult importResult = retryingImporter.call();
+      importSuccess = importResult.getType() == ImportResult.ResultType.OK;
+      if (importSuccess) {
+        jobCounts.add(
+            importResult.getCounts().orElse(null), importResult.getBytes().orElse(null));
+      }
+    } catch (CancellationException e) {
+      throw e;
+    } catch (RetryException | RuntimeException e) {
+      monitor.severe(() -> format("Got error importing data: %s", e), e);
+      if (e.getClass() == RetryException.class
+          && CopyExceptionWithFailureReason.class.isAssignableFrom(e.getCause().getClass())) {
+        throw (CopyExceptionWithFailureReason) e.getCause();
+      }
+    } finally {
+      metricRecorder.importPageFinished(
+          jobContext.getDataType(),
+          jobContext.getImportService(),
+          importSuccess,
+          importStopwatch.elapsed());
+    }
+    monitor.debug(
+        () -> jobIdPrefix + "Finished import, copy iteration: " + copyIteration,
+        EventCode.COPIER_FINISHED_IMPORT);
+  }
+
+  /**
+   * Returns the work that follows a page, in the order it must be processed: the next page of the
+   * current resource first, then each of the sub-resources.
+   *
+   * @param exportInformation the information the page was exported with
+   * @param continuationData the continuation returned by the export of the page, may be null
+   */
+  static List<ExportInformation> getFollowUps(
+      Optional<ExportInformation> exportInformation, ContinuationData continuationData) {
+    ImmutableList.Builder<ExportInformation> followUps = ImmutableList.builder();
+    if (null == continuationData) {
+      return followUps.build();
+    }
+    if (null != continuationData.getPaginationData()) {
+      followUps.add(
+          new ExportInformation(
+              continuationData.getPaginationData(),
+              exportInformation.isPresent()
+                  ? exportInformation.get().getContainerResource()
+                  : null));
+    }
+    if (continuationData.getContainerResources() != null) {
+      for (ContainerResource resource : continuationData.getContainerResources()) {
+        followUps.add(new ExportInformation(null, resource));
+      }
+    }
+    return followUps.build();
+  }
+}
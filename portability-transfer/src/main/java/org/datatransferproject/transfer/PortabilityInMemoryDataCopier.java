@@ -15,54 +15,37 @@
  */
 package org.datatransferproject.transfer;
 
-import static java.lang.String.format;
-
-import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
 import com.google.inject.Provider;
 import java.io.IOException;
-import java.time.Clock;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import org.datatransferproject.api.launcher.DtpInternalMetricRecorder;
 import org.datatransferproject.api.launcher.Monitor;
-import org.datatransferproject.launcher.monitor.events.EventCode;
-import org.datatransferproject.spi.cloud.storage.JobStore;
 import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
 import org.datatransferproject.spi.transfer.provider.ExportResult;
 import org.datatransferproject.spi.transfer.provider.Exporter;
-import org.datatransferproject.spi.transfer.provider.ImportResult;
 import org.datatransferproject.spi.transfer.provider.Importer;
-import org.datatransferproject.spi.transfer.types.ContinuationData;
 import org.datatransferproject.spi.transfer.types.CopyException;
-import org.datatransferproject.spi.transfer.types.CopyExceptionWithFailureReason;
 import org.datatransferproject.types.common.ExportInformation;
-import org.datatransferproject.types.common.models.ContainerResource;
 import org.datatransferproject.types.transfer.auth.AuthData;
 import org.datatransferproject.types.transfer.errors.ErrorDetail;
-import org.datatransferproject.types.transfer.retry.RetryException;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
 import org.datatransferproject.types.transfer.retry.RetryStrategyLibrary;
-import org.datatransferproject.types.transfer.retry.RetryingCallable;
-
-/** Implementation of {@link InMemoryDataCopier}. */
-final class PortabilityInMemoryDataCopier implements InMemoryDataCopier {
-
-  private static final AtomicInteger COPY_ITERATION_COUNTER = new AtomicInteger();
 
-  /**
-   * Lazy evaluate exporter and importer as their providers depend on the polled {@code
-   * PortabilityJob} which is not available at startup.
-   */
-  private final Provider<Exporter> exporterProvider;
+/**
+ * Implementation of {@link InMemoryDataCopier} that copies one page at a time.
+ *
+ * <p>The pages still to copy are kept in an explicit work queue rather than on the call stack, so
+ * memory use doesn't grow with the number of pages of an account.
+ */
+final class PortabilityInMemoryDataCopier extends PortabilityAbstractInMemoryDataCopier {
 
-  private final Provider<Importer> importerProvider;
-  private final IdempotentImportExecutor idempotentImportExecutor;
-  private final Provider<RetryStrategyLibrary> retryStrategyLibraryProvider;
-  private final Monitor monitor;
-  private final DtpInternalMetricRecorder metricRecorder;
-  private final JobStore jobStore;
+  private final JobCountsFlushingService jobCounts;
 
   @Inject
   public PortabilityInMemoryDataCopier(
@@ -72,170 +55,69 @@ final class PortabilityInMemoryDataCopier implements InMemoryDataCopier {
       Monitor monitor,
       IdempotentImportExecutor idempotentImportExecutor,
       DtpInternalMetricRecorder dtpInternalMetricRecorder,
-      JobStore jobStore) {
-    this.exporterProvider = exporterProvider;
-    this.importerProvider = importerProvider;
-    this.retryStrategyLibraryProvider = retryStrategyLibraryProvider;
-    this.monitor = monitor;
-    this.idempotentImportExecutor = idempotentImportExecutor;
-    this.metricRecorder = dtpInternalMetricRecorder;
-    this.jobStore = jobStore;
-  }
-
-  /** Kicks off transfer job {@code jobId} from {@code exporter} to {@code importer}. */
-  @Override
-  public Collection<ErrorDetail> copy(
-      AuthData exportAuthData,
-      AuthData importAuthData,
-      UUID jobId,
-      Optional<ExportInformation> exportInfo)
-      throws IOException, CopyException {
-    idempotentImportExecutor.setJobId(jobId);
-    return copyHelper(jobId, exportAuthData, importAuthData, exportInfo);
+      JobCountsFlushingService jobCounts,
+      JobContext jobContext,
+      CancellationToken cancellationToken,
+      @Annotations.ItemLevelImportRetry boolean itemLevelImportRetry) {
+    super(
+        exporterProvider,
+        importerProvider,
+        retryStrategyLibraryProvider,
+        monitor,
+        idempotentImportExecutor,
+        dtpInternalMetricRecorder,
+        jobCounts,
+        jobContext,
+        cancellationToken,
+        itemLevelImportRetry);
+    this.jobCounts = jobCounts;
   }
 
   /**
    * Transfers data from the given {@code exporter} optionally starting at the point specified in
-   * the provided {@code exportInformation}. Imports the data using the provided {@code importer}.
-   * If there is more data to required to be exported, recursively copies using the specific {@link
+   * the provided {@code exportInfo}. Imports the data using the provided {@code importer}. If
+   * there is more data to required to be exported, queues up the specific {@link
    * ExportInformation} to continue the process.
    *
    * @param exportAuthData The auth data for the export
    * @param importAuthData The auth data for the import
-   * @param exportInformation Any pagination or resource information to use for subsequent calls.
+   * @param exportInfo Any pagination or resource information to start the copy with.
    */
-  private Collection<ErrorDetail> copyHelper(
-      UUID jobId,
+  @Override
+  public Collection<ErrorDetail> copy(
       AuthData exportAuthData,
       AuthData importAuthData,
-      Optional<ExportInformation> exportInformation)
-      throws CopyException {
-
-    String jobIdPrefix = "Job " + jobId + ": ";
-    final int copyIteration = COPY_ITERATION_COUNTER.incrementAndGet();
-    monitor.debug(() -> jobIdPrefix + "Copy iteration: " + copyIteration);
-
-    RetryStrategyLibrary retryStrategyLibrary = retryStrategyLibraryProvider.get();
-
-    // NOTE: order is important below, do the import of all the items, then do continuation
-    // then do sub resources, this ensures all parents are populated before children get
-    // processed.
-    monitor.debug(
-        () -> jobIdPrefix + "Starting export, copy iteration: " + copyIteration,
-        EventCode.COPIER_STARTED_EXPORT);
-    CallableExporter callableExporter =
-        new CallableExporter(
-            exporterProvider, jobId, exportAuthData, exportInformation, metricRecorder);
-    RetryingCallable<ExportResult> retryingExporter =
-        new RetryingCallable<>(callableExporter, retryStrategyLibrary, Clock.systemUTC(), monitor, JobMetadata.getDataType(), JobMetadata.getExportService());
-    ExportResult<?> exportResult;
-    boolean exportSuccess = false;
-    Stopwatch exportStopwatch = Stopwatch.createStarted();
-    try {
-      exportResult = retryingExporter.call();
-      exportSuccess = exportResult.getType() != ExportResult.ResultType.ERROR;
-    } catch (RetryException | RuntimeException e) {
-      if (e.getClass() == RetryException.class
-          && CopyExceptionWithFailureReason.class.isAssignableFrom(e.getCause().getClass())) {
-        throw (CopyExceptionWithFailureReason) e.getCause();
-      }
-      throw new CopyException(jobIdPrefix + "Error happened during export", e);
-    } finally {
-      metricRecorder.exportPageFinished(
-          JobMetadata.getDataType(),
-          JobMetadata.getExportService(),
-          exportSuccess,
-          exportStopwatch.elapsed());
-    }
-    monitor.debug(
-        () -> jobIdPrefix + "Finished export, copy iteration: " + copyIteration,
-        EventCode.COPIER_FINISHED_EXPORT);
-
-    if (exportResult.getExportedData() != null) {
-      monitor.debug(
-          () -> jobIdPrefix + "Starting import, copy iteration: " + copyIteration,
-          EventCode.COPIER_STARTED_IMPORT);
-      CallableImporter callableImporter =
-          new CallableImporter(
-              importerProvider,
-              jobId,
-              idempotentImportExecutor,
-              importAuthData,
-              exportResult.getExportedData(),
-              metricRecorder);
-      RetryingCallable<ImportResult> retryingImporter =
-          new RetryingCallable<>(
-              callableImporter, retryStrategyLibrary, Clock.systemUTC(), monitor, JobMetadata.getDataType(), JobMetadata.getImportService());
-      boolean importSuccess = false;
-      Stopwatch importStopwatch = Stopwatch.createStarted();
-      try {
-        ImportResult importResult = retryingImporter.call();
-        importSuccess = importResult.getType() == ImportResult.ResultType.OK;
-        if (importSuccess) {
-          try {
-            jobStore.addCounts(jobId, importResult.getCounts().orElse(null));
-            jobStore.addBytes(jobId, importResult.getBytes().orElse(null));
-          } catch (IOException e) {
-            monitor.debug(() -> jobIdPrefix + "Unable to add counts to job: ", e);
-          }
-        }
-      } catch (RetryException | RuntimeException e) {
-        monitor.severe(() -> format("Got error importing data: %s", e), e);
-        if (e.getClass() == RetryException.class
-            && CopyExceptionWithFailureReason.class.isAssignableFrom(e.getCause().getClass())) {
-          throw (CopyExceptionWithFailureReason) e.getCause();
-        }
-      } finally {
-        metricRecorder.importPageFinished(
-            JobMetadata.getDataType(),
-            JobMetadata.getImportService(),
-            importSuccess,
-            importStopwatch.elapsed());
+      UUID jobId,
+      Optional<ExportInformation> exportInfo)
+      throws IOException, CopyException {
+    idempotentImportExecutor.setJobId(jobId);
+    String jobIdPrefix = jobIdPrefix(jobId);
+
+    Deque<Optional<ExportInformation>> pending = new ArrayDeque<>();
+    pending.push(exportInfo);
+
+    while (!pending.isEmpty()) {
+      Optional<ExportInformation> exportInformation = pending.pop();
+      int copyIteration = nextCopyIteration();
+      ExportResult<?> exportResult =
+          copyIteration(jobId, exportAuthData, importAuthData, exportInformation, copyIteration);
+
+      // Import and Export were successful, determine what to do next: process the next page of
+      // items for the resource, then start processing sub-resources. Pushed in reverse so they are
+      // popped in that order.
+      for (ExportInformation followUp :
+          Lists.reverse(getFollowUps(exportInformation, exportResult.getContinuationData()))) {
+        pending.push(Optional.of(followUp));
       }
+      int pendingCount = pending.size();
+      jobCounts.setPendingIterations(pendingCount);
       monitor.debug(
-          () -> jobIdPrefix + "Finished import, copy iteration: " + copyIteration,
-          EventCode.COPIER_FINISHED_IMPORT);
-    }
-
-    // Import and Export were successful, determine what to do next
-    ContinuationData continuationData = exportResult.getContinuationData();
-
-    if (null != continuationData) {
-      // Process the next page of items for the resource
-      if (null != continuationData.getPaginationData()) {
-        monitor.debug(
-            () ->
-                jobIdPrefix
-                    + "Starting off a new copy iteration with pagination info, copy iteration: "
-                    + copyIteration);
-        copyHelper(
-            jobId,
-            exportAuthData,
-            importAuthData,
-            Optional.of(
-                new ExportInformation(
-                    continuationData.getPaginationData(),
-                    exportInformation.isPresent()
-                        ? exportInformation.get().getContainerResource()
-                        : null)));
-      }
-
-      // Start processing sub-resources
-      if (continuationData.getContainerResources() != null
-          && !continuationData.getContainerResources().isEmpty()) {
-        for (ContainerResource resource : continuationData.getContainerResources()) {
-          monitor.debug(
-              () ->
-                  jobIdPrefix
-                      + "Starting off a new copy iteration with a new container resource, copy iteration: "
-                      + copyIteration);
-          copyHelper(
-              jobId,
-              exportAuthData,
-              importAuthData,
-              Optional.of(new ExportInformation(null, resource)));
-        }
-      }
+          () ->
+              jobIdPrefix
+                  + "Finished copy iteration: "
+                  + copyIteration
+                  + ", pending iterations: "
+                  + pendingCount);
     }
     return idempotentImportExecutor.getErrors();
   }
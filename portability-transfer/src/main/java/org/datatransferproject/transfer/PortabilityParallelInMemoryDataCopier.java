@@ -0,0 +1,222 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Provider;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Inject;
+import org.datatransferproject.api.launcher.DtpInternalMetricRecorder;
+import org.datatransferproject.api.launcher.ExtensionContext;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.spi.transfer.extension.TransferExtension;
+import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
+import org.datatransferproject.spi.transfer.provider.ExportResult;
+import org.datatransferproject.spi.transfer.provider.Exporter;
+import org.datatransferproject.spi.transfer.provider.Importer;
+import org.datatransferproject.spi.transfer.types.CopyException;
+import org.datatransferproject.types.common.ExportInformation;
+import org.datatransferproject.types.transfer.auth.AuthData;
+import org.datatransferproject.types.transfer.errors.ErrorDetail;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
+import org.datatransferproject.types.transfer.retry.RetryStrategyLibrary;
+
+/**
+ * An {@link InMemoryDataCopier} that copies independent container resources (albums, calendars,
+ * playlists, ...) in parallel on a pool of {@code copierParallelism} threads.
+ *
+ * <p>Each resource is copied by a task that walks the resource's pagination chain in order and
+ * only then queues a task per sub-resource, so all pages of a parent are imported before any of its
+ * children, and sibling resources are started in the order they were exported. Exporters and
+ * importers share their service's per user rate limiter across tasks, so the rate limits
+ * configured in {@code config/[service].yaml} still apply to the job as a whole.
+ *
+ * <p>The exporter and importer used for the job are called from several threads concurrently, so
+ * the copier is only used for services whose {@link TransferExtension#isThreadSafe} says they
+ * support it, see {@link JobModule}. The first failure stops the copy, the tasks still running
+ * finish their current page.
+ */
+final class PortabilityParallelInMemoryDataCopier extends PortabilityAbstractInMemoryDataCopier {
+
+  private final int parallelism;
+
+  @Inject
+  public PortabilityParallelInMemoryDataCopier(
+      Provider<Exporter> exporterProvider,
+      Provider<Importer> importerProvider,
+      Provider<RetryStrategyLibrary> retryStrategyLibraryProvider,
+      Monitor monitor,
+      IdempotentImportExecutor idempotentImportExecutor,
+      DtpInternalMetricRecorder dtpInternalMetricRecorder,
+      JobCountsFlushingService jobCounts,
+      JobContext jobContext,
+      CancellationToken cancellationToken,
+      @Annotations.ItemLevelImportRetry boolean itemLevelImportRetry,
+      ExtensionContext context) {
+    super(
+        exporterProvider,
+        importerProvider,
+        retryStrategyLibraryProvider,
+        monitor,
+        idempotentImportExecutor,
+        dtpInternalMetricRecorder,
+        jobCounts,
+        jobContext,
+        cancellationToken,
+        itemLevelImportRetry);
+    this.parallelism = context.getSetting("copierParallelism", 4);
+    Preconditions.checkArgument(
+        parallelism > 0, "copierParallelism must be positive: %s", parallelism);
+  }
+
+  /** Kicks off transfer job {@code jobId} from {@code exporter} to {@code importer}. */
+  @Override
+  public Collection<ErrorDetail> copy(
+      AuthData exportAuthData,
+      AuthData importAuthData,
+      UUID jobId,
+      Optional<ExportInformation> exportInfo)
+      throws IOException, CopyException {
+    idempotentImportExecutor.setJobId(jobId);
+    String jobIdPrefix = jobIdPrefix(jobId);
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            parallelism,
+            new ThreadFactoryBuilder()
+                .setNameFormat("copier-" + jobId + "-%d")
+                .setDaemon(true)
+                .build());
+    try {
+      JobCopy jobCopy = new JobCopy(jobId, exportAuthData, importAuthData, pool);
+      jobCopy.submit(exportInfo);
+      jobCopy.done.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CopyException(jobIdPrefix + "Interrupted while copying", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CancellationException) {
+        throw (CancellationException) cause;
+      }
+      if (cause instanceof CopyException) {
+        throw (CopyException) cause;
+      }
+      throw new CopyException(jobIdPrefix + "Error happened during copy", cause);
+    } finally {
+      pool.shutdownNow();
+    }
+    return idempotentImportExecutor.getErrors();
+  }
+
+  /** The tasks copying the resources of a job, done once all are or the first one failed. */
+  private final class JobCopy {
+    private final UUID jobId;
+    private final AuthData exportAuthData;
+    private final AuthData importAuthData;
+    private final ExecutorService pool;
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private JobCopy(
+        UUID jobId, AuthData exportAuthData, AuthData importAuthData, ExecutorService pool) {
+      this.jobId = jobId;
+      this.exportAuthData = exportAuthData;
+      this.importAuthData = importAuthData;
+      this.pool = pool;
+    }
+
+    /** Queues a task copying the resource described by {@code exportInformation}. */
+    private void submit(Optional<ExportInformation> exportInformation) {
+      pendingTasks.incrementAndGet();
+      try {
+        pool.execute(() -> run(exportInformation));
+      } catch (RejectedExecutionException e) {
+        // The copy is over, either failed or interrupted
+        taskDone();
+      }
+    }
+
+    private void run(Optional<ExportInformation> exportInformation) {
+      try {
+        copyResource(exportInformation);
+      } catch (CopyException | RuntimeException e) {
+        done.completeExceptionally(e);
+      } finally {
+        taskDone();
+      }
+    }
+
+    private void taskDone() {
+      // Sub-resources are queued before their parent's task is done, so this only reaches 0 once
+      // every resource is copied
+      if (pendingTasks.decrementAndGet() == 0) {
+        done.complete(null);
+      }
+    }
+
+    /** Copies all pages of a resource, then queues a task per sub-resource. */
+    private void copyResource(Optional<ExportInformation> exportInformation)
+        throws CopyException {
+      String jobIdPrefix = jobIdPrefix(jobId);
+      List<ExportInformation> subResources = new ArrayList<>();
+      Optional<ExportInformation> page = exportInformation;
+      // Walks the pagination chain of the resource, sub-resources are collected on the way
+      do {
+        if (done.isDone()) {
+          // Another task failed
+          return;
+        }
+        int copyIteration = nextCopyIteration();
+        ExportResult<?> exportResult =
+            copyIteration(jobId, exportAuthData, importAuthData, page, copyIteration);
+        Optional<ExportInformation> nextPage = Optional.empty();
+        for (ExportInformation followUp :
+            getFollowUps(page, exportResult.getContinuationData())) {
+          if (followUp.getPaginationData() != null) {
+            nextPage = Optional.of(followUp);
+          } else {
+            subResources.add(followUp);
+          }
+        }
+        page = nextPage;
+      } while (page.isPresent());
+      if (!subResources.isEmpty()) {
+        monitor.debug(
+            () ->
+                jobIdPrefix
+                    + "Starting off "
+                    + subResources.size()
+                    + " new copy tasks for sub-resources");
+        for (ExportInformation subResource : subResources) {
+          submit(Optional.of(subResource));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Provider;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.inject.Inject;
+import org.datatransferproject.api.launcher.DtpInternalMetricRecorder;
+import org.datatransferproject.api.launcher.ExtensionContext;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
+import org.datatransferproject.spi.transfer.provider.ExportResult;
+import org.datatransferproject.spi.transfer.provider.Exporter;
+import org.datatransferproject.spi.transfer.provider.Importer;
+import org.datatransferproject.spi.transfer.types.CopyException;
+import org.datatransferproject.types.common.ExportInformation;
+import org.datatransferproject.types.transfer.auth.AuthData;
+import org.datatransferproject.types.transfer.errors.ErrorDetail;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
+import org.datatransferproject.types.transfer.retry.RetryStrategyLibrary;
+
+/**
+ * An {@link InMemoryDataCopier} that runs export and import as two pipeline stages connected by a
+ * bounded queue, so the next page is exported while the previous one is being imported.
+ *
+ * <p>Pages are exported in the same order as {@link PortabilityInMemoryDataCopier} processes them
+ * and are imported in the order they were exported, so all parents are still imported before
+ * their children. The export stage runs at most {@code copierPipelineDepth} pages ahead of the
+ * import stage.
+ */
+final class PortabilityPipelinedInMemoryDataCopier extends PortabilityAbstractInMemoryDataCopier {
+
+  private final int pipelineDepth;
+
+  @Inject
+  public PortabilityPipelinedInMemoryDataCopier(
+      Provider<Exporter> exporterProvider,
+      Provider<Importer> importerProvider,
+      Provider<RetryStrategyLibrary> retryStrategyLibraryProvider,
+      Monitor monitor,
+      IdempotentImportExecutor idempotentImportExecutor,
+      DtpInternalMetricRecorder dtpInternalMetricRecorder,
+      JobCountsFlushingService jobCounts,
+      JobContext jobContext,
+      CancellationToken cancellationToken,
+      @Annotations.ItemLevelImportRetry boolean itemLevelImportRetry,
+      ExtensionContext context) {
+    super(
+        exporterProvider,
+        importerProvider,
+        retryStrategyLibraryProvider,
+        monitor,
+        idempotentImportExecutor,
+        dtpInternalMetricRecorder,
+        jobCounts,
+        jobContext,
+        cancellationToken,
+        itemLevelImportRetry);
+    this.pipelineDepth = context.getSetting("copierPipelineDepth", 2);
+    Preconditions.checkArgument(
+        pipelineDepth > 0, "copierPipelineDepth must be positive: %s", pipelineDepth);
+  }
+
+  /** Kicks off transfer job {@code jobId} from {@code exporter} to {@code importer}. */
+  @Override
+  public Collection<ErrorDetail> copy(
+      AuthData exportAuthData,
+      AuthData importAuthData,
+      UUID jobId,
+      Optional<ExportInformation> exportInfo)
+      throws IOException, CopyException {
+    idempotentImportExecutor.setJobId(jobId);
+    String jobIdPrefix = jobIdPrefix(jobId);
+
+    BlockingQueue<ExportedPage> exportedPages = new ArrayBlockingQueue<>(pipelineDepth);
+    ExecutorService exportStage =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("export-stage-" + jobId)
+                .setDaemon(true)
+                .build());
+    try {
+      Future<?> exportStageResult =
+          exportStage.submit(() -> export(jobId, exportAuthData, exportInfo, exportedPages));
+      while (true) {
+        ExportedPage page = exportedPages.take();
+        if (page.cancellation != null) {
+          throw page.cancellation;
+        }
+        if (page.failure != null) {
+          throw page.failure;
+        }
+        if (page.exportResult == null) {
+          break;
+        }
+        importIteration(jobId, importAuthData, page.exportResult, page.copyIteration);
+      }
+      exportStageResult.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CopyException(jobIdPrefix + "Interrupted while copying", e);
+    } catch (ExecutionException e) {
+      throw new CopyException(jobIdPrefix + "Error happened during export", e.getCause());
+    } finally {
+      // Stops the export stage if the import stage bailed out early
+      exportStage.shutdownNow();
+    }
+    return idempotentImportExecutor.getErrors();
+  }
+
+  /**
+   * Export stage: walks the job depth first, in the order {@link PortabilityInMemoryDataCopier}
+   * would, and hands each exported page over to the import stage.
+   */
+  private Void export(
+      UUID jobId,
+      AuthData exportAuthData,
+      Optional<ExportInformation> exportInfo,
+      BlockingQueue<ExportedPage> exportedPages)
+      throws InterruptedException {
+    String jobIdPrefix = jobIdPrefix(jobId);
+    Deque<Optional<ExportInformation>> pending = new ArrayDeque<>();
+    pending.push(exportInfo);
+    try {
+      while (!pending.isEmpty()) {
+        Optional<ExportInformation> exportInformation = pending.pop();
+        int copyIteration = nextCopyIteration();
+        ExportResult<?> exportResult =
+            exportIteration(jobId, exportAuthData, exportInformation, copyIteration);
+        exportedPages.put(new ExportedPage(exportResult, copyIteration, null, null));
+        // Pushed in reverse so the next page is exported before the sub-resources
+        for (ExportInformation followUp :
+            Lists.reverse(getFollowUps(exportInformation, exportResult.getContinuationData()))) {
+          pending.push(Optional.of(followUp));
+        }
+      }
+      exportedPages.put(new ExportedPage(null, 0, null, null));
+    } catch (CancellationException e) {
+      // Handed over as is, like the serial copier reports cancellation
+      exportedPages.put(new ExportedPage(null, 0, null, e));
+    } catch (CopyException e) {
+      exportedPages.put(new ExportedPage(null, 0, e, null));
+    } catch (RuntimeException e) {
+      exportedPages.put(
+          new ExportedPage(
+              null, 0, new CopyException(jobIdPrefix + "Error happened during export", e), null));
+    }
+    return null;
+  }
+
+  /**
+   * A page handed from the export stage to the import stage. A page without an export result marks
+   * the end of the export, either successful, with the given failure or canceled.
+   */
+  private static final class ExportedPage {
+    private final ExportResult<?> exportResult;
+    private final int copyIteration;
+    private final CopyException failure;
+    private final CancellationException cancellation;
+
+    private ExportedPage(
+        ExportResult<?> exportResult,
+        int copyIteration,
+        CopyException failure,
+        CancellationException cancellation) {
+      this.exportResult = exportResult;
+      this.copyIteration = copyIteration;
+      this.failure = failure;
+      this.cancellation = cancellation;
+    }
+  }
+}
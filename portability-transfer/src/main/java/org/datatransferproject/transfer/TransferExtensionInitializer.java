@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import static java.lang.String.format;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.datatransferproject.api.launcher.DelegatingExtensionContext;
+import org.datatransferproject.api.launcher.DtpInternalMetricRecorder;
+import org.datatransferproject.api.launcher.ExtensionContext;
+import org.datatransferproject.api.launcher.MetricRecorder;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.launcher.metrics.ServiceAwareMetricRecorder;
+import org.datatransferproject.spi.transfer.extension.TransferExtension;
+import org.datatransferproject.types.transfer.executor.ConcurrencyLimitedTransferExecutor;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
+import org.datatransferproject.types.transfer.serviceconfig.TransferServiceConfig;
+
+/**
+ * Initializes the {@link TransferExtension}s used by the jobs of a worker, with a context specific
+ * to the service and the job.
+ *
+ * <p>Extensions hold per-user state, such as clients authorized for the user, and their services
+ * rate limit per user. So a worker processing several jobs concurrently initializes a new instance
+ * of an extension for every job rather than sharing it, only the bound on the concurrent requests
+ * to a service is shared by the jobs of the worker.
+ */
+final class TransferExtensionInitializer {
+  private final ExtensionContext context;
+  private final ImmutableList<TransferExtension> transferExtensions;
+  private final TransferExecutor transferExecutor;
+  private final boolean concurrentJobs;
+  // Keyed by lower case service id
+  private final Map<String, TransferExecutor> serviceExecutors = new ConcurrentHashMap<>();
+
+  TransferExtensionInitializer(
+      ExtensionContext context,
+      ImmutableList<TransferExtension> transferExtensions,
+      TransferExecutor transferExecutor) {
+    this.context = context;
+    this.transferExtensions = transferExtensions;
+    this.transferExecutor = transferExecutor;
+    this.concurrentJobs = context.getSetting("maxConcurrentJobs", 0) > 0;
+  }
+
+  /**
+   * Returns an extension for {@code service} initialized for the job {@code jobContext}. Callers
+   * initialize an extension at most once per job and share it between its exporter and importer.
+   */
+  TransferExtension initialize(String service, JobContext jobContext) {
+    TransferExtension loadedExtension =
+        WorkerModule.findTransferExtension(transferExtensions, service);
+    // A worker processing a single job initializes the loaded extension, as it only does so once,
+    // and sets the job id on the worker's monitor
+    TransferExtension extension =
+        concurrentJobs ? newInstance(loadedExtension) : loadedExtension;
+    Monitor jobMonitor =
+        concurrentJobs
+            ? new JobMonitor(context.getMonitor(), jobContext.getJobId())
+            : context.getMonitor();
+    DelegatingExtensionContext serviceSpecificContext =
+        new DelegatingExtensionContext(context) {
+          @Override
+          public Monitor getMonitor() {
+            return jobMonitor;
+          }
+        };
+    serviceSpecificContext.registerOverrideService(
+        MetricRecorder.class,
+        new ServiceAwareMetricRecorder(
+            extension.getServiceId(), context.getService(DtpInternalMetricRecorder.class)));
+    // Loaded per job, its rate limiter applies to the user of the job. Shared by the exporter and
+    // importer of the service so they draw from the same limits.
+    TransferServiceConfig serviceConfig = loadTransferServiceConfig(extension);
+    serviceSpecificContext.registerOverrideService(TransferServiceConfig.class, serviceConfig);
+    // Bounds the requests to the service across the jobs of the worker
+    serviceSpecificContext.registerOverrideService(
+        TransferExecutor.class,
+        serviceExecutors.computeIfAbsent(
+            extension.getServiceId().toLowerCase(),
+            serviceId ->
+                new ConcurrencyLimitedTransferExecutor(
+                    transferExecutor, serviceConfig.getMaxConcurrentRequests())));
+    extension.initialize(serviceSpecificContext);
+    return extension;
+  }
+
+  /** Returns a new instance of {@code extension}, loaded extensions have a no-arg constructor. */
+  private static TransferExtension newInstance(TransferExtension extension) {
+    try {
+      return extension.getClass().getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(
+          "Couldn't create an instance of extension " + extension.getServiceId(), e);
+    }
+  }
+
+  private TransferServiceConfig loadTransferServiceConfig(TransferExtension ext) {
+    String configFileName = "config/" + ext.getServiceId().toLowerCase() + ".yaml";
+    InputStream inputStream = this.getClass().getClassLoader().getResourceAsStream(configFileName);
+    context
+        .getMonitor()
+        .info(
+            () ->
+                format(
+                    "Service %s has a config file: %s", ext.getServiceId(), (inputStream != null)));
+    if (inputStream == null) {
+      return TransferServiceConfig.getDefaultInstance();
+    } else {
+      try {
+        return TransferServiceConfig.create(inputStream);
+      } catch (IOException e) {
+        throw new RuntimeException("Couldn't create config for " + ext.getServiceId(), e);
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.datatransferproject.transfer;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.common.collect.ImmutableList;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.datatransferproject.api.launcher.ExtensionContext;
+
+/**
+ * Creates the HTTP clients a worker shares between its transfer extensions, so the connections to
+ * a service are kept alive and reused across the items of a job, and across jobs, rather than
+ * paying a TLS handshake per item.
+ */
+final class TransferHttpClients {
+  // JDK property bounding the idle connections HttpURLConnection keeps alive per host
+  private static final String JAVA_NET_MAX_CONNECTIONS = "http.maxConnections";
+
+  private TransferHttpClients() {}
+
+  /**
+   * Creates the {@link OkHttpClient} of the worker. It negotiates HTTP/2 with the hosts that
+   * support it, which multiplexes the requests to a host over a single connection.
+   */
+  static OkHttpClient createOkHttpClient(ExtensionContext context) {
+    Dispatcher dispatcher = new Dispatcher();
+    // Only bounds asynchronous calls, synchronous ones are bounded by the TransferExecutor
+    dispatcher.setMaxRequests(context.getSetting("httpMaxRequests", 64));
+    dispatcher.setMaxRequestsPerHost(context.getSetting("httpMaxRequestsPerHost", 16));
+    return new OkHttpClient.Builder()
+        .connectionPool(
+            new ConnectionPool(
+                context.getSetting("httpMaxIdleConnections", 32),
+                context.getSetting("httpKeepAlive", 300000), // Default: 5m
+                TimeUnit.MILLISECONDS))
+        .dispatcher(dispatcher)
+        .protocols(ImmutableList.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+        .build();
+  }
+
+  /**
+   * Creates the {@link HttpTransport} of the worker. It runs on {@code HttpURLConnection}, as do
+   * the streams of {@code ImageStreamProvider}, whose connections are kept alive in a pool shared
+   * by the whole JVM, so this also sizes that pool unless it was set on the command line.
+   */
+  static HttpTransport createHttpTransport(ExtensionContext context) {
+    if (System.getProperty(JAVA_NET_MAX_CONNECTIONS) == null) {
+      // Read once the pool is first used, the JDK default keeps 5 connections per host
+      System.setProperty(
+          JAVA_NET_MAX_CONNECTIONS,
+          String.valueOf(context.getSetting("httpMaxIdleConnectionsPerHost", 16)));
+    }
+    return new NetHttpTransport();
+  }
+}
@@ -15,27 +15,122 @@
  */
 package org.datatransferproject.transfer;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import com.google.inject.Injector;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.datatransferproject.api.launcher.ExtensionContext;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
 
-/** Polls and processes a {@code PortabilityJob}. */
+/**
+ * Polls and processes {@code PortabilityJob}s.
+ *
+ * <p>By default a worker processes a single job and returns. If {@code maxConcurrentJobs} is set,
+ * the worker keeps polling and processing jobs, up to that many at a time. Every job is processed
+ * with a child injector of its own, see {@link JobModule}, and with its own instances of the
+ * transfer extensions it uses, see {@link TransferExtensionInitializer}.
+ *
+ * <p>A canceled job is stopped through its {@link CancellationToken}, the worker then moves on to
+ * its next job, or returns.
+ */
 final class Worker {
   private final JobPoller jobPoller;
-  private final JobCancelWatchingService jobCancelWatchingService;
-  private final JobProcessor jobProcessor;
+  private final Injector injector;
+  private final ExtensionContext context;
+  private final Monitor monitor;
+  private final int maxConcurrentJobs;
 
   @Inject
-  Worker(
-      JobPoller jobPoller,
-      JobCancelWatchingService jobCancelWatchingService,
-      JobProcessor jobProcessor) {
+  Worker(JobPoller jobPoller, Injector injector, ExtensionContext context, Monitor monitor) {
     this.jobPoller = jobPoller;
-    this.jobCancelWatchingService = jobCancelWatchingService;
-    this.jobProcessor = jobProcessor;
+    this.injector = injector;
+    this.context = context;
+    this.monitor = monitor;
+    // 0 (default) processes a single job per worker process
+    this.maxConcurrentJobs = context.getSetting("maxConcurrentJobs", 0);
   }
 
   void doWork() {
-    jobPoller.pollJob();
+    if (maxConcurrentJobs > 0) {
+      processJobsContinuously();
+    } else {
+      processJob(jobPoller.pollJob());
+    }
+  }
+
+  /** Processes jobs in {@code maxConcurrentJobs} slots, until the worker thread is interrupted. */
+  private void processJobsContinuously() {
+    monitor.info(() -> "Processing up to " + maxConcurrentJobs + " jobs concurrently");
+    ExecutorService slots =
+        Executors.newFixedThreadPool(
+            maxConcurrentJobs, new ThreadFactoryBuilder().setNameFormat("job-slot-%d").build());
+    for (int i = 0; i < maxConcurrentJobs; i++) {
+      slots.execute(this::processJobsInSlot);
+    }
+    slots.shutdown();
+    try {
+      while (!slots.awaitTermination(1, TimeUnit.HOURS)) {
+        monitor.debug(() -> "Worker is still processing jobs");
+      }
+    } catch (InterruptedException e) {
+      slots.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void processJobsInSlot() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        processJob(jobPoller.pollJob());
+      } catch (RuntimeException e) {
+        monitor.severe(() -> "Error processing job, polling for the next one", e);
+      }
+    }
+  }
+
+  /** Processes a claimed job. */
+  private void processJob(JobContext jobContext) {
+    Injector jobInjector =
+        injector.createChildInjector(
+            new JobModule(context, jobContext, new CancellationToken()));
+    JobLeaseService jobLeaseService = jobInjector.getInstance(JobLeaseService.class);
+    jobLeaseService.startAsync();
+    JobCountsFlushingService jobCountsFlushingService =
+        jobInjector.getInstance(JobCountsFlushingService.class);
+    jobCountsFlushingService.startAsync();
+    JobCancelWatchingService jobCancelWatchingService =
+        jobInjector.getInstance(JobCancelWatchingService.class);
     jobCancelWatchingService.startAsync();
-    jobProcessor.processJob();
+    try {
+      jobInjector.getInstance(JobProcessor.class).processJob();
+    } finally {
+      try {
+        jobCancelWatchingService.stopAsync().awaitTerminated();
+      } catch (IllegalStateException e) {
+        monitor.severe(() -> "Job cancellation watching failed", e);
+      }
+      try {
+        // Flushes the remaining counts
+        jobCountsFlushingService.stopAsync().awaitTerminated();
+      } catch (IllegalStateException e) {
+        monitor.severe(() -> "Job counts flushing failed", e);
+      }
+      try {
+        // Releases the lease, the job is finished
+        jobLeaseService.stopAsync().awaitTerminated();
+      } catch (IllegalStateException e) {
+        monitor.severe(() -> "Job lease renewal failed", e);
+      }
+      try {
+        jobInjector.getInstance(IdempotentImportExecutor.class).close();
+      } catch (IOException e) {
+        monitor.severe(() -> "Unable to close the IdempotentImportExecutor", e);
+      }
+    }
   }
 }
@@ -21,7 +21,6 @@ import static org.datatransferproject.spi.cloud.extension.CloudExtensionLoader.g
 import static org.datatransferproject.spi.transfer.hooks.JobHooksLoader.loadJobHooks;
 
 import com.google.api.client.http.HttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.common.base.Preconditions;
@@ -31,6 +30,7 @@ import com.google.inject.Guice;
 import com.google.inject.Injector;
 import java.util.List;
 import java.util.ServiceLoader;
+import java.util.function.Supplier;
 import okhttp3.OkHttpClient;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.config.extension.SettingsExtension;
@@ -49,8 +49,9 @@ import org.datatransferproject.spi.transfer.security.SecurityExtension;
 import org.datatransferproject.spi.transfer.security.SecurityExtensionLoader;
 
 /**
- * Main class to bootstrap a portability transfer worker that will operate on a single job whose
- * state is held in {@link JobMetadata}.
+ * Main class to bootstrap a portability transfer worker that will operate on a single job, or on
+ * several jobs concurrently if {@code maxConcurrentJobs} is set. The state of a job is held in its
+ * {@link JobContext}.
  */
 public class WorkerMain {
 
@@ -75,8 +76,10 @@ public class WorkerMain {
         new WorkerExtensionContext(settingsExtension, monitor);
 
     // TODO this should be moved into a service extension
-    extensionContext.registerService(HttpTransport.class, new NetHttpTransport());
-    extensionContext.registerService(OkHttpClient.class, new OkHttpClient.Builder().build());
+    extensionContext.registerService(
+        HttpTransport.class, TransferHttpClients.createHttpTransport(extensionContext));
+    extensionContext.registerService(
+        OkHttpClient.class, TransferHttpClients.createOkHttpClient(extensionContext));
     extensionContext.registerService(JsonFactory.class, new JacksonFactory());
 
     ServiceLoader.load(ServiceExtension.class)
@@ -102,10 +105,8 @@ public class WorkerMain {
         SecurityExtensionLoader.getSecurityExtension(extensionContext);
     monitor.info(() -> "Using SecurityExtension: " + securityExtension.getClass().getName());
 
-    IdempotentImportExecutor idempotentImportExecutor =
-        IdempotentImportExecutorLoader.load(monitor);
-    monitor.info(
-        () -> "Using IdempotentImportExecutor: " + idempotentImportExecutor.getClass().getName());
+    Supplier<IdempotentImportExecutor> idempotentImportExecutorFactory =
+        IdempotentImportExecutorLoader.loadFactory(monitor);
 
     // TODO: make configurable
     SymmetricKeyGenerator symmetricKeyGenerator = new AesSymmetricKeyGenerator(monitor);
@@ -121,7 +122,7 @@ public class WorkerMain {
                   cloudExtension,
                   transferExtensions,
                   securityExtension,
-                  idempotentImportExecutor,
+                  idempotentImportExecutorFactory,
                   symmetricKeyGenerator,
                   jobHooks));
     } catch (Exception e) {
@@ -129,9 +130,6 @@ public class WorkerMain {
       throw e;
     }
     worker = injector.getInstance(Worker.class);
-
-    // Reset the JobMetadata in case set previously when running SingleVMMain
-    JobMetadata.reset();
   }
 
   public void poll() {
@@ -16,7 +16,6 @@
 package org.datatransferproject.transfer;
 
 import static com.google.common.collect.MoreCollectors.onlyElement;
-import static java.lang.String.format;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
@@ -25,19 +24,16 @@ import com.google.common.util.concurrent.AbstractScheduledService;
 import com.google.common.util.concurrent.AbstractScheduledService.Scheduler;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
-import java.io.IOException;
-import java.io.InputStream;
+import java.time.Duration;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.TimeUnit;
-import org.datatransferproject.api.launcher.DelegatingExtensionContext;
+import java.util.function.Supplier;
 import org.datatransferproject.api.launcher.DtpInternalMetricRecorder;
 import org.datatransferproject.api.launcher.ExtensionContext;
-import org.datatransferproject.api.launcher.MetricRecorder;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.config.FlagBindingModule;
 import org.datatransferproject.launcher.metrics.LoggingDtpInternalMetricRecorder;
-import org.datatransferproject.launcher.metrics.ServiceAwareMetricRecorder;
 import org.datatransferproject.security.SymmetricKeyGenerator;
 import org.datatransferproject.spi.cloud.extension.CloudExtension;
 import org.datatransferproject.spi.cloud.storage.AppCredentialStore;
@@ -45,14 +41,13 @@ import org.datatransferproject.spi.cloud.storage.JobStore;
 import org.datatransferproject.spi.transfer.extension.TransferExtension;
 import org.datatransferproject.spi.transfer.hooks.JobHooks;
 import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
-import org.datatransferproject.spi.transfer.provider.Exporter;
-import org.datatransferproject.spi.transfer.provider.Importer;
 import org.datatransferproject.spi.transfer.security.AuthDataDecryptService;
 import org.datatransferproject.spi.transfer.security.PublicKeySerializer;
 import org.datatransferproject.spi.transfer.security.SecurityExtension;
 import org.datatransferproject.spi.transfer.security.TransferKeyGenerator;
+import org.datatransferproject.types.transfer.executor.ThreadPerTaskTransferExecutor;
+import org.datatransferproject.types.transfer.executor.TransferExecutor;
 import org.datatransferproject.types.transfer.retry.RetryStrategyLibrary;
-import org.datatransferproject.types.transfer.serviceconfig.TransferServiceConfig;
 
 final class WorkerModule extends FlagBindingModule {
 
@@ -60,7 +55,7 @@ final class WorkerModule extends FlagBindingModule {
   private final ExtensionContext context;
   private final List<TransferExtension> transferExtensions;
   private final SecurityExtension securityExtension;
-  private final IdempotentImportExecutor idempotentImportExecutor;
+  private final Supplier<IdempotentImportExecutor> idempotentImportExecutorFactory;
   private final SymmetricKeyGenerator symmetricKeyGenerator;
   private final JobHooks jobHooks;
 
@@ -69,14 +64,14 @@ final class WorkerModule extends FlagBindingModule {
       CloudExtension cloudExtension,
       List<TransferExtension> transferExtensions,
       SecurityExtension securityExtension,
-      IdempotentImportExecutor idempotentImportExecutor,
+      Supplier<IdempotentImportExecutor> idempotentImportExecutorFactory,
       SymmetricKeyGenerator symmetricKeyGenerator,
       JobHooks jobHooks) {
     this.cloudExtension = cloudExtension;
     this.context = context;
     this.transferExtensions = transferExtensions;
     this.securityExtension = securityExtension;
-    this.idempotentImportExecutor = idempotentImportExecutor;
+    this.idempotentImportExecutorFactory = idempotentImportExecutorFactory;
     this.symmetricKeyGenerator = symmetricKeyGenerator;
     this.jobHooks = jobHooks;
   }
@@ -98,13 +93,28 @@ final class WorkerModule extends FlagBindingModule {
     }
   }
 
+  @VisibleForTesting
+  static Class<? extends InMemoryDataCopier> getInMemoryDataCopierClass(
+      ExtensionContext context) {
+    String copier = context.getSetting("copier", "serial");
+    switch (copier.toLowerCase()) {
+      case "serial":
+        return PortabilityInMemoryDataCopier.class;
+      case "pipelined":
+        return PortabilityPipelinedInMemoryDataCopier.class;
+      case "parallel":
+        return PortabilityParallelInMemoryDataCopier.class;
+      default:
+        throw new IllegalStateException("Unknown copier: " + copier);
+    }
+  }
+
   @Override
   protected void configure() {
     // binds flags from ExtensionContext to @Named annotations
     bindFlags(context);
 
     bind(JobHooks.class).toInstance(jobHooks);
-    bind(InMemoryDataCopier.class).to(PortabilityInMemoryDataCopier.class);
     bind(ObjectMapper.class).toInstance(context.getTypeManager().getMapper());
 
     // Ensure a DtpInternalMetricRecorder exists
@@ -151,60 +161,50 @@ final class WorkerModule extends FlagBindingModule {
 
   @Provides
   @Singleton
-  Exporter getExporter(ImmutableList<TransferExtension> transferExtensions) {
-    TransferExtension extension =
-        findTransferExtension(transferExtensions, JobMetadata.getExportService());
-    DelegatingExtensionContext serviceSpecificContext = new DelegatingExtensionContext(context);
-    serviceSpecificContext.registerOverrideService(
-        MetricRecorder.class,
-        new ServiceAwareMetricRecorder(
-            extension.getServiceId(),
-            context.getService(DtpInternalMetricRecorder.class)));
-    serviceSpecificContext.registerOverrideService(
-        TransferServiceConfig.class,
-        getTransferServiceConfig(extension));
-    extension.initialize(serviceSpecificContext);
-    return extension.getExporter(JobMetadata.getDataType());
+  ImmutableList<TransferExtension> getTransferExtensions() {
+    return ImmutableList.copyOf(transferExtensions);
   }
 
+
   @Provides
   @Singleton
-  Importer getImporter(ImmutableList<TransferExtension> transferExtensions) {
-    TransferExtension extension =
-        findTransferExtension(transferExtensions, JobMetadata.getImportService());
-    DelegatingExtensionContext serviceSpecificContext = new DelegatingExtensionContext(context);
-    serviceSpecificContext.registerOverrideService(
-        MetricRecorder.class,
-        new ServiceAwareMetricRecorder(
-            extension.getServiceId(),
-            context.getService(DtpInternalMetricRecorder.class)));
-    serviceSpecificContext.registerOverrideService(
-        TransferServiceConfig.class,
-        getTransferServiceConfig(extension));
-    extension.initialize(serviceSpecificContext);
-    return extension.getImporter(JobMetadata.getDataType());
+  RetryStrategyLibrary getRetryStrategyLibrary() {
+    return context.getSetting("retryLibrary", null);
   }
 
+  // Not a singleton, every JobPollingService backs off on its own
   @Provides
-  @Singleton
-  ImmutableList<TransferExtension> getTransferExtensions() {
-    return ImmutableList.copyOf(transferExtensions);
+  PollingBackoff getPollingBackoff() {
+    // TODO: parse a Duration from the settings
+    long interval = context.getSetting("pollInterval", 2000); // Default: poll every 2s
+    return new PollingBackoff(interval, getMaxPollInterval());
   }
 
-
   @Provides
   @Singleton
-  RetryStrategyLibrary getRetryStrategyLibrary() {
-    return context.getSetting("retryLibrary", null);
+  @Annotations.JobLeaseDuration
+  Duration getJobLeaseDuration() {
+    long leaseDuration = context.getSetting("jobLeaseDuration", 120000); // Default: 2m
+    // A worker waiting for credentials renews its lease when it polls, so it has to outlast a few
+    // polling intervals
+    return Duration.ofMillis(Math.max(leaseDuration, 3 * getMaxPollInterval()));
   }
 
   @Provides
   @Singleton
-  Scheduler getScheduler() {
-    // TODO: parse a Duration from the settings
-    long interval = context.getSetting("pollInterval", 2000); // Default: poll every 2s
+  @Annotations.LeaseScheduler
+  Scheduler getLeaseRenewingScheduler(@Annotations.JobLeaseDuration Duration leaseDuration) {
+    // Renewed well before it expires, so a single failed renewal doesn't lose the lease
+    long interval = leaseDuration.toMillis() / 3;
     return AbstractScheduledService.Scheduler.newFixedDelaySchedule(
-        0, interval, TimeUnit.MILLISECONDS);
+        interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  private long getMaxPollInterval() {
+    long interval = context.getSetting("pollInterval", 2000);
+    // Default: back off to polling every 30s while idle
+    long maxInterval = context.getSetting("maxPollInterval", 30000);
+    return Math.max(interval, maxInterval);
   }
 
   @Provides
@@ -217,6 +217,25 @@ final class WorkerModule extends FlagBindingModule {
         0, interval, TimeUnit.MILLISECONDS);
   }
 
+  @Provides
+  @Singleton
+  @Annotations.CountsScheduler
+  Scheduler getCountsFlushingScheduler() {
+    // TODO: parse a Duration from the settings
+    long interval = context.getSetting("countsFlushInterval", 10000); // Default: flush every 10s
+    return AbstractScheduledService.Scheduler.newFixedDelaySchedule(
+        interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Provides
+  @Singleton
+  @Annotations.ItemLevelImportRetry
+  Boolean getItemLevelImportRetry() {
+    // "page" (default) re-imports a page while any of its items fail, "item" retries the items
+    String importRetryMode = context.getSetting("importRetryMode", "page");
+    return "item".equalsIgnoreCase(importRetryMode);
+  }
+
   @Provides
   @Singleton
   Monitor getMonitor() {
@@ -229,28 +248,38 @@ final class WorkerModule extends FlagBindingModule {
     return context;
   }
 
-  private TransferServiceConfig getTransferServiceConfig(TransferExtension ext) {
-    String configFileName = "config/" + ext.getServiceId().toLowerCase() + ".yaml";
-    InputStream inputStream = this.getClass().getClassLoader().getResourceAsStream(configFileName);
-    getMonitor()
-        .info(
-            () ->
-                format(
-                    "Service %s has a config file: %s", ext.getServiceId(), (inputStream != null)));
-    if (inputStream == null) {
-      return TransferServiceConfig.getDefaultInstance();
-    } else {
-      try {
-        return TransferServiceConfig.create(inputStream);
-      } catch (IOException e) {
-        throw new RuntimeException("Couldn't create config for " + ext.getServiceId(), e);
-      }
+  @Provides
+  @Singleton
+  TransferExtensionInitializer getTransferExtensionInitializer(
+      ImmutableList<TransferExtension> transferExtensions, TransferExecutor transferExecutor) {
+    return new TransferExtensionInitializer(context, transferExtensions, transferExecutor);
+  }
+
+  @Provides
+  @Singleton
+  TransferExecutor getTransferExecutor() {
+    // "virtual" (default) runs the blocking I/O of extensions on virtual threads if the JVM has
+    // them, "platform" always runs it on platform threads
+    String ioThreads = context.getSetting("ioThreads", "virtual");
+    switch (ioThreads.toLowerCase()) {
+      case "virtual":
+        ThreadPerTaskTransferExecutor executor = ThreadPerTaskTransferExecutor.create();
+        if (!executor.usesVirtualThreads()) {
+          context
+              .getMonitor()
+              .info(() -> "Virtual threads aren't available, running I/O on platform threads");
+        }
+        return executor;
+      case "platform":
+        return ThreadPerTaskTransferExecutor.createWithPlatformThreads();
+      default:
+        throw new IllegalStateException("Unknown ioThreads: " + ioThreads);
     }
   }
 
   @Provides
   @Singleton
-  public IdempotentImportExecutor getIdempotentImportExecutor() {
-    return idempotentImportExecutor;
+  Supplier<IdempotentImportExecutor> getIdempotentImportExecutorFactory() {
+    return idempotentImportExecutorFactory;
   }
 }
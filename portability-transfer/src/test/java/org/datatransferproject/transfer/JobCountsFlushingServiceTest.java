@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AbstractScheduledService.Scheduler;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.cloud.local.LocalJobStore;
+import org.datatransferproject.spi.cloud.storage.JobStore;
+import org.datatransferproject.spi.cloud.types.JobProgress;
+import org.junit.Test;
+
+public class JobCountsFlushingServiceTest {
+
+  private final UUID jobId = UUID.randomUUID();
+  private final JobStore jobStore = new LocalJobStore();
+  private final JobCountsFlushingService service =
+      new JobCountsFlushingService(
+          jobStore,
+          new JobContext(
+              jobId,
+              "instanceId",
+              new byte[0],
+              "PHOTOS",
+              "exportService",
+              "importService",
+              Stopwatch.createStarted()),
+          Scheduler.newFixedDelaySchedule(1, 1, TimeUnit.MINUTES),
+          new Monitor() {});
+
+  @Test
+  public void flushesCountsAndPublishesProgress() throws Exception {
+    service.startUp();
+    service.add(ImmutableMap.of("photos", 2), 100L);
+    service.add(ImmutableMap.of("photos", 3, "albums", 1), 50L);
+    service.setPendingIterations(4);
+
+    service.runOneIteration();
+
+    assertThat(jobStore.getCounts(jobId)).containsExactly("photos", 5, "albums", 1);
+    assertThat(jobStore.getBytes(jobId)).isEqualTo(150L);
+    JobProgress progress = jobStore.findData(jobId, JobProgress.DATA_KEY, JobProgress.class);
+    assertThat(progress.getCounts()).containsExactly("photos", 5, "albums", 1);
+    assertThat(progress.getBytes()).isEqualTo(150L);
+    assertThat(progress.getPages()).isEqualTo(2L);
+    assertThat(progress.getPagesPerSecond()).isGreaterThan(0.0);
+    assertThat(progress.getEstimatedSecondsRemaining()).isNotNull();
+  }
+
+  @Test
+  public void resumedJobStartsFromStoredCounts() throws Exception {
+    jobStore.addCounts(jobId, ImmutableMap.of("photos", 7));
+    service.startUp();
+    service.add(ImmutableMap.of("photos", 1), null);
+
+    service.shutDown();
+
+    assertThat(jobStore.getCounts(jobId)).containsExactly("photos", 8);
+    JobProgress progress = jobStore.findData(jobId, JobProgress.DATA_KEY, JobProgress.class);
+    assertThat(progress.getCounts()).containsExactly("photos", 8);
+    assertThat(progress.getEstimatedSecondsRemaining()).isNull();
+  }
+}
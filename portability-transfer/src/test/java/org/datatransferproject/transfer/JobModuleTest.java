@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Injector;
+import java.util.UUID;
+import org.datatransferproject.api.launcher.DtpInternalMetricRecorder;
+import org.datatransferproject.api.launcher.ExtensionContext;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.spi.transfer.extension.TransferExtension;
+import org.datatransferproject.spi.transfer.provider.Exporter;
+import org.datatransferproject.spi.transfer.provider.Importer;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JobModuleTest {
+
+  @Mock private ExtensionContext context;
+  @Mock private DtpInternalMetricRecorder metricRecorder;
+  @Mock private Injector injector;
+
+  private final JobContext jobContext =
+      new JobContext(
+          UUID.randomUUID(),
+          "instanceId",
+          new byte[0],
+          "PHOTOS",
+          "exportService",
+          "importService",
+          Stopwatch.createStarted());
+
+  @Before
+  public void setUp() {
+    when(context.getMonitor()).thenReturn(new Monitor() {});
+    when(context.getService(DtpInternalMetricRecorder.class)).thenReturn(metricRecorder);
+    when(context.getSetting("maxConcurrentJobs", 0)).thenReturn(0);
+    when(context.getSetting("copier", "serial")).thenReturn("parallel");
+  }
+
+  @Test
+  public void usesParallelCopierForThreadSafeServices() {
+    getInMemoryDataCopier(true, true);
+
+    verify(injector).getInstance(PortabilityParallelInMemoryDataCopier.class);
+  }
+
+  @Test
+  public void copiesOnePageAtATimeIfAServiceIsNotThreadSafe() {
+    getInMemoryDataCopier(true, false);
+
+    verify(injector).getInstance(PortabilityInMemoryDataCopier.class);
+  }
+
+  private void getInMemoryDataCopier(boolean exportThreadSafe, boolean importThreadSafe) {
+    TransferExtensionInitializer transferExtensionInitializer =
+        new TransferExtensionInitializer(
+            context,
+            ImmutableList.of(
+                createTransferExtension("exportService", exportThreadSafe),
+                createTransferExtension("importService", importThreadSafe)),
+            Runnable::run);
+    new JobModule(context, jobContext, new CancellationToken())
+        .getInMemoryDataCopier(injector, transferExtensionInitializer);
+  }
+
+  private static TransferExtension createTransferExtension(String serviceId, boolean threadSafe) {
+    return new TransferExtension() {
+      @Override
+      public String getServiceId() {
+        return serviceId;
+      }
+
+      @Override
+      public Exporter<?, ?> getExporter(String transferDataType) {
+        return null;
+      }
+
+      @Override
+      public Importer<?, ?> getImporter(String transferDataType) {
+        return null;
+      }
+
+      @Override
+      public void initialize(ExtensionContext context) {}
+
+      @Override
+      public boolean isThreadSafe(String transferDataType) {
+        return threadSafe && transferDataType.equals("PHOTOS");
+      }
+    };
+  }
+}
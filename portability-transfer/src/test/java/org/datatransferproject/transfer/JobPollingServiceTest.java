@@ -15,7 +15,6 @@
  */
 package org.datatransferproject.transfer;
 
-import com.google.common.util.concurrent.AbstractScheduledService.Scheduler;
 import org.datatransferproject.api.launcher.ExtensionContext;
 import org.datatransferproject.api.launcher.Monitor;
 import org.datatransferproject.cloud.local.LocalJobStore;
@@ -37,10 +36,10 @@ import java.security.KeyPair;
 import java.security.PublicKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -89,12 +88,20 @@ public class JobPollingServiceTest {
             return "key";
           }
         };
-    Scheduler scheduler = Scheduler.newFixedDelaySchedule(0, 20, TimeUnit.SECONDS);
+    PollingBackoff backoff = new PollingBackoff(20000, 20000);
     Monitor monitor = new Monitor() {};
     ExtensionContext extensionContext = mock(ExtensionContext.class);
     when(extensionContext.getSetting("credTimeoutSeconds", 300)).thenReturn(300);
+    when(extensionContext.getSetting("maxConcurrentJobs", 0)).thenReturn(0);
     jobPollingService =
-        new JobPollingService(store, asymmetricKeyGenerator, serializer, scheduler, monitor, extensionContext);
+        new JobPollingService(
+            store,
+            asymmetricKeyGenerator,
+            serializer,
+            backoff,
+            Duration.ofMinutes(2),
+            monitor,
+            extensionContext);
   }
 
   // TODO(data-transfer-project/issues/43): Make this an integration test which uses both the API
@@ -105,11 +112,11 @@ public class JobPollingServiceTest {
 
     when(asymmetricKeyGenerator.generate()).thenReturn(TEST_KEY_PAIR);
     // Initial state
-    assertThat(JobMetadata.isInitialized()).isFalse();
+    assertThat(jobPollingService.getJobContext()).isNull();
 
     // Run once with no data in the database
     jobPollingService.runOneIteration();
-    assertThat(JobMetadata.isInitialized()).isFalse();
+    assertThat(jobPollingService.getJobContext()).isNull();
     PortabilityJob job = store.findJob(TEST_ID);
     assertThat(job).isNull(); // No existing ready job
 
@@ -150,8 +157,8 @@ public class JobPollingServiceTest {
 
     // Worker initiates the JobPollingService
     jobPollingService.runOneIteration();
-    assertThat(JobMetadata.isInitialized()).isTrue();
-    assertThat(JobMetadata.getJobId()).isEqualTo(TEST_ID);
+    assertThat(jobPollingService.getJobContext()).isNotNull();
+    assertThat(jobPollingService.getJobContext().getJobId()).isEqualTo(TEST_ID);
 
     // Verify assigned without auth data state
     job = store.findJob(TEST_ID);
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.spi.transfer.idempotentexecutor.IdempotentImportExecutor;
+import org.datatransferproject.spi.transfer.idempotentexecutor.InMemoryIdempotentImportExecutor;
+import org.datatransferproject.types.transfer.errors.ErrorDetail;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
+import org.datatransferproject.types.transfer.retry.RetryStrategyLibrary;
+import org.datatransferproject.types.transfer.retry.UniformRetryStrategy;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PageScopedIdempotentImportExecutorTest {
+
+  private final Monitor monitor = new Monitor() {};
+  private final JobContext jobContext =
+      new JobContext(
+          UUID.randomUUID(),
+          "instanceId",
+          new byte[0],
+          "PHOTOS",
+          "exportService",
+          "importService",
+          Stopwatch.createStarted());
+  private IdempotentImportExecutor jobExecutor;
+
+  @Before
+  public void setUp() {
+    jobExecutor = new InMemoryIdempotentImportExecutor(monitor);
+  }
+
+  @Test
+  public void errorsAreScopedToThePageThatAttemptedTheItem() throws Exception {
+    PageScopedIdempotentImportExecutor firstPage = newPageExecutor(null);
+    PageScopedIdempotentImportExecutor secondPage = newPageExecutor(null);
+
+    firstPage.executeAndSwallowIOExceptions("id1", "item1", failing());
+    secondPage.executeAndSwallowIOExceptions("id2", "item2", () -> "value2");
+
+    assertThat(firstPage.getErrors()).hasSize(1);
+    assertThat(firstPage.getErrors().iterator().next().id()).isEqualTo("id1");
+    assertThat(secondPage.getErrors()).isEmpty();
+    assertThat(jobExecutor.getErrors()).hasSize(1);
+  }
+
+  @Test
+  public void retryOfThePageOnlyRerunsFailedItems() throws Exception {
+    AtomicInteger succeedingCalls = new AtomicInteger();
+    AtomicInteger failingCalls = new AtomicInteger();
+    Callable<String> succeeding =
+        () -> {
+          succeedingCalls.incrementAndGet();
+          return "value1";
+        };
+    Callable<String> failingOnce =
+        () -> {
+          if (failingCalls.incrementAndGet() == 1) {
+            throw new IOException("Import failed");
+          }
+          return "value2";
+        };
+
+    PageScopedIdempotentImportExecutor page = newPageExecutor(null);
+    page.executeAndSwallowIOExceptions("id1", "item1", succeeding);
+    page.executeAndSwallowIOExceptions("id2", "item2", failingOnce);
+    assertThat(page.getErrors()).hasSize(1);
+
+    PageScopedIdempotentImportExecutor retriedPage = newPageExecutor(null);
+    String value1 = retriedPage.executeAndSwallowIOExceptions("id1", "item1", succeeding);
+    String value2 = retriedPage.executeAndSwallowIOExceptions("id2", "item2", failingOnce);
+
+    assertThat(value1).isEqualTo("value1");
+    assertThat(value2).isEqualTo("value2");
+    assertThat(succeedingCalls.get()).isEqualTo(1);
+    assertThat(failingCalls.get()).isEqualTo(2);
+    assertThat(retriedPage.getErrors()).isEmpty();
+  }
+
+  @Test
+  public void itemRetryRetriesFailingItemWithoutFailingThePage() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    PageScopedIdempotentImportExecutor page = newPageExecutor(retryStrategyLibrary(3));
+
+    String value =
+        page.executeAndSwallowIOExceptions(
+            "id1",
+            "item1",
+            () -> {
+              if (calls.incrementAndGet() < 3) {
+                throw new IOException("Import failed");
+              }
+              return "value1";
+            });
+
+    assertThat(value).isEqualTo("value1");
+    assertThat(calls.get()).isEqualTo(3);
+    assertThat(page.getErrors()).isEmpty();
+    assertThat(jobExecutor.<String>getCachedValue("id1")).isEqualTo("value1");
+  }
+
+  @Test
+  public void itemRetryRecordsErrorOnceRetriesAreExhausted() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    PageScopedIdempotentImportExecutor page = newPageExecutor(retryStrategyLibrary(2));
+
+    String value =
+        page.executeAndSwallowIOExceptions(
+            "id1",
+            "item1",
+            () -> {
+              calls.incrementAndGet();
+              throw new IOException("Import failed");
+            });
+
+    assertThat(value).isNull();
+    assertThat(calls.get()).isEqualTo(3);
+    ErrorDetail error = page.getErrors().iterator().next();
+    assertThat(error.id()).isEqualTo("id1");
+    assertThat(error.exception()).contains("Import failed");
+  }
+
+  private PageScopedIdempotentImportExecutor newPageExecutor(
+      @Nullable RetryStrategyLibrary itemRetryStrategyLibrary) {
+    return new PageScopedIdempotentImportExecutor(
+        jobExecutor, jobContext, itemRetryStrategyLibrary, new CancellationToken(), monitor);
+  }
+
+  private static RetryStrategyLibrary retryStrategyLibrary(int maxAttempts) {
+    return new RetryStrategyLibrary(ImmutableList.of(), new UniformRetryStrategy(maxAttempts, 1));
+  }
+
+  private static Callable<String> failing() {
+    return () -> {
+      throw new IOException("Import failed");
+    };
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Stopwatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class PollingBackoffTest {
+
+  @Test
+  public void wakeEndsWaitEarly() throws Exception {
+    PollingBackoff backoff = new PollingBackoff(60000, 60000);
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    new Thread(backoff::wake).start();
+
+    backoff.await();
+
+    assertThat(stopwatch.elapsed(TimeUnit.SECONDS)).isLessThan(30L);
+  }
+
+  @Test
+  public void backsOffWhileIdle() throws Exception {
+    PollingBackoff backoff = new PollingBackoff(50, 400);
+    Stopwatch stopwatch = Stopwatch.createStarted();
+
+    // Waits about 50, 100 and 200ms
+    backoff.await();
+    backoff.await();
+    backoff.await();
+
+    assertThat(stopwatch.elapsed(TimeUnit.MILLISECONDS)).isAtLeast(250L);
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractScheduledService.Scheduler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import org.datatransferproject.api.launcher.DtpInternalMetricRecorder;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.cloud.local.LocalJobStore;
+import org.datatransferproject.spi.transfer.idempotentexecutor.InMemoryIdempotentImportExecutor;
+import org.datatransferproject.spi.transfer.provider.ExportResult;
+import org.datatransferproject.spi.transfer.provider.ExportResult.ResultType;
+import org.datatransferproject.spi.transfer.provider.Exporter;
+import org.datatransferproject.spi.transfer.provider.ImportResult;
+import org.datatransferproject.spi.transfer.provider.Importer;
+import org.datatransferproject.spi.transfer.types.ContinuationData;
+import org.datatransferproject.types.common.ExportInformation;
+import org.datatransferproject.types.common.StringPaginationToken;
+import org.datatransferproject.types.common.models.IdOnlyContainerResource;
+import org.datatransferproject.types.transfer.auth.TokenAuthData;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
+import org.datatransferproject.types.transfer.retry.NoRetryStrategy;
+import org.datatransferproject.types.transfer.retry.RetryStrategyLibrary;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PortabilityInMemoryDataCopierTest {
+
+  private static final TokenAuthData AUTH_DATA = new TokenAuthData("token");
+
+  @Mock private DtpInternalMetricRecorder metricRecorder;
+
+  private final List<String> exported = new ArrayList<>();
+  private final UUID jobId = UUID.randomUUID();
+  private final CancellationToken cancellationToken = new CancellationToken();
+  private PortabilityInMemoryDataCopier copier;
+
+  @Before
+  public void setUp() {
+    Monitor monitor = new Monitor() {};
+    Exporter<TokenAuthData, IdOnlyContainerResource> exporter = this::export;
+    Importer<TokenAuthData, IdOnlyContainerResource> importer =
+        (id, executor, authData, data) -> ImportResult.OK;
+    JobContext jobContext =
+        new JobContext(
+            jobId,
+            "instanceId",
+            new byte[0],
+            "PHOTOS",
+            "exportService",
+            "importService",
+            Stopwatch.createStarted());
+    copier =
+        new PortabilityInMemoryDataCopier(
+            () -> exporter,
+            () -> importer,
+            () -> new RetryStrategyLibrary(ImmutableList.of(), new NoRetryStrategy()),
+            monitor,
+            new InMemoryIdempotentImportExecutor(monitor),
+            metricRecorder,
+            new JobCountsFlushingService(
+                new LocalJobStore(),
+                jobContext,
+                Scheduler.newFixedDelaySchedule(1, 1, TimeUnit.MINUTES),
+                monitor),
+            jobContext,
+            cancellationToken,
+            false);
+  }
+
+  @Test
+  public void copiesPagesBeforeSubResources() throws Exception {
+    copier.copy(AUTH_DATA, AUTH_DATA, jobId, Optional.empty());
+
+    assertThat(exported).containsExactly("root", "root:page2", "album1", "album2").inOrder();
+  }
+
+  @Test
+  public void stopsCopyingOnceCanceled() throws Exception {
+    cancellationToken.cancel();
+
+    assertThrows(
+        CancellationException.class,
+        () -> copier.copy(AUTH_DATA, AUTH_DATA, jobId, Optional.empty()));
+    assertThat(exported).isEmpty();
+  }
+
+  private ExportResult<IdOnlyContainerResource> export(
+      UUID id, TokenAuthData authData, Optional<ExportInformation> exportInformation) {
+    if (!exportInformation.isPresent()) {
+      exported.add("root");
+      ContinuationData continuationData =
+          new ContinuationData(new StringPaginationToken("page2"));
+      continuationData.addContainerResource(new IdOnlyContainerResource("album1"));
+      continuationData.addContainerResource(new IdOnlyContainerResource("album2"));
+      return new ExportResult<>(ResultType.CONTINUE, null, continuationData);
+    }
+    if (exportInformation.get().getPaginationData() != null) {
+      exported.add(
+          "root:"
+              + ((StringPaginationToken) exportInformation.get().getPaginationData()).getToken());
+      return new ExportResult<>(ResultType.END, null, null);
+    }
+    exported.add(
+        ((IdOnlyContainerResource) exportInformation.get().getContainerResource()).getId());
+    return new ExportResult<>(ResultType.END, null, null);
+  }
+}
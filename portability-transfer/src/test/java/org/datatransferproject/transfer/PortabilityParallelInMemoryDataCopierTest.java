@@ -0,0 +1,220 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractScheduledService.Scheduler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.datatransferproject.api.launcher.DtpInternalMetricRecorder;
+import org.datatransferproject.api.launcher.ExtensionContext;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.cloud.local.LocalJobStore;
+import org.datatransferproject.spi.transfer.idempotentexecutor.InMemoryIdempotentImportExecutor;
+import org.datatransferproject.spi.transfer.provider.ExportResult;
+import org.datatransferproject.spi.transfer.provider.ExportResult.ResultType;
+import org.datatransferproject.spi.transfer.provider.Exporter;
+import org.datatransferproject.spi.transfer.provider.ImportResult;
+import org.datatransferproject.spi.transfer.provider.Importer;
+import org.datatransferproject.spi.transfer.types.ContinuationData;
+import org.datatransferproject.spi.transfer.types.CopyException;
+import org.datatransferproject.types.common.ExportInformation;
+import org.datatransferproject.types.common.StringPaginationToken;
+import org.datatransferproject.types.common.models.IdOnlyContainerResource;
+import org.datatransferproject.types.transfer.auth.TokenAuthData;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
+import org.datatransferproject.types.transfer.retry.NoRetryStrategy;
+import org.datatransferproject.types.transfer.retry.RetryStrategyLibrary;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PortabilityParallelInMemoryDataCopierTest {
+
+  private static final TokenAuthData AUTH_DATA = new TokenAuthData("token");
+  private static final ImmutableList<String> ALBUMS =
+      ImmutableList.of("album1", "album2", "album3");
+
+  @Mock private DtpInternalMetricRecorder metricRecorder;
+  @Mock private ExtensionContext context;
+
+  // Written by the copier's threads
+  private final List<String> imported = Collections.synchronizedList(new ArrayList<>());
+  private final UUID jobId = UUID.randomUUID();
+  private final CancellationToken cancellationToken = new CancellationToken();
+  private Exporter<TokenAuthData, IdOnlyContainerResource> exporter = this::export;
+  private Importer<TokenAuthData, IdOnlyContainerResource> importer =
+      (id, executor, authData, data) -> {
+        imported.add(data.getId());
+        return ImportResult.OK;
+      };
+
+  @Test
+  public void copiesParentPagesBeforeSubResources() throws Exception {
+    createCopier(4).copy(AUTH_DATA, AUTH_DATA, jobId, Optional.empty());
+
+    assertThat(imported).hasSize(8);
+    assertThat(imported.subList(0, 2)).containsExactly("root", "root:page2").inOrder();
+    for (String album : ALBUMS) {
+      assertThat(imported.indexOf(album)).isLessThan(imported.indexOf(album + ":page2"));
+    }
+  }
+
+  @Test
+  public void startsSiblingsInExportOrder() throws Exception {
+    createCopier(1).copy(AUTH_DATA, AUTH_DATA, jobId, Optional.empty());
+
+    assertThat(imported)
+        .containsExactly(
+            "root",
+            "root:page2",
+            "album1",
+            "album1:page2",
+            "album2",
+            "album2:page2",
+            "album3",
+            "album3:page2")
+        .inOrder();
+  }
+
+  @Test
+  public void copiesAtMostParallelismResourcesAtOnce() throws Exception {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    importer =
+        (id, executor, authData, data) -> {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          Thread.sleep(20);
+          running.decrementAndGet();
+          imported.add(data.getId());
+          return ImportResult.OK;
+        };
+
+    createCopier(2).copy(AUTH_DATA, AUTH_DATA, jobId, Optional.empty());
+
+    assertThat(imported).hasSize(8);
+    assertThat(maxRunning.get()).isAtMost(2);
+  }
+
+  @Test
+  public void propagatesFailure() {
+    Exporter<TokenAuthData, IdOnlyContainerResource> delegate = exporter;
+    exporter =
+        (id, authData, exportInformation) -> {
+          if (exportInformation.isPresent()
+              && exportInformation.get().getPaginationData() == null
+              && exportInformation.get().getContainerResource() != null
+              && "album2"
+                  .equals(
+                      ((IdOnlyContainerResource) exportInformation.get().getContainerResource())
+                          .getId())) {
+            throw new IOException("Export failed");
+          }
+          return delegate.export(id, authData, exportInformation);
+        };
+    PortabilityParallelInMemoryDataCopier copier = createCopier(1);
+
+    assertThrows(
+        CopyException.class, () -> copier.copy(AUTH_DATA, AUTH_DATA, jobId, Optional.empty()));
+    // Nothing is copied once a task failed
+    assertThat(imported).doesNotContain("album3");
+  }
+
+  @Test
+  public void reportsCancellationAsIs() {
+    importer =
+        (id, executor, authData, data) -> {
+          imported.add(data.getId());
+          cancellationToken.cancel();
+          return ImportResult.OK;
+        };
+    PortabilityParallelInMemoryDataCopier copier = createCopier(4);
+
+    assertThrows(
+        CancellationException.class,
+        () -> copier.copy(AUTH_DATA, AUTH_DATA, jobId, Optional.empty()));
+    assertThat(imported).containsExactly("root");
+  }
+
+  private PortabilityParallelInMemoryDataCopier createCopier(int parallelism) {
+    Monitor monitor = new Monitor() {};
+    JobContext jobContext =
+        new JobContext(
+            jobId,
+            "instanceId",
+            new byte[0],
+            "PHOTOS",
+            "exportService",
+            "importService",
+            Stopwatch.createStarted());
+    when(context.getSetting("copierParallelism", 4)).thenReturn(parallelism);
+    return new PortabilityParallelInMemoryDataCopier(
+        () -> exporter,
+        () -> importer,
+        () -> new RetryStrategyLibrary(ImmutableList.of(), new NoRetryStrategy()),
+        monitor,
+        new InMemoryIdempotentImportExecutor(monitor),
+        metricRecorder,
+        new JobCountsFlushingService(
+            new LocalJobStore(),
+            jobContext,
+            Scheduler.newFixedDelaySchedule(1, 1, TimeUnit.MINUTES),
+            monitor),
+        jobContext,
+        cancellationToken,
+        false,
+        context);
+  }
+
+  /** Exports a root with two pages and three albums of two pages each. */
+  private ExportResult<IdOnlyContainerResource> export(
+      UUID id, TokenAuthData authData, Optional<ExportInformation> exportInformation) {
+    if (!exportInformation.isPresent()) {
+      ContinuationData continuationData =
+          new ContinuationData(new StringPaginationToken("root:page2"));
+      for (String album : ALBUMS) {
+        continuationData.addContainerResource(new IdOnlyContainerResource(album));
+      }
+      return new ExportResult<>(
+          ResultType.CONTINUE, new IdOnlyContainerResource("root"), continuationData);
+    }
+    if (exportInformation.get().getPaginationData() != null) {
+      String page =
+          ((StringPaginationToken) exportInformation.get().getPaginationData()).getToken();
+      return new ExportResult<>(ResultType.END, new IdOnlyContainerResource(page), null);
+    }
+    String album =
+        ((IdOnlyContainerResource) exportInformation.get().getContainerResource()).getId();
+    return new ExportResult<>(
+        ResultType.CONTINUE,
+        new IdOnlyContainerResource(album),
+        new ContinuationData(new StringPaginationToken(album + ":page2")));
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.transfer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractScheduledService.Scheduler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import org.datatransferproject.api.launcher.DtpInternalMetricRecorder;
+import org.datatransferproject.api.launcher.ExtensionContext;
+import org.datatransferproject.api.launcher.Monitor;
+import org.datatransferproject.cloud.local.LocalJobStore;
+import org.datatransferproject.spi.transfer.idempotentexecutor.InMemoryIdempotentImportExecutor;
+import org.datatransferproject.spi.transfer.provider.ExportResult;
+import org.datatransferproject.spi.transfer.provider.ExportResult.ResultType;
+import org.datatransferproject.spi.transfer.provider.Exporter;
+import org.datatransferproject.spi.transfer.provider.ImportResult;
+import org.datatransferproject.spi.transfer.provider.Importer;
+import org.datatransferproject.spi.transfer.types.ContinuationData;
+import org.datatransferproject.spi.transfer.types.CopyException;
+import org.datatransferproject.spi.transfer.types.DestinationMemoryFullException;
+import org.datatransferproject.types.common.ExportInformation;
+import org.datatransferproject.types.common.StringPaginationToken;
+import org.datatransferproject.types.common.models.IdOnlyContainerResource;
+import org.datatransferproject.types.transfer.auth.TokenAuthData;
+import org.datatransferproject.types.transfer.retry.CancellationToken;
+import org.datatransferproject.types.transfer.retry.NoRetryStrategy;
+import org.datatransferproject.types.transfer.retry.RetryStrategyLibrary;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PortabilityPipelinedInMemoryDataCopierTest {
+
+  private static final TokenAuthData AUTH_DATA = new TokenAuthData("token");
+
+  @Mock private DtpInternalMetricRecorder metricRecorder;
+  @Mock private ExtensionContext context;
+
+  // Written by both pipeline stages
+  private final List<String> exported = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> imported = Collections.synchronizedList(new ArrayList<>());
+  private final UUID jobId = UUID.randomUUID();
+  private final CancellationToken cancellationToken = new CancellationToken();
+  private Exporter<TokenAuthData, IdOnlyContainerResource> exporter;
+  private Importer<TokenAuthData, IdOnlyContainerResource> importer;
+  private PortabilityPipelinedInMemoryDataCopier copier;
+
+  @Before
+  public void setUp() {
+    Monitor monitor = new Monitor() {};
+    exporter = this::export;
+    importer =
+        (id, executor, authData, data) -> {
+          imported.add(data.getId());
+          return ImportResult.OK;
+        };
+    JobContext jobContext =
+        new JobContext(
+            jobId,
+            "instanceId",
+            new byte[0],
+            "PHOTOS",
+            "exportService",
+            "importService",
+            Stopwatch.createStarted());
+    when(context.getSetting("copierPipelineDepth", 2)).thenReturn(1);
+    copier =
+        new PortabilityPipelinedInMemoryDataCopier(
+            () -> exporter,
+            () -> importer,
+            () -> new RetryStrategyLibrary(ImmutableList.of(), new NoRetryStrategy()),
+            monitor,
+            new InMemoryIdempotentImportExecutor(monitor),
+            metricRecorder,
+            new JobCountsFlushingService(
+                new LocalJobStore(),
+                jobContext,
+                Scheduler.newFixedDelaySchedule(1, 1, TimeUnit.MINUTES),
+                monitor),
+            jobContext,
+            cancellationToken,
+            false,
+            context);
+  }
+
+  @Test
+  public void importsPagesInExportOrder() throws Exception {
+    copier.copy(AUTH_DATA, AUTH_DATA, jobId, Optional.empty());
+
+    assertThat(exported).containsExactly("root", "root:page2", "album1", "album2").inOrder();
+    assertThat(imported).containsExactlyElementsIn(exported).inOrder();
+  }
+
+  @Test
+  public void propagatesExportFailure() {
+    Exporter<TokenAuthData, IdOnlyContainerResource> delegate = exporter;
+    exporter =
+        (id, authData, exportInformation) -> {
+          if (exportInformation.isPresent()
+              && exportInformation.get().getContainerResource() != null
+              && exportInformation.get().getPaginationData() == null) {
+            throw new IOException("Export failed");
+          }
+          return delegate.export(id, authData, exportInformation);
+        };
+
+    assertThrows(
+        CopyException.class, () -> copier.copy(AUTH_DATA, AUTH_DATA, jobId, Optional.empty()));
+    // The pages exported before the failure are still imported
+    assertThat(imported).containsExactly("root", "root:page2").inOrder();
+  }
+
+  @Test
+  public void stopsExportingOnceImportFails() {
+    // An endless pagination chain, only stopped by the import stage bailing out
+    exporter =
+        (id, authData, exportInformation) -> {
+          String page =
+              exportInformation.isPresent()
+                  ? ((StringPaginationToken) exportInformation.get().getPaginationData())
+                      .getToken()
+                  : "0";
+          exported.add(page);
+          return new ExportResult<>(
+              ResultType.CONTINUE,
+              new IdOnlyContainerResource(page),
+              new ContinuationData(
+                  new StringPaginationToken(Integer.toString(Integer.parseInt(page) + 1))));
+        };
+    importer =
+        (id, executor, authData, data) -> {
+          throw new DestinationMemoryFullException("Destination full", null);
+        };
+
+    assertThrows(
+        DestinationMemoryFullException.class,
+        () -> copier.copy(AUTH_DATA, AUTH_DATA, jobId, Optional.empty()));
+    // The failed page, the one queued and the one waiting to be queued
+    assertThat(exported.size()).isAtMost(3);
+  }
+
+  @Test
+  public void reportsCancellationAsIs() {
+    importer =
+        (id, executor, authData, data) -> {
+          imported.add(data.getId());
+          cancellationToken.cancel();
+          return ImportResult.OK;
+        };
+
+    assertThrows(
+        CancellationException.class,
+        () -> copier.copy(AUTH_DATA, AUTH_DATA, jobId, Optional.empty()));
+    assertThat(imported).containsExactly("root");
+  }
+
+  private ExportResult<IdOnlyContainerResource> export(
+      UUID id, TokenAuthData authData, Optional<ExportInformation> exportInformation) {
+    String name;
+    ContinuationData continuationData = null;
+    if (!exportInformation.isPresent()) {
+      name = "root";
+      continuationData = new ContinuationData(new StringPaginationToken("page2"));
+      continuationData.addContainerResource(new IdOnlyContainerResource("album1"));
+      continuationData.addContainerResource(new IdOnlyContainerResource("album2"));
+    } else if (exportInformation.get().getPaginationData() != null) {
+      name =
+          "root:"
+              + ((StringPaginationToken) exportInformation.get().getPaginationData()).getToken();
+    } else {
+      name = ((IdOnlyContainerResource) exportInformation.get().getContainerResource()).getId();
+    }
+    exported.add(name);
+    return new ExportResult<>(
+        continuationData == null ? ResultType.END : ResultType.CONTINUE,
+        new IdOnlyContainerResource(name),
+        continuationData);
+  }
+}
@@ -11,6 +11,8 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
 public class WorkerModuleTest {
@@ -45,6 +47,26 @@ public class WorkerModuleTest {
                 () -> WorkerModule.findTransferExtension(transferExtensions, "FOO"));
     }
 
+    @Test public void getInMemoryDataCopierClass() {
+        ExtensionContext context = mock(ExtensionContext.class);
+        when(context.getSetting("copier", "serial")).thenReturn("serial");
+        assertThat(WorkerModule.getInMemoryDataCopierClass(context))
+                .isEqualTo(PortabilityInMemoryDataCopier.class);
+        when(context.getSetting("copier", "serial")).thenReturn("Pipelined");
+        assertThat(WorkerModule.getInMemoryDataCopierClass(context))
+                .isEqualTo(PortabilityPipelinedInMemoryDataCopier.class);
+        when(context.getSetting("copier", "serial")).thenReturn("parallel");
+        assertThat(WorkerModule.getInMemoryDataCopierClass(context))
+                .isEqualTo(PortabilityParallelInMemoryDataCopier.class);
+    }
+
+    @Test public void getInMemoryDataCopierClass_unknown() {
+        ExtensionContext context = mock(ExtensionContext.class);
+        when(context.getSetting("copier", "serial")).thenReturn("bogus");
+        assertThrows(IllegalStateException.class,
+                () -> WorkerModule.getInMemoryDataCopierClass(context));
+    }
+
     private static TransferExtension createTransferExtension(String serviceId) {
         return new TransferExtension() {
             @Override
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.types.client.transfer;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModel;
+
+/** Request the progress of a transfer job. */
+@ApiModel(description = "Returns the progress of a data transfer job")
+public class GetTransferJobProgress {
+  private final String id;
+
+  @JsonCreator
+  public GetTransferJobProgress(@JsonProperty(value = "id", required = true) String id) {
+    this.id = id;
+  }
+
+  public String getId() {
+    return id;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.datatransferproject.types.client.transfer;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import java.util.Map;
+
+/**
+ * The progress of a transfer job, as last reported by its worker. All values are zero until the
+ * worker first reports progress.
+ */
+@ApiModel(description = "The progress of a data transfer job")
+public class TransferJobProgress {
+  private final String id;
+  private final Map<String, Integer> counts;
+  private final long bytes;
+  private final long pages;
+  private final double pagesPerSecond;
+  private final double bytesPerSecond;
+  private final Long estimatedSecondsRemaining;
+  private final Long updated;
+
+  @JsonCreator
+  public TransferJobProgress(
+      @JsonProperty(value = "id", required = true) String id,
+      @JsonProperty("counts") Map<String, Integer> counts,
+      @JsonProperty("bytes") long bytes,
+      @JsonProperty("pages") long pages,
+      @JsonProperty("pagesPerSecond") double pagesPerSecond,
+      @JsonProperty("bytesPerSecond") double bytesPerSecond,
+      @JsonProperty("estimatedSecondsRemaining") Long estimatedSecondsRemaining,
+      @JsonProperty("updated") Long updated) {
+    this.id = id;
+    this.counts = counts;
+    this.bytes = bytes;
+    this.pages = pages;
+    this.pagesPerSecond = pagesPerSecond;
+    this.bytesPerSecond = bytesPerSecond;
+    this.estimatedSecondsRemaining = estimatedSecondsRemaining;
+    this.updated = updated;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  @ApiModelProperty(value = "The number of items imported, by item type")
+  public Map<String, Integer> getCounts() {
+    return counts;
+  }
+
+  @ApiModelProperty(value = "The number of bytes imported")
+  public long getBytes() {
+    return bytes;
+  }
+
+  @ApiModelProperty(value = "The number of pages imported")
+  public long getPages() {
+    return pages;
+  }
+
+  @ApiModelProperty(value = "The rate pages are currently imported at")
+  public double getPagesPerSecond() {
+    return pagesPerSecond;
+  }
+
+  @ApiModelProperty(value = "The rate bytes are currently imported at")
+  public double getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  @ApiModelProperty(value = "The estimated time until the job is done, missing if unknown")
+  public Long getEstimatedSecondsRemaining() {
+    return estimatedSecondsRemaining;
+  }
+
+  @ApiModelProperty(value = "When the progress was reported, in ms since the epoch, if it was")
+  public Long getUpdated() {
+    return updated;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.datatransferproject.types.transfer.executor;
+
+import com.google.common.base.Preconditions;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A {@link TransferExecutor} that runs at most a given number of tasks at a time on a delegate
+ * executor. Further tasks are queued rather than blocking the caller, and are run in the order
+ * they were submitted as running tasks finish.
+ */
+public final class ConcurrencyLimitedTransferExecutor implements TransferExecutor {
+  private final TransferExecutor delegate;
+  private final Semaphore permits;
+  private final Queue<Runnable> queued = new ConcurrentLinkedQueue<>();
+
+  /** @param maxConcurrentTasks the number of tasks run at most at a time */
+  public ConcurrencyLimitedTransferExecutor(TransferExecutor delegate, int maxConcurrentTasks) {
+    Preconditions.checkArgument(maxConcurrentTasks > 0, "maxConcurrentTasks must be positive");
+    this.delegate = delegate;
+    this.permits = new Semaphore(maxConcurrentTasks);
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    queued.add(task);
+    runQueued();
+  }
+
+  /**
+   * Runs queued tasks while permits are available. Called after queueing a task and after
+   * releasing a permit, so a task queued while all permits were taken is run once one is released.
+   */
+  private void runQueued() {
+    while (!queued.isEmpty() && permits.tryAcquire()) {
+      Runnable task = queued.poll();
+      if (task == null) {
+        // Taken by a concurrent call
+        permits.release();
+        continue;
+      }
+      try {
+        delegate.execute(
+            () -> {
+              try {
+                task.run();
+              } finally {
+                permits.release();
+                runQueued();
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        permits.release();
+        throw e;
+      }
+    }
+  }
+}
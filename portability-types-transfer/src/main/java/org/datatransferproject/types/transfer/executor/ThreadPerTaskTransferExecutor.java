@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.datatransferproject.types.transfer.executor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A {@link TransferExecutor} that runs every task on a thread of its own, as tasks spend most of
+ * their time blocked on I/O.
+ *
+ * <p>Tasks run on virtual threads on JVMs that have them (Java 21 and later), so blocked tasks are
+ * cheap. Otherwise they run on platform threads that are reused once idle, and the number of tasks
+ * running at a time should be bounded, e.g. with a {@link ConcurrencyLimitedTransferExecutor}.
+ */
+public final class ThreadPerTaskTransferExecutor implements TransferExecutor {
+  private final ExecutorService executorService;
+  private final boolean virtualThreads;
+
+  private ThreadPerTaskTransferExecutor(ExecutorService executorService, boolean virtualThreads) {
+    this.executorService = executorService;
+    this.virtualThreads = virtualThreads;
+  }
+
+  /** Creates an executor running tasks on virtual threads if available. */
+  public static ThreadPerTaskTransferExecutor create() {
+    ExecutorService virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+    if (virtualThreadExecutor != null) {
+      return new ThreadPerTaskTransferExecutor(virtualThreadExecutor, true);
+    }
+    return createWithPlatformThreads();
+  }
+
+  /** Creates an executor running tasks on platform threads. */
+  public static ThreadPerTaskTransferExecutor createWithPlatformThreads() {
+    return new ThreadPerTaskTransferExecutor(
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("transfer-io-%d").setDaemon(true).build()),
+        false);
+  }
+
+  /** Returns whether tasks run on virtual threads. */
+  public boolean usesVirtualThreads() {
+    return virtualThreads;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    executorService.execute(task);
+  }
+
+  /** Returns a virtual thread per task executor, or null if the JVM doesn't have virtual threads. */
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    // Looked up reflectively, as DTP is built for Java 8
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.datatransferproject.types.transfer.executor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the blocking I/O of transfer extensions, such as item uploads, concurrently.
+ *
+ * <p>Extensions get the executor of their service from their {@code ExtensionContext}. It bounds
+ * the number of tasks of the service running at a time, further tasks are queued until a running
+ * one finishes. Tasks should still draw from the service's rate limiter.
+ */
+public interface TransferExecutor extends Executor {
+
+  /**
+   * Runs {@code task}, and returns a future completed with its result. The task isn't run if the
+   * future is cancelled before the task is started.
+   */
+  default <T> CompletableFuture<T> submit(Callable<T> task) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    execute(
+        () -> {
+          if (future.isDone()) {
+            return;
+          }
+          try {
+            future.complete(task.call());
+          } catch (Throwable t) {
+            future.completeExceptionally(t);
+          }
+        });
+    return future;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.datatransferproject.types.transfer.retry;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signals that a job was canceled to the code copying it. Cancellation is cooperative: long
+ * running work checks the token between steps with {@link #throwIfCanceled()}, and waits with
+ * {@link #sleep(long)} so a wait ends as soon as the job is canceled.
+ *
+ * <p>A token can only be canceled once, and is safe to use from several threads.
+ */
+public final class CancellationToken {
+
+  /** A token that is never canceled, for work that can't be canceled. */
+  public static final CancellationToken NONE = new CancellationToken();
+
+  private final CountDownLatch canceled = new CountDownLatch(1);
+
+  /** Cancels the work this token was handed to. */
+  public void cancel() {
+    if (this == NONE) {
+      throw new UnsupportedOperationException("CancellationToken.NONE can't be canceled");
+    }
+    canceled.countDown();
+  }
+
+  public boolean isCanceled() {
+    return canceled.getCount() == 0;
+  }
+
+  /** @throws CancellationException if the token was canceled */
+  public void throwIfCanceled() {
+    if (isCanceled()) {
+      throw new CancellationException("Job was canceled");
+    }
+  }
+
+  /**
+   * Sleeps for {@code millis}, unless the token is canceled in the meantime.
+   *
+   * @throws CancellationException if the token was canceled before or while sleeping
+   */
+  public void sleep(long millis) throws InterruptedException {
+    if (canceled.await(millis, TimeUnit.MILLISECONDS)) {
+      throw new CancellationException("Job was canceled");
+    }
+  }
+}
@@ -22,11 +22,16 @@ import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import org.datatransferproject.api.launcher.Monitor;
 
 /**
  * Class for retrying a {@link Callable} given a {@link RetryStrategyLibrary}.
  *
+ * <p>Retries stop as soon as the {@link CancellationToken} the callable was created with is
+ * canceled, including while waiting for the next attempt, by throwing a {@link
+ * CancellationException}.
+ *
  * @param <T> The type that the inner {@link Callable} returns.
  */
 public class RetryingCallable<T> implements Callable<T> {
@@ -37,6 +42,7 @@ public class RetryingCallable<T> implements Callable<T> {
   private final Monitor monitor;
   private final String dataType;
   private final String service;
+  private final CancellationToken cancellationToken;
 
   private volatile int attempts;
   private volatile Exception mostRecentException;
@@ -48,12 +54,24 @@ public class RetryingCallable<T> implements Callable<T> {
       Monitor monitor,
       String dataType,
       String service) {
+    this(callable, retryStrategyLibrary, clock, monitor, dataType, service, CancellationToken.NONE);
+  }
+
+  public RetryingCallable(
+      Callable<T> callable,
+      RetryStrategyLibrary retryStrategyLibrary,
+      Clock clock,
+      Monitor monitor,
+      String dataType,
+      String service,
+      CancellationToken cancellationToken) {
     this.callable = callable;
     this.retryStrategyLibrary = retryStrategyLibrary;
     this.clock = clock;
     this.monitor = monitor;
     this.dataType = dataType;
     this.service = service;
+    this.cancellationToken = cancellationToken;
     this.attempts = 0;
   }
 
@@ -61,10 +79,12 @@ public class RetryingCallable<T> implements Callable<T> {
    * Tries to call the {@link Callable} given the class's {@link RetryStrategyLibrary}.
    *
    * @return Whatever is returned by the {@link Callable}.
+   * @throws CancellationException if the token was canceled
    */
   @Override
   public T call() throws RetryException {
     while (true) {
+      cancellationToken.throwIfCanceled();
       Instant start = clock.instant();
       attempts++;
       try {
@@ -75,6 +95,10 @@ public class RetryingCallable<T> implements Callable<T> {
                     attempts, service, dataType));
         return callable.call();
       } catch (Exception e) {
+        if (cancellationToken.isCanceled()) {
+          // The failure is most likely caused by the cancellation, not worth retrying
+          throw new CancellationException("Job was canceled");
+        }
         mostRecentException = e;
         monitor.info(() -> "RetryingCallable caught an exception", e);
         long elapsedMillis = Duration.between(start, clock.instant()).toMillis();
@@ -96,7 +120,7 @@ public class RetryingCallable<T> implements Callable<T> {
                       nextAttemptIntervalMillis, elapsedMillis));
           if (nextAttemptIntervalMillis > 0L) {
             try {
-              Thread.sleep(nextAttemptIntervalMillis);
+              cancellationToken.sleep(nextAttemptIntervalMillis);
               // wait is now complete, retry
             } catch (InterruptedException ie) {
               currentThread().interrupt();
@@ -32,7 +32,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public final class TransferServiceConfig {
   private static final ObjectMapper YAML_OBJECT_MAPPER = new ObjectMapper(new YAMLFactory());
 
+  private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+
   private final RateLimiter rateLimiter;
+  private final int maxConcurrentRequests;
 
   public static TransferServiceConfig create(InputStream s) throws IOException {
     return new TransferServiceConfig(
@@ -43,12 +46,16 @@ public final class TransferServiceConfig {
   public static TransferServiceConfig getDefaultInstance() {
     return new TransferServiceConfig(
         new TransferServiceConfigSpecification(
-            Double.MAX_VALUE));
+            Double.MAX_VALUE, null));
   }
 
   private TransferServiceConfig(TransferServiceConfigSpecification specification) {
     checkNotNull(specification, "specification can't be null");
     rateLimiter = RateLimiter.create(specification.getPerUserRateLimit());
+    maxConcurrentRequests =
+        specification.getMaxConcurrentRequests() != null
+            ? specification.getMaxConcurrentRequests()
+            : DEFAULT_MAX_CONCURRENT_REQUESTS;
   }
 
   /**
@@ -58,4 +65,13 @@ public final class TransferServiceConfig {
   public RateLimiter getPerUserRateLimiter() {
     return rateLimiter;
   }
+
+  /**
+   * The number of requests to the service a worker makes at most at a time, as specified in the
+   * config/[service].yaml config file, which bounds the tasks of the service's {@code
+   * TransferExecutor}.
+   **/
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
 }
@@ -27,16 +27,32 @@ public class TransferServiceConfigSpecification {
   @JsonProperty("perUserRateLimit")
   private final double perUserRateLimit;
 
+  @JsonProperty("maxConcurrentRequests")
+  private final Integer maxConcurrentRequests;
+
   public TransferServiceConfigSpecification(
-      @JsonProperty("perUserRateLimit") double perUserRateLimit) {
+      @JsonProperty("perUserRateLimit") double perUserRateLimit,
+      @JsonProperty("maxConcurrentRequests") Integer maxConcurrentRequests) {
     Preconditions.checkArgument(
         perUserRateLimit > 0,
         "perUserRateLimit must be greater than zero");
+    Preconditions.checkArgument(
+        maxConcurrentRequests == null || maxConcurrentRequests > 0,
+        "maxConcurrentRequests must be greater than zero");
     this.perUserRateLimit = perUserRateLimit;
+    this.maxConcurrentRequests = maxConcurrentRequests;
   }
 
   /** The number of operations per second allowed for a user. **/
   public double getPerUserRateLimit() {
     return perUserRateLimit;
   }
+
+  /**
+   * The number of requests to the service a worker makes at most at a time, across its jobs, or
+   * null for the default.
+   **/
+  public Integer getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 The Data Transfer Project Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.datatransferproject.types.transfer.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class ConcurrencyLimitedTransferExecutorTest {
+
+  @Test
+  public void runsAtMostMaxConcurrentTasks() throws Exception {
+    TransferExecutor executor =
+        new ConcurrencyLimitedTransferExecutor(
+            ThreadPerTaskTransferExecutor.createWithPlatformThreads(), 2);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    List<CompletableFuture<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      int task = i;
+      results.add(
+          executor.submit(
+              () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                release.await();
+                running.decrementAndGet();
+                return task;
+              }));
+    }
+
+    release.countDown();
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, (int) results.get(i).get(10, TimeUnit.SECONDS));
+    }
+    assertTrue("Expected at most 2 tasks to run at a time", maxRunning.get() <= 2);
+  }
+
+  @Test
+  public void completesFutureExceptionallyWhenTaskFails() throws Exception {
+    TransferExecutor executor =
+        new ConcurrencyLimitedTransferExecutor(
+            ThreadPerTaskTransferExecutor.createWithPlatformThreads(), 1);
+
+    CompletableFuture<Object> failed =
+        executor.submit(
+            () -> {
+              throw new IllegalStateException("failed");
+            });
+    CompletableFuture<String> next = executor.submit(() -> "next");
+
+    assertEquals("next", next.get(10, TimeUnit.SECONDS));
+    assertTrue(failed.isCompletedExceptionally());
+  }
+}